@@ -0,0 +1,106 @@
+package engine.graphix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Font;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the glyph pages of the Latin-1 characters from scratch: one
+ * coverage page per text size, as before distance fields, against a single
+ * distance field page at {@link #DISTANCE_FIELD_SIZE} that serves every
+ * size. The pages are created on a {@link RecordingDevice}, the bytes of the
+ * rows uploaded per build are printed when the trial ends. Run with
+ * <code>-Djava.awt.headless=true</code> on a machine without a display.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class FontTextureBenchmark {
+
+    private static final String CHARSET = "ISO-8859-1";
+
+    /**
+     * Text sizes the game used to keep a coverage page for
+     */
+    private static final int[] BITMAP_SIZES = {12, 16, 24, 32, 48, 64};
+
+    private static final int DISTANCE_FIELD_SIZE = 32;
+
+    private RecordingDevice device;
+
+    private String chars;
+
+    private long builds;
+
+    private long uploadedBytes;
+
+    @Setup
+    public void setup() {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(device);
+        StringBuilder text = new StringBuilder();
+        for (char c = 0x20; c <= 0xFF; c++) {
+            if (c < 0x7F || c >= 0xA0) {
+                text.append(c);
+            }
+        }
+        chars = text.toString();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetUploads() {
+        device.reset();
+        builds = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void countUploads() {
+        uploadedBytes = builds > 0 ? device.getUploadedBytes() / builds : 0;
+    }
+
+    @TearDown
+    public void printUploads() {
+        System.out.printf("%n%.2f MB of glyph rows per build%n", uploadedBytes / (1024.0 * 1024.0));
+    }
+
+    @Benchmark
+    public int bitmapPages() throws Exception {
+        int glyphs = 0;
+        for (int size : BITMAP_SIZES) {
+            glyphs += build(size, 0);
+        }
+        builds++;
+        return glyphs;
+    }
+
+    @Benchmark
+    public int distanceFieldPage() throws Exception {
+        builds++;
+        return build(DISTANCE_FIELD_SIZE, FontTexture.DEFAULT_SPREAD);
+    }
+
+    private int build(int size, int spread) throws Exception {
+        FontTexture fontTexture = new FontTexture(new Font(Font.SANS_SERIF, Font.PLAIN, size), CHARSET,
+                FontTexture.DEFAULT_PAGE_SIZE, null, spread);
+        fontTexture.preload(chars);
+        fontTexture.getTexture();
+        int glyphs = fontTexture.getGlyphCount();
+        fontTexture.cleanup();
+        return glyphs;
+    }
+}
@@ -0,0 +1,136 @@
+package engine.graphix;
+
+import org.joml.Vector2f;
+import org.joml.Vector3f;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The OBJ loader before the byte level parser, kept as the baseline of
+ * {@link OBJLoaderBenchmark}: every line is read into a String and split
+ * with regexes, vertices are boxed into vectors. It stops where the old
+ * loader created the mesh and returns the arrays it uploaded.
+ */
+class LegacyOBJLoader {
+
+    static Result load(Path path) throws Exception {
+        List<String> lines = Files.readAllLines(path);
+
+        List<Vector3f> vertices = new ArrayList<>();
+        List<Vector2f> textures = new ArrayList<>();
+        List<Vector3f> normals = new ArrayList<>();
+        List<IdxGroup[]> faces = new ArrayList<>();
+
+        for (String line : lines) {
+            String[] tokens = line.split("\\s+");
+            switch (tokens[0]) {
+                case "v":
+                    vertices.add(new Vector3f(
+                            Float.parseFloat(tokens[1]),
+                            Float.parseFloat(tokens[2]),
+                            Float.parseFloat(tokens[3])));
+                    break;
+                case "vt":
+                    textures.add(new Vector2f(
+                            Float.parseFloat(tokens[1]),
+                            Float.parseFloat(tokens[2])));
+                    break;
+                case "vn":
+                    normals.add(new Vector3f(
+                            Float.parseFloat(tokens[1]),
+                            Float.parseFloat(tokens[2]),
+                            Float.parseFloat(tokens[3])));
+                    break;
+                case "f":
+                    faces.add(new IdxGroup[]{
+                            IdxGroup.parse(tokens[1]), IdxGroup.parse(tokens[2]), IdxGroup.parse(tokens[3])});
+                    break;
+                default:
+                    break;
+            }
+        }
+        return reorderLists(vertices, textures, normals, faces);
+    }
+
+    private static Result reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
+                                       List<Vector3f> normList, List<IdxGroup[]> facesList) {
+        List<Integer> indices = new ArrayList<>();
+        float[] posArr = new float[posList.size() * 3];
+        int i = 0;
+        for (Vector3f pos : posList) {
+            posArr[i * 3] = pos.x;
+            posArr[i * 3 + 1] = pos.y;
+            posArr[i * 3 + 2] = pos.z;
+            i++;
+        }
+        float[] textCoordArr = new float[posList.size() * 2];
+        float[] normArr = new float[posList.size() * 3];
+
+        for (IdxGroup[] face : facesList) {
+            for (IdxGroup indValue : face) {
+                int posIndex = indValue.idxPos;
+                indices.add(posIndex);
+                if (indValue.idxTextCoord >= 0) {
+                    Vector2f textCoord = textCoordList.get(indValue.idxTextCoord);
+                    textCoordArr[posIndex * 2] = textCoord.x;
+                    textCoordArr[posIndex * 2 + 1] = 1 - textCoord.y;
+                }
+                if (indValue.idxVecNormal >= 0) {
+                    Vector3f vecNorm = normList.get(indValue.idxVecNormal);
+                    normArr[posIndex * 3] = vecNorm.x;
+                    normArr[posIndex * 3 + 1] = vecNorm.y;
+                    normArr[posIndex * 3 + 2] = vecNorm.z;
+                }
+            }
+        }
+        int[] indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
+        return new Result(posArr, textCoordArr, normArr, indicesArr);
+    }
+
+    static class Result {
+
+        final float[] positions;
+
+        final float[] texCoords;
+
+        final float[] normals;
+
+        final int[] indices;
+
+        private Result(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+            this.positions = positions;
+            this.texCoords = texCoords;
+            this.normals = normals;
+            this.indices = indices;
+        }
+    }
+
+    private static class IdxGroup {
+
+        private static final int NO_VALUE = -1;
+
+        private int idxPos = NO_VALUE;
+
+        private int idxTextCoord = NO_VALUE;
+
+        private int idxVecNormal = NO_VALUE;
+
+        private static IdxGroup parse(String line) {
+            IdxGroup idxGroup = new IdxGroup();
+            String[] lineTokens = line.split("/");
+            int length = lineTokens.length;
+            idxGroup.idxPos = Integer.parseInt(lineTokens[0]) - 1;
+            if (length > 1) {
+                String textCoord = lineTokens[1];
+                idxGroup.idxTextCoord = textCoord.length() > 0 ? Integer.parseInt(textCoord) - 1 : NO_VALUE;
+                if (length > 2) {
+                    idxGroup.idxVecNormal = Integer.parseInt(lineTokens[2]) - 1;
+                }
+            }
+            return idxGroup;
+        }
+    }
+}
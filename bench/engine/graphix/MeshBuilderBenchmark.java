@@ -0,0 +1,126 @@
+package engine.graphix;
+
+import game.meshes.SphereMesh;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generating a sphere and a line of text quads up to the data that is
+ * uploaded, with the old boxed lists and with {@link MeshBuilder}. Run with
+ * <code>-prof gc</code>, gc.alloc.rate.norm is the heap allocated per mesh.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshBuilderBenchmark {
+
+    private static final float CHAR_WIDTH = 7.0f;
+
+    private static final float CHAR_HEIGHT = 16.0f;
+
+    private static final float ATLAS_WIDTH = 512.0f;
+
+    /**
+     * Width and height segments of the sphere, and characters of the text
+     * divided by three
+     */
+    @Param({"32", "128"})
+    public int size;
+
+    @Benchmark
+    public int[] sphereLists() {
+        LegacySphereMesh sphere = new LegacySphereMesh(1.0f, size);
+        sphere.getVertices();
+        sphere.getTexCoords();
+        sphere.getNormals();
+        return sphere.getIndices();
+    }
+
+    @Benchmark
+    public int sphereBuilder() {
+        MeshBuilder builder = new SphereMesh(1.0f, size, size).getBuilder();
+        int indexCount = builder.getIndexCount();
+        builder.free();
+        return indexCount;
+    }
+
+    /**
+     * The quads of the old TextItem.buildMesh, copied from boxed lists into
+     * arrays.
+     */
+    @Benchmark
+    public int[] textLists() {
+        int numChars = size * 3;
+        List<Float> positions = new ArrayList<>();
+        List<Float> textCoords = new ArrayList<>();
+        List<Integer> indices = new ArrayList<>();
+        float startx = 0;
+        for (int i = 0; i < numChars; i++) {
+            float u0 = i % 64 * CHAR_WIDTH / ATLAS_WIDTH;
+            float u1 = u0 + CHAR_WIDTH / ATLAS_WIDTH;
+            addCorner(positions, textCoords, startx, 0.0f, u0, 0.0f);
+            addCorner(positions, textCoords, startx, CHAR_HEIGHT, u0, 1.0f);
+            addCorner(positions, textCoords, startx + CHAR_WIDTH, CHAR_HEIGHT, u1, 1.0f);
+            addCorner(positions, textCoords, startx + CHAR_WIDTH, 0.0f, u1, 0.0f);
+            for (int k = 0; k < 4; k++) {
+                indices.add(i * 4 + k);
+            }
+            indices.add(i * 4);
+            indices.add(i * 4 + 2);
+            startx += CHAR_WIDTH;
+        }
+        float[] posArr = new float[positions.size()];
+        for (int i = 0; i < posArr.length; i++) {
+            posArr[i] = positions.get(i);
+        }
+        float[] textCoordsArr = new float[textCoords.size()];
+        for (int i = 0; i < textCoordsArr.length; i++) {
+            textCoordsArr[i] = textCoords.get(i);
+        }
+        return indices.stream().mapToInt(i -> i).toArray();
+    }
+
+    private static void addCorner(List<Float> positions, List<Float> textCoords, float x, float y, float u, float v) {
+        positions.add(x);
+        positions.add(y);
+        positions.add(0.0f);
+        textCoords.add(u);
+        textCoords.add(v);
+    }
+
+    @Benchmark
+    public int textBuilder() {
+        int numChars = size * 3;
+        MeshBuilder builder = new MeshBuilder(VertexFormat.FLOAT, numChars * 4, numChars * 6);
+        float startx = 0;
+        for (int i = 0; i < numChars; i++) {
+            float u0 = i % 64 * CHAR_WIDTH / ATLAS_WIDTH;
+            float u1 = u0 + CHAR_WIDTH / ATLAS_WIDTH;
+            int topLeft = builder.addVertex(startx, 0.0f, 0.0f, u0, 0.0f, 0.0f, 0.0f, 0.0f);
+            int bottomLeft = builder.addVertex(startx, CHAR_HEIGHT, 0.0f, u0, 1.0f, 0.0f, 0.0f, 0.0f);
+            int bottomRight = builder.addVertex(startx + CHAR_WIDTH, CHAR_HEIGHT, 0.0f, u1, 1.0f, 0.0f, 0.0f, 0.0f);
+            int topRight = builder.addVertex(startx + CHAR_WIDTH, 0.0f, 0.0f, u1, 0.0f, 0.0f, 0.0f, 0.0f);
+            builder.addTriangle(topLeft, bottomLeft, bottomRight);
+            builder.addTriangle(topRight, topLeft, bottomRight);
+            startx += CHAR_WIDTH;
+        }
+        int indexCount = builder.getIndexCount();
+        builder.free();
+        return indexCount;
+    }
+}
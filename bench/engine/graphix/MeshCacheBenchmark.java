@@ -0,0 +1,97 @@
+package engine.graphix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Loading a mesh with an empty {@link MeshCache}, which parses, welds,
+ * optimizes, simplifies and stores it, against loading it from the stored
+ * entry. The meshes are created on a {@link RecordingDevice}, so only the
+ * CPU side is measured. Run from the project directory.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshCacheBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Model {
+
+        /**
+         * A bundled model, or "synthetic" for a generated 200x200 grid
+         */
+        @Param({"palm_tree", "pier", "streetlamp", "synthetic"})
+        public String model;
+
+        private String fileName;
+
+        private Path directory;
+
+        @Setup
+        public void setup() throws IOException {
+            Graphics.setDevice(new RecordingDevice(false));
+            fileName = model.equals("synthetic") ? SyntheticObj.write(200).toString()
+                    : "src/resources/models/" + model + ".obj";
+            directory = Files.createTempDirectory("meshes");
+            directory.toFile().deleteOnExit();
+            OBJLoader.setMeshCache(new MeshCache(directory.toString()));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ColdCache {
+
+        @Setup(Level.Invocation)
+        public void empty(Model model) throws IOException {
+            try (Stream<Path> entries = Files.list(model.directory)) {
+                for (Path entry : (Iterable<Path>) entries::iterator) {
+                    Files.delete(entry);
+                }
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class WarmCache {
+
+        @Setup
+        public void fill(Model model) throws Exception {
+            OBJLoader.loadMesh(model.fileName).cleanUp();
+        }
+    }
+
+    @Benchmark
+    public int cold(Model model, ColdCache cache) throws Exception {
+        return load(model);
+    }
+
+    @Benchmark
+    public int warm(Model model, WarmCache cache) throws Exception {
+        return load(model);
+    }
+
+    private static int load(Model model) throws Exception {
+        Mesh mesh = OBJLoader.loadMesh(model.fileName);
+        int vertexCount = mesh.getVertexCount();
+        mesh.cleanUp();
+        return vertexCount;
+    }
+}
@@ -0,0 +1,79 @@
+package engine.graphix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reordering the triangles of a welded {@link SyntheticObj} grid for the
+ * vertex cache and then its vertices for fetching, as {@link MeshOptimizer}
+ * does for every loaded mesh. The triangles are shuffled first, like the
+ * output of a tool that does not care about their order. The cache
+ * statistics before and after are printed once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshOptimizerBenchmark {
+
+    /**
+     * Vertices along each side of the synthetic grid
+     */
+    @Param({"100", "500"})
+    public int size;
+
+    private int[] indices;
+
+    private int vertexCount;
+
+    @Setup
+    public void setup() throws Exception {
+        Path path = SyntheticObj.write(size);
+        OBJParser parser = new OBJParser();
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            parser.parse(buffer, 0, buffer.limit());
+        }
+        VertexWelder welder = new VertexWelder(parser.getPositions(), parser.getTexCoords(), parser.getNormals(),
+                parser.getFaceIndices());
+        indices = welder.getIndices();
+        vertexCount = welder.getVertexCount();
+        Random random = new Random(42);
+        for (int t = indices.length / 3 - 1; t > 0; t--) {
+            int other = random.nextInt(t + 1);
+            for (int c = 0; c < 3; c++) {
+                int swap = indices[t * 3 + c];
+                indices[t * 3 + c] = indices[other * 3 + c];
+                indices[other * 3 + c] = swap;
+            }
+        }
+        int[] optimized = optimize();
+        System.out.printf("%n%d triangles, before: %s, after: %s%n", indices.length / 3,
+                MeshOptimizer.analyze(indices, vertexCount), MeshOptimizer.analyze(optimized, vertexCount));
+    }
+
+    @Benchmark
+    public int[] optimize() {
+        int[] optimized = MeshOptimizer.optimizeVertexCache(indices, vertexCount);
+        MeshOptimizer.optimizeVertexFetch(optimized, vertexCount);
+        return optimized;
+    }
+}
@@ -0,0 +1,65 @@
+package engine.graphix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing an OBJ file into the arrays that are uploaded, with the old line
+ * splitting loader and with {@link OBJParser} followed by welding.
+ * Run from the project directory, the models are read from
+ * src/resources/models.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OBJLoaderBenchmark {
+
+    /**
+     * A bundled model, or "synthetic" for a generated 300x300 grid of about 12 MB
+     */
+    @Param({"palm_tree", "pier", "synthetic"})
+    public String model;
+
+    private Path path;
+
+    @Setup
+    public void setup() throws Exception {
+        path = model.equals("synthetic") ? SyntheticObj.write(300)
+                : Paths.get("src/resources/models/" + model + ".obj");
+    }
+
+    @Benchmark
+    public LegacyOBJLoader.Result lineSplitting() throws Exception {
+        return LegacyOBJLoader.load(path);
+    }
+
+    @Benchmark
+    public VertexWelder byteParser() throws Exception {
+        OBJParser parser = new OBJParser();
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            parser.parse(buffer, 0, buffer.limit());
+        }
+        return new VertexWelder(parser.getPositions(), parser.getTexCoords(), parser.getNormals(),
+                parser.getFaceIndices());
+    }
+}
@@ -0,0 +1,81 @@
+package engine.graphix;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a large OBJ file on the calling thread against parsing it in
+ * chunks on the common fork-join pool, like {@link OBJLoader} does for files
+ * over its threshold. The default grid of 1200x1200 vertices is about 300 MB.
+ * To see how the parse scales, run it with different pool sizes, e.g.
+ * {@code -jvmArgsAppend -Djava.util.concurrent.ForkJoinPool.common.parallelism=2}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class OBJParallelBenchmark {
+
+    /**
+     * Vertices along each side of the synthetic grid
+     */
+    @Param({"1200"})
+    public int size;
+
+    /**
+     * Chunks per worker of the common pool, 0 to parse on the calling thread
+     */
+    @Param({"0", "1", "4"})
+    public int chunksPerWorker;
+
+    private Path path;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    @Setup
+    public void setup() throws Exception {
+        path = SyntheticObj.write(size);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        System.out.printf("%n%.0f MB, %d workers%n", channel.size() / (1024.0 * 1024.0),
+                ForkJoinPool.getCommonPoolParallelism());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Benchmark
+    public OBJParser parse() {
+        if (chunksPerWorker == 0) {
+            OBJParser parser = new OBJParser();
+            parser.parse(buffer, 0, buffer.limit());
+            return parser;
+        }
+        return OBJLoader.parseChunked(buffer, ForkJoinPool.getCommonPoolParallelism() * chunksPerWorker);
+    }
+}
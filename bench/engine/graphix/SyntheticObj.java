@@ -0,0 +1,49 @@
+package engine.graphix;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Writes a large OBJ file for the benchmarks: a wavy grid of quads, each
+ * split into two triangles with position, texture coordinate and normal
+ * indices, like the exports of modelling tools.
+ */
+class SyntheticObj {
+
+    /**
+     * @param size Vertices along each side of the grid
+     * @return A temporary file, deleted when the JVM exits
+     */
+    static Path write(int size) throws IOException {
+        Path path = Files.createTempFile("synthetic", ".obj");
+        path.toFile().deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    float height = (float) (Math.sin(x * 0.1) * Math.cos(y * 0.1));
+                    writer.write(String.format(Locale.ROOT, "v %.6f %.6f %.6f%n", x * 0.5f, height, y * 0.5f));
+                    writer.write(String.format(Locale.ROOT, "vt %.6f %.6f%n",
+                            x / (float) (size - 1), y / (float) (size - 1)));
+                    writer.write(String.format(Locale.ROOT, "vn %.6f %.6f %.6f%n", -height * 0.3f, 1.0f,
+                            height * 0.3f));
+                }
+            }
+            for (int y = 0; y < size - 1; y++) {
+                for (int x = 0; x < size - 1; x++) {
+                    int a = y * size + x + 1;
+                    int b = a + 1;
+                    int c = a + size;
+                    int d = c + 1;
+                    writer.write("f " + a + "/" + a + "/" + a + " " + b + "/" + b + "/" + b + " "
+                            + d + "/" + d + "/" + d + "\n");
+                    writer.write("f " + a + "/" + a + "/" + a + " " + d + "/" + d + "/" + d + " "
+                            + c + "/" + c + "/" + c + "\n");
+                }
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,134 @@
+package game;
+
+import engine.Window;
+import engine.graphix.Camera;
+import engine.graphix.DirectionalLight;
+import engine.graphix.Graphics;
+import engine.graphix.Material;
+import engine.graphix.Mesh;
+import engine.graphix.PointLight;
+import engine.graphix.RecordingDevice;
+import engine.graphix.Scene;
+import engine.graphix.SceneLight;
+import engine.graphix.SkyBox;
+import engine.graphix.StateCache;
+import engine.graphix.Texture;
+import engine.items.GameItem;
+import org.joml.Vector3f;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering a frame of 2000 items of 20 meshes with 5 point lights on a
+ * {@link RecordingDevice}, so only the CPU side of
+ * {@link Renderer3D#render} is measured. Run with <code>-prof gc</code>,
+ * gc.alloc.rate.norm is the heap allocated per frame. Run from the project
+ * directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class Renderer3DBenchmark {
+
+    private static final int MESHES = 20;
+
+    private static final int ITEMS = 2000;
+
+    private static final int POINT_LIGHTS = 5;
+
+    private static final float[] QUAD_POSITIONS = {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0};
+
+    private static final float[] QUAD_TEX_COORDS = {0, 0, 1, 0, 0, 1, 1, 1};
+
+    private static final float[] QUAD_NORMALS = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+
+    private static final int[] QUAD_INDICES = {0, 1, 2, 1, 3, 2};
+
+    /**
+     * If the meshes draw their items instanced
+     */
+    @Param({"false", "true"})
+    public boolean instanced;
+
+    private RecordingDevice device;
+
+    private Window window;
+
+    private Renderer3D renderer;
+
+    private Camera camera;
+
+    private Scene scene;
+
+    @Setup
+    public void setup() throws Exception {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(new StateCache(device));
+        window = new Window("benchmark", 1280, 720, false);
+        renderer = new Renderer3D();
+        renderer.init(window);
+        camera = new Camera();
+
+        File textureFile = File.createTempFile("texture", ".png");
+        textureFile.deleteOnExit();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB), "png", textureFile);
+        // Half the meshes share a texture, the others have their own
+        Texture shared = new Texture(textureFile.getPath());
+        Mesh[] meshes = new Mesh[MESHES];
+        for (int i = 0; i < MESHES; i++) {
+            meshes[i] = new Mesh(QUAD_POSITIONS, QUAD_TEX_COORDS, QUAD_NORMALS, QUAD_INDICES);
+            meshes[i].setInstanced(instanced);
+            meshes[i].setMaterial(new Material(i % 2 == 0 ? shared : new Texture(textureFile.getPath()), 0.5f));
+        }
+        GameItem[] items = new GameItem[ITEMS];
+        for (int i = 0; i < ITEMS; i++) {
+            items[i] = new GameItem(meshes[i % MESHES]);
+            items[i].setPosition(i % 50, i / 50, -5);
+        }
+        scene = new Scene();
+        scene.setGameItems(items);
+        scene.setSkyBox(new SkyBox("src/resources/models/cube.obj", textureFile.getPath()));
+
+        SceneLight light = new SceneLight();
+        light.setAmbientLight(new Vector3f(0.3f));
+        light.setSkyBoxLight(new Vector3f(1.0f));
+        PointLight[] pointLights = new PointLight[POINT_LIGHTS];
+        for (int i = 0; i < POINT_LIGHTS; i++) {
+            pointLights[i] = new PointLight(new Vector3f(1.0f), new Vector3f(i, 1, -3), 1.0f,
+                    new PointLight.Attenuation(0, 0, 1));
+        }
+        light.setPointLightList(pointLights);
+        light.setDirectionalLight(new DirectionalLight(new Vector3f(1.0f), new Vector3f(0, 1, 0), 1.0f));
+        scene.setSceneLight(light);
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.cleanup();
+    }
+
+    @Benchmark
+    public long render() {
+        device.reset();
+        renderer.render(window, camera, scene);
+        return device.getCommandCount();
+    }
+}
@@ -0,0 +1,105 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of primitive floats. Used instead of <code>List&lt;Float&gt;</code>
+ * on hot paths so that no value is ever boxed.
+ */
+public class FloatArrayList {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private float[] data;
+
+    private int size;
+
+    public FloatArrayList() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FloatArrayList(int initialCapacity) {
+        data = new float[Math.max(initialCapacity, 1)];
+        size = 0;
+    }
+
+    public void add(float value) {
+        if (size == data.length) {
+            grow(size + 1);
+        }
+        data[size++] = value;
+    }
+
+    public void add(float x, float y) {
+        ensureCapacity(size + 2);
+        data[size++] = x;
+        data[size++] = y;
+    }
+
+    public void add(float x, float y, float z) {
+        ensureCapacity(size + 3);
+        data[size++] = x;
+        data[size++] = y;
+        data[size++] = z;
+    }
+
+    public void addAll(FloatArrayList other) {
+        ensureCapacity(size + other.size);
+        System.arraycopy(other.data, 0, data, size, other.size);
+        size += other.size;
+    }
+
+    public float get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return data[index];
+    }
+
+    public void set(int index, float value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        data[index] = value;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            grow(capacity);
+        }
+    }
+
+    /**
+     * Gives direct access to the backing array. Only the first {@link #size()}
+     * elements are valid.
+     *
+     * @return The backing array
+     */
+    public float[] elements() {
+        return data;
+    }
+
+    /**
+     * @return A trimmed copy of the list contents
+     */
+    public float[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+
+    private void grow(int minCapacity) {
+        int newCapacity = Math.max(data.length + (data.length >> 1), minCapacity);
+        data = Arrays.copyOf(data, newCapacity);
+    }
+}
@@ -0,0 +1,131 @@
+package engine;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive longs to non negative ints. Keys are
+ * stored in a flat array and probed linearly, so lookups neither box nor
+ * allocate.
+ */
+public class LongIntHashMap {
+
+    public static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    private int[] values;
+
+    private int mask;
+
+    private int size;
+
+    private int resizeThreshold;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Creates a map that can hold <code>expectedSize</code> entries without
+     * rehashing.
+     *
+     * @param expectedSize Expected number of entries
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSizeFor((int) Math.min(Integer.MAX_VALUE >> 1, (long) (expectedSize / LOAD_FACTOR) + 1)));
+    }
+
+    /**
+     * @param key Key to look up
+     * @return The value mapped to the key or {@link #NO_VALUE}
+     */
+    public int get(long key) {
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Maps the key to the value unless it is already mapped.
+     *
+     * @param key   Key to insert
+     * @param value Non negative value
+     * @return The value already mapped to the key or {@link #NO_VALUE} if the
+     * value was inserted
+     */
+    public int putIfAbsent(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        int slot = hash(key) & mask;
+        while (values[slot] != NO_VALUE) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(values, NO_VALUE);
+        size = 0;
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != NO_VALUE) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (values[slot] != NO_VALUE) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, NO_VALUE);
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int tableSizeFor(int n) {
+        return Math.max(16, Integer.highestOneBit(Math.max(n - 1, 1)) << 1);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads the packed index bits over the whole
+     * word so that linear probing does not cluster.
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
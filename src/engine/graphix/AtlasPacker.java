@@ -0,0 +1,147 @@
+package engine.graphix;
+
+import java.util.Arrays;
+
+/**
+ * Packs rectangles into a fixed size page with the skyline bottom-left
+ * heuristic. The skyline is the top edge of the packed area, stored as
+ * horizontal segments from left to right. A rectangle goes where its top ends
+ * lowest, on ties where it leaves the least area empty below it, so rows of
+ * similar heights fill up before the skyline rises.
+ * <p>
+ * Rectangles are never moved once placed. Packing them tallest first gives the
+ * densest pages.
+ */
+public class AtlasPacker {
+
+    private final int width;
+
+    private final int height;
+
+    /**
+     * Segments of the skyline, three ints each: x, y and width.
+     */
+    private int[] skyline = new int[48];
+
+    private int segmentCount;
+
+    private long usedArea;
+
+    public AtlasPacker(int width, int height) {
+        this.width = width;
+        this.height = height;
+        skyline[2] = width;
+        segmentCount = 1;
+    }
+
+    /**
+     * Finds a place for a rectangle and reserves it.
+     *
+     * @param rectWidth  Width of the rectangle
+     * @param rectHeight Height of the rectangle
+     * @param dest       Receives x and y of the top left corner
+     * @return False if the rectangle does not fit, nothing is reserved then
+     */
+    public boolean pack(int rectWidth, int rectHeight, int[] dest) {
+        int bestSegment = -1;
+        int bestTop = Integer.MAX_VALUE;
+        long bestWaste = Long.MAX_VALUE;
+        for (int i = 0; i < segmentCount && skyline[i * 3] + rectWidth <= width; i++) {
+            // The rectangle rests on the highest segment it spans
+            int y = 0;
+            for (int j = i, remaining = rectWidth; remaining > 0; j++) {
+                y = Math.max(y, skyline[j * 3 + 1]);
+                remaining -= skyline[j * 3 + 2];
+            }
+            int top = y + rectHeight;
+            if (top > height || top > bestTop) {
+                continue;
+            }
+            // Area left empty below the rectangle
+            long waste = 0;
+            for (int j = i, remaining = rectWidth; remaining > 0; j++) {
+                int span = Math.min(remaining, skyline[j * 3 + 2]);
+                waste += (long) (y - skyline[j * 3 + 1]) * span;
+                remaining -= span;
+            }
+            if (top < bestTop || waste < bestWaste) {
+                bestSegment = i;
+                bestTop = top;
+                bestWaste = waste;
+            }
+        }
+        if (bestSegment < 0) {
+            return false;
+        }
+        dest[0] = skyline[bestSegment * 3];
+        dest[1] = bestTop - rectHeight;
+        raise(bestSegment, rectWidth, bestTop);
+        usedArea += (long) rectWidth * rectHeight;
+        return true;
+    }
+
+    /**
+     * Raises the skyline to <code>top</code> over <code>rectWidth</code>
+     * from the start of segment <code>index</code>.
+     */
+    private void raise(int index, int rectWidth, int top) {
+        int x = skyline[index * 3];
+        int end = x + rectWidth;
+        // Segments covered completely go away, one covered partly is shortened
+        int last = index;
+        while (last < segmentCount && skyline[last * 3] + skyline[last * 3 + 2] <= end) {
+            last++;
+        }
+        if (last < segmentCount && skyline[last * 3] < end) {
+            skyline[last * 3 + 2] -= end - skyline[last * 3];
+            skyline[last * 3] = end;
+        }
+        // Segments index to last - 1 become the new one
+        int removed = last - index - 1;
+        if (removed < 0) {
+            if ((segmentCount + 1) * 3 > skyline.length) {
+                skyline = Arrays.copyOf(skyline, skyline.length * 2);
+            }
+            System.arraycopy(skyline, index * 3, skyline, index * 3 + 3, (segmentCount - index) * 3);
+            segmentCount++;
+        } else if (removed > 0) {
+            System.arraycopy(skyline, last * 3, skyline, (index + 1) * 3, (segmentCount - last) * 3);
+            segmentCount -= removed;
+        }
+        skyline[index * 3] = x;
+        skyline[index * 3 + 1] = top;
+        skyline[index * 3 + 2] = rectWidth;
+        merge();
+    }
+
+    /**
+     * Joins neighbouring segments of the same height.
+     */
+    private void merge() {
+        int out = 0;
+        for (int i = 1; i < segmentCount; i++) {
+            if (skyline[i * 3 + 1] == skyline[out * 3 + 1]) {
+                skyline[out * 3 + 2] += skyline[i * 3 + 2];
+            } else {
+                out++;
+                System.arraycopy(skyline, i * 3, skyline, out * 3, 3);
+            }
+        }
+        segmentCount = out + 1;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return Fraction of the page covered by packed rectangles
+     */
+    public float getOccupancy() {
+        return usedArea / (float) ((long) width * height);
+    }
+}
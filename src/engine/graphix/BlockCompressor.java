@@ -0,0 +1,785 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.stream.IntStream;
+
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT1_EXT;
+import static org.lwjgl.opengl.EXTTextureCompressionS3TC.GL_COMPRESSED_RGBA_S3TC_DXT5_EXT;
+import static org.lwjgl.opengl.GL42.GL_COMPRESSED_RGBA_BPTC_UNORM;
+
+/**
+ * Encodes RGBA8 images into GPU block compressed formats, 4x4 texels per
+ * block:
+ * <ul>
+ * <li>BC1, 8 bytes per block: two RGB565 colours and 2 bit indices, texels
+ * with alpha below 128 become transparent black</li>
+ * <li>BC3, 16 bytes per block: a BC1 colour block plus two alpha values and
+ * 3 bit indices</li>
+ * <li>BC7, 16 bytes per block: mode 6 only, two RGBA endpoints of 7 bits plus
+ * a shared low bit each and 4 bit indices. The other modes partition blocks
+ * and would need a much slower search, mode 6 alone already beats BC3 on
+ * smooth images</li>
+ * </ul>
+ * {@link Quality#FAST} takes the endpoints from the bounding box of the
+ * block, {@link Quality#HIGH} from its principal axis and then refines them
+ * by least squares for the chosen indices. Rows of blocks are encoded in
+ * parallel. Everything is plain Java, so encoding, the software
+ * {@link #decode(Format, ByteBuffer, int, int, ByteBuffer) decoder} and
+ * {@link #computePsnr(ByteBuffer, ByteBuffer, int, int) PSNR} work without an
+ * OpenGL context.
+ */
+public class BlockCompressor {
+
+    /**
+     * A block compressed format.
+     */
+    public enum Format {
+        BC1(8, GL_COMPRESSED_RGBA_S3TC_DXT1_EXT),
+        BC3(16, GL_COMPRESSED_RGBA_S3TC_DXT5_EXT),
+        BC7(16, GL_COMPRESSED_RGBA_BPTC_UNORM);
+
+        private final int blockSize;
+
+        private final int glInternalFormat;
+
+        Format(int blockSize, int glInternalFormat) {
+            this.blockSize = blockSize;
+            this.glInternalFormat = glInternalFormat;
+        }
+
+        /**
+         * @return Size of one 4x4 block in bytes
+         */
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getGlInternalFormat() {
+            return glInternalFormat;
+        }
+
+        /**
+         * @return Size in bytes of an image of this format
+         */
+        public int computeSize(int width, int height) {
+            return ((width + 3) / 4) * ((height + 3) / 4) * blockSize;
+        }
+    }
+
+    /**
+     * Trade off between encoding speed and image quality.
+     */
+    public enum Quality {
+        FAST,
+        HIGH
+    }
+
+    private static final int REFINE_ITERATIONS = 2;
+
+    private static final int POWER_ITERATIONS = 8;
+
+    /**
+     * Skip mask for blocks where every texel counts, never written.
+     */
+    private static final boolean[] NO_SKIP = new boolean[16];
+
+    private static final int[] BC7_WEIGHTS = {0, 4, 9, 13, 17, 21, 26, 30, 34, 38, 43, 47, 51, 55, 60, 64};
+
+    private static final float[] BC7_FACTORS = new float[16];
+
+    static {
+        for (int i = 0; i < 16; i++) {
+            BC7_FACTORS[i] = BC7_WEIGHTS[i] / 64.0f;
+        }
+    }
+
+    private final Format format;
+
+    private final Quality quality;
+
+    public BlockCompressor(Format format, Quality quality) {
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Encodes an image.
+     *
+     * @param image  RGBA8 pixels, tightly packed, from the buffer position
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @param dest   Receives {@link Format#computeSize(int, int)} bytes from
+     *               its position, which is not modified
+     */
+    public void encode(ByteBuffer image, int width, int height, ByteBuffer dest) {
+        ByteBuffer src = image.slice();
+        ByteBuffer out = dest.slice().order(ByteOrder.LITTLE_ENDIAN);
+        int blocksX = (width + 3) / 4;
+        int blocksY = (height + 3) / 4;
+        IntStream rows = IntStream.range(0, blocksY);
+        // A single row of blocks is not worth the fork
+        if (blocksY > 1) {
+            rows = rows.parallel();
+        }
+        rows.forEach(by -> {
+            int[] block = new int[64];
+            for (int bx = 0; bx < blocksX; bx++) {
+                readBlock(src, width, height, bx, by, block);
+                int offset = (by * blocksX + bx) * format.blockSize;
+                switch (format) {
+                    case BC1:
+                        out.putLong(offset, encodeColour(block, true));
+                        break;
+                    case BC3:
+                        out.putLong(offset, encodeAlpha(block));
+                        out.putLong(offset + 8, encodeColour(block, false));
+                        break;
+                    default:
+                        encodeBc7(block, out, offset);
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Encodes every level of a mip chain.
+     *
+     * @param chain RGBA8 levels
+     * @param dest  Receives the encoded levels, at least
+     *              {@link MipChain#computeSize(int, int, Format)} bytes from
+     *              its position
+     * @return The encoded chain, backed by <code>dest</code>
+     */
+    public MipChain encode(MipChain chain, ByteBuffer dest) {
+        MipChain encoded = new MipChain(dest, chain.getWidth(0), chain.getHeight(0), format);
+        for (int level = 0; level < chain.getLevelCount(); level++) {
+            ByteBuffer target = dest.duplicate();
+            target.position(dest.position() + encoded.getOffset(level));
+            encode(chain.getLevel(level), chain.getWidth(level), chain.getHeight(level), target);
+        }
+        return encoded;
+    }
+
+    /**
+     * Copies a 4x4 block into <code>block</code>, 4 ints per texel, repeating
+     * the last row and column past the edges of the image.
+     */
+    private static void readBlock(ByteBuffer src, int width, int height, int bx, int by, int[] block) {
+        for (int y = 0; y < 4; y++) {
+            int sy = Math.min(by * 4 + y, height - 1);
+            for (int x = 0; x < 4; x++) {
+                int sx = Math.min(bx * 4 + x, width - 1);
+                int p = (sy * width + sx) * 4;
+                int t = (y * 4 + x) * 4;
+                for (int c = 0; c < 4; c++) {
+                    block[t + c] = src.get(p + c) & 0xFF;
+                }
+            }
+        }
+    }
+
+    // ---- BC1 colour block ----
+
+    private long encodeColour(int[] block, boolean punchThrough) {
+        boolean[] transparent = new boolean[16];
+        int opaque = 0;
+        for (int i = 0; i < 16; i++) {
+            transparent[i] = punchThrough && block[i * 4 + 3] < 128;
+            if (!transparent[i]) {
+                opaque++;
+            }
+        }
+        if (opaque == 0) {
+            // Three colour mode with every index on transparent black
+            return 0xFFFFFFFFL << 32;
+        }
+        boolean threeColour = opaque < 16;
+
+        float[] lo = new float[4];
+        float[] hi = new float[4];
+        findEndpoints(block, transparent, 3, lo, hi);
+        float[] weights = threeColour ? new float[]{0, 1, 0.5f} : new float[]{0, 1, 1 / 3.0f, 2 / 3.0f};
+        int[] indices = new int[16];
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+        int iterations = quality == Quality.HIGH ? REFINE_ITERATIONS : 0;
+        for (int iteration = 0; iteration <= iterations; iteration++) {
+            int c0 = toRgb565(hi);
+            int c1 = toRgb565(lo);
+            // Four colour mode needs c0 > c1, three colour mode c0 <= c1
+            if (threeColour ? c0 > c1 : c0 < c1) {
+                int swap = c0;
+                c0 = c1;
+                c1 = swap;
+                float[] swapped = hi;
+                hi = lo;
+                lo = swapped;
+            }
+            // With c0 == c1 the decoder is in three colour mode, index 3 must not be used
+            boolean fourColour = c0 > c1;
+            int[] palette = bc1Palette(c0, c1, fourColour);
+            long error = assignIndices(block, transparent, palette, 3, fourColour ? 4 : 3, indices);
+            if (error < bestError) {
+                bestError = error;
+                long bits = 0;
+                for (int i = 0; i < 16; i++) {
+                    bits |= (long) (transparent[i] ? 3 : indices[i]) << (i * 2);
+                }
+                best = c0 | ((long) c1 << 16) | (bits << 32);
+            }
+            // Index 0 stands for c0, which comes from hi
+            if (iteration < iterations && !refine(block, transparent, indices, weights, 3, hi, lo)) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    private static int toRgb565(float[] colour) {
+        int r = clamp(Math.round(colour[0] * 31 / 255.0f), 31);
+        int g = clamp(Math.round(colour[1] * 63 / 255.0f), 63);
+        int b = clamp(Math.round(colour[2] * 31 / 255.0f), 31);
+        return (r << 11) | (g << 5) | b;
+    }
+
+    private static int[] expand565(int c) {
+        int r = (c >> 11) & 31;
+        int g = (c >> 5) & 63;
+        int b = c & 31;
+        return new int[]{(r << 3) | (r >> 2), (g << 2) | (g >> 4), (b << 3) | (b >> 2)};
+    }
+
+    /**
+     * @return Palette entries, 4 ints each with alpha left at 0
+     */
+    private static int[] bc1Palette(int c0, int c1, boolean fourColour) {
+        int[] e0 = expand565(c0);
+        int[] e1 = expand565(c1);
+        int[] palette = new int[16];
+        for (int c = 0; c < 3; c++) {
+            palette[c] = e0[c];
+            palette[4 + c] = e1[c];
+            if (fourColour) {
+                palette[8 + c] = (2 * e0[c] + e1[c]) / 3;
+                palette[12 + c] = (e0[c] + 2 * e1[c]) / 3;
+            } else {
+                palette[8 + c] = (e0[c] + e1[c]) / 2;
+            }
+        }
+        return palette;
+    }
+
+    // ---- BC3 alpha block ----
+
+    private long encodeAlpha(int[] block) {
+        int min = 255;
+        int max = 0;
+        int innerMin = 255;
+        int innerMax = 0;
+        for (int i = 0; i < 16; i++) {
+            int a = block[i * 4 + 3];
+            min = Math.min(min, a);
+            max = Math.max(max, a);
+            if (a != 0 && a != 255) {
+                innerMin = Math.min(innerMin, a);
+                innerMax = Math.max(innerMax, a);
+            }
+        }
+        if (min == max) {
+            return max;
+        }
+        long best = encodeAlpha(block, max, min);
+        // Six value mode spends two entries on exact 0 and 255, which helps cut outs with soft edges
+        if (quality == Quality.HIGH && innerMin <= innerMax) {
+            long six = encodeAlpha(block, innerMin, innerMax);
+            if (alphaError(block, six) < alphaError(block, best)) {
+                best = six;
+            }
+        }
+        return best;
+    }
+
+    private static long encodeAlpha(int[] block, int a0, int a1) {
+        int[] palette = alphaPalette(a0, a1);
+        long bits = 0;
+        for (int i = 0; i < 16; i++) {
+            int a = block[i * 4 + 3];
+            int bestIndex = 0;
+            int bestError = Integer.MAX_VALUE;
+            for (int j = 0; j < 8; j++) {
+                int error = Math.abs(palette[j] - a);
+                if (error < bestError) {
+                    bestError = error;
+                    bestIndex = j;
+                }
+            }
+            bits |= (long) bestIndex << (i * 3);
+        }
+        return a0 | (a1 << 8) | (bits << 16);
+    }
+
+    private static long alphaError(int[] block, long encoded) {
+        int[] palette = alphaPalette((int) (encoded & 0xFF), (int) ((encoded >> 8) & 0xFF));
+        long error = 0;
+        for (int i = 0; i < 16; i++) {
+            int d = palette[(int) ((encoded >>> (16 + i * 3)) & 7)] - block[i * 4 + 3];
+            error += d * d;
+        }
+        return error;
+    }
+
+    private static int[] alphaPalette(int a0, int a1) {
+        int[] palette = new int[8];
+        palette[0] = a0;
+        palette[1] = a1;
+        if (a0 > a1) {
+            for (int i = 1; i < 7; i++) {
+                palette[i + 1] = ((7 - i) * a0 + i * a1) / 7;
+            }
+        } else {
+            for (int i = 1; i < 5; i++) {
+                palette[i + 1] = ((5 - i) * a0 + i * a1) / 5;
+            }
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+        return palette;
+    }
+
+    // ---- BC7 mode 6 ----
+
+    private void encodeBc7(int[] block, ByteBuffer out, int offset) {
+        float[] lo = new float[4];
+        float[] hi = new float[4];
+        findEndpoints(block, NO_SKIP, 4, lo, hi);
+        int[] indices = new int[16];
+        int[] bestIndices = new int[16];
+        int[] bestEndpoints = new int[8];
+        int[] endpoints = new int[8];
+        long bestError = Long.MAX_VALUE;
+        int iterations = quality == Quality.HIGH ? REFINE_ITERATIONS : 0;
+        for (int iteration = 0; iteration <= iterations; iteration++) {
+            quantizeBc7(lo, endpoints, 0);
+            quantizeBc7(hi, endpoints, 4);
+            int[] palette = bc7Palette(endpoints);
+            long error = assignIndices(block, NO_SKIP, palette, 4, 16, indices);
+            if (error < bestError) {
+                bestError = error;
+                System.arraycopy(indices, 0, bestIndices, 0, 16);
+                System.arraycopy(endpoints, 0, bestEndpoints, 0, 8);
+            }
+            if (iteration < iterations && !refine(block, NO_SKIP, indices, BC7_FACTORS, 4, lo, hi)) {
+                break;
+            }
+        }
+
+        // The first index is stored with 3 bits, its top bit has to be 0
+        if (bestIndices[0] >= 8) {
+            for (int c = 0; c < 4; c++) {
+                int swap = bestEndpoints[c];
+                bestEndpoints[c] = bestEndpoints[4 + c];
+                bestEndpoints[4 + c] = swap;
+            }
+            for (int i = 0; i < 16; i++) {
+                bestIndices[i] = 15 - bestIndices[i];
+            }
+        }
+
+        BitWriter bits = new BitWriter();
+        bits.write(1 << 6, 7);
+        for (int c = 0; c < 4; c++) {
+            bits.write(bestEndpoints[c] >> 1, 7);
+            bits.write(bestEndpoints[4 + c] >> 1, 7);
+        }
+        bits.write(bestEndpoints[0] & 1, 1);
+        bits.write(bestEndpoints[4] & 1, 1);
+        bits.write(bestIndices[0], 3);
+        for (int i = 1; i < 16; i++) {
+            bits.write(bestIndices[i], 4);
+        }
+        out.putLong(offset, bits.low);
+        out.putLong(offset + 8, bits.high);
+    }
+
+    /**
+     * Quantizes an endpoint to 7 bits per channel plus a shared low bit,
+     * picking the low bit with the smaller error.
+     */
+    private static void quantizeBc7(float[] colour, int[] dest, int offset) {
+        float bestError = Float.MAX_VALUE;
+        for (int p = 0; p < 2; p++) {
+            float error = 0;
+            int[] values = new int[4];
+            for (int c = 0; c < 4; c++) {
+                int q = clamp(Math.round((colour[c] - p) / 2), 127);
+                values[c] = (q << 1) | p;
+                float d = values[c] - colour[c];
+                error += d * d;
+            }
+            if (error < bestError) {
+                bestError = error;
+                System.arraycopy(values, 0, dest, offset, 4);
+            }
+        }
+    }
+
+    /**
+     * @param endpoints Two 8 bit RGBA endpoints with their low bits
+     * @return 16 palette entries, 4 ints each
+     */
+    private static int[] bc7Palette(int[] endpoints) {
+        int[] palette = new int[64];
+        for (int i = 0; i < 16; i++) {
+            int w = BC7_WEIGHTS[i];
+            for (int c = 0; c < 4; c++) {
+                palette[i * 4 + c] = ((64 - w) * endpoints[c] + w * endpoints[4 + c] + 32) >> 6;
+            }
+        }
+        return palette;
+    }
+
+    // ---- Shared endpoint search ----
+
+    /**
+     * Finds two endpoints that span the texels of a block which are not
+     * skipped, along the bounding box diagonal or the principal axis.
+     *
+     * @param channels 3 for RGB, 4 for RGBA
+     */
+    private void findEndpoints(int[] block, boolean[] skip, int channels, float[] lo, float[] hi) {
+        float[] mean = new float[4];
+        int count = 0;
+        for (int i = 0; i < 16; i++) {
+            if (!skip[i]) {
+                for (int c = 0; c < channels; c++) {
+                    mean[c] += block[i * 4 + c];
+                }
+                count++;
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            mean[c] /= count;
+        }
+        float[] cov = new float[16];
+        for (int i = 0; i < 16; i++) {
+            if (skip[i]) {
+                continue;
+            }
+            for (int a = 0; a < channels; a++) {
+                float da = block[i * 4 + a] - mean[a];
+                for (int b = 0; b < channels; b++) {
+                    cov[a * 4 + b] += da * (block[i * 4 + b] - mean[b]);
+                }
+            }
+        }
+
+        if (quality == Quality.FAST) {
+            // Bounding box, with the diagonal flipped where a channel falls while green rises
+            for (int c = 0; c < channels; c++) {
+                lo[c] = 255;
+                hi[c] = 0;
+            }
+            for (int i = 0; i < 16; i++) {
+                if (!skip[i]) {
+                    for (int c = 0; c < channels; c++) {
+                        lo[c] = Math.min(lo[c], block[i * 4 + c]);
+                        hi[c] = Math.max(hi[c], block[i * 4 + c]);
+                    }
+                }
+            }
+            for (int c = 0; c < channels; c++) {
+                if (c != 1 && cov[c * 4 + 1] < 0) {
+                    float swap = lo[c];
+                    lo[c] = hi[c];
+                    hi[c] = swap;
+                }
+                // Inset by 1/16 of the range, the extremes rarely need to be hit exactly
+                float inset = (hi[c] - lo[c]) / 16;
+                lo[c] += inset;
+                hi[c] -= inset;
+            }
+            return;
+        }
+
+        // Principal axis by power iteration, starting from the widest channel
+        float[] axis = new float[4];
+        int widest = 0;
+        for (int c = 1; c < channels; c++) {
+            if (cov[c * 4 + c] > cov[widest * 4 + widest]) {
+                widest = c;
+            }
+        }
+        axis[widest] = 1;
+        for (int iteration = 0; iteration < POWER_ITERATIONS; iteration++) {
+            float[] next = new float[4];
+            float length = 0;
+            for (int a = 0; a < channels; a++) {
+                for (int b = 0; b < channels; b++) {
+                    next[a] += cov[a * 4 + b] * axis[b];
+                }
+                length += next[a] * next[a];
+            }
+            if (length == 0) {
+                break;
+            }
+            length = (float) Math.sqrt(length);
+            for (int c = 0; c < channels; c++) {
+                axis[c] = next[c] / length;
+            }
+        }
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (int i = 0; i < 16; i++) {
+            if (!skip[i]) {
+                float t = 0;
+                for (int c = 0; c < channels; c++) {
+                    t += (block[i * 4 + c] - mean[c]) * axis[c];
+                }
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+            }
+        }
+        for (int c = 0; c < channels; c++) {
+            lo[c] = clampFloat(mean[c] + axis[c] * min);
+            hi[c] = clampFloat(mean[c] + axis[c] * max);
+        }
+    }
+
+    /**
+     * Moves the endpoints to the least squares fit of the texels for the
+     * given indices.
+     *
+     * @param weights Position of each index between the first endpoint (0)
+     *                and the second one (1)
+     * @return False if the fit is degenerate and the endpoints are unchanged
+     */
+    private static boolean refine(int[] block, boolean[] skip, int[] indices, float[] weights, int channels,
+                                  float[] first, float[] second) {
+        float aa = 0;
+        float ab = 0;
+        float bb = 0;
+        float[] ax = new float[4];
+        float[] bx = new float[4];
+        for (int i = 0; i < 16; i++) {
+            if (skip[i] || indices[i] >= weights.length) {
+                continue;
+            }
+            float t = weights[indices[i]];
+            float s = 1 - t;
+            aa += s * s;
+            ab += s * t;
+            bb += t * t;
+            for (int c = 0; c < channels; c++) {
+                ax[c] += s * block[i * 4 + c];
+                bx[c] += t * block[i * 4 + c];
+            }
+        }
+        float det = aa * bb - ab * ab;
+        if (Math.abs(det) < 1e-6f) {
+            return false;
+        }
+        for (int c = 0; c < channels; c++) {
+            first[c] = clampFloat((bb * ax[c] - ab * bx[c]) / det);
+            second[c] = clampFloat((aa * bx[c] - ab * ax[c]) / det);
+        }
+        return true;
+    }
+
+    /**
+     * Picks the nearest palette entry for every texel that is not skipped.
+     *
+     * @param palette Entries of 4 ints, of which the first
+     *                <code>channels</code> are compared
+     *
+     * @return Sum of the squared errors
+     */
+    private static long assignIndices(int[] block, boolean[] skip, int[] palette, int channels, int entries,
+                                      int[] indices) {
+        long total = 0;
+        for (int i = 0; i < 16; i++) {
+            if (skip[i]) {
+                continue;
+            }
+            int bestIndex = 0;
+            int bestError = Integer.MAX_VALUE;
+            for (int j = 0; j < entries; j++) {
+                int error = 0;
+                for (int c = 0; c < channels; c++) {
+                    int d = palette[j * 4 + c] - block[i * 4 + c];
+                    error += d * d;
+                }
+                if (error < bestError) {
+                    bestError = error;
+                    bestIndex = j;
+                }
+            }
+            indices[i] = bestIndex;
+            total += bestError;
+        }
+        return total;
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(max, value));
+    }
+
+    private static float clampFloat(float value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    /**
+     * Writes a 128 bit block from the least significant bit up.
+     */
+    private static class BitWriter {
+
+        private long low;
+
+        private long high;
+
+        private int position;
+
+        private void write(int value, int count) {
+            for (int i = 0; i < count; i++, position++) {
+                long bit = (value >> i) & 1L;
+                if (position < 64) {
+                    low |= bit << position;
+                } else {
+                    high |= bit << (position - 64);
+                }
+            }
+        }
+    }
+
+    // ---- Software decoder ----
+
+    /**
+     * Decodes blocks back to RGBA8, the way the GPU samples them. BC7 blocks
+     * have to use mode 6, the only mode the encoder writes.
+     *
+     * @param format Format of the blocks
+     * @param blocks Encoded image, from the buffer position
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @param dest   Receives the RGBA8 pixels from its position
+     */
+    public static void decode(Format format, ByteBuffer blocks, int width, int height, ByteBuffer dest) {
+        ByteBuffer in = blocks.slice().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer out = dest.slice();
+        int blocksX = (width + 3) / 4;
+        int[] texels = new int[64];
+        for (int by = 0; by < (height + 3) / 4; by++) {
+            for (int bx = 0; bx < blocksX; bx++) {
+                int offset = (by * blocksX + bx) * format.blockSize;
+                switch (format) {
+                    case BC1:
+                        decodeColour(in.getLong(offset), true, texels);
+                        break;
+                    case BC3:
+                        decodeColour(in.getLong(offset + 8), false, texels);
+                        decodeAlpha(in.getLong(offset), texels);
+                        break;
+                    default:
+                        decodeBc7(in.getLong(offset), in.getLong(offset + 8), texels);
+                        break;
+                }
+                for (int y = 0; y < 4 && by * 4 + y < height; y++) {
+                    for (int x = 0; x < 4 && bx * 4 + x < width; x++) {
+                        int p = ((by * 4 + y) * width + bx * 4 + x) * 4;
+                        int t = (y * 4 + x) * 4;
+                        for (int c = 0; c < 4; c++) {
+                            out.put(p + c, (byte) texels[t + c]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private static void decodeColour(long bits, boolean bc1, int[] texels) {
+        int c0 = (int) (bits & 0xFFFF);
+        int c1 = (int) ((bits >>> 16) & 0xFFFF);
+        // BC3 colour blocks always use four colours
+        boolean fourColour = !bc1 || c0 > c1;
+        int[] palette = bc1Palette(c0, c1, fourColour);
+        for (int i = 0; i < 16; i++) {
+            int index = (int) ((bits >>> (32 + i * 2)) & 3);
+            boolean transparent = !fourColour && index == 3;
+            for (int c = 0; c < 3; c++) {
+                texels[i * 4 + c] = transparent ? 0 : palette[index * 4 + c];
+            }
+            texels[i * 4 + 3] = transparent ? 0 : 255;
+        }
+    }
+
+    private static void decodeAlpha(long bits, int[] texels) {
+        int[] palette = alphaPalette((int) (bits & 0xFF), (int) ((bits >>> 8) & 0xFF));
+        for (int i = 0; i < 16; i++) {
+            texels[i * 4 + 3] = palette[(int) ((bits >>> (16 + i * 3)) & 7)];
+        }
+    }
+
+    private static void decodeBc7(long low, long high, int[] texels) {
+        if ((low & 0x7F) != 1 << 6) {
+            throw new UnsupportedOperationException("Only BC7 mode 6 blocks can be decoded");
+        }
+        int[] endpoints = new int[8];
+        int position = 7;
+        for (int c = 0; c < 4; c++) {
+            endpoints[c] = readBits(low, high, position, 7) << 1;
+            endpoints[4 + c] = readBits(low, high, position + 7, 7) << 1;
+            position += 14;
+        }
+        int p0 = readBits(low, high, position++, 1);
+        int p1 = readBits(low, high, position++, 1);
+        for (int c = 0; c < 4; c++) {
+            endpoints[c] |= p0;
+            endpoints[4 + c] |= p1;
+        }
+        int[] palette = bc7Palette(endpoints);
+        for (int i = 0; i < 16; i++) {
+            int count = i == 0 ? 3 : 4;
+            int index = readBits(low, high, position, count);
+            position += count;
+            System.arraycopy(palette, index * 4, texels, i * 4, 4);
+        }
+    }
+
+    private static int readBits(long low, long high, int position, int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            int p = position + i;
+            long bit = p < 64 ? (low >>> p) & 1 : (high >>> (p - 64)) & 1;
+            value |= (int) bit << i;
+        }
+        return value;
+    }
+
+    /**
+     * Peak signal to noise ratio of two RGBA8 images over all four channels.
+     *
+     * @return PSNR in decibels, infinity for identical images
+     */
+    public static double computePsnr(ByteBuffer a, ByteBuffer b, int width, int height) {
+        long sum = 0;
+        int count = width * height * 4;
+        for (int i = 0; i < count; i++) {
+            int d = (a.get(a.position() + i) & 0xFF) - (b.get(b.position() + i) & 0xFF);
+            sum += d * d;
+        }
+        if (sum == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mse = sum / (double) count;
+        return 10 * Math.log10(255.0 * 255.0 / mse);
+    }
+}
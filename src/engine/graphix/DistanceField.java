@@ -0,0 +1,124 @@
+package engine.graphix;
+
+/**
+ * Signed distance fields of coverage masks, used for glyphs that stay sharp
+ * at every scale. A pixel is inside where its alpha is at least half. The
+ * distances are exact Euclidean distances between pixel centres, computed
+ * with the separable transform of Felzenszwalb and Huttenlocher in linear
+ * time, and moved by half a pixel so the outline lies between the last
+ * inside and the first outside pixel.
+ */
+public class DistanceField {
+
+    private static final float INFINITY = 1e20f;
+
+    private DistanceField() {
+    }
+
+    /**
+     * @param argb   Pixels, coverage in the top byte
+     * @param stride Pixels per row of <code>argb</code>
+     * @param width  Width of the mask
+     * @param height Height of the mask
+     * @param dest   Receives <code>width * height</code> distances in
+     *               pixels, positive inside
+     */
+    public static void compute(int[] argb, int stride, int width, int height, float[] dest) {
+        int size = width * height;
+        float[] toInside = new float[size];
+        float[] toOutside = new float[size];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean inside = (argb[y * stride + x] >>> 24) >= 128;
+                toInside[y * width + x] = inside ? 0 : INFINITY;
+                toOutside[y * width + x] = inside ? INFINITY : 0;
+            }
+        }
+        Transform transform = new Transform(Math.max(width, height));
+        transform.apply(toInside, width, height);
+        transform.apply(toOutside, width, height);
+        for (int i = 0; i < size; i++) {
+            dest[i] = toInside[i] == 0
+                    ? (float) Math.sqrt(toOutside[i]) - 0.5f
+                    : 0.5f - (float) Math.sqrt(toInside[i]);
+        }
+    }
+
+    /**
+     * Squared distance transform, first along the columns, then along the
+     * rows. Holds the scratch arrays of the one dimensional passes.
+     */
+    private static class Transform {
+
+        private final float[] f;
+
+        private final float[] d;
+
+        private final int[] v;
+
+        private final float[] z;
+
+        private Transform(int length) {
+            f = new float[length];
+            d = new float[length];
+            v = new int[length];
+            z = new float[length + 1];
+        }
+
+        private void apply(float[] grid, int width, int height) {
+            for (int x = 0; x < width; x++) {
+                boolean empty = true;
+                for (int y = 0; y < height; y++) {
+                    f[y] = grid[y * width + x];
+                    empty &= f[y] == INFINITY;
+                }
+                if (empty) {
+                    // Nothing to measure from in this column, it stays infinitely far
+                    continue;
+                }
+                transform(height);
+                for (int y = 0; y < height; y++) {
+                    grid[y * width + x] = d[y];
+                }
+            }
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(grid, y * width, f, 0, width);
+                transform(width);
+                System.arraycopy(d, 0, grid, y * width, width);
+            }
+        }
+
+        /**
+         * Lower envelope of the parabolas rooted at each sample of f.
+         */
+        private void transform(int n) {
+            int k = 0;
+            v[0] = 0;
+            z[0] = -INFINITY;
+            z[1] = INFINITY;
+            for (int q = 1; q < n; q++) {
+                float s = intersect(q, v[k]);
+                while (s <= z[k]) {
+                    k--;
+                    s = intersect(q, v[k]);
+                }
+                k++;
+                v[k] = q;
+                z[k] = s;
+                z[k + 1] = INFINITY;
+            }
+            k = 0;
+            for (int q = 0; q < n; q++) {
+                while (z[k + 1] < q) {
+                    k++;
+                }
+                float dq = q - v[k];
+                d[q] = dq * dq + f[v[k]];
+            }
+        }
+
+        private float intersect(int q, int p) {
+            return ((f[q] + q * q) - (f[p] + p * p)) / (2f * (q - p));
+        }
+    }
+}
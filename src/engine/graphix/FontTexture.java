@@ -1,129 +1,628 @@
 package engine.graphix;
 
-import java.io.InputStream;
 import java.awt.Color;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.stream.IntStream;
 
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Glyph cache of a font. Glyphs are rasterized the first time they are asked
+ * for and packed into a square page with an {@link AtlasPacker}, only the rows
+ * that changed are uploaded, as raw RGBA pixels, before the texture is used
+ * again. Every glyph is followed by a transparent texel to the right and
+ * below, so linear filtering never picks up its neighbours. Rows without
+ * glyphs are never uploaded.
+ * <p>
+ * With a <code>spread</code> the page holds signed distance fields instead of
+ * coverage: the alpha of a texel is 0.5 on the outline of the glyph and falls
+ * to 0 and rises to 1 <code>spread</code> texels outside and inside of it.
+ * A shader thresholding the alpha at 0.5 draws sharp glyphs at any scale, so
+ * one page serves every text size. The fields are computed from glyphs drawn
+ * {@link #UPSCALE} times larger, on all cores when several glyphs are added
+ * at once through {@link #preload(CharSequence)}.
+ * <p>
+ * The page and its glyph table can be kept on disk between runs, see
+ * {@link #save()}. Glyphs are packed again in the order they were added when
+ * the page is loaded, which puts them in the same places, so the packer can
+ * go on where the last run stopped.
+ * <p>
+ * File layout, all values in native byte order:
+ * <pre>
+ *  0  int    magic
+ *  4  int    version
+ *  8  int    page size
+ * 12  int    line height
+ * 16  int    glyph count
+ * 20  int    rows of pixels stored
+ * 24  long   hash of the font, size, style, charset and spread
+ * 32  glyphs, four ints each: char, x, y and width
+ *     pixel rows, RGBA8
+ * </pre>
+ */
 public class FontTexture {
 
-    private static final String IMAGE_FORMAT = "png";
+    public static final int DEFAULT_PAGE_SIZE = 1024;
+
+    public static final String DEFAULT_DIRECTORY = "cache/fonts";
+
+    /**
+     * Spread of distance field pages that leaves room for outlines and
+     * scales of about a quarter of the font size.
+     */
+    public static final int DEFAULT_SPREAD = 4;
+
+    /**
+     * Size of the glyphs the distance fields are computed from, relative to
+     * the font.
+     */
+    public static final int UPSCALE = 4;
+
+    /**
+     * Glyphs added at once before they are rasterized in parallel.
+     */
+    private static final int PARALLEL_GLYPHS = 8;
+
+    private static final int MAGIC = 0x46594C47; // "GLYF"
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 32;
+
+    private static final String EXTENSION = ".glyphs";
 
     private final Font font;
 
     private final String charSetName;
 
-    private final Map<Character, CharInfo> charMap;
+    private final CharsetEncoder encoder;
+
+    private final int pageSize;
+
+    private final Path file;
+
+    private final long key;
+
+    /**
+     * Glyphs in the order they were packed.
+     */
+    private final Map<Character, CharInfo> charMap = new LinkedHashMap<>();
+
+    /**
+     * Replaced by {@link #load()} with the packer the stored glyphs were
+     * packed into.
+     */
+    private AtlasPacker packer;
 
-    private Texture texture;
+    private final int[] position = new int[2];
 
-    private int height;
+    /**
+     * Copy of the page, the source of the uploads and of {@link #save()}.
+     */
+    private final ByteBuffer pixels;
 
-    private int width;
+    private final Texture texture;
+
+    private final FontMetrics fontMetrics;
+
+    private final int lineHeight;
+
+    private final int spread;
+
+    /**
+     * Height of the glyph boxes, the line height and the spread above and
+     * below.
+     */
+    private final int glyphHeight;
+
+    private final Font rasterFont;
+
+    /**
+     * Drawing surface of each thread rasterizing glyphs.
+     */
+    private final ThreadLocal<Canvas> canvases = ThreadLocal.withInitial(Canvas::new);
+
+    private int usedRows;
+
+    private int dirtyFrom = Integer.MAX_VALUE;
+
+    private int dirtyTo;
+
+    private boolean modified;
+
+    private boolean full;
 
     public FontTexture(Font font, String charSetName) throws Exception {
+        this(font, charSetName, DEFAULT_PAGE_SIZE, DEFAULT_DIRECTORY);
+    }
+
+    /**
+     * @param font        Font of the glyphs
+     * @param charSetName Only characters this charset can encode get a glyph
+     * @param pageSize    Width and height of the texture
+     * @param directory   Directory the page is kept in between runs, or null
+     *                    to build it from scratch every run
+     */
+    public FontTexture(Font font, String charSetName, int pageSize, String directory) throws Exception {
+        this(font, charSetName, pageSize, directory, 0);
+    }
+
+    /**
+     * @param font        Font of the glyphs, for distance fields the size the
+     *                    glyphs are stored at
+     * @param charSetName Only characters this charset can encode get a glyph
+     * @param pageSize    Width and height of the texture
+     * @param directory   Directory the page is kept in between runs, or null
+     *                    to build it from scratch every run
+     * @param spread      Texels the distance fields reach out of and into the
+     *                    glyphs, 0 for plain coverage
+     */
+    public FontTexture(Font font, String charSetName, int pageSize, String directory, int spread) throws Exception {
         this.font = font;
         this.charSetName = charSetName;
-        charMap = new HashMap<>();
+        this.encoder = Charset.forName(charSetName).newEncoder();
+        this.pageSize = pageSize;
+        this.spread = spread;
+        this.packer = new AtlasPacker(pageSize, pageSize);
+        this.pixels = ByteBuffer.allocateDirect(pageSize * pageSize * 4);
+
+        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2D = img.createGraphics();
+        g2D.setFont(font);
+        fontMetrics = g2D.getFontMetrics();
+        g2D.dispose();
+        lineHeight = fontMetrics.getHeight();
+        glyphHeight = lineHeight + 2 * spread;
+        rasterFont = spread > 0 ? font.deriveFont(font.getSize2D() * UPSCALE) : font;
 
-        buildTexture();
+        String description = font.getFontName() + "|" + font.getStyle() + "|" + font.getSize2D() + "|" + charSetName
+                + (spread > 0 ? "|sdf" + spread + "x" + UPSCALE : "");
+        key = MeshCache.hash(ByteBuffer.wrap(description.getBytes(StandardCharsets.UTF_8)));
+        file = directory != null ? Paths.get(directory).resolve(String.format("%016x", key) + EXTENSION) : null;
+        if (file != null) {
+            try {
+                load();
+            } catch (IOException excp) {
+                System.err.println("Could not read glyph cache " + file + ": " + excp.getMessage());
+            }
+        }
+
+        int id = device().glGenTextures();
+        device().glBindTexture(GL_TEXTURE_2D, id);
+        device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        // Only the rows holding glyphs are ever sampled, they are uploaded by getTexture
+        device().glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, pageSize, pageSize, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        device().glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+        device().glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        device().glBindTexture(GL_TEXTURE_2D, 0);
+        texture = new Texture(id, pageSize, pageSize);
     }
 
+    /**
+     * @return Width of the texture
+     */
     public int getWidth() {
-        return width;
+        return pageSize;
     }
 
+    /**
+     * @return Height of the texture
+     */
     public int getHeight() {
-        return height;
+        return pageSize;
+    }
+
+    /**
+     * @return Size of the font in pixels, the size of the glyphs on the page
+     */
+    public float getFontSize() {
+        return font.getSize2D();
+    }
+
+    /**
+     * @return Distance between two lines of text
+     */
+    public int getLineHeight() {
+        return lineHeight;
     }
 
+    /**
+     * @return Texels the distance fields reach out of the glyphs, 0 if the
+     * page holds plain coverage
+     */
+    public int getSpread() {
+        return spread;
+    }
+
+    public boolean isDistanceField() {
+        return spread > 0;
+    }
+
+    public String getCharSetName() {
+        return charSetName;
+    }
+
+    /**
+     * Uploads the glyphs added since the last call first, so the texture
+     * holds every glyph handed out by {@link #getCharInfo(char)}.
+     *
+     * @return The texture
+     */
     public Texture getTexture() {
+        if (dirtyFrom < dirtyTo) {
+            ByteBuffer rows = pixels.duplicate();
+            rows.position(dirtyFrom * pageSize * 4).limit(dirtyTo * pageSize * 4);
+            texture.bind();
+            device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+            device().glTexSubImage2D(GL_TEXTURE_2D, 0, 0, dirtyFrom, pageSize, dirtyTo - dirtyFrom, GL_RGBA,
+                    GL_UNSIGNED_BYTE, rows);
+            device().glBindTexture(GL_TEXTURE_2D, 0);
+            dirtyFrom = Integer.MAX_VALUE;
+            dirtyTo = 0;
+        }
         return texture;
     }
 
+    /**
+     * Looks up a glyph, it is rasterized and packed if this is its first use.
+     *
+     * @param c The character
+     * @return Place of the glyph on the page, null if the charset can not
+     * encode the character or the page is full
+     */
     public CharInfo getCharInfo(char c) {
-        return charMap.get(c);
+        CharInfo charInfo = charMap.get(c);
+        if (charInfo == null && encoder.canEncode(c)) {
+            charInfo = addGlyph(c);
+        }
+        return charInfo;
     }
 
-    private String getAllAvailableChars(String charsetName) {
-        CharsetEncoder ce = Charset.forName(charsetName).newEncoder();
-        StringBuilder result = new StringBuilder();
-        for (char c = 0; c < Character.MAX_VALUE; c++) {
-            if (ce.canEncode(c)) {
-                result.append(c);
+    /**
+     * Adds the glyphs of all characters of a text that are not on the page
+     * yet. Many new glyphs are rasterized in parallel, which pays off for
+     * distance fields.
+     *
+     * @param chars The characters
+     */
+    public void preload(CharSequence chars) {
+        List<Character> added = new ArrayList<>();
+        List<CharInfo> placed = new ArrayList<>();
+        for (int i = 0; i < chars.length(); i++) {
+            char c = chars.charAt(i);
+            if (!charMap.containsKey(c) && encoder.canEncode(c)) {
+                CharInfo charInfo = place(c);
+                if (charInfo != null) {
+                    added.add(c);
+                    placed.add(charInfo);
+                }
             }
         }
-        return result.toString();
+        IntStream glyphs = IntStream.range(0, added.size());
+        if (added.size() >= PARALLEL_GLYPHS) {
+            glyphs = glyphs.parallel();
+        }
+        // Glyphs cover separate texels, the absolute puts do not interfere
+        glyphs.forEach(i -> rasterize(added.get(i), placed.get(i)));
     }
 
-    private void buildTexture() throws Exception {
-        // Get the font metrics for each character for the selected font by using image
-        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g2D = img.createGraphics();
-        g2D.setFont(font);
-        FontMetrics fontMetrics = g2D.getFontMetrics();
-
-        String allChars = getAllAvailableChars(charSetName);
-        this.width = 0;
-        this.height = 0;
-        for (char c : allChars.toCharArray()) {
-            // Get the size for each character and update global image size
-            CharInfo charInfo = new CharInfo(width, fontMetrics.charWidth(c));
-            charMap.put(c, charInfo);
-            width += charInfo.getWidth();
-            height = Math.max(height, fontMetrics.getHeight());
+    /**
+     * @return Number of glyphs on the page
+     */
+    public int getGlyphCount() {
+        return charMap.size();
+    }
+
+    private CharInfo addGlyph(char c) {
+        CharInfo charInfo = place(c);
+        if (charInfo != null) {
+            rasterize(c, charInfo);
         }
-        g2D.dispose();
+        return charInfo;
+    }
 
-        // Create the image associated to the charset
-        img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        g2D = img.createGraphics();
-        g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2D.setFont(font);
-        fontMetrics = g2D.getFontMetrics();
-        g2D.setColor(Color.WHITE);
-        g2D.drawString(allChars, 0, fontMetrics.getAscent());
-        g2D.dispose();
+    /**
+     * Reserves the place of a glyph on the page.
+     *
+     * @return The place, null if the page is full
+     */
+    private CharInfo place(char c) {
+        int advance = fontMetrics.charWidth(c);
+        int width = advance + 2 * spread;
+        if (!packer.pack(width + 1, glyphHeight + 1, position)) {
+            if (!full) {
+                System.err.println("Glyph page of " + font.getFontName() + " is full, '" + c + "' is left out");
+                full = true;
+            }
+            return null;
+        }
+        CharInfo charInfo = new CharInfo(position[0], position[1], width, glyphHeight, spread, advance);
+        charMap.put(c, charInfo);
+        // The transparent row below belongs to the glyph too
+        usedRows = Math.max(usedRows, charInfo.startY + glyphHeight + 1);
+        dirtyFrom = Math.min(dirtyFrom, charInfo.startY);
+        dirtyTo = Math.max(dirtyTo, charInfo.startY + glyphHeight + 1);
+        modified = true;
+        return charInfo;
+    }
+
+    /**
+     * Draws a glyph and copies its coverage or distance field to its place
+     * on the page.
+     */
+    private void rasterize(char c, CharInfo charInfo) {
+        Canvas canvas = canvases.get();
+        if (spread == 0) {
+            int[] argb = canvas.draw(c, rasterFont, charInfo.width, glyphHeight, 0, fontMetrics.getAscent());
+            for (int y = 0; y < glyphHeight; y++) {
+                int dst = ((charInfo.startY + y) * pageSize + charInfo.startX) * 4;
+                for (int x = 0; x < charInfo.width; x++) {
+                    int pixel = argb[y * canvas.stride + x];
+                    pixels.put(dst++, (byte) (pixel >> 16));
+                    pixels.put(dst++, (byte) (pixel >> 8));
+                    pixels.put(dst++, (byte) pixel);
+                    pixels.put(dst++, (byte) (pixel >>> 24));
+                }
+            }
+            return;
+        }
+        int width = charInfo.width * UPSCALE;
+        int height = glyphHeight * UPSCALE;
+        int[] argb = canvas.draw(c, rasterFont, width, height, spread * UPSCALE,
+                (spread + fontMetrics.getAscent()) * UPSCALE);
+        float[] field = canvas.field(width * height);
+        DistanceField.compute(argb, canvas.stride, width, height, field);
+        // Each texel takes the mean distance of the pixels it covers
+        float scale = 1f / (UPSCALE * UPSCALE * UPSCALE * 2 * spread);
+        for (int y = 0; y < glyphHeight; y++) {
+            int dst = ((charInfo.startY + y) * pageSize + charInfo.startX) * 4;
+            for (int x = 0; x < charInfo.width; x++) {
+                float sum = 0;
+                for (int sy = y * UPSCALE; sy < (y + 1) * UPSCALE; sy++) {
+                    for (int sx = x * UPSCALE; sx < (x + 1) * UPSCALE; sx++) {
+                        sum += field[sy * width + sx];
+                    }
+                }
+                float alpha = Math.max(0, Math.min(1, 0.5f + sum * scale));
+                pixels.put(dst++, (byte) 0xFF);
+                pixels.put(dst++, (byte) 0xFF);
+                pixels.put(dst++, (byte) 0xFF);
+                pixels.put(dst++, (byte) Math.round(alpha * 255));
+            }
+        }
+    }
+
+    /**
+     * Reads the page of an earlier run. A file of another font, page size or
+     * line height is ignored, the glyphs are then rasterized again.
+     */
+    private void load() throws IOException {
+        if (!Files.isReadable(file)) {
+            return;
+        }
+        ByteBuffer buffer;
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = ByteBuffer.allocateDirect((int) fc.size());
+            while (buffer.hasRemaining() && fc.read(buffer) >= 0) {
+            }
+        }
+        buffer.flip();
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != pageSize || buffer.getInt(12) != lineHeight || buffer.getLong(24) != key) {
+            return;
+        }
+        int count = buffer.getInt(16);
+        int rows = buffer.getInt(20);
+        if (count < 0 || rows < 0 || rows > pageSize
+                || buffer.limit() != HEADER_SIZE + count * 16L + (long) rows * pageSize * 4) {
+            return;
+        }
+        // Nothing is kept unless every glyph lands where it was stored
+        AtlasPacker replay = new AtlasPacker(pageSize, pageSize);
+        Map<Character, CharInfo> glyphs = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int offset = HEADER_SIZE + i * 16;
+            char c = (char) buffer.getInt(offset);
+            int x = buffer.getInt(offset + 4);
+            int y = buffer.getInt(offset + 8);
+            int width = buffer.getInt(offset + 12);
+            if (!replay.pack(width + 1, glyphHeight + 1, position) || position[0] != x || position[1] != y) {
+                // Packed differently than when the file was written, start over
+                System.err.println("Glyph cache " + file + " does not match its glyphs, it is rebuilt");
+                return;
+            }
+            glyphs.put(c, new CharInfo(x, y, width, glyphHeight, spread, width - 2 * spread));
+        }
+        packer = replay;
+        charMap.putAll(glyphs);
+        buffer.position(HEADER_SIZE + count * 16);
+        pixels.put(buffer).clear();
+        usedRows = rows;
+        dirtyFrom = 0;
+        dirtyTo = rows;
+    }
+
+    /**
+     * Writes the page and its glyph table, if glyphs were added since it was
+     * loaded. The file is written to a temporary file first and then moved in
+     * place, so a crash never leaves a truncated page behind.
+     *
+     * @throws IOException If the file can not be written
+     */
+    public void save() throws IOException {
+        if (file == null || !modified) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = Files.createTempFile(file.getParent(), "glyphs", ".tmp");
+        try {
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + charMap.size() * 16).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(pageSize).putInt(lineHeight).putInt(charMap.size())
+                        .putInt(usedRows).putLong(key);
+                for (Map.Entry<Character, CharInfo> entry : charMap.entrySet()) {
+                    CharInfo charInfo = entry.getValue();
+                    header.putInt(entry.getKey()).putInt(charInfo.startX).putInt(charInfo.startY).putInt(charInfo.width);
+                }
+                header.flip();
+                ByteBuffer rows = pixels.duplicate();
+                rows.position(0).limit(usedRows * pageSize * 4);
+                while (header.hasRemaining() || rows.hasRemaining()) {
+                    fc.write(new ByteBuffer[]{header, rows});
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        modified = false;
+    }
 
-        // Dump image to a byte buffer
-        InputStream is;
-        try (
-                ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            ImageIO.write(img, IMAGE_FORMAT, out);
-            out.flush();
-            is = new ByteArrayInputStream(out.toByteArray());
+    /**
+     * Saves the page and deletes the texture, unless a mesh drawing with it
+     * already did.
+     */
+    public void cleanup() {
+        try {
+            save();
+        } catch (IOException excp) {
+            System.err.println("Could not write glyph cache " + file + ": " + excp.getMessage());
         }
+        if (!texture.isDeleted()) {
+            texture.cleanup();
+        }
+    }
+
+    /**
+     * Image a thread draws glyphs on, grown to the biggest glyph so far.
+     */
+    private static class Canvas {
+
+        private BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+        private Graphics2D graphics = createGraphics(image);
+
+        private int stride = 1;
+
+        private float[] field = new float[0];
 
-        texture = new Texture(is);
+        private static Graphics2D createGraphics(BufferedImage image) {
+            Graphics2D g2D = image.createGraphics();
+            g2D.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2D.setColor(Color.WHITE);
+            return g2D;
+        }
+
+        /**
+         * Draws a character white on transparent.
+         *
+         * @return The pixels, <code>stride</code> per row
+         */
+        private int[] draw(char c, Font font, int width, int height, int x, int baseline) {
+            if (image.getWidth() < width || image.getHeight() < height) {
+                graphics.dispose();
+                image = new BufferedImage(Math.max(width, image.getWidth() * 2), Math.max(height, image.getHeight()),
+                        BufferedImage.TYPE_INT_ARGB);
+                graphics = createGraphics(image);
+                stride = image.getWidth();
+            }
+            int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            Arrays.fill(argb, 0);
+            graphics.setFont(font);
+            graphics.drawString(String.valueOf(c), x, baseline);
+            return argb;
+        }
+
+        private float[] field(int size) {
+            if (field.length < size) {
+                field = new float[size];
+            }
+            return field;
+        }
     }
 
     public static class CharInfo {
 
         private final int startX;
 
+        private final int startY;
+
         private final int width;
 
+        private final int height;
+
+        private final int offset;
+
+        private final int advance;
+
         public CharInfo(int startX, int width) {
+            this(startX, 0, width, 0, 0, width);
+        }
+
+        /**
+         * @param startX  Left of the glyph box on the page
+         * @param startY  Top of the glyph box on the page
+         * @param width   Width of the glyph box
+         * @param height  Height of the glyph box
+         * @param offset  Distance from the pen position to the left and from
+         *                the top of the line to the top of the box
+         * @param advance Distance the pen moves on to the next glyph
+         */
+        public CharInfo(int startX, int startY, int width, int height, int offset, int advance) {
             this.startX = startX;
+            this.startY = startY;
             this.width = width;
+            this.height = height;
+            this.offset = offset;
+            this.advance = advance;
         }
 
         public int getStartX() {
             return startX;
         }
 
+        public int getStartY() {
+            return startY;
+        }
+
         public int getWidth() {
             return width;
         }
+
+        public int getHeight() {
+            return height;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getAdvance() {
+            return advance;
+        }
     }
 }
@@ -0,0 +1,39 @@
+package engine.graphix;
+
+/**
+ * Holds the {@link GraphicsDevice} the render path draws with. It is the
+ * LWJGL binding of the current context behind a {@link StateCache} unless
+ * another device is set before anything is created, a recording one for
+ * running without a GPU for example.
+ */
+public final class Graphics {
+
+    private static GraphicsDevice device = new StateCache(new LwjglDevice());
+
+    private Graphics() {
+    }
+
+    public static GraphicsDevice device() {
+        return device;
+    }
+
+    /**
+     * Replaces the device. Objects created on the old device can not be used
+     * with the new one.
+     *
+     * @param device The device
+     */
+    public static void setDevice(GraphicsDevice device) {
+        Graphics.device = device;
+    }
+
+    /**
+     * Has to be called after OpenGL state was changed without the device, so
+     * a {@link StateCache} does not drop the calls that restore it.
+     */
+    public static void invalidateState() {
+        if (device instanceof StateCache) {
+            ((StateCache) device).invalidate();
+        }
+    }
+}
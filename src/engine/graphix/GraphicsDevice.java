@@ -0,0 +1,178 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The OpenGL calls of the render path. Meshes, shaders, textures and the
+ * renderers go through the device returned by {@link Graphics#device()}
+ * instead of calling the LWJGL bindings directly, so the same code runs on
+ * {@link LwjglDevice} with a context, or on {@link RecordingDevice} without a
+ * GPU.
+ * <p>
+ * Methods are named and behave like the OpenGL functions they stand for.
+ */
+public interface GraphicsDevice {
+
+    // Frame
+
+    int glGetInteger(int pname);
+
+    void glClear(int mask);
+
+    void glViewport(int x, int y, int width, int height);
+
+    void glDrawElements(int mode, int count, int type, long indices);
+
+    void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount);
+
+    void glEnable(int capability);
+
+    void glDisable(int capability);
+
+    void glBlendFunc(int sfactor, int dfactor);
+
+    // Buffers and vertex arrays
+
+    int glGenBuffers();
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, ByteBuffer data, int usage);
+
+    void glBufferData(int target, FloatBuffer data, int usage);
+
+    void glBufferData(int target, IntBuffer data, int usage);
+
+    void glBufferData(int target, long size, int usage);
+
+    void glBufferSubData(int target, long offset, ByteBuffer data);
+
+    void glBufferSubData(int target, long offset, FloatBuffer data);
+
+    /**
+     * @return Memory the range is written through until it is unmapped, or
+     * null if the buffer could not be mapped
+     */
+    ByteBuffer glMapBufferRange(int target, long offset, long length, int access);
+
+    /**
+     * @return False if the contents of the buffer were lost while it was
+     * mapped and have to be written again
+     */
+    boolean glUnmapBuffer(int target);
+
+    void glBindBufferBase(int target, int index, int buffer);
+
+    void glBindBufferRange(int target, int index, int buffer, long offset, long size);
+
+    void glDeleteBuffers(int buffer);
+
+    int glGenVertexArrays();
+
+    void glBindVertexArray(int array);
+
+    void glDeleteVertexArrays(int array);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer);
+
+    void glVertexAttribDivisor(int index, int divisor);
+
+    // Textures
+
+    int glGenTextures();
+
+    void glActiveTexture(int texture);
+
+    void glBindTexture(int target, int texture);
+
+    void glDeleteTextures(int texture);
+
+    void glPixelStorei(int pname, int param);
+
+    void glTexParameteri(int target, int pname, int param);
+
+    void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                      int type, ByteBuffer pixels);
+
+    /**
+     * Reads the pixels from the buffer bound to
+     * <code>GL_PIXEL_UNPACK_BUFFER</code>.
+     */
+    void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                      int type, long pixels);
+
+    void glTexSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type,
+                         ByteBuffer pixels);
+
+    void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                ByteBuffer data);
+
+    /**
+     * Reads the blocks from the buffer bound to
+     * <code>GL_PIXEL_UNPACK_BUFFER</code>.
+     */
+    void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                int imageSize, long data);
+
+    void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                      int format, int type, ByteBuffer pixels);
+
+    void glTexSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth, int format,
+                         int type, ByteBuffer pixels);
+
+    void glGenerateMipmap(int target);
+
+    // Shaders
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, CharSequence source);
+
+    void glCompileShader(int shader);
+
+    int glGetShaderi(int shader, int pname);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glDetachShader(int program, int shader);
+
+    void glLinkProgram(int program);
+
+    void glValidateProgram(int program);
+
+    int glGetProgrami(int program, int pname);
+
+    String glGetProgramInfoLog(int program);
+
+    void glUseProgram(int program);
+
+    void glDeleteProgram(int program);
+
+    int glGetUniformLocation(int program, CharSequence name);
+
+    int glGetUniformBlockIndex(int program, CharSequence name);
+
+    void glUniformBlockBinding(int program, int blockIndex, int binding);
+
+    void glUniform1i(int location, int value);
+
+    void glUniform1f(int location, float value);
+
+    void glUniform3f(int location, float x, float y, float z);
+
+    void glUniform4f(int location, float x, float y, float z, float w);
+
+    void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value);
+}
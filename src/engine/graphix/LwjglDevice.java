@@ -0,0 +1,353 @@
+package engine.graphix;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The {@link GraphicsDevice} of the OpenGL context current on the calling
+ * thread, every call goes straight to the LWJGL binding.
+ */
+public class LwjglDevice implements GraphicsDevice {
+
+    @Override
+    public int glGetInteger(int pname) {
+        return GL11.glGetInteger(pname);
+    }
+
+    @Override
+    public void glClear(int mask) {
+        GL11.glClear(mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        GL11.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, long indices) {
+        GL11.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {
+        GL31.glDrawElementsInstanced(mode, count, type, indices, primcount);
+    }
+
+    @Override
+    public void glEnable(int capability) {
+        GL11.glEnable(capability);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        GL11.glDisable(capability);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        GL11.glBlendFunc(sfactor, dfactor);
+    }
+
+    @Override
+    public int glGenBuffers() {
+        return GL15.glGenBuffers();
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        GL15.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, IntBuffer data, int usage) {
+        GL15.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, long size, int usage) {
+        GL15.glBufferData(target, size, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        GL15.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+        return GL30.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        return GL15.glUnmapBuffer(target);
+    }
+
+    @Override
+    public void glBindBufferBase(int target, int index, int buffer) {
+        GL30.glBindBufferBase(target, index, buffer);
+    }
+
+    @Override
+    public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+        GL30.glBindBufferRange(target, index, buffer, offset, size);
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        GL15.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        return GL30.glGenVertexArrays();
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        GL30.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        GL30.glDeleteVertexArrays(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        GL20.glEnableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        GL20.glDisableVertexAttribArray(index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        GL33.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public int glGenTextures() {
+        return GL11.glGenTextures();
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        GL13.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        GL11.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glDeleteTextures(int texture) {
+        GL11.glDeleteTextures(texture);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        GL11.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        GL11.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, ByteBuffer pixels) {
+        GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, long pixels) {
+        GL11.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type,
+                                ByteBuffer pixels) {
+        GL11.glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       ByteBuffer data) {
+        GL13.glCompressedTexImage2D(target, level, internalFormat, width, height, border, data);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       int imageSize, long data) {
+        GL13.glCompressedTexImage2D(target, level, internalFormat, width, height, border, imageSize, data);
+    }
+
+    @Override
+    public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                             int format, int type, ByteBuffer pixels) {
+        GL12.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                                int format, int type, ByteBuffer pixels) {
+        GL12.glTexSubImage3D(target, level, x, y, z, width, height, depth, format, type, pixels);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        GL30.glGenerateMipmap(target);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        return GL20.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        GL20.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        GL20.glCompileShader(shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        return GL20.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return GL20.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        GL20.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return GL20.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        GL20.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        GL20.glDetachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        GL20.glLinkProgram(program);
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        GL20.glValidateProgram(program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        return GL20.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return GL20.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        GL20.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        GL20.glDeleteProgram(program);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        return GL20.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public int glGetUniformBlockIndex(int program, CharSequence name) {
+        return GL31.glGetUniformBlockIndex(program, name);
+    }
+
+    @Override
+    public void glUniformBlockBinding(int program, int blockIndex, int binding) {
+        GL31.glUniformBlockBinding(program, blockIndex, binding);
+    }
+
+    @Override
+    public void glUniform1i(int location, int value) {
+        GL20.glUniform1i(location, value);
+    }
+
+    @Override
+    public void glUniform1f(int location, float value) {
+        GL20.glUniform1f(location, value);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        GL20.glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        GL20.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        GL20.glUniformMatrix4fv(location, transpose, value);
+    }
+}
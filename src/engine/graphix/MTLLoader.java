@@ -0,0 +1,213 @@
+package engine.graphix;
+
+import org.joml.Vector4f;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Loads Wavefront MTL material libraries. Materials and textures are shared
+ * between all loaded files: a library is parsed once, a texture file is
+ * uploaded once and materials with the same colours and texture are the same
+ * {@link Material} instance, whichever library declared them. Textures come
+ * from a {@link TextureCache}, in which the loader keeps one reference to each.
+ * <p>
+ * Supported statements are <code>newmtl</code>, <code>Ka</code>,
+ * <code>Kd</code>, <code>Ks</code>, <code>d</code>, <code>Tr</code> and
+ * <code>map_Kd</code>. The largest specular component becomes the
+ * reflectance of the material.
+ */
+public class MTLLoader {
+
+    private static final Map<Path, Map<String, Material>> libraries = new HashMap<>();
+
+    private static final Map<String, Material> materials = new HashMap<>();
+
+    private static final Map<Path, Texture> textures = new HashMap<>();
+
+    private static TextureCache textureCache = new TextureCache();
+
+    /**
+     * Sets the cache textures are loaded through. Textures already loaded
+     * stay in the previous cache.
+     *
+     * @param cache The cache
+     */
+    public static void setTextureCache(TextureCache cache) {
+        textureCache = cache;
+    }
+
+    /**
+     * Loads a material library, or returns the materials of an earlier load of
+     * the same file.
+     *
+     * @param path Path of the MTL file
+     * @return Materials of the library by name
+     * @throws IOException If the file can not be read
+     */
+    public static Map<String, Material> loadLibrary(Path path) throws IOException {
+        Path key = path.toRealPath();
+        Map<String, Material> library = libraries.get(key);
+        if (library == null) {
+            library = parse(key);
+            libraries.put(key, library);
+        }
+        return library;
+    }
+
+    private static Map<String, Material> parse(Path path) throws IOException {
+        Map<String, Material> library = new HashMap<>();
+        String text = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        MaterialDefinition current = null;
+        for (String rawLine : text.split("\n")) {
+            int comment = rawLine.indexOf('#');
+            String line = (comment >= 0 ? rawLine.substring(0, comment) : rawLine).trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] tokens = line.split("\\s+");
+            String keyword = tokens[0];
+            if (keyword.equals("newmtl")) {
+                if (current != null) {
+                    library.put(current.name, current.toMaterial());
+                }
+                current = new MaterialDefinition(line.substring(keyword.length()).trim(), path.getParent());
+            } else if (current != null) {
+                current.set(keyword, tokens);
+            }
+        }
+        if (current != null) {
+            library.put(current.name, current.toMaterial());
+        }
+        return library;
+    }
+
+    /**
+     * @return Material used when a model names a material no library declares
+     */
+    public static Material getDefaultMaterial() {
+        return share(new Vector4f(1, 1, 1, 1), new Vector4f(1, 1, 1, 1), new Vector4f(1, 1, 1, 1), null, 0);
+    }
+
+    /**
+     * @return Number of distinct materials created so far
+     */
+    public static int getMaterialCount() {
+        return materials.size();
+    }
+
+    /**
+     * @return Number of distinct textures loaded so far
+     */
+    public static int getTextureCount() {
+        return textures.size();
+    }
+
+    private static Material share(Vector4f ambient, Vector4f diffuse, Vector4f specular, Path texturePath,
+                                  float reflectance) {
+        StringBuilder key = new StringBuilder();
+        for (Vector4f colour : new Vector4f[]{ambient, diffuse, specular}) {
+            key.append(colour.x).append(',').append(colour.y).append(',').append(colour.z).append(',')
+                    .append(colour.w).append('|');
+        }
+        key.append(reflectance).append('|').append(texturePath);
+        Material material = materials.get(key.toString());
+        if (material == null) {
+            material = new Material(ambient, diffuse, specular, loadTexture(texturePath), reflectance);
+            materials.put(key.toString(), material);
+        }
+        return material;
+    }
+
+    private static Texture loadTexture(Path path) {
+        if (path == null) {
+            return null;
+        }
+        Texture texture = textures.get(path);
+        if (texture == null) {
+            try {
+                texture = textureCache.acquire(path.toString());
+                textures.put(path, texture);
+            } catch (Exception excp) {
+                System.err.println("Could not load texture " + path + ": " + excp.getMessage());
+            }
+        }
+        return texture;
+    }
+
+    /**
+     * Values of one <code>newmtl</code> block while it is parsed.
+     */
+    private static class MaterialDefinition {
+
+        private final String name;
+
+        private final Path directory;
+
+        private final Vector4f ambient = new Vector4f(1, 1, 1, 1);
+
+        private final Vector4f diffuse = new Vector4f(1, 1, 1, 1);
+
+        private final Vector4f specular = new Vector4f(1, 1, 1, 1);
+
+        private float alpha = 1;
+
+        private Path texturePath;
+
+        private MaterialDefinition(String name, Path directory) {
+            this.name = name;
+            this.directory = directory;
+        }
+
+        private void set(String keyword, String[] tokens) {
+            try {
+                switch (keyword) {
+                    case "Ka":
+                        readColour(tokens, ambient);
+                        break;
+                    case "Kd":
+                        readColour(tokens, diffuse);
+                        break;
+                    case "Ks":
+                        readColour(tokens, specular);
+                        break;
+                    case "d":
+                        alpha = Float.parseFloat(tokens[1]);
+                        break;
+                    case "Tr":
+                        alpha = 1 - Float.parseFloat(tokens[1]);
+                        break;
+                    case "map_Kd":
+                        // Options come first, the file name is the last token
+                        texturePath = directory.resolve(tokens[tokens.length - 1]).toRealPath();
+                        break;
+                    default:
+                        // Other statements do not map to Material
+                        break;
+                }
+            } catch (IOException | RuntimeException excp) {
+                System.err.println("Ignoring MTL statement " + keyword + " of material " + name + ": " + excp);
+            }
+        }
+
+        private static void readColour(String[] tokens, Vector4f dest) {
+            float r = Float.parseFloat(tokens[1]);
+            // A single value is used for all three channels
+            float g = tokens.length > 3 ? Float.parseFloat(tokens[2]) : r;
+            float b = tokens.length > 3 ? Float.parseFloat(tokens[3]) : r;
+            dest.set(r, g, b, dest.w);
+        }
+
+        private Material toMaterial() {
+            ambient.w = alpha;
+            diffuse.w = alpha;
+            specular.w = alpha;
+            float reflectance = Math.max(specular.x, Math.max(specular.y, specular.z));
+            return share(ambient, diffuse, specular, texturePath, reflectance);
+        }
+    }
+}
@@ -11,6 +11,13 @@ public class Material {
     private Vector4f specularColour;
     private float reflectance;
     private Texture texture;
+    private TextureArray textureArray;
+    private int layer = -1;
+
+    /**
+     * Blocks holding a uniform buffer slot for this material, or null
+     */
+    private SceneBlocks sceneBlocks;
 
     public Material() {
         this.ambientColour = DEFAULT_COLOUR;
@@ -73,7 +80,7 @@ public class Material {
     }
 
     public boolean isTextured() {
-        return this.texture != null;
+        return this.texture != null || this.textureArray != null;
     }
 
     public Texture getTexture() {
@@ -84,4 +91,43 @@ public class Material {
         this.texture = texture;
     }
 
+    /**
+     * Draws with a layer of a texture array instead of the texture. Materials
+     * on layers of the same array need no texture bind between them.
+     *
+     * @param textureArray The array, null to draw with the texture again
+     * @param layer        Index of the layer
+     */
+    public void setTextureLayer(TextureArray textureArray, int layer) {
+        this.textureArray = textureArray;
+        this.layer = textureArray != null ? layer : -1;
+    }
+
+    public TextureArray getTextureArray() {
+        return textureArray;
+    }
+
+    /**
+     * @return Layer of the texture array, -1 when the material draws with its
+     * texture
+     */
+    public int getLayer() {
+        return layer;
+    }
+
+    void setSceneBlocks(SceneBlocks sceneBlocks) {
+        this.sceneBlocks = sceneBlocks;
+    }
+
+    /**
+     * Gives back the uniform buffer slot of the material, if it has one. The
+     * texture is not touched, it is cleaned up by the mesh.
+     */
+    public void cleanup() {
+        if (sceneBlocks != null) {
+            sceneBlocks.releaseMaterial(this);
+            sceneBlocks = null;
+        }
+    }
+
 }
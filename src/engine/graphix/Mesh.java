@@ -1,141 +1,472 @@
 package engine.graphix;
 
 import engine.items.GameItem;
-import org.lwjgl.system.MemoryStack;
+import org.joml.Matrix4f;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
-import static org.lwjgl.opengl.GL13.glActiveTexture;
 import static org.lwjgl.opengl.GL15.*;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.system.MemoryUtil.memAllocFloat;
+import static org.lwjgl.system.MemoryUtil.memFree;
 
 public class Mesh {
 
-    private final VertexArrayObject vao;
-    private ArrayList<VertexBufferObject> vboList;
-    private final int vtxCount;
-    private Material material;
+    /**
+     * Fewest items an instanced mesh draws in one call. Below it, a draw per
+     * item costs less than uploading the instance buffer.
+     */
+    public static final int INSTANCING_THRESHOLD = 8;
+
+    /**
+     * Location of the first of the four columns of the per instance model
+     * view matrix
+     */
+    public static final int INSTANCE_MATRIX_LOCATION = 3;
+
+    private static final int MATRIX_FLOATS = 16;
 
+    private final VertexFormat format;
+    private final VertexArrayObject vao;
+    private final ArrayList<VertexBufferObject> vboList;
+    private SubMesh[] subMeshes;
+    private float[] lodErrors;
+    private int indexType = GL_UNSIGNED_INT;
+    private int indexSize = Integer.BYTES;
+    private Matrix4f positionTransform;
+    private boolean instanced;
+    private VertexBufferObject instanceVbo;
+    private FloatBuffer instanceData;
+    private int pointedInstance;
+    private int[] itemLevels = new int[0];
+    private int[] levelStarts = new int[0];
+    private int[] levelEnds = new int[0];
+
+    /**
+     * Creates a mesh in {@link VertexFormat#FLOAT}, the attributes are
+     * interleaved into a single vertex buffer.
+     *
+     * @param positions  Vertex positions, 3 floats each
+     * @param textCoords Vertex texture coordinates, 2 floats each
+     * @param normals    Vertex normals, 3 floats each
+     * @param indices    Triangle indices
+     */
     public Mesh(float[] positions, float[] textCoords, float[] normals, int[] indices) {
-        vao = new VertexArrayObject();
-        vao.bind();
-        vtxCount = indices.length;
-        vboList = null;
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            vboList = new ArrayList<>(5);
-            // Vertex data
-            FloatBuffer vertices = stack.mallocFloat(positions.length);
-            vertices.put(positions).flip();
-            VertexBufferObject vboPos = new VertexBufferObject();
-            vboPos.bind(GL_ARRAY_BUFFER);
-            vboPos.uploadData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
-            glVertexAttribPointer(0, 3, GL_FLOAT, false, 0, 0);
-            vboList.add(vboPos);
-
-            // Texture coordinates VBO
-            FloatBuffer textCoordsBuffer = stack.mallocFloat(textCoords.length);
-            textCoordsBuffer.put(textCoords).flip();
-            VertexBufferObject vboTex = new VertexBufferObject();
-            vboTex.bind(GL_ARRAY_BUFFER);
-            vboTex.uploadData(GL_ARRAY_BUFFER, textCoordsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(1, 2, GL_FLOAT, false, 0, 0);
-            vboList.add(vboTex);
-
-            // Vertex normals VBO
-            FloatBuffer vecNormalsBuffer = stack.mallocFloat(normals.length);
-            vecNormalsBuffer.put(normals).flip();
-            VertexBufferObject vboNor = new VertexBufferObject();
-            vboNor.bind(GL_ARRAY_BUFFER);
-            vboNor.uploadData(GL_ARRAY_BUFFER, vecNormalsBuffer, GL_STATIC_DRAW);
-            glVertexAttribPointer(2, 3, GL_FLOAT, false, 0, 0);
-            vboList.add(vboNor);
-
-            // Index data
-            IntBuffer indiciesBuf = stack.mallocInt(vtxCount);
-            indiciesBuf.put(indices).flip();
-            VertexBufferObject vboIdx = new VertexBufferObject();
-            vboIdx.bind(GL_ELEMENT_ARRAY_BUFFER);
-            vboIdx.uploadData(GL_ELEMENT_ARRAY_BUFFER, indiciesBuf, GL_STATIC_DRAW);
-            vboList.add(vboIdx);
-
-            glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindVertexArray(0);
-        } catch (Exception e){
-            e.printStackTrace();
+        this(VertexFormat.FLOAT, indices.length);
+        MeshBuilder builder = new MeshBuilder(format, positions.length / 3, indices.length);
+        try {
+            builder.addVertices(positions, textCoords, normals);
+            builder.addIndices(indices);
+            upload(builder.getVertices(), builder.getIndices());
+        } finally {
+            builder.free();
         }
     }
 
+    /**
+     * Creates a mesh from the buffers of a builder. The builder is not freed.
+     *
+     * @param builder The builder
+     */
+    public Mesh(MeshBuilder builder) {
+        this(builder.getFormat(), builder.getIndexCount());
+        upload(builder.getVertices(), builder.getIndices());
+    }
+
+    /**
+     * Creates a mesh from interleaved vertex data in {@link VertexFormat#FLOAT}.
+     * The buffers are uploaded as they are, so mapped buffers go to the driver
+     * without a copy.
+     *
+     * @param vertices Interleaved vertex data
+     * @param indices  Triangle indices, as ints
+     */
+    public Mesh(ByteBuffer vertices, ByteBuffer indices) {
+        this(VertexFormat.FLOAT, indices.remaining() / Integer.BYTES);
+        upload(vertices, indices);
+    }
+
+    /**
+     * Creates a mesh in the compact format of the quantizer. The quantized positions
+     * have to be transformed back to object space with
+     * {@link #getPositionTransform()}.
+     *
+     * @param quantized The quantized mesh
+     */
+    public Mesh(MeshQuantizer quantized) {
+        this(quantized.getFormat(), quantized.getIndexCount());
+        indexType = quantized.getIndexType();
+        indexSize = indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+        positionTransform = quantized.getPositionTransform(new Matrix4f());
+        upload(quantized.getVertices(), quantized.getIndices());
+    }
+
+    private Mesh(VertexFormat format, int indexCount) {
+        this.format = format;
+        vao = new VertexArrayObject();
+        setSubMeshes(new SubMesh[]{new SubMesh(null, new MeshLod[]{new MeshLod(0, indexCount, 0)})});
+        vboList = new ArrayList<>(2);
+    }
+
+    private void upload(ByteBuffer vertices, ByteBuffer indices) {
+        vao.bind();
+
+        VertexBufferObject vbo = new VertexBufferObject();
+        vbo.bind(GL_ARRAY_BUFFER);
+        vbo.uploadData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+        format.setup();
+        vboList.add(vbo);
+
+        VertexBufferObject vboIdx = new VertexBufferObject();
+        vboIdx.bind(GL_ELEMENT_ARRAY_BUFFER);
+        vboIdx.uploadData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        vboList.add(vboIdx);
+
+        device().glBindBuffer(GL_ARRAY_BUFFER, 0);
+        device().glBindVertexArray(0);
+    }
 
     private void initRender() {
-        Texture texture = material.getTexture();
+        // Draw the mesh. Nothing is unbound afterwards, the state cache drops
+        // the bindings the next mesh shares with this one
+        device().glBindVertexArray(getVaoId());
+        format.enable();
+    }
+
+    private void bindTexture(Material material) {
+        TextureArray textureArray = material != null ? material.getTextureArray() : null;
+        if (textureArray != null) {
+            // Arrays have their own unit, the layer is a uniform of the material
+            device().glActiveTexture(GL_TEXTURE0 + TextureArray.TEXTURE_UNIT);
+            device().glBindTexture(GL_TEXTURE_2D_ARRAY, textureArray.getId());
+            device().glActiveTexture(GL_TEXTURE0);
+            return;
+        }
+        Texture texture = material != null ? material.getTexture() : null;
         if (texture != null) {
             // Activate firs texture bank
-            glActiveTexture(GL_TEXTURE0);
+            device().glActiveTexture(GL_TEXTURE0);
             // Bind the texture
-            glBindTexture(GL_TEXTURE_2D, texture.getId());
+            device().glBindTexture(GL_TEXTURE_2D, texture.getId());
         }
+    }
+
+    public void render() {
+        initRender();
 
-        // Draw the mesh
-        glBindVertexArray(getVaoId());
-        glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
-        glEnableVertexAttribArray(2);
+        for (SubMesh subMesh : subMeshes) {
+            bindTexture(subMesh.getMaterial());
+            drawLod(subMesh, 0);
+        }
     }
 
-    private void endRender() {
-        // Restore state
-        glDisableVertexAttribArray(0);
-        glDisableVertexAttribArray(1);
-        glDisableVertexAttribArray(2);
-        glBindVertexArray(0);
+    private void drawLod(SubMesh subMesh, int level) {
+        MeshLod lod = subMesh.getLod(level);
+        device().glDrawElements(GL_TRIANGLES, lod.getIndexCount(), indexType, (long) lod.getIndexOffset() * indexSize);
+    }
 
-        glBindTexture(GL_TEXTURE_2D, 0);
+    public void renderList(List<GameItem> gameItems, Consumer<GameItem> consumer) {
+        initRender();
+
+        for (SubMesh subMesh : subMeshes) {
+            bindTexture(subMesh.getMaterial());
+            for (GameItem gameItem : gameItems) {
+                // Set up data required by gameItem
+                consumer.accept(gameItem);
+                // Render this game item
+                drawLod(subMesh, 0);
+            }
+        }
     }
 
-    public void render() {
+    /**
+     * Renders a list of game items, each with the level of detail chosen by
+     * <code>lodSelector</code>. Sub meshes are drawn one after the other, so
+     * each material is set up once for all the items.
+     *
+     * @param gameItems        Items using this mesh
+     * @param materialConsumer Sets up the data required by each material
+     * @param consumer         Sets up the data required by each item
+     * @param lodSelector      Returns the level to draw for each item
+     */
+    public void renderList(List<GameItem> gameItems, Consumer<Material> materialConsumer,
+                           Consumer<GameItem> consumer, ToIntFunction<GameItem> lodSelector) {
+        initRender();
+
+        for (SubMesh subMesh : subMeshes) {
+            Material material = subMesh.getMaterial();
+            materialConsumer.accept(material);
+            bindTexture(material);
+            for (GameItem gameItem : gameItems) {
+                consumer.accept(gameItem);
+                drawLod(subMesh, lodSelector.applyAsInt(gameItem));
+            }
+        }
+    }
+
+    /**
+     * Draws one sub mesh, for callers that order the draws of several meshes
+     * themselves. The data of the item and of the material of the sub mesh
+     * has to be set up before.
+     *
+     * @param index Index of the sub mesh
+     * @param level Level of detail
+     */
+    public void renderSubMesh(int index, int level) {
         initRender();
 
-        glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+        SubMesh subMesh = subMeshes[index];
+        bindTexture(subMesh.getMaterial());
+        drawLod(subMesh, level);
+    }
 
-        endRender();
+    /**
+     * Makes the mesh draw its items with one instanced call per sub mesh and
+     * level of detail, when there are at least {@link #INSTANCING_THRESHOLD}
+     * of them. Their shader reads the model view matrix from the attributes
+     * at {@link #INSTANCE_MATRIX_LOCATION} instead of a uniform.
+     *
+     * @param instanced If the mesh can draw instanced
+     */
+    public void setInstanced(boolean instanced) {
+        this.instanced = instanced;
     }
 
-    public void renderList(List<GameItem> gameItems, Consumer<GameItem> consumer) {
+    public boolean isInstanced() {
+        return instanced;
+    }
+
+    /**
+     * @param itemCount Number of items to draw
+     * @return If {@link #renderListInstanced} has to be used for them
+     */
+    public boolean drawsInstanced(int itemCount) {
+        return instanced && itemCount >= INSTANCING_THRESHOLD;
+    }
+
+    /**
+     * Renders a list of game items with instanced draw calls. The model view
+     * matrices are packed into an instance buffer, ordered by level of detail
+     * so that each level draws a contiguous range of instances.
+     *
+     * @param gameItems        Items using this mesh
+     * @param materialConsumer Sets up the data required by each material
+     * @param modelView        Returns the model view matrix of each item, it
+     *                         is copied before the next item
+     * @param lodSelector      Returns the level to draw for each item
+     */
+    public void renderListInstanced(List<GameItem> gameItems, Consumer<Material> materialConsumer,
+                                    Function<GameItem, Matrix4f> modelView, ToIntFunction<GameItem> lodSelector) {
+        int count = gameItems.size();
+        int levels = lodErrors.length;
+        if (itemLevels.length < count) {
+            itemLevels = new int[Math.max(count, itemLevels.length * 2)];
+        }
+        if (levelStarts.length < levels + 1) {
+            levelStarts = new int[levels + 1];
+            levelEnds = new int[levels + 1];
+        }
+        // Count the items of each level, the prefix sums give the ranges
+        Arrays.fill(levelStarts, 0);
+        for (int i = 0; i < count; i++) {
+            int level = Math.min(lodSelector.applyAsInt(gameItems.get(i)), levels - 1);
+            itemLevels[i] = level;
+            levelStarts[level + 1]++;
+        }
+        for (int level = 0; level < levels; level++) {
+            levelStarts[level + 1] += levelStarts[level];
+        }
+        System.arraycopy(levelStarts, 0, levelEnds, 0, levels);
+
+        ensureInstanceCapacity(count);
+        for (int i = 0; i < count; i++) {
+            int slot = levelEnds[itemLevels[i]]++;
+            modelView.apply(gameItems.get(i)).get(slot * MATRIX_FLOATS, instanceData);
+        }
+        instanceData.limit(count * MATRIX_FLOATS);
+
         initRender();
+        instanceVbo.bind(GL_ARRAY_BUFFER);
+        // A new store every frame, the driver does not wait for the draws still reading the old one
+        instanceVbo.uploadData(GL_ARRAY_BUFFER, instanceData, GL_STREAM_DRAW);
+
+        for (SubMesh subMesh : subMeshes) {
+            Material material = subMesh.getMaterial();
+            materialConsumer.accept(material);
+            bindTexture(material);
+            for (int level = 0; level < levels; level++) {
+                int instances = levelStarts[level + 1] - levelStarts[level];
+                if (instances == 0) {
+                    continue;
+                }
+                pointInstances(levelStarts[level]);
+                MeshLod lod = subMesh.getLod(level);
+                device().glDrawElementsInstanced(GL_TRIANGLES, lod.getIndexCount(), indexType,
+                        (long) lod.getIndexOffset() * indexSize, instances);
+            }
+        }
+    }
 
-        for (GameItem gameItem : gameItems) {
-            // Set up data required by gameItem
-            consumer.accept(gameItem);
-            // Render this game item
-            glDrawElements(GL_TRIANGLES, getVertexCount(), GL_UNSIGNED_INT, 0);
+    private void ensureInstanceCapacity(int count) {
+        if (instanceData != null && instanceData.capacity() >= count * MATRIX_FLOATS) {
+            instanceData.clear();
+            return;
         }
+        if (instanceData != null) {
+            memFree(instanceData);
+        }
+        int capacity = Integer.highestOneBit(Math.max(count, INSTANCING_THRESHOLD) - 1) << 1;
+        instanceData = memAllocFloat(capacity * MATRIX_FLOATS);
+        if (instanceVbo == null) {
+            // The matrix columns advance once per instance, the vertex array keeps the setup
+            instanceVbo = new VertexBufferObject();
+            vao.bind();
+            instanceVbo.bind(GL_ARRAY_BUFFER);
+            for (int column = 0; column < 4; column++) {
+                device().glEnableVertexAttribArray(INSTANCE_MATRIX_LOCATION + column);
+                device().glVertexAttribDivisor(INSTANCE_MATRIX_LOCATION + column, 1);
+            }
+            pointedInstance = -1;
+        }
+    }
 
-        endRender();
+    /**
+     * Points the matrix attributes at an instance, the first one drawn.
+     * OpenGL 3.3 has no base instance for instanced draws.
+     */
+    private void pointInstances(int first) {
+        if (pointedInstance == first) {
+            return;
+        }
+        int stride = MATRIX_FLOATS * Float.BYTES;
+        for (int column = 0; column < 4; column++) {
+            device().glVertexAttribPointer(INSTANCE_MATRIX_LOCATION + column, 4, GL_FLOAT, false, stride,
+                    (long) first * stride + column * 4 * Float.BYTES);
+        }
+        pointedInstance = first;
     }
 
+    /**
+     * Picks the coarsest level whose error stays below a threshold on screen.
+     *
+     * @param pixelsPerUnit  Size on screen, in pixels, of one object space unit
+     *                       of this mesh at the distance it is drawn
+     * @param maxPixelError  Largest acceptable error in pixels
+     * @return Index of the level to draw
+     */
+    public int selectLod(float pixelsPerUnit, float maxPixelError) {
+        for (int i = lodErrors.length - 1; i > 0; i--) {
+            if (lodErrors[i] * pixelsPerUnit <= maxPixelError) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Levels of detail of the first sub mesh
+     */
+    public MeshLod[] getLods() {
+        return subMeshes[0].getLods();
+    }
+
+    /**
+     * Sets the levels of detail of a mesh with a single sub mesh. They have to
+     * index the index buffer of this mesh, level 0 being the full detail one.
+     *
+     * @param lods The levels
+     */
+    public void setLods(MeshLod[] lods) {
+        subMeshes[0].setLods(lods);
+        updateLodErrors();
+    }
+
+    public SubMesh[] getSubMeshes() {
+        return subMeshes;
+    }
+
+    /**
+     * Splits the mesh into sub meshes, which have to cover ranges of the index
+     * buffer of this mesh.
+     *
+     * @param subMeshes The sub meshes
+     */
+    public void setSubMeshes(SubMesh[] subMeshes) {
+        this.subMeshes = subMeshes;
+        updateLodErrors();
+    }
+
+    private void updateLodErrors() {
+        // A level is as coarse as its coarsest sub mesh
+        int levels = 0;
+        for (SubMesh subMesh : subMeshes) {
+            levels = Math.max(levels, subMesh.getLods().length);
+        }
+        lodErrors = new float[levels];
+        for (int i = 0; i < levels; i++) {
+            for (SubMesh subMesh : subMeshes) {
+                lodErrors[i] = Math.max(lodErrors[i], subMesh.getLod(i).getError());
+            }
+        }
+    }
+
+    /**
+     * @return Transform from the stored positions to object space, which has
+     * to be applied after the model matrix, or null if positions are stored
+     * in object space
+     */
+    public Matrix4f getPositionTransform() {
+        return positionTransform;
+    }
+
+    /**
+     * @return Material of the first sub mesh
+     */
     public Material getMaterial() {
-        return material;
+        return subMeshes[0].getMaterial();
     }
 
+    /**
+     * Sets the material of every sub mesh.
+     *
+     * @param material The material
+     */
     public void setMaterial(Material material) {
-        this.material = material;
+        for (SubMesh subMesh : subMeshes) {
+            subMesh.setMaterial(material);
+        }
+    }
+
+    public VertexFormat getFormat() {
+        return format;
     }
 
     public int getVaoId() {
         return vao.getID();
     }
 
+    /**
+     * @return Number of indices drawn at full detail, over all sub meshes
+     */
     public int getVertexCount() {
-        return vtxCount;
+        int count = 0;
+        for (SubMesh subMesh : subMeshes) {
+            count += subMesh.getLod(0).getIndexCount();
+        }
+        return count;
     }
 
     public void bind(){
@@ -144,15 +475,23 @@ public class Mesh {
 
     public void cleanUp() {
         // Delete the VBOs
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        device().glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (VertexBufferObject vbo : vboList) {
             vbo.delete();
         }
-
-        // Delete the texture
-        Texture texture = material.getTexture();
-        if (texture != null) {
-            texture.cleanup();
+        deleteInstances();
+
+        // Delete the textures, once even if several sub meshes share one
+        Set<Texture> textures = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SubMesh subMesh : subMeshes) {
+            Material material = subMesh.getMaterial();
+            if (material == null) {
+                continue;
+            }
+            if (material.getTexture() != null && textures.add(material.getTexture())) {
+                material.getTexture().cleanup();
+            }
+            material.cleanup();
         }
 
         // Delete the VAO
@@ -160,15 +499,27 @@ public class Mesh {
     }
 
     public void deleteBuffers() {
-        glDisableVertexAttribArray(0);
+        device().glDisableVertexAttribArray(0);
 
         // Delete the VBOs
-        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        device().glBindBuffer(GL_ARRAY_BUFFER, 0);
         for (VertexBufferObject vbo : vboList) {
             vbo.delete();
         }
+        deleteInstances();
 
         // Delete the VAO
         vao.delete();
     }
+
+    private void deleteInstances() {
+        if (instanceVbo != null) {
+            instanceVbo.delete();
+            instanceVbo = null;
+        }
+        if (instanceData != null) {
+            memFree(instanceData);
+            instanceData = null;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Builds a mesh directly into off-heap buffers, one interleaved vertex buffer
+ * in a {@link VertexFormat} and one int index buffer. The buffers grow as
+ * vertices and indices are added, nothing is boxed and nothing is copied
+ * again before the upload.
+ * <p>
+ * The builder owns native memory: {@link #build()} uploads and frees it,
+ * otherwise {@link #free()} has to be called.
+ */
+public class MeshBuilder {
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private final VertexFormat format;
+
+    private final int stride;
+
+    private final float[] value = new float[4];
+
+    private ByteBuffer vertices;
+
+    private IntBuffer indices;
+
+    private int vertexCount;
+
+    private int indexCount;
+
+    public MeshBuilder(VertexFormat format) {
+        this(format, DEFAULT_CAPACITY, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param format         Layout of the vertices
+     * @param vertexCapacity Number of vertices to reserve room for
+     * @param indexCapacity  Number of indices to reserve room for
+     */
+    public MeshBuilder(VertexFormat format, int vertexCapacity, int indexCapacity) {
+        this.format = format;
+        this.stride = format.getStride();
+        vertices = memAlloc(Math.max(vertexCapacity, 1) * stride);
+        indices = memAllocInt(Math.max(indexCapacity, 1));
+    }
+
+    private void ensureVertexCapacity(int count) {
+        long needed = (long) count * stride;
+        if (needed > vertices.capacity()) {
+            long grown = Math.max(needed, (long) vertices.capacity() * 2);
+            vertices = memRealloc(vertices, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+        }
+    }
+
+    private void ensureIndexCapacity(int count) {
+        if (count > indices.capacity()) {
+            indices = memRealloc(indices, Math.max(count, indices.capacity() * 2));
+        }
+    }
+
+    /**
+     * Adds a vertex. The values go to the first three attributes of the
+     * format, which are position, texture coordinate and normal in the
+     * formats of {@link VertexFormat}.
+     *
+     * @return Index of the new vertex
+     */
+    public int addVertex(float x, float y, float z, float u, float v, float nx, float ny, float nz) {
+        ensureVertexCapacity(vertexCount + 1);
+        int vertex = vertexCount++;
+        value[0] = x;
+        value[1] = y;
+        value[2] = z;
+        format.put(vertices, vertex, 0, value, 0);
+        value[0] = u;
+        value[1] = v;
+        format.put(vertices, vertex, 1, value, 0);
+        value[0] = nx;
+        value[1] = ny;
+        value[2] = nz;
+        format.put(vertices, vertex, 2, value, 0);
+        return vertex;
+    }
+
+    /**
+     * Adds vertices from separate attribute arrays. An empty array leaves the
+     * attribute at zero.
+     *
+     * @param positions Vertex positions, 3 floats each
+     * @param texCoords Vertex texture coordinates, 2 floats each, or empty
+     * @param normals   Vertex normals, 3 floats each, or empty
+     */
+    public void addVertices(float[] positions, float[] texCoords, float[] normals) {
+        int count = positions.length / 3;
+        ensureVertexCapacity(vertexCount + count);
+        for (int i = 0; i < count; i++) {
+            int vertex = vertexCount++;
+            format.put(vertices, vertex, 0, positions, i * 3);
+            if (texCoords.length > 0) {
+                format.put(vertices, vertex, 1, texCoords, i * 2);
+            } else {
+                clear(vertex, 1);
+            }
+            if (normals.length > 0) {
+                format.put(vertices, vertex, 2, normals, i * 3);
+            } else {
+                clear(vertex, 2);
+            }
+        }
+    }
+
+    private void clear(int vertex, int attribute) {
+        value[0] = value[1] = value[2] = value[3] = 0;
+        format.put(vertices, vertex, attribute, value, 0);
+    }
+
+    public void addIndex(int index) {
+        ensureIndexCapacity(indexCount + 1);
+        indices.put(indexCount++, index);
+    }
+
+    public void addTriangle(int a, int b, int c) {
+        ensureIndexCapacity(indexCount + 3);
+        indices.put(indexCount++, a);
+        indices.put(indexCount++, b);
+        indices.put(indexCount++, c);
+    }
+
+    public void addIndices(int[] values) {
+        ensureIndexCapacity(indexCount + values.length);
+        indices.position(indexCount);
+        indices.put(values);
+        indices.position(0);
+        indexCount += values.length;
+    }
+
+    /**
+     * Reorders the triangles and vertices built so far with
+     * {@link MeshOptimizer}. Vertices no triangle references are dropped.
+     *
+     * @return this
+     */
+    public MeshBuilder optimize() {
+        int[] current = new int[indexCount];
+        indices.get(current, 0, indexCount);
+        indices.position(0);
+        int[] optimized = MeshOptimizer.optimizeVertexCache(current, vertexCount);
+        int[] remap = MeshOptimizer.optimizeVertexFetch(optimized, vertexCount);
+
+        ByteBuffer remapped = memAlloc(vertices.capacity());
+        long src = memAddress(vertices, 0);
+        long dst = memAddress(remapped, 0);
+        int newCount = 0;
+        for (int v = 0; v < vertexCount; v++) {
+            if (remap[v] >= 0) {
+                memCopy(src + (long) v * stride, dst + (long) remap[v] * stride, stride);
+                newCount = Math.max(newCount, remap[v] + 1);
+            }
+        }
+        memFree(vertices);
+        vertices = remapped;
+        vertexCount = newCount;
+
+        indices.put(optimized);
+        indices.position(0);
+        return this;
+    }
+
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return View of the vertex data built so far, valid until the next
+     * vertex is added
+     */
+    public ByteBuffer getVertices() {
+        ByteBuffer view = vertices.duplicate().order(ByteOrder.nativeOrder());
+        view.position(0).limit(vertexCount * stride);
+        return view;
+    }
+
+    /**
+     * @return View of the index data built so far as bytes, valid until the
+     * next index is added
+     */
+    public ByteBuffer getIndices() {
+        return memByteBuffer(memAddress(indices, 0), indexCount * Integer.BYTES);
+    }
+
+    /**
+     * Uploads the mesh and frees the native memory of the builder.
+     *
+     * @return The mesh
+     */
+    public Mesh build() {
+        try {
+            return new Mesh(this);
+        } finally {
+            free();
+        }
+    }
+
+    /**
+     * Frees the native memory. The builder can not be used afterwards.
+     */
+    public void free() {
+        if (vertices != null) {
+            memFree(vertices);
+            memFree(indices);
+            vertices = null;
+            indices = null;
+        }
+    }
+}
@@ -0,0 +1,454 @@
+package engine.graphix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * On disk cache of loaded meshes in a compact binary format, so that a model
+ * only has to be parsed the first time it is loaded. Entries are named after a
+ * hash of the source file contents, an edited source therefore never hits a
+ * stale entry.
+ * <p>
+ * File layout, all values in native byte order:
+ * <pre>
+ *  0  int    magic
+ *  4  int    version
+ *  8  int    vertex count
+ * 12  int    index count
+ * 16  int    vertex stride in bytes
+ * 20  int    size of the sub mesh table in bytes
+ * 24  float  bounds min x, y, z
+ * 36  float  bounds max x, y, z
+ * 48  long   source hash
+ * 56  long   source length
+ * 64  sub mesh table:
+ *     int    material library count, then one string per library
+ *     int    sub mesh count, then per sub mesh:
+ *            string material name, int level of detail count and per level
+ *            index offset (int), index count (int), error (float), padding
+ *     strings are stored as a byte length (int, -1 for null) followed by
+ *     the UTF-8 bytes, padded to 4 bytes
+ *     vertex block, interleaved position (3 floats), texture coordinate
+ *     (2 floats) and normal (3 floats)
+ *     index block, one int per index, all levels one after the other
+ * </pre>
+ * Loading maps the file and hands slices of the mapping to {@link Mesh}, so
+ * the data goes from the page cache to the driver without a heap copy.
+ */
+public class MeshCache {
+
+    public static final String DEFAULT_DIRECTORY = "cache/meshes";
+
+    private static final int MAGIC = 0x4853454D; // "MESH"
+
+    private static final int VERSION = 5;
+
+    private static final int HEADER_SIZE = 64;
+
+    private static final int LOD_ENTRY_SIZE = 16;
+
+    private static final int NO_STRING = -1;
+
+    private static final VertexFormat FORMAT = VertexFormat.FLOAT;
+
+    public static final int VERTEX_STRIDE = FORMAT.getStride();
+
+    private static final String EXTENSION = ".mesh";
+
+    private final Path directory;
+
+    public MeshCache() {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    public MeshCache(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Looks for a cache entry of a source file.
+     *
+     * @param hash         {@link #hash(ByteBuffer) Hash} of the source file
+     * @param sourceLength Size of the source file in bytes
+     * @return The mapped entry or null if there is no valid entry
+     * @throws IOException If an existing entry can not be read
+     */
+    public Entry find(long hash, long sourceLength) throws IOException {
+        Path path = entryPath(hash);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(16) != VERTEX_STRIDE || buffer.getLong(48) != hash
+                || buffer.getLong(56) != sourceLength) {
+            return null;
+        }
+        Entry entry = new Entry(buffer);
+        long expected = entry.vertexOffset + (long) entry.vertexCount * VERTEX_STRIDE
+                + (long) entry.indexCount * Integer.BYTES;
+        return buffer.limit() == expected ? entry : null;
+    }
+
+    /**
+     * Writes a cache entry for a source file. The entry is written to a
+     * temporary file first and then moved in place, so a crash never leaves a
+     * truncated entry behind.
+     *
+     * @param hash         {@link #hash(ByteBuffer) Hash} of the source file
+     * @param sourceLength Size of the source file in bytes
+     * @param positions    Vertex positions
+     * @param texCoords    Vertex texture coordinates
+     * @param normals      Vertex normals
+     * @param indices      Triangle indices of all levels of detail
+     * @param libraries    Material libraries the model references
+     * @param subMeshes    Sub meshes with their levels of detail
+     * @throws IOException If the entry can not be written
+     */
+    public void store(long hash, long sourceLength, float[] positions, float[] texCoords, float[] normals,
+                      int[] indices, List<String> libraries, SubMesh[] subMeshes) throws IOException {
+        int vertexCount = positions.length / 3;
+        int tableSize = Integer.BYTES * 2;
+        for (String library : libraries) {
+            tableSize += stringSize(library);
+        }
+        for (SubMesh subMesh : subMeshes) {
+            tableSize += stringSize(subMesh.getMaterialName()) + Integer.BYTES
+                    + subMesh.getLods().length * LOD_ENTRY_SIZE;
+        }
+        long size = HEADER_SIZE + tableSize + (long) vertexCount * VERTEX_STRIDE
+                + (long) indices.length * Integer.BYTES;
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, "mesh", ".tmp");
+        try {
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+                buffer.putInt(MAGIC).putInt(VERSION).putInt(vertexCount).putInt(indices.length)
+                        .putInt(VERTEX_STRIDE).putInt(tableSize);
+                float[] bounds = computeBounds(positions);
+                for (float value : bounds) {
+                    buffer.putFloat(value);
+                }
+                buffer.putLong(hash).putLong(sourceLength);
+                buffer.putInt(libraries.size());
+                for (String library : libraries) {
+                    putString(buffer, library);
+                }
+                buffer.putInt(subMeshes.length);
+                for (SubMesh subMesh : subMeshes) {
+                    putString(buffer, subMesh.getMaterialName());
+                    buffer.putInt(subMesh.getLods().length);
+                    for (MeshLod lod : subMesh.getLods()) {
+                        buffer.putInt(lod.getIndexOffset()).putInt(lod.getIndexCount()).putFloat(lod.getError())
+                                .putInt(0);
+                    }
+                }
+
+                ByteBuffer vertices = buffer.slice().order(ByteOrder.nativeOrder());
+                FORMAT.put(vertices, 0, positions);
+                FORMAT.put(vertices, 1, texCoords);
+                FORMAT.put(vertices, 2, normals);
+                buffer.position(buffer.position() + vertexCount * VERTEX_STRIDE);
+                buffer.asIntBuffer().put(indices);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    fc.write(buffer);
+                }
+            }
+            Files.move(tmp, entryPath(hash), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static int stringSize(String value) {
+        int length = value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+        return Integer.BYTES + ((length + 3) & ~3);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(NO_STRING);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+        buffer.position(buffer.position() + ((bytes.length + 3) & ~3) - bytes.length);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == NO_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        buffer.position(buffer.position() + ((length + 3) & ~3) - length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Path entryPath(long hash) {
+        return directory.resolve(String.format("%016x", hash) + EXTENSION);
+    }
+
+    /**
+     * Computes the axis aligned bounding box of a set of positions.
+     *
+     * @param positions Positions, 3 floats each
+     * @return min x, y, z followed by max x, y, z
+     */
+    public static float[] computeBounds(float[] positions) {
+        float[] bounds = new float[6];
+        if (positions.length == 0) {
+            return bounds;
+        }
+        for (int i = 0; i < 3; i++) {
+            bounds[i] = Float.POSITIVE_INFINITY;
+            bounds[i + 3] = Float.NEGATIVE_INFINITY;
+        }
+        for (int i = 0; i < positions.length; i++) {
+            int axis = i % 3;
+            bounds[axis] = Math.min(bounds[axis], positions[i]);
+            bounds[axis + 3] = Math.max(bounds[axis + 3], positions[i]);
+        }
+        return bounds;
+    }
+
+    /**
+     * 64 bit hash of the remaining bytes of a buffer. Reads eight bytes at a
+     * time and mixes them with the MurmurHash3 finalizer, which is fast enough
+     * to run over a mapped model on every start.
+     *
+     * @param data Buffer to hash, its position is not modified
+     * @return The hash
+     */
+    public static long hash(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long h = 0x9E3779B97F4A7C15L ^ buffer.remaining();
+        while (buffer.remaining() >= Long.BYTES) {
+            h = mix(h ^ mix(buffer.getLong()));
+        }
+        long tail = 0;
+        for (int shift = 0; buffer.hasRemaining(); shift += 8) {
+            tail |= (buffer.get() & 0xFFL) << shift;
+        }
+        return mix(h ^ mix(tail));
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * A mapped cache entry.
+     */
+    public static class Entry {
+
+        private final ByteBuffer buffer;
+
+        private final int vertexCount;
+
+        private final int indexCount;
+
+        private final int vertexOffset;
+
+        private final List<String> libraries;
+
+        private final String[] materialNames;
+
+        private final MeshLod[][] lods;
+
+        private Entry(ByteBuffer buffer) {
+            this.buffer = buffer;
+            this.vertexCount = buffer.getInt(8);
+            this.indexCount = buffer.getInt(12);
+            this.vertexOffset = HEADER_SIZE + buffer.getInt(20);
+
+            ByteBuffer table = buffer.duplicate().order(ByteOrder.nativeOrder());
+            table.position(HEADER_SIZE);
+            int libraryCount = table.getInt();
+            libraries = new ArrayList<>(libraryCount);
+            for (int i = 0; i < libraryCount; i++) {
+                libraries.add(getString(table));
+            }
+            int subMeshCount = table.getInt();
+            materialNames = new String[subMeshCount];
+            lods = new MeshLod[subMeshCount][];
+            for (int i = 0; i < subMeshCount; i++) {
+                materialNames[i] = getString(table);
+                lods[i] = new MeshLod[table.getInt()];
+                for (int j = 0; j < lods[i].length; j++) {
+                    lods[i][j] = new MeshLod(table.getInt(), table.getInt(), table.getFloat());
+                    table.getInt();
+                }
+            }
+        }
+
+        public int getVertexCount() {
+            return vertexCount;
+        }
+
+        public int getIndexCount() {
+            return indexCount;
+        }
+
+        /**
+         * @return min x, y, z followed by max x, y, z of the positions
+         */
+        public float[] getBounds() {
+            float[] bounds = new float[6];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = buffer.getFloat(24 + i * Float.BYTES);
+            }
+            return bounds;
+        }
+
+        /**
+         * @return Material libraries the model references
+         */
+        public List<String> getMaterialLibraries() {
+            return libraries;
+        }
+
+        /**
+         * @return New sub meshes as stored in the entry, without materials
+         */
+        public SubMesh[] createSubMeshes() {
+            SubMesh[] subMeshes = new SubMesh[materialNames.length];
+            for (int i = 0; i < subMeshes.length; i++) {
+                subMeshes[i] = new SubMesh(materialNames[i], lods[i]);
+            }
+            return subMeshes;
+        }
+
+        /**
+         * @return View of the interleaved vertex block
+         */
+        public ByteBuffer getVertices() {
+            return slice(vertexOffset, vertexCount * VERTEX_STRIDE);
+        }
+
+        /**
+         * @return View of the index block
+         */
+        public IntBuffer getIndices() {
+            return getIndexData().asIntBuffer();
+        }
+
+        private ByteBuffer getIndexData() {
+            return slice(vertexOffset + vertexCount * VERTEX_STRIDE, indexCount * Integer.BYTES);
+        }
+
+        private ByteBuffer slice(int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset).limit(offset + length);
+            return view.slice().order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * Reads the texture coordinates back from the mapping.
+         *
+         * @return Texture coordinates, 2 floats per vertex
+         */
+        public float[] getTexCoords() {
+            float[] texCoords = new float[vertexCount * 2];
+            ByteBuffer vertices = getVertices();
+            for (int i = 0; i < vertexCount; i++) {
+                texCoords[i * 2] = FORMAT.get(vertices, i, 1, 0);
+                texCoords[i * 2 + 1] = FORMAT.get(vertices, i, 1, 1);
+            }
+            return texCoords;
+        }
+
+        /**
+         * Creates a mesh in the compact vertex format of {@link MeshQuantizer}.
+         * The vertices are read back from the mapping and quantized.
+         *
+         * @return The mesh
+         */
+        public Mesh createCompactMesh() {
+            return createCompactMesh(getTexCoords(), false);
+        }
+
+        /**
+         * Creates a mesh in the compact vertex format with other texture
+         * coordinates, such as ones moved into a {@link TextureAtlas}.
+         *
+         * @param texCoords     Texture coordinates, 2 floats per vertex
+         * @param unitTexCoords If every texture coordinate is inside [0, 1],
+         *                      see {@link VertexFormat#COMPACT_UNIT_UV}
+         * @return The mesh
+         */
+        public Mesh createCompactMesh(float[] texCoords, boolean unitTexCoords) {
+            float[] positions = new float[vertexCount * 3];
+            float[] normals = new float[vertexCount * 3];
+            ByteBuffer vertices = getVertices();
+            for (int i = 0; i < vertexCount; i++) {
+                for (int j = 0; j < 3; j++) {
+                    positions[i * 3 + j] = FORMAT.get(vertices, i, 0, j);
+                    normals[i * 3 + j] = FORMAT.get(vertices, i, 2, j);
+                }
+            }
+            int[] indices = new int[indexCount];
+            getIndices().get(indices);
+            Mesh mesh = new Mesh(new MeshQuantizer(positions, texCoords, normals, indices, unitTexCoords));
+            mesh.setSubMeshes(createSubMeshes());
+            return mesh;
+        }
+
+        /**
+         * Creates a mesh straight from the mapped data.
+         *
+         * @return The mesh
+         */
+        public Mesh createMesh() {
+            Mesh mesh = new Mesh(getVertices(), getIndexData());
+            mesh.setSubMeshes(createSubMeshes());
+            return mesh;
+        }
+
+        /**
+         * Creates a mesh with other texture coordinates. The vertices are
+         * copied, the mapping stays unchanged.
+         *
+         * @param texCoords Texture coordinates, 2 floats per vertex
+         * @return The mesh
+         */
+        public Mesh createMesh(float[] texCoords) {
+            ByteBuffer vertices = memAlloc(vertexCount * VERTEX_STRIDE);
+            try {
+                vertices.put(getVertices()).flip();
+                FORMAT.put(vertices, 1, texCoords);
+                Mesh mesh = new Mesh(vertices, getIndexData());
+                mesh.setSubMeshes(createSubMeshes());
+                return mesh;
+            } finally {
+                memFree(vertices);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package engine.graphix;
+
+/**
+ * One level of detail of a {@link Mesh}. All levels share the vertex buffer of
+ * the mesh, a level is just a range of its index buffer.
+ */
+public class MeshLod {
+
+    private final int indexOffset;
+
+    private final int indexCount;
+
+    private final float error;
+
+    /**
+     * @param indexOffset First index of the level in the index buffer
+     * @param indexCount  Number of indices of the level
+     * @param error       Maximum geometric deviation from the full detail
+     *                    mesh, in object space units
+     */
+    public MeshLod(int indexOffset, int indexCount, float error) {
+        this.indexOffset = indexOffset;
+        this.indexCount = indexCount;
+        this.error = error;
+    }
+
+    public int getIndexOffset() {
+        return indexOffset;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    public float getError() {
+        return error;
+    }
+}
@@ -0,0 +1,383 @@
+package engine.graphix;
+
+import java.util.Arrays;
+
+/**
+ * Reorders indexed triangle meshes for the GPU before they are uploaded.
+ * Triangles are first reordered for the post transform vertex cache with Tom
+ * Forsyth's linear speed algorithm, then vertices are renumbered in the order
+ * the triangles reference them so vertex fetches walk the buffers forward.
+ * <p>
+ * Everything here works on plain arrays and never touches OpenGL.
+ */
+public class MeshOptimizer {
+
+    /**
+     * Size of the simulated LRU cache the triangle order is optimized for.
+     */
+    private static final int CACHE_SIZE = 32;
+
+    /**
+     * Size of the FIFO cache used to report cache statistics.
+     */
+    public static final int STATS_CACHE_SIZE = 16;
+
+    private static final float CACHE_DECAY_POWER = 1.5f;
+
+    private static final float LAST_TRI_SCORE = 0.75f;
+
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    private static final int MAX_VALENCE_SCORE = 64;
+
+    private static final float[] CACHE_POSITION_SCORE = new float[CACHE_SIZE];
+
+    private static final float[] VALENCE_SCORE = new float[MAX_VALENCE_SCORE];
+
+    static {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            if (i < 3) {
+                // The last triangle's vertices get a fixed score, so it does not matter which one is reused
+                CACHE_POSITION_SCORE[i] = LAST_TRI_SCORE;
+            } else {
+                float scaler = 1.0f / (CACHE_SIZE - 3);
+                CACHE_POSITION_SCORE[i] = (float) Math.pow(1.0f - (i - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        for (int i = 1; i < MAX_VALENCE_SCORE; i++) {
+            // Boost vertices with few triangles left, so that lone triangles are not left behind
+            VALENCE_SCORE[i] = VALENCE_BOOST_SCALE * (float) Math.pow(i, -VALENCE_BOOST_POWER);
+        }
+    }
+
+    private final float[] positions;
+
+    private final float[] texCoords;
+
+    private final float[] normals;
+
+    private final int[] indices;
+
+    private final Stats statsBefore;
+
+    private final Stats statsAfter;
+
+    /**
+     * Optimizes a mesh with positions, texture coordinates and normals.
+     * Vertices that are not referenced by any triangle are dropped.
+     *
+     * @param positions Vertex positions, 3 floats each
+     * @param texCoords Vertex texture coordinates, 2 floats each
+     * @param normals   Vertex normals, 3 floats each
+     * @param indices   Triangle indices
+     */
+    public MeshOptimizer(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+        this(positions, texCoords, normals, indices, new int[]{0, indices.length});
+    }
+
+    /**
+     * Optimizes a mesh made of several index ranges, such as one per material.
+     * Triangles are reordered inside their range only, so the ranges stay
+     * valid.
+     *
+     * @param positions    Vertex positions, 3 floats each
+     * @param texCoords    Vertex texture coordinates, 2 floats each
+     * @param normals      Vertex normals, 3 floats each
+     * @param indices      Triangle indices
+     * @param rangeOffsets Index offsets of the ranges, followed by the total
+     *                     index count
+     */
+    public MeshOptimizer(float[] positions, float[] texCoords, float[] normals, int[] indices, int[] rangeOffsets) {
+        int vertexCount = positions.length / 3;
+        statsBefore = analyze(indices, vertexCount);
+        int[] optimized = new int[indices.length];
+        for (int i = 0; i + 1 < rangeOffsets.length; i++) {
+            int[] range = Arrays.copyOfRange(indices, rangeOffsets[i], rangeOffsets[i + 1]);
+            int[] result = optimizeVertexCache(range, vertexCount);
+            System.arraycopy(result, 0, optimized, rangeOffsets[i], result.length);
+        }
+        int[] remap = optimizeVertexFetch(optimized, vertexCount);
+        this.positions = remapVertices(positions, 3, remap);
+        this.texCoords = remapVertices(texCoords, 2, remap);
+        this.normals = remapVertices(normals, 3, remap);
+        this.indices = optimized;
+        statsAfter = analyze(this.indices, this.positions.length / 3);
+    }
+
+    public float[] getPositions() {
+        return positions;
+    }
+
+    public float[] getTexCoords() {
+        return texCoords;
+    }
+
+    public float[] getNormals() {
+        return normals;
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    public Stats getStatsBefore() {
+        return statsBefore;
+    }
+
+    public Stats getStatsAfter() {
+        return statsAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "before: " + statsBefore + ", after: " + statsAfter;
+    }
+
+    /**
+     * Reorders triangles for vertex cache locality.
+     *
+     * @param indices     Triangle indices
+     * @param vertexCount Number of vertices referenced by the indices
+     * @return New index array holding the same triangles in optimized order
+     */
+    public static int[] optimizeVertexCache(int[] indices, int vertexCount) {
+        int triCount = indices.length / 3;
+        int[] result = new int[triCount * 3];
+        if (triCount == 0) {
+            return result;
+        }
+
+        // Triangles adjacent to each vertex, live ones are kept at the front of each vertex's range
+        int[] liveTriangles = new int[vertexCount];
+        for (int i = 0; i < triCount * 3; i++) {
+            liveTriangles[indices[i]]++;
+        }
+        int[] adjacencyOffset = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            adjacencyOffset[v + 1] = adjacencyOffset[v] + liveTriangles[v];
+        }
+        int[] adjacency = new int[triCount * 3];
+        int[] fill = Arrays.copyOf(adjacencyOffset, vertexCount);
+        for (int i = 0; i < triCount * 3; i++) {
+            adjacency[fill[indices[i]]++] = i / 3;
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScore[v] = vertexScore(-1, liveTriangles[v]);
+        }
+        boolean[] emitted = new boolean[triCount];
+        int bestTriangle = -1;
+        float bestScore = -1;
+        for (int t = 0; t < triCount; t++) {
+            float score = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]]
+                    + vertexScore[indices[t * 3 + 2]];
+            if (score > bestScore) {
+                bestScore = score;
+                bestTriangle = t;
+            }
+        }
+
+        int[] cache = new int[CACHE_SIZE + 3];
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int cacheCount = 0;
+        int scanCursor = 0;
+        for (int out = 0; out < triCount; out++) {
+            if (bestTriangle < 0) {
+                // Nothing in the cache is adjacent to a live triangle, continue with the next unused one
+                while (emitted[scanCursor]) {
+                    scanCursor++;
+                }
+                bestTriangle = scanCursor;
+            }
+            int a = indices[bestTriangle * 3];
+            int b = indices[bestTriangle * 3 + 1];
+            int c = indices[bestTriangle * 3 + 2];
+            result[out * 3] = a;
+            result[out * 3 + 1] = b;
+            result[out * 3 + 2] = c;
+            emitted[bestTriangle] = true;
+            removeTriangle(a, bestTriangle, adjacency, adjacencyOffset, liveTriangles);
+            removeTriangle(b, bestTriangle, adjacency, adjacencyOffset, liveTriangles);
+            removeTriangle(c, bestTriangle, adjacency, adjacencyOffset, liveTriangles);
+
+            // The emitted vertices move to the front of the cache
+            int newCount = 0;
+            newCache[newCount++] = a;
+            newCache[newCount++] = b;
+            newCache[newCount++] = c;
+            for (int i = 0; i < cacheCount; i++) {
+                int v = cache[i];
+                if (v != a && v != b && v != c) {
+                    newCache[newCount++] = v;
+                }
+            }
+            for (int i = 0; i < newCount; i++) {
+                int v = newCache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                vertexScore[v] = vertexScore(cachePosition[v], liveTriangles[v]);
+            }
+
+            // Only triangles touching the cache changed their score
+            bestTriangle = -1;
+            bestScore = -1;
+            for (int i = 0; i < newCount; i++) {
+                int v = newCache[i];
+                for (int j = adjacencyOffset[v], end = j + liveTriangles[v]; j < end; j++) {
+                    int t = adjacency[j];
+                    float score = vertexScore[indices[t * 3]] + vertexScore[indices[t * 3 + 1]]
+                            + vertexScore[indices[t * 3 + 2]];
+                    if (score > bestScore) {
+                        bestScore = score;
+                        bestTriangle = t;
+                    }
+                }
+            }
+
+            int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheCount = Math.min(newCount, CACHE_SIZE);
+        }
+        return result;
+    }
+
+    private static void removeTriangle(int v, int triangle, int[] adjacency, int[] adjacencyOffset,
+                                       int[] liveTriangles) {
+        int start = adjacencyOffset[v];
+        int last = start + liveTriangles[v] - 1;
+        for (int i = start; i <= last; i++) {
+            if (adjacency[i] == triangle) {
+                adjacency[i] = adjacency[last];
+                adjacency[last] = triangle;
+                liveTriangles[v]--;
+                return;
+            }
+        }
+    }
+
+    private static float vertexScore(int cachePosition, int liveTriangles) {
+        if (liveTriangles == 0) {
+            // No triangle needs this vertex any more
+            return -1.0f;
+        }
+        float score = cachePosition >= 0 ? CACHE_POSITION_SCORE[cachePosition] : 0.0f;
+        if (liveTriangles < MAX_VALENCE_SCORE) {
+            score += VALENCE_SCORE[liveTriangles];
+        } else {
+            score += VALENCE_BOOST_SCALE * (float) Math.pow(liveTriangles, -VALENCE_BOOST_POWER);
+        }
+        return score;
+    }
+
+    /**
+     * Renumbers vertices in the order they are first referenced. The indices
+     * are rewritten in place.
+     *
+     * @param indices     Triangle indices
+     * @param vertexCount Number of vertices referenced by the indices
+     * @return Table from old to new vertex index, -1 for unreferenced vertices
+     */
+    public static int[] optimizeVertexFetch(int[] indices, int vertexCount) {
+        int[] remap = new int[vertexCount];
+        Arrays.fill(remap, -1);
+        int next = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int v = indices[i];
+            if (remap[v] < 0) {
+                remap[v] = next++;
+            }
+            indices[i] = remap[v];
+        }
+        return remap;
+    }
+
+    /**
+     * Applies a remap table returned by {@link #optimizeVertexFetch(int[], int)}
+     * to a vertex attribute array.
+     *
+     * @param data       Attribute values
+     * @param components Number of floats per vertex
+     * @param remap      Table from old to new vertex index
+     * @return The attribute values in the new order
+     */
+    public static float[] remapVertices(float[] data, int components, int[] remap) {
+        int newCount = 0;
+        for (int r : remap) {
+            newCount = Math.max(newCount, r + 1);
+        }
+        float[] result = new float[newCount * components];
+        for (int v = 0; v < remap.length; v++) {
+            if (remap[v] >= 0) {
+                System.arraycopy(data, v * components, result, remap[v] * components, components);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Simulates a FIFO vertex cache of {@link #STATS_CACHE_SIZE} entries.
+     *
+     * @param indices     Triangle indices
+     * @param vertexCount Number of vertices
+     * @return Cache statistics of the index order
+     */
+    public static Stats analyze(int[] indices, int vertexCount) {
+        int[] timestamp = new int[vertexCount];
+        int time = STATS_CACHE_SIZE + 1;
+        int misses = 0;
+        for (int index : indices) {
+            if (time - timestamp[index] > STATS_CACHE_SIZE) {
+                // Not in the cache, the vertex is transformed and pushed in
+                timestamp[index] = time++;
+                misses++;
+            }
+        }
+        return new Stats(indices.length / 3, vertexCount, misses);
+    }
+
+    /**
+     * Post transform vertex cache statistics of an index buffer.
+     */
+    public static class Stats {
+
+        private final int triangleCount;
+
+        private final int vertexCount;
+
+        private final int transformedVertices;
+
+        private Stats(int triangleCount, int vertexCount, int transformedVertices) {
+            this.triangleCount = triangleCount;
+            this.vertexCount = vertexCount;
+            this.transformedVertices = transformedVertices;
+        }
+
+        /**
+         * @return Average cache miss ratio, transformed vertices per triangle
+         */
+        public float getAcmr() {
+            return triangleCount == 0 ? 0 : (float) transformedVertices / triangleCount;
+        }
+
+        /**
+         * @return Average transform to vertex ratio, 1.0 is optimal
+         */
+        public float getAtvr() {
+            return vertexCount == 0 ? 0 : (float) transformedVertices / vertexCount;
+        }
+
+        public int getTransformedVertices() {
+            return transformedVertices;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("ACMR %.3f, ATVR %.3f", getAcmr(), getAtvr());
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package engine.graphix;
+
+import org.joml.Matrix4f;
+import org.lwjgl.BufferUtils;
+
+import java.nio.ByteBuffer;
+
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+/**
+ * Packs a mesh into {@link VertexFormat#COMPACT}, 16 bytes per vertex instead
+ * of 32:
+ * <pre>
+ *  0  3 x unsigned short  position, normalized against the mesh bounds
+ *  6  2 bytes             padding
+ *  8  2 x half float      texture coordinate
+ * 12  3 x signed byte     normal, normalized, followed by a padding byte
+ * </pre>
+ * Texture coordinates known to be inside [0, 1] are stored as normalized
+ * unsigned shorts instead, see {@link VertexFormat#COMPACT_UNIT_UV}: their
+ * step of 1/65535 stays far below a texel of an atlas page, where half
+ * floats are a whole texel apart in the right and bottom half.
+ * Positions are quantized against a cube that encloses the bounds, so the
+ * transform back to object space is a uniform scale plus a translation. It
+ * is folded into the model view matrix and normals are not distorted.
+ * Indices are stored as unsigned shorts when every vertex can be addressed
+ * with 16 bits.
+ */
+public class MeshQuantizer {
+
+    private static final int MAX_SHORT_INDEX_VERTICES = 0x10000;
+
+    private final VertexFormat format;
+
+    private final ByteBuffer vertices;
+
+    private final ByteBuffer indices;
+
+    private final int vertexCount;
+
+    private final int indexCount;
+
+    private final int indexType;
+
+    private final float[] origin;
+
+    private final float scale;
+
+    /**
+     * Quantizes a mesh with positions, texture coordinates and normals.
+     *
+     * @param positions Vertex positions, 3 floats each
+     * @param texCoords Vertex texture coordinates, 2 floats each
+     * @param normals   Vertex normals, 3 floats each
+     * @param indices   Triangle indices
+     */
+    public MeshQuantizer(float[] positions, float[] texCoords, float[] normals, int[] indices) {
+        this(positions, texCoords, normals, indices, false);
+    }
+
+    /**
+     * Quantizes a mesh with positions, texture coordinates and normals.
+     *
+     * @param positions     Vertex positions, 3 floats each
+     * @param texCoords     Vertex texture coordinates, 2 floats each
+     * @param normals       Vertex normals, 3 floats each
+     * @param indices       Triangle indices
+     * @param unitTexCoords If every texture coordinate is inside [0, 1], so
+     *                      they can be stored as normalized unsigned shorts
+     */
+    public MeshQuantizer(float[] positions, float[] texCoords, float[] normals, int[] indices,
+            boolean unitTexCoords) {
+        format = unitTexCoords ? VertexFormat.COMPACT_UNIT_UV : VertexFormat.COMPACT;
+        vertexCount = positions.length / 3;
+        indexCount = indices.length;
+        float[] bounds = MeshCache.computeBounds(positions);
+        origin = new float[]{bounds[0], bounds[1], bounds[2]};
+        float extent = Math.max(bounds[3] - bounds[0], Math.max(bounds[4] - bounds[1], bounds[5] - bounds[2]));
+        // A flat or empty mesh still needs a scale that can be inverted
+        scale = extent > 0 ? extent : 1.0f;
+
+        vertices = BufferUtils.createByteBuffer(vertexCount * format.getStride());
+        float[] value = new float[3];
+        for (int i = 0; i < vertexCount; i++) {
+            for (int j = 0; j < 3; j++) {
+                value[j] = (positions[i * 3 + j] - origin[j]) / scale;
+            }
+            format.put(vertices, i, 0, value, 0);
+            format.put(vertices, i, 1, texCoords, i * 2);
+            // Only the direction survives, the components have to fit in [-1, 1]
+            float nx = normals[i * 3];
+            float ny = normals[i * 3 + 1];
+            float nz = normals[i * 3 + 2];
+            float length = (float) Math.sqrt(nx * nx + ny * ny + nz * nz);
+            float invLength = length > 0 ? 1.0f / length : 0.0f;
+            value[0] = nx * invLength;
+            value[1] = ny * invLength;
+            value[2] = nz * invLength;
+            format.put(vertices, i, 2, value, 0);
+        }
+
+        if (vertexCount <= MAX_SHORT_INDEX_VERTICES) {
+            indexType = GL_UNSIGNED_SHORT;
+            this.indices = BufferUtils.createByteBuffer(indexCount * Short.BYTES);
+            for (int index : indices) {
+                this.indices.putShort((short) index);
+            }
+        } else {
+            indexType = GL_UNSIGNED_INT;
+            this.indices = BufferUtils.createByteBuffer(indexCount * Integer.BYTES);
+            this.indices.asIntBuffer().put(indices);
+            this.indices.position(this.indices.limit());
+        }
+        this.indices.flip();
+    }
+
+    /**
+     * @return Interleaved vertex data, ready to upload
+     */
+    public ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return Index data, ready to upload
+     */
+    public ByteBuffer getIndices() {
+        return indices;
+    }
+
+    public VertexFormat getFormat() {
+        return format;
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getIndexCount() {
+        return indexCount;
+    }
+
+    /**
+     * @return <code>GL_UNSIGNED_SHORT</code> or <code>GL_UNSIGNED_INT</code>
+     */
+    public int getIndexType() {
+        return indexType;
+    }
+
+    /**
+     * Builds the transform from quantized positions, which the GPU reads in
+     * the [0, 1] range, back to object space.
+     *
+     * @param dest Matrix that receives the transform
+     * @return dest
+     */
+    public Matrix4f getPositionTransform(Matrix4f dest) {
+        return dest.translation(origin[0], origin[1], origin[2]).scale(scale);
+    }
+
+    /**
+     * Decodes the object space position of a vertex the way the GPU sees it.
+     *
+     * @param vertex Vertex index
+     * @param dest   Receives x, y and z
+     */
+    public void decodePosition(int vertex, float[] dest) {
+        for (int j = 0; j < 3; j++) {
+            dest[j] = origin[j] + format.get(vertices, vertex, 0, j) * scale;
+        }
+    }
+
+    /**
+     * Decodes the texture coordinate of a vertex.
+     *
+     * @param vertex Vertex index
+     * @param dest   Receives u and v
+     */
+    public void decodeTexCoord(int vertex, float[] dest) {
+        dest[0] = format.get(vertices, vertex, 1, 0);
+        dest[1] = format.get(vertices, vertex, 1, 1);
+    }
+
+    /**
+     * Decodes the normal of a vertex.
+     *
+     * @param vertex Vertex index
+     * @param dest   Receives x, y and z
+     */
+    public void decodeNormal(int vertex, float[] dest) {
+        for (int j = 0; j < 3; j++) {
+            dest[j] = format.get(vertices, vertex, 2, j);
+        }
+    }
+
+    /**
+     * @return Size of the vertex and index data in bytes
+     */
+    public long getBytes() {
+        return vertices.limit() + indices.limit();
+    }
+
+    /**
+     * @return Size of the same mesh with float attributes and int indices
+     */
+    public long getUncompressedBytes() {
+        return (long) vertexCount * VertexFormat.FLOAT.getStride() + (long) indexCount * Integer.BYTES;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d vertices, %d indices in %d bytes instead of %d (%.2fx smaller)",
+                vertexCount, indexCount, getBytes(), getUncompressedBytes(),
+                getBytes() == 0 ? 1.0 : (double) getUncompressedBytes() / getBytes());
+    }
+}
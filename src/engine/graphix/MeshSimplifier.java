@@ -0,0 +1,522 @@
+package engine.graphix;
+
+import engine.LongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Builds a chain of levels of detail for an indexed triangle mesh by edge
+ * collapse, ordered by quadric error metrics (Garland and Heckbert).
+ * <p>
+ * Collapses move a vertex onto one of its neighbours, so no vertex is ever
+ * created and all levels index the vertex buffer of the full detail mesh.
+ * Texture coordinate and normal seams are kept intact: vertices sharing their
+ * position with another vertex are never moved, and vertices on an open border
+ * only move along the border and never off a corner. Each level has at most
+ * the requested fraction of the triangles of the one before, a level that
+ * can not get there ends the chain.
+ */
+public class MeshSimplifier {
+
+    /**
+     * Each level aims for this fraction of the triangles of the previous level.
+     */
+    public static final float DEFAULT_REDUCTION = 0.5f;
+
+    public static final int DEFAULT_MAX_LEVELS = 4;
+
+    private static final int MIN_TRIANGLES = 16;
+
+    /**
+     * Weight of the planes that keep open borders in place.
+     */
+    private static final double BORDER_WEIGHT = 10.0;
+
+    /**
+     * Collapses that turn a triangle's normal further than this (cosine) are
+     * rejected.
+     */
+    private static final double MIN_NORMAL_DOT = 0.25;
+
+    /**
+     * Border vertices where the border turns further than this (cosine) are
+     * locked, so that corners are not cut off.
+     */
+    private static final double MIN_BORDER_DOT = 0.9;
+
+    private static final int QUADRIC_SIZE = 11;
+
+    private static final byte INTERIOR = 0;
+
+    private static final byte BORDER = 1;
+
+    private static final byte LOCKED = 2;
+
+    private final float[] positions;
+
+    private final int vertexCount;
+
+    /**
+     * Vertex to the first vertex with the same position.
+     */
+    private final int[] positionGroup;
+
+    private final boolean[] seam;
+
+    private final double[] quadrics;
+
+    /**
+     * Area weighted normal of the full detail triangles each vertex stands
+     * for, so that a triangle can be checked against the surface it replaces.
+     */
+    private final double[] surfaceNormals;
+
+    private final int[] indices;
+
+    private final MeshLod[] lods;
+
+    /**
+     * Open edges of the current triangles, keyed by position group pair.
+     */
+    private LongIntHashMap borderEdges;
+
+    /**
+     * Error of the most expensive collapse of the last {@link #simplify} call.
+     */
+    private float lastError;
+
+    public MeshSimplifier(float[] positions, int[] indices) {
+        this(positions, indices, DEFAULT_MAX_LEVELS, DEFAULT_REDUCTION);
+    }
+
+    /**
+     * Builds the level of detail chain of a mesh.
+     *
+     * @param positions Vertex positions, 3 floats each
+     * @param indices   Triangle indices of the full detail mesh
+     * @param maxLevels Maximum number of levels including the full detail one
+     * @param reduction Fraction of triangles each level aims to keep
+     */
+    public MeshSimplifier(float[] positions, int[] indices, int maxLevels, float reduction) {
+        this.positions = positions;
+        this.vertexCount = positions.length / 3;
+        positionGroup = new int[vertexCount];
+        seam = new boolean[vertexCount];
+        findSeams();
+        quadrics = new double[vertexCount * QUADRIC_SIZE];
+        surfaceNormals = new double[vertexCount * 3];
+        computeQuadrics(indices);
+
+        int[][] levels = new int[maxLevels][];
+        float[] errors = new float[maxLevels];
+        levels[0] = indices;
+        int numLevels = 1;
+        float error = 0;
+        int[] current = indices;
+        while (numLevels < maxLevels && current.length / 3 > MIN_TRIANGLES) {
+            int target = (int) (current.length / 3 * reduction) * 3;
+            int[] next = Arrays.copyOf(current, current.length);
+            int size = simplify(next, current.length, target);
+            // A level that can not reach its target ends the chain
+            if (size > target) {
+                break;
+            }
+            error = Math.max(error, lastError);
+            current = Arrays.copyOf(next, size);
+            levels[numLevels] = MeshOptimizer.optimizeVertexCache(current, vertexCount);
+            errors[numLevels] = error;
+            numLevels++;
+        }
+
+        int total = 0;
+        for (int i = 0; i < numLevels; i++) {
+            total += levels[i].length;
+        }
+        this.indices = new int[total];
+        this.lods = new MeshLod[numLevels];
+        int offset = 0;
+        for (int i = 0; i < numLevels; i++) {
+            System.arraycopy(levels[i], 0, this.indices, offset, levels[i].length);
+            lods[i] = new MeshLod(offset, levels[i].length, errors[i]);
+            offset += levels[i].length;
+        }
+    }
+
+    /**
+     * @return Indices of all levels, one after the other
+     */
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return The levels, from full detail to coarsest
+     */
+    public MeshLod[] getLods() {
+        return lods;
+    }
+
+    /**
+     * Collapses edges until the index count reaches the target or no allowed
+     * collapse is left. Works in passes: every pass sorts all candidate
+     * collapses by cost and performs the cheapest ones that do not touch a
+     * neighbourhood already changed in the same pass.
+     *
+     * @param idx    Indices, simplified in place
+     * @param size   Number of valid indices
+     * @param target Index count to reach
+     * @return The new number of valid indices
+     */
+    private int simplify(int[] idx, int size, int target) {
+        lastError = 0;
+        int[] remap = new int[vertexCount];
+        boolean[] touched = new boolean[vertexCount];
+        while (size > target) {
+            byte[] kind = classifyVertices(idx, size);
+            int triCount = size / 3;
+
+            // Vertex to triangle adjacency of the current triangles
+            int[] adjacencyOffset = new int[vertexCount + 1];
+            for (int i = 0; i < size; i++) {
+                adjacencyOffset[idx[i] + 1]++;
+            }
+            for (int v = 0; v < vertexCount; v++) {
+                adjacencyOffset[v + 1] += adjacencyOffset[v];
+            }
+            int[] adjacency = new int[size];
+            int[] fill = Arrays.copyOf(adjacencyOffset, vertexCount);
+            for (int i = 0; i < size; i++) {
+                adjacency[fill[idx[i]]++] = i / 3;
+            }
+
+            // Candidate collapses sorted by cost, packed as (float cost bits, candidate index)
+            long[] candidates = new long[size];
+            int numCandidates = 0;
+            for (int i = 0; i < size; i++) {
+                int u = idx[i];
+                int v = idx[i - i % 3 + (i + 1) % 3];
+                if (canCollapse(u, v, kind)) {
+                    float cost = (float) quadricError(u, v);
+                    candidates[numCandidates++] = (long) Float.floatToIntBits(cost) << 32 | i;
+                }
+            }
+            Arrays.sort(candidates, 0, numCandidates);
+
+            for (int v = 0; v < vertexCount; v++) {
+                remap[v] = v;
+            }
+            Arrays.fill(touched, false);
+            int collapses = 0;
+            int removed = 0;
+            for (int c = 0; c < numCandidates && size - removed * 3 > target; c++) {
+                int i = (int) candidates[c];
+                int u = idx[i];
+                int v = idx[i - i % 3 + (i + 1) % 3];
+                if (touched[u] || touched[v] || flips(u, v, idx, adjacency, adjacencyOffset)) {
+                    continue;
+                }
+                remap[u] = v;
+                for (int j = adjacencyOffset[u]; j < adjacencyOffset[u + 1]; j++) {
+                    int t = adjacency[j];
+                    boolean hasV = false;
+                    for (int k = 0; k < 3; k++) {
+                        touched[idx[t * 3 + k]] = true;
+                        hasV |= idx[t * 3 + k] == v;
+                    }
+                    if (hasV) {
+                        removed++;
+                    }
+                }
+                for (int k = 0; k < QUADRIC_SIZE; k++) {
+                    quadrics[v * QUADRIC_SIZE + k] += quadrics[u * QUADRIC_SIZE + k];
+                }
+                for (int k = 0; k < 3; k++) {
+                    surfaceNormals[v * 3 + k] += surfaceNormals[u * 3 + k];
+                }
+                lastError = Math.max(lastError, Float.intBitsToFloat((int) (candidates[c] >>> 32)));
+                collapses++;
+            }
+            if (collapses == 0) {
+                break;
+            }
+
+            // Apply the collapses and drop triangles that became degenerate
+            int out = 0;
+            for (int t = 0; t < triCount; t++) {
+                int a = remap[idx[t * 3]];
+                int b = remap[idx[t * 3 + 1]];
+                int c = remap[idx[t * 3 + 2]];
+                if (a != b && b != c && c != a) {
+                    idx[out++] = a;
+                    idx[out++] = b;
+                    idx[out++] = c;
+                }
+            }
+            size = out;
+        }
+        lastError = (float) Math.sqrt(lastError);
+        return size;
+    }
+
+    private boolean canCollapse(int u, int v, byte[] kind) {
+        if (u == v || positionGroup[u] == positionGroup[v]) {
+            return false;
+        }
+        switch (kind[u]) {
+            case INTERIOR:
+                return true;
+            case BORDER:
+                // Border vertices only slide along the border
+                return kind[v] != INTERIOR && isBorderEdge(u, v);
+            default:
+                return false;
+        }
+    }
+
+    private boolean isBorderEdge(int u, int v) {
+        return borderEdges.get(edgeKey(positionGroup[u], positionGroup[v])) != LongIntHashMap.NO_VALUE;
+    }
+
+    /**
+     * Classifies vertices as interior, border (exactly two open edges) or
+     * locked (seams and non manifold borders). Open edges are counted on
+     * positions, so seams do not look like borders.
+     */
+    private byte[] classifyVertices(int[] idx, int size) {
+        LongIntHashMap edgeIds = new LongIntHashMap(size);
+        int[] edgeUses = new int[size];
+        for (int i = 0; i < size; i++) {
+            long key = edgeKey(positionGroup[idx[i]], positionGroup[idx[i - i % 3 + (i + 1) % 3]]);
+            int id = edgeIds.putIfAbsent(key, edgeIds.size());
+            edgeUses[id == LongIntHashMap.NO_VALUE ? edgeIds.size() - 1 : id]++;
+        }
+        int[] borderCount = new int[vertexCount];
+        // The other ends of the first two open edges of each position group
+        int[] borderNeighbours = new int[vertexCount * 2];
+        borderEdges = new LongIntHashMap();
+        for (int i = 0; i < size; i++) {
+            int pu = positionGroup[idx[i]];
+            int pv = positionGroup[idx[i - i % 3 + (i + 1) % 3]];
+            long key = edgeKey(pu, pv);
+            if (edgeUses[edgeIds.get(key)] == 1) {
+                borderEdges.putIfAbsent(key, 0);
+                if (borderCount[pu] < 2) {
+                    borderNeighbours[pu * 2 + borderCount[pu]] = pv;
+                }
+                if (borderCount[pv] < 2) {
+                    borderNeighbours[pv * 2 + borderCount[pv]] = pu;
+                }
+                borderCount[pu]++;
+                borderCount[pv]++;
+            }
+        }
+        byte[] kind = new byte[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            int group = positionGroup[v];
+            int border = borderCount[group];
+            if (seam[v] || (border != 0 && border != 2)) {
+                kind[v] = LOCKED;
+            } else if (border == 0) {
+                kind[v] = INTERIOR;
+            } else {
+                kind[v] = isCorner(borderNeighbours[group * 2], group, borderNeighbours[group * 2 + 1])
+                        ? LOCKED : BORDER;
+            }
+        }
+        return kind;
+    }
+
+    /**
+     * Checks if the border through a, b and c turns at b by more than
+     * {@link #MIN_BORDER_DOT} allows.
+     */
+    private boolean isCorner(int a, int b, int c) {
+        double d1x = positions[b * 3] - positions[a * 3];
+        double d1y = positions[b * 3 + 1] - positions[a * 3 + 1];
+        double d1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+        double d2x = positions[c * 3] - positions[b * 3];
+        double d2y = positions[c * 3 + 1] - positions[b * 3 + 1];
+        double d2z = positions[c * 3 + 2] - positions[b * 3 + 2];
+        double dot = d1x * d2x + d1y * d2y + d1z * d2z;
+        double len = Math.sqrt((d1x * d1x + d1y * d1y + d1z * d1z) * (d2x * d2x + d2y * d2y + d2z * d2z));
+        return len == 0 || dot < MIN_BORDER_DOT * len;
+    }
+
+    private static long edgeKey(int a, int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+
+    /**
+     * Checks if moving u onto v turns any remaining triangle around u over,
+     * compared to its current normal and to the surface its vertices stand
+     * for. Checking the current normal alone would let a triangle turn over a
+     * little at a time.
+     */
+    private boolean flips(int u, int v, int[] idx, int[] adjacency, int[] adjacencyOffset) {
+        for (int j = adjacencyOffset[u]; j < adjacencyOffset[u + 1]; j++) {
+            int t = adjacency[j];
+            int a = idx[t * 3], b = idx[t * 3 + 1], c = idx[t * 3 + 2];
+            if (a == v || b == v || c == v) {
+                continue;
+            }
+            double[] before = normal(a, b, c, -1, -1);
+            double[] after = normal(a, b, c, u, v);
+            double dot = before[0] * after[0] + before[1] * after[1] + before[2] * after[2];
+            double len = Math.sqrt((before[0] * before[0] + before[1] * before[1] + before[2] * before[2])
+                    * (after[0] * after[0] + after[1] * after[1] + after[2] * after[2]));
+            if (len == 0 || dot < MIN_NORMAL_DOT * len) {
+                return true;
+            }
+            // The triangle stands for the surface of its vertices, u's included as it merges into v
+            double surface = 0;
+            for (int k = 0; k < 3; k++) {
+                surface += after[k] * (surfaceNormals[a * 3 + k] + surfaceNormals[b * 3 + k]
+                        + surfaceNormals[c * 3 + k] + surfaceNormals[v * 3 + k]);
+            }
+            if (surface <= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Unnormalized normal of a triangle where vertex <code>from</code> is
+     * replaced by the position of vertex <code>to</code>.
+     */
+    private double[] normal(int a, int b, int c, int from, int to) {
+        int pa = a == from ? to : a;
+        int pb = b == from ? to : b;
+        int pc = c == from ? to : c;
+        double e1x = positions[pb * 3] - positions[pa * 3];
+        double e1y = positions[pb * 3 + 1] - positions[pa * 3 + 1];
+        double e1z = positions[pb * 3 + 2] - positions[pa * 3 + 2];
+        double e2x = positions[pc * 3] - positions[pa * 3];
+        double e2y = positions[pc * 3 + 1] - positions[pa * 3 + 1];
+        double e2z = positions[pc * 3 + 2] - positions[pa * 3 + 2];
+        return new double[]{e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+    }
+
+    /**
+     * Groups vertices by exact position. Vertices in a group of more than one
+     * vertex lie on a texture coordinate or normal seam.
+     */
+    private void findSeams() {
+        LongIntHashMap firstByPosition = new LongIntHashMap(vertexCount);
+        int[] next = new int[vertexCount];
+        Arrays.fill(next, -1);
+        for (int v = 0; v < vertexCount; v++) {
+            long key = positionKey(v);
+            int first = firstByPosition.putIfAbsent(key, v);
+            positionGroup[v] = v;
+            // Walk the bucket of the key, different positions can share a key
+            for (int w = first; w != -1; w = next[w]) {
+                if (samePosition(v, w)) {
+                    positionGroup[v] = positionGroup[w];
+                    seam[v] = true;
+                    seam[positionGroup[w]] = true;
+                    break;
+                }
+                if (next[w] == -1) {
+                    next[w] = v;
+                    break;
+                }
+            }
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            seam[v] = seam[positionGroup[v]];
+        }
+    }
+
+    private long positionKey(int v) {
+        long h = Float.floatToIntBits(positions[v * 3]);
+        h = h * 31 + Float.floatToIntBits(positions[v * 3 + 1]);
+        return h * 31 + Float.floatToIntBits(positions[v * 3 + 2]);
+    }
+
+    private boolean samePosition(int a, int b) {
+        return positions[a * 3] == positions[b * 3] && positions[a * 3 + 1] == positions[b * 3 + 1]
+                && positions[a * 3 + 2] == positions[b * 3 + 2];
+    }
+
+    /**
+     * Accumulates the area weighted plane quadrics of all triangles, plus
+     * planes perpendicular to open borders so that they keep their shape.
+     */
+    private void computeQuadrics(int[] idx) {
+        byte[] kind = classifyVertices(idx, idx.length);
+        for (int t = 0; t < idx.length / 3; t++) {
+            int a = idx[t * 3], b = idx[t * 3 + 1], c = idx[t * 3 + 2];
+            double[] n = normal(a, b, c, -1, -1);
+            double len = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+            if (len == 0) {
+                continue;
+            }
+            double area = len * 0.5;
+            for (int k = 0; k < 3; k++) {
+                surfaceNormals[a * 3 + k] += n[k];
+                surfaceNormals[b * 3 + k] += n[k];
+                surfaceNormals[c * 3 + k] += n[k];
+            }
+            double nx = n[0] / len, ny = n[1] / len, nz = n[2] / len;
+            double d = -(nx * positions[a * 3] + ny * positions[a * 3 + 1] + nz * positions[a * 3 + 2]);
+            addPlane(a, nx, ny, nz, d, area);
+            addPlane(b, nx, ny, nz, d, area);
+            addPlane(c, nx, ny, nz, d, area);
+
+            for (int e = 0; e < 3; e++) {
+                int p = idx[t * 3 + e];
+                int q = idx[t * 3 + (e + 1) % 3];
+                if (kind[p] == INTERIOR || kind[q] == INTERIOR || !isBorderEdge(p, q)) {
+                    continue;
+                }
+                double ex = positions[q * 3] - positions[p * 3];
+                double ey = positions[q * 3 + 1] - positions[p * 3 + 1];
+                double ez = positions[q * 3 + 2] - positions[p * 3 + 2];
+                double edgeLength = Math.sqrt(ex * ex + ey * ey + ez * ez);
+                if (edgeLength == 0) {
+                    continue;
+                }
+                // Plane through the edge, perpendicular to the triangle
+                double bx = ey * nz - ez * ny, by = ez * nx - ex * nz, bz = ex * ny - ey * nx;
+                double bl = Math.sqrt(bx * bx + by * by + bz * bz);
+                bx /= bl;
+                by /= bl;
+                bz /= bl;
+                double bd = -(bx * positions[p * 3] + by * positions[p * 3 + 1] + bz * positions[p * 3 + 2]);
+                double weight = edgeLength * edgeLength * BORDER_WEIGHT;
+                addPlane(p, bx, by, bz, bd, weight);
+                addPlane(q, bx, by, bz, bd, weight);
+            }
+        }
+    }
+
+    private void addPlane(int v, double a, double b, double c, double d, double weight) {
+        int q = v * QUADRIC_SIZE;
+        quadrics[q] += weight * a * a;
+        quadrics[q + 1] += weight * a * b;
+        quadrics[q + 2] += weight * a * c;
+        quadrics[q + 3] += weight * a * d;
+        quadrics[q + 4] += weight * b * b;
+        quadrics[q + 5] += weight * b * c;
+        quadrics[q + 6] += weight * b * d;
+        quadrics[q + 7] += weight * c * c;
+        quadrics[q + 8] += weight * c * d;
+        quadrics[q + 9] += weight * d * d;
+        quadrics[q + 10] += weight;
+    }
+
+    /**
+     * Mean squared distance of the position of v to the planes accumulated in
+     * the quadric of u.
+     */
+    private double quadricError(int u, int v) {
+        int q = u * QUADRIC_SIZE;
+        double x = positions[v * 3], y = positions[v * 3 + 1], z = positions[v * 3 + 2];
+        double error = quadrics[q] * x * x + 2 * quadrics[q + 1] * x * y + 2 * quadrics[q + 2] * x * z
+                + 2 * quadrics[q + 3] * x + quadrics[q + 4] * y * y + 2 * quadrics[q + 5] * y * z
+                + 2 * quadrics[q + 6] * y + quadrics[q + 7] * z * z + 2 * quadrics[q + 8] * z + quadrics[q + 9];
+        double weight = quadrics[q + 10];
+        return weight > 0 ? Math.max(error, 0) / weight : 0;
+    }
+}
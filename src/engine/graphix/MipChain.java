@@ -0,0 +1,255 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.util.stream.IntStream;
+
+/**
+ * All mip levels of an RGBA8 image, stored one after the other in a single
+ * buffer from the full size level down to 1x1. Each level is half the size of
+ * the previous one, rounded down, but at least one pixel. The levels may also
+ * be block compressed, see {@link BlockCompressor}.
+ * <p>
+ * {@link #generate(ByteBuffer, int, int)} averages 2x2 blocks in
+ * linear space: colours are sRGB encoded, so they are converted to linear
+ * before averaging and back afterwards, alpha is averaged as it is. Averaging
+ * the encoded values instead darkens every level, which shows as dark seams
+ * and a dull image in the distance.
+ */
+public class MipChain {
+
+    private static final int LINEAR_STEPS = 4096;
+
+    /**
+     * sRGB encoded byte to linear intensity.
+     */
+    private static final float[] TO_LINEAR = new float[256];
+
+    /**
+     * Linear intensity, quantized to <code>LINEAR_STEPS</code>, to sRGB byte.
+     */
+    private static final byte[] TO_SRGB = new byte[LINEAR_STEPS + 1];
+
+    /**
+     * Rows processed by one task when levels are generated in parallel.
+     */
+    private static final int ROWS_PER_TASK = 32;
+
+    static {
+        for (int i = 0; i < TO_LINEAR.length; i++) {
+            double c = i / 255.0;
+            TO_LINEAR[i] = (float) (c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4));
+        }
+        for (int i = 0; i <= LINEAR_STEPS; i++) {
+            double l = i / (double) LINEAR_STEPS;
+            double c = l <= 0.0031308 ? l * 12.92 : 1.055 * Math.pow(l, 1 / 2.4) - 0.055;
+            TO_SRGB[i] = (byte) Math.round(c * 255);
+        }
+    }
+
+    private final ByteBuffer data;
+
+    private final int width;
+
+    private final int height;
+
+    private final int levelCount;
+
+    /**
+     * Block compression of the levels, null for RGBA8.
+     */
+    private final BlockCompressor.Format format;
+
+    /**
+     * Wraps RGBA8 levels that are already stored in a buffer, such as a mapped
+     * {@link MipChainCache} entry.
+     *
+     * @param data   All levels, starting at the buffer position
+     * @param width  Width of level 0
+     * @param height Height of level 0
+     */
+    public MipChain(ByteBuffer data, int width, int height) {
+        this(data, width, height, null);
+    }
+
+    /**
+     * Wraps levels that are already stored in a buffer.
+     *
+     * @param data   All levels, starting at the buffer position
+     * @param width  Width of level 0
+     * @param height Height of level 0
+     * @param format Block compression of the levels, null for RGBA8
+     */
+    public MipChain(ByteBuffer data, int width, int height, BlockCompressor.Format format) {
+        this(data, width, height, format, computeLevelCount(width, height));
+    }
+
+    private MipChain(ByteBuffer data, int width, int height, BlockCompressor.Format format, int levelCount) {
+        this.data = data.slice();
+        this.width = width;
+        this.height = height;
+        this.levelCount = levelCount;
+        this.format = format;
+    }
+
+    /**
+     * Builds the smaller levels of an image in place.
+     *
+     * @param data   Buffer of at least {@link #computeSize(int, int)} bytes
+     *               from its position, starting with the RGBA8 pixels of
+     *               level 0, tightly packed
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @return The levels, backed by <code>data</code>
+     */
+    public static MipChain generate(ByteBuffer data, int width, int height) {
+        return generate(data, width, height, computeLevelCount(width, height));
+    }
+
+    /**
+     * Builds only the first levels of an image in place, for textures that
+     * never sample the small ones.
+     *
+     * @param data       Buffer of at least
+     *                   {@link #computeSize(int, int, int)} bytes from its
+     *                   position, starting with the RGBA8 pixels of level 0
+     * @param width      Width of the image
+     * @param height     Height of the image
+     * @param levelCount Number of levels, clamped to the full chain
+     * @return The levels, backed by <code>data</code>
+     */
+    public static MipChain generate(ByteBuffer data, int width, int height, int levelCount) {
+        MipChain chain = new MipChain(data, width, height, null,
+                Math.min(levelCount, computeLevelCount(width, height)));
+        for (int level = 1; level < chain.levelCount; level++) {
+            chain.downsample(level);
+        }
+        return chain;
+    }
+
+    private void downsample(int level) {
+        ByteBuffer src = getLevel(level - 1);
+        ByteBuffer dst = getLevel(level);
+        int srcWidth = getWidth(level - 1);
+        int srcHeight = getHeight(level - 1);
+        int dstWidth = getWidth(level);
+        int dstHeight = getHeight(level);
+        int tasks = (dstHeight + ROWS_PER_TASK - 1) / ROWS_PER_TASK;
+        IntStream rows = IntStream.range(0, tasks);
+        // Small levels are not worth the fork
+        if (tasks > 1) {
+            rows = rows.parallel();
+        }
+        rows.forEach(task -> {
+            int end = Math.min(dstHeight, (task + 1) * ROWS_PER_TASK);
+            for (int y = task * ROWS_PER_TASK; y < end; y++) {
+                int y0 = Math.min(y * 2, srcHeight - 1);
+                int y1 = Math.min(y * 2 + 1, srcHeight - 1);
+                for (int x = 0; x < dstWidth; x++) {
+                    int x0 = Math.min(x * 2, srcWidth - 1);
+                    int x1 = Math.min(x * 2 + 1, srcWidth - 1);
+                    int p00 = (y0 * srcWidth + x0) * 4;
+                    int p01 = (y0 * srcWidth + x1) * 4;
+                    int p10 = (y1 * srcWidth + x0) * 4;
+                    int p11 = (y1 * srcWidth + x1) * 4;
+                    int out = (y * dstWidth + x) * 4;
+                    for (int c = 0; c < 3; c++) {
+                        float sum = TO_LINEAR[src.get(p00 + c) & 0xFF] + TO_LINEAR[src.get(p01 + c) & 0xFF]
+                                + TO_LINEAR[src.get(p10 + c) & 0xFF] + TO_LINEAR[src.get(p11 + c) & 0xFF];
+                        dst.put(out + c, TO_SRGB[(int) (sum * (LINEAR_STEPS / 4.0f) + 0.5f)]);
+                    }
+                    int alpha = (src.get(p00 + 3) & 0xFF) + (src.get(p01 + 3) & 0xFF)
+                            + (src.get(p10 + 3) & 0xFF) + (src.get(p11 + 3) & 0xFF);
+                    dst.put(out + 3, (byte) ((alpha + 2) >> 2));
+                }
+            }
+        });
+    }
+
+    /**
+     * @return Number of levels down to 1x1
+     */
+    public static int computeLevelCount(int width, int height) {
+        return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+    }
+
+    /**
+     * @return Size in bytes of all levels of an image
+     */
+    public static int computeSize(int width, int height) {
+        return computeSize(width, height, null);
+    }
+
+    /**
+     * @param format Block compression, null for RGBA8
+     * @return Size in bytes of all levels of an image
+     */
+    public static int computeSize(int width, int height, BlockCompressor.Format format) {
+        return computeOffset(width, height, computeLevelCount(width, height), format);
+    }
+
+    /**
+     * @param levelCount Number of levels, clamped to the full chain
+     * @return Size in bytes of the first levels of an RGBA8 image
+     */
+    public static int computeSize(int width, int height, int levelCount) {
+        return computeOffset(width, height, Math.min(levelCount, computeLevelCount(width, height)), null);
+    }
+
+    private static int computeOffset(int width, int height, int level, BlockCompressor.Format format) {
+        int offset = 0;
+        for (int i = 0; i < level; i++) {
+            offset += computeLevelSize(Math.max(1, width >> i), Math.max(1, height >> i), format);
+        }
+        return offset;
+    }
+
+    private static int computeLevelSize(int width, int height, BlockCompressor.Format format) {
+        return format != null ? format.computeSize(width, height) : width * height * 4;
+    }
+
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * @return Block compression of the levels, null for RGBA8
+     */
+    public BlockCompressor.Format getFormat() {
+        return format;
+    }
+
+    public int getWidth(int level) {
+        return Math.max(1, width >> level);
+    }
+
+    public int getHeight(int level) {
+        return Math.max(1, height >> level);
+    }
+
+    /**
+     * @return Offset of a level from the start of the chain, in bytes
+     */
+    public int getOffset(int level) {
+        return computeOffset(width, height, level, format);
+    }
+
+    /**
+     * @return View of the pixels, or blocks, of one level
+     */
+    public ByteBuffer getLevel(int level) {
+        ByteBuffer view = data.duplicate();
+        int offset = getOffset(level);
+        view.position(offset).limit(offset + computeLevelSize(getWidth(level), getHeight(level), format));
+        return view.slice();
+    }
+
+    /**
+     * @param firstLevel First level of the view
+     * @return View of the levels from <code>firstLevel</code> to the end
+     */
+    public ByteBuffer getLevels(int firstLevel) {
+        ByteBuffer view = data.duplicate();
+        view.position(getOffset(firstLevel)).limit(getOffset(levelCount));
+        return view.slice();
+    }
+}
@@ -0,0 +1,144 @@
+package engine.graphix;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * On disk cache of textures with all their mip levels, so that an image is
+ * only decoded, downsampled and compressed the first time it is loaded. Like
+ * {@link MeshCache}, entries are named after a hash of the source file, each
+ * {@link BlockCompressor.Format} of an image has its own entry.
+ * <p>
+ * File layout, all values in native byte order:
+ * <pre>
+ *  0  int    magic
+ *  4  int    version
+ *  8  int    width of level 0
+ * 12  int    height of level 0
+ * 16  int    level count
+ * 20  int    format, 0 for RGBA8 or the OpenGL internal format of the blocks
+ * 24  long   source hash
+ * 32  long   source length
+ * 40  long   reserved
+ * 48  levels, see {@link MipChain}
+ * </pre>
+ * Loading maps the file, the levels go from the page cache to the driver
+ * without being decoded or copied on the heap.
+ */
+public class MipChainCache {
+
+    public static final String DEFAULT_DIRECTORY = "cache/textures";
+
+    private static final int MAGIC = 0x5350494D; // "MIPS"
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 48;
+
+    private static final int RGBA8 = 0;
+
+    private static final String EXTENSION = ".mips";
+
+    private final Path directory;
+
+    public MipChainCache() {
+        this(DEFAULT_DIRECTORY);
+    }
+
+    public MipChainCache(String directory) {
+        this.directory = Paths.get(directory);
+    }
+
+    /**
+     * Looks for the RGBA8 mip chain of a source image.
+     *
+     * @see #find(long, long, BlockCompressor.Format)
+     */
+    public MipChain find(long hash, long sourceLength) throws IOException {
+        return find(hash, sourceLength, null);
+    }
+
+    /**
+     * Looks for the mip chain of a source image.
+     *
+     * @param hash         {@link MeshCache#hash(ByteBuffer) Hash} of the source file
+     * @param sourceLength Size of the source file in bytes
+     * @param format       Block compression of the levels, null for RGBA8
+     * @return The levels, backed by the mapped entry, or null if there is no
+     * valid entry
+     * @throws IOException If an existing entry can not be read
+     */
+    public MipChain find(long hash, long sourceLength, BlockCompressor.Format format) throws IOException {
+        Path path = entryPath(hash, format);
+        if (!Files.isReadable(path)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(20) != formatId(format) || buffer.getLong(24) != hash
+                || buffer.getLong(32) != sourceLength) {
+            return null;
+        }
+        int width = buffer.getInt(8);
+        int height = buffer.getInt(12);
+        if (width <= 0 || height <= 0 || buffer.getInt(16) != MipChain.computeLevelCount(width, height)
+                || buffer.limit() != HEADER_SIZE + (long) MipChain.computeSize(width, height, format)) {
+            return null;
+        }
+        buffer.position(HEADER_SIZE);
+        return new MipChain(buffer, width, height, format);
+    }
+
+    /**
+     * Writes the mip chain of a source image. The entry is written to a
+     * temporary file first and then moved in place, so a crash never leaves a
+     * truncated entry behind.
+     *
+     * @param hash         {@link MeshCache#hash(ByteBuffer) Hash} of the source file
+     * @param sourceLength Size of the source file in bytes
+     * @param chain        The levels, RGBA8 or block compressed
+     * @throws IOException If the entry can not be written
+     */
+    public void store(long hash, long sourceLength, MipChain chain) throws IOException {
+        Files.createDirectories(directory);
+        Path tmp = Files.createTempFile(directory, "mips", ".tmp");
+        try {
+            try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+                header.putInt(MAGIC).putInt(VERSION).putInt(chain.getWidth(0)).putInt(chain.getHeight(0))
+                        .putInt(chain.getLevelCount()).putInt(formatId(chain.getFormat())).putLong(hash)
+                        .putLong(sourceLength)
+                        .putLong(0);
+                header.flip();
+                ByteBuffer levels = chain.getLevels(0);
+                while (header.hasRemaining() || levels.hasRemaining()) {
+                    fc.write(new ByteBuffer[]{header, levels});
+                }
+            }
+            Files.move(tmp, entryPath(hash, chain.getFormat()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path entryPath(long hash, BlockCompressor.Format format) {
+        String suffix = format != null ? "-" + format.name().toLowerCase() : "";
+        return directory.resolve(String.format("%016x", hash) + suffix + EXTENSION);
+    }
+
+    private static int formatId(BlockCompressor.Format format) {
+        return format != null ? format.getGlInternalFormat() : RGBA8;
+    }
+}
@@ -1,164 +1,352 @@
 package engine.graphix;
 
-import engine.Utils;
-import org.joml.Vector2f;
-import org.joml.Vector3f;
+import engine.IntArrayList;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class OBJLoader {
 
+    /**
+     * Files smaller than this are parsed on the calling thread, splitting them
+     * costs more than it saves.
+     */
+    static final long DEFAULT_PARALLEL_THRESHOLD = 4 * 1024 * 1024;
+
+    /**
+     * Number of chunks per worker, more than one so that chunks with a lot of
+     * faces do not leave the other workers idle.
+     */
+    private static final int CHUNKS_PER_WORKER = 4;
+
+    private static MeshCache meshCache = new MeshCache();
+
+    private static long parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * Number of chunks big files are split into, 0 for
+     * {@link #CHUNKS_PER_WORKER} per worker of the common pool
+     */
+    private static int chunkCount;
+
+    /**
+     * Sets the cache used for loaded meshes.
+     *
+     * @param cache The cache, null disables caching
+     */
+    public static void setMeshCache(MeshCache cache) {
+        meshCache = cache;
+    }
+
+    /**
+     * Sets the size from which files are parsed in parallel, so that tests can
+     * run small files through the parallel path.
+     */
+    static void setParallelThreshold(long threshold) {
+        parallelThreshold = threshold;
+    }
+
+    /**
+     * Sets the number of chunks files are parsed in, 0 for the default.
+     */
+    static void setChunkCount(int count) {
+        chunkCount = count;
+    }
+
     public static Mesh loadMesh(String fileName) throws Exception {
-        List<String> lines = Utils.readAllLines(fileName);
-
-        List<Vector3f> vertices = new ArrayList<>();
-        List<Vector2f> textures = new ArrayList<>();
-        List<Vector3f> normals = new ArrayList<>();
-        List<Face> faces = new ArrayList<>();
-
-        for (String line : lines) {
-            String[] tokens = line.split("\\s+");
-            switch (tokens[0]) {
-                case "v":
-                    // Geometric vertex
-                    Vector3f vec3f = new Vector3f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]),
-                            Float.parseFloat(tokens[3]));
-                    vertices.add(vec3f);
-                    break;
-                case "vt":
-                    // Texture coordinate
-                    Vector2f vec2f = new Vector2f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]));
-                    textures.add(vec2f);
-                    break;
-                case "vn":
-                    // Vertex normal
-                    Vector3f vec3fNorm = new Vector3f(
-                            Float.parseFloat(tokens[1]),
-                            Float.parseFloat(tokens[2]),
-                            Float.parseFloat(tokens[3]));
-                    normals.add(vec3fNorm);
-                    break;
-                case "f":
-                    Face face = new Face(tokens[1], tokens[2], tokens[3]);
-                    faces.add(face);
-                    break;
-                default:
-                    // Ignore other lines
-                    break;
-            }
-        }
-        return reorderLists(vertices, textures, normals, faces);
+        return loadMesh(fileName, true);
+    }
+
+    public static Mesh loadMesh(String fileName, boolean parallel) throws Exception {
+        return loadMesh(fileName, parallel, false);
     }
 
-    private static Mesh reorderLists(List<Vector3f> posList, List<Vector2f> textCoordList,
-                                     List<Vector3f> normList, List<Face> facesList) {
-
-        List<Integer> indices = new ArrayList();
-        // Create position array in the order it has been declared
-        float[] posArr = new float[posList.size() * 3];
-        int i = 0;
-        for (Vector3f pos : posList) {
-            posArr[i * 3] = pos.x;
-            posArr[i * 3 + 1] = pos.y;
-            posArr[i * 3 + 2] = pos.z;
-            i++;
-        }
-        float[] textCoordArr = new float[posList.size() * 2];
-        float[] normArr = new float[posList.size() * 3];
-
-        for (Face face : facesList) {
-            IdxGroup[] faceVertexIndices = face.getFaceVertexIndices();
-            for (IdxGroup indValue : faceVertexIndices) {
-                processFaceVertex(indValue, textCoordList, normList,
-                        indices, textCoordArr, normArr);
+    /**
+     * Loads an OBJ file into a mesh.
+     *
+     * @param fileName Path of the OBJ file
+     * @param parallel If big files may be parsed on all cores of the common
+     *                 fork-join pool. The result is the same in both modes.
+     * @param compact  If the mesh is uploaded in the compact vertex format of
+     *                 {@link MeshQuantizer}
+     * @return The loaded mesh
+     * @throws Exception If the file can not be read or parsed
+     */
+    public static Mesh loadMesh(String fileName, boolean parallel, boolean compact) throws Exception {
+        return loadMesh(fileName, parallel, compact, null);
+    }
+
+    /**
+     * Loads an OBJ file into a mesh textured with an image of a
+     * {@link TextureAtlas}. The texture coordinates are moved into the
+     * region of the image and the sub meshes without a <code>usemtl</code>
+     * draw with the atlas page, the others keep the materials of the file. A
+     * mesh whose coordinates leave [0, 1] keeps them and draws with the image
+     * loaded on its own. Meant for meshes with a single texture, every
+     * texture coordinate is moved.
+     *
+     * @param fileName Path of the OBJ file
+     * @param parallel If big files may be parsed on all cores
+     * @param compact  If the mesh is uploaded in the compact vertex format
+     * @param region   Region of the texture of the mesh in a built atlas,
+     *                 null to load the mesh with the materials of its file
+     * @return The loaded mesh
+     * @throws Exception If the file can not be read or parsed
+     */
+    public static Mesh loadMesh(String fileName, boolean parallel, boolean compact, TextureAtlas.Region region)
+            throws Exception {
+        MeshCache cache = meshCache;
+        Path path = Paths.get(fileName);
+        OBJParser parser;
+        long hash;
+        long length;
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Map the file instead of reading it line by line, the parser works on the raw bytes
+            MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            length = buffer.limit();
+            hash = cache != null ? MeshCache.hash(buffer) : 0;
+            MeshCache.Entry entry = cache != null ? cache.find(hash, length) : null;
+            if (entry != null) {
+                Mesh mesh;
+                if (region != null) {
+                    float[] texCoords = entry.getTexCoords();
+                    boolean remapped = region.remap(texCoords);
+                    mesh = compact ? entry.createCompactMesh(texCoords, remapped)
+                            : remapped ? entry.createMesh(texCoords) : entry.createMesh();
+                    assignRegion(mesh, region, remapped, fileName);
+                } else {
+                    mesh = compact ? entry.createCompactMesh() : entry.createMesh();
+                }
+                assignMaterials(mesh, entry.getMaterialLibraries(), path);
+                return mesh;
+            }
+            int workers = ForkJoinPool.getCommonPoolParallelism();
+            if (parallel && (workers > 1 || chunkCount > 0) && buffer.limit() >= parallelThreshold) {
+                parser = parseChunked(buffer, chunkCount > 0 ? chunkCount : workers * CHUNKS_PER_WORKER);
+            } else {
+                parser = new OBJParser();
+                parser.parse(buffer, 0, buffer.limit());
+            }
+        }
+        // Emit one vertex per distinct (position, texture coordinate, normal) tuple
+        VertexWelder welder = new VertexWelder(parser.getPositions(), parser.getTexCoords(),
+                parser.getNormals(), parser.getFaceIndices());
+        // Triangles of each material become one contiguous range of the index buffer
+        List<String> materialNames = new ArrayList<>();
+        int[] rangeOffsets = groupByMaterial(welder.getIndices(), parser, materialNames);
+        // Reorder for the vertex cache and vertex fetches before anything is uploaded or cached
+        MeshOptimizer optimizer = new MeshOptimizer(welder.getPositions(), welder.getTexCoords(),
+                welder.getNormals(), welder.getIndices(), rangeOffsets);
+        float[] positions = optimizer.getPositions();
+        float[] texCoords = optimizer.getTexCoords();
+        float[] normals = optimizer.getNormals();
+        // Levels of detail share the vertices, each sub mesh appends its levels to the index buffer
+        int[] optimized = optimizer.getIndices();
+        IntArrayList indexList = new IntArrayList(optimized.length * 2);
+        SubMesh[] subMeshes = new SubMesh[materialNames.size()];
+        for (int i = 0; i < subMeshes.length; i++) {
+            int[] range = Arrays.copyOfRange(optimized, rangeOffsets[i], rangeOffsets[i + 1]);
+            MeshSimplifier simplifier = new MeshSimplifier(positions, range);
+            MeshLod[] lods = simplifier.getLods();
+            for (int j = 0; j < lods.length; j++) {
+                lods[j] = new MeshLod(lods[j].getIndexOffset() + indexList.size(), lods[j].getIndexCount(),
+                        lods[j].getError());
+            }
+            int[] levels = simplifier.getIndices();
+            for (int index : levels) {
+                indexList.add(index);
+            }
+            subMeshes[i] = new SubMesh(materialNames.get(i), lods);
+        }
+        int[] indices = indexList.toArray();
+        List<String> libraries = parser.getMaterialLibraries();
+        if (cache != null) {
+            try {
+                cache.store(hash, length, positions, texCoords, normals, indices, libraries, subMeshes);
+            } catch (IOException excp) {
+                System.err.println("Could not cache mesh " + fileName + ": " + excp.getMessage());
             }
         }
-        int[] indicesArr = new int[indices.size()];
-        indicesArr = indices.stream().mapToInt((Integer v) -> v).toArray();
-        Mesh mesh = new Mesh(posArr, textCoordArr, normArr, indicesArr);
+        // The cache keeps the coordinates of the file, they are moved into the atlas on every load
+        boolean remapped = region != null && region.remap(texCoords);
+        // Coordinates moved into a region are inside [0, 1], where half floats are too coarse for a page
+        Mesh mesh = compact ? new Mesh(new MeshQuantizer(positions, texCoords, normals, indices, remapped))
+                : new Mesh(positions, texCoords, normals, indices);
+        mesh.setSubMeshes(subMeshes);
+        if (region != null) {
+            assignRegion(mesh, region, remapped, fileName);
+        }
+        assignMaterials(mesh, libraries, path);
         return mesh;
     }
 
-    private static void processFaceVertex(IdxGroup indices, List<Vector2f> textCoordList,
-                                          List<Vector3f> normList, List<Integer> indicesList,
-                                          float[] texCoordArr, float[] normArr) {
+    /**
+     * Gives the sub meshes without a material name a material with the
+     * texture of an atlas region. The others get the materials of the file,
+     * if there are none the region texture is not referenced at all, so
+     * {@link Mesh#cleanUp()} gives back exactly what was taken.
+     */
+    private static void assignRegion(Mesh mesh, TextureAtlas.Region region, boolean remapped, String fileName)
+            throws Exception {
+        List<SubMesh> unnamed = new ArrayList<>();
+        for (SubMesh subMesh : mesh.getSubMeshes()) {
+            if (subMesh.getMaterialName() == null) {
+                unnamed.add(subMesh);
+            }
+        }
+        if (unnamed.isEmpty()) {
+            return;
+        }
+        if (!remapped && region.isPacked()) {
+            System.err.println("Texture coordinates of " + fileName + " leave [0, 1], "
+                    + region.getFileName() + " is not drawn from the atlas");
+        }
+        Material material = new Material(region.acquireTexture(remapped));
+        for (SubMesh subMesh : unnamed) {
+            subMesh.setMaterial(material);
+        }
+    }
 
-        // Set index for vertex coordinates
-        int posIndex = indices.idxPos;
-        indicesList.add(posIndex);
+    /**
+     * Sorts the triangles by material, keeping the file order inside each
+     * material. Materials are ordered by first use, triangles before the first
+     * <code>usemtl</code> come first.
+     *
+     * @param indices       Welded indices in face order, reordered in place
+     * @param parser        Parser the faces come from
+     * @param materialNames Receives the material name of each range, null for
+     *                      triangles without a material
+     * @return Index offsets of the ranges, one more than there are ranges
+     */
+    private static int[] groupByMaterial(int[] indices, OBJParser parser, List<String> materialNames) {
+        int triCount = indices.length / 3;
+        IntArrayList ranges = parser.getMaterialRanges();
+        // Group of each triangle, groups are numbered by first use
+        int[] triGroup = new int[triCount];
+        int[] groupOfMaterial = new int[parser.getMaterialNames().size() + 1];
+        Arrays.fill(groupOfMaterial, -1);
+        IntArrayList groupSizes = new IntArrayList(groupOfMaterial.length);
+        int range = 0;
+        int material = -1;
+        for (int t = 0; t < triCount; t++) {
+            // A triangle has three face vertices of three ints each
+            while (range < ranges.size() && ranges.get(range) <= t * 9) {
+                material = ranges.get(range + 1);
+                range += 2;
+            }
+            int group = groupOfMaterial[material + 1];
+            if (group < 0) {
+                group = groupSizes.size();
+                groupOfMaterial[material + 1] = group;
+                groupSizes.add(0);
+                materialNames.add(material < 0 ? null : parser.getMaterialNames().get(material));
+            }
+            groupSizes.set(group, groupSizes.get(group) + 1);
+            triGroup[t] = group;
+        }
+        if (groupSizes.size() == 0) {
+            materialNames.add(null);
+            return new int[]{0, 0};
+        }
 
-        // Reorder texture coordinates
-        if (indices.idxTextCoord >= 0) {
-            Vector2f textCoord = textCoordList.get(indices.idxTextCoord);
-            texCoordArr[posIndex * 2] = textCoord.x;
-            texCoordArr[posIndex * 2 + 1] = 1 - textCoord.y;
+        int[] offsets = new int[groupSizes.size() + 1];
+        for (int g = 0; g < groupSizes.size(); g++) {
+            offsets[g + 1] = offsets[g] + groupSizes.get(g) * 3;
         }
-        if (indices.idxVecNormal >= 0) {
-            // Reorder vectornormals
-            Vector3f vecNorm = normList.get(indices.idxVecNormal);
-            normArr[posIndex * 3] = vecNorm.x;
-            normArr[posIndex * 3 + 1] = vecNorm.y;
-            normArr[posIndex * 3 + 2] = vecNorm.z;
+        // With a single group the triangles are already in place
+        if (groupSizes.size() > 1) {
+            int[] source = indices.clone();
+            int[] fill = Arrays.copyOf(offsets, groupSizes.size());
+            for (int t = 0; t < triCount; t++) {
+                System.arraycopy(source, t * 3, indices, fill[triGroup[t]], 3);
+                fill[triGroup[t]] += 3;
+            }
         }
+        return offsets;
     }
 
-    protected static class Face {
-
-        /**
-         * List of idxGroup groups for a face triangle (3 vertices per face).
-         */
-        private IdxGroup[] idxGroups = new IdxGroup[3];
-
-        public Face(String v1, String v2, String v3) {
-            idxGroups = new IdxGroup[3];
-            // Parse the lines
-            idxGroups[0] = parseLine(v1);
-            idxGroups[1] = parseLine(v2);
-            idxGroups[2] = parseLine(v3);
-        }
-
-        private IdxGroup parseLine(String line) {
-            IdxGroup idxGroup = new IdxGroup();
-
-            String[] lineTokens = line.split("/");
-            int length = lineTokens.length;
-            idxGroup.idxPos = Integer.parseInt(lineTokens[0]) - 1;
-            if (length > 1) {
-                // It can be empty if the obj does not define text coords
-                String textCoord = lineTokens[1];
-                idxGroup.idxTextCoord = textCoord.length() > 0 ? Integer.parseInt(textCoord) - 1 : IdxGroup.NO_VALUE;
-                if (length > 2) {
-                    idxGroup.idxVecNormal = Integer.parseInt(lineTokens[2]) - 1;
+    /**
+     * Loads the material libraries of a model and assigns the materials to
+     * its sub meshes. Sub meshes without a material name are left alone. The
+     * mesh takes its own reference to each cached texture, which
+     * {@link Mesh#cleanUp()} gives back.
+     */
+    private static void assignMaterials(Mesh mesh, List<String> libraries, Path objPath) {
+        Map<String, Material> materials = new HashMap<>();
+        Path directory = objPath.toAbsolutePath().getParent();
+        for (String library : libraries) {
+            try {
+                materials.putAll(MTLLoader.loadLibrary(directory.resolve(library)));
+            } catch (IOException excp) {
+                System.err.println("Could not load material library " + library + ": " + excp.getMessage());
+            }
+        }
+        Set<Texture> textures = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (SubMesh subMesh : mesh.getSubMeshes()) {
+            String name = subMesh.getMaterialName();
+            if (name != null) {
+                Material material = materials.get(name);
+                if (material == null) {
+                    System.err.println("Unknown material " + name + " in " + objPath);
+                    material = MTLLoader.getDefaultMaterial();
+                }
+                subMesh.setMaterial(material);
+                Texture texture = material.getTexture();
+                if (texture != null && texture.getCache() != null && textures.add(texture)) {
+                    texture.getCache().retain(texture);
                 }
             }
-
-            return idxGroup;
         }
+    }
 
-        public IdxGroup[] getFaceVertexIndices() {
-            return idxGroups;
+    /**
+     * Splits the buffer into line aligned chunks, parses them on the common
+     * fork-join pool and merges the results in file order.
+     */
+    static OBJParser parseChunked(ByteBuffer buffer, int numChunks) {
+        int size = buffer.limit();
+        List<ForkJoinTask<OBJParser>> tasks = new ArrayList<>(numChunks);
+        int start = 0;
+        for (int i = 1; i <= numChunks && start < size; i++) {
+            int end = i == numChunks ? size : nextLineStart(buffer, (int) ((long) size * i / numChunks), size);
+            if (end <= start) {
+                continue;
+            }
+            final int chunkStart = start;
+            final int chunkEnd = end;
+            tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                OBJParser chunk = new OBJParser();
+                chunk.parse(buffer, chunkStart, chunkEnd);
+                return chunk;
+            }));
+            start = end;
         }
+        OBJParser[] chunks = new OBJParser[tasks.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = tasks.get(i).join();
+        }
+        return OBJParser.merge(chunks);
     }
 
-    protected static class IdxGroup {
-
-        public static final int NO_VALUE = -1;
-
-        public int idxPos;
-
-        public int idxTextCoord;
-
-        public int idxVecNormal;
-
-        public IdxGroup() {
-            idxPos = NO_VALUE;
-            idxTextCoord = NO_VALUE;
-            idxVecNormal = NO_VALUE;
+    private static int nextLineStart(ByteBuffer buffer, int pos, int size) {
+        while (pos < size && (pos == 0 || buffer.get(pos - 1) != '\n')) {
+            pos++;
         }
+        return pos;
     }
 }
@@ -0,0 +1,488 @@
+package engine.graphix;
+
+import engine.FloatArrayList;
+import engine.IntArrayList;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte level parser for the Wavefront OBJ records used by {@link OBJLoader}.
+ * It walks a (usually memory mapped) buffer and writes positions, texture
+ * coordinates, normals and face index triplets straight into primitive lists,
+ * so no per line or per vertex object is created. Material libraries and
+ * material switches are recorded as well, faces are not reordered.
+ */
+class OBJParser {
+
+    public static final int NO_VALUE = -1;
+
+    /**
+     * Exact powers of ten representable as a double.
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final FloatArrayList positions;
+
+    private final FloatArrayList texCoords;
+
+    private final FloatArrayList normals;
+
+    /**
+     * Face vertices, stored as (position, texture coordinate, normal) index
+     * triplets. Indices are zero based, missing ones are {@link #NO_VALUE}.
+     */
+    private final IntArrayList faceIndices;
+
+    /**
+     * Slots of {@link #faceIndices} that were resolved from a negative
+     * (relative) index. When the file is parsed in chunks these have to be
+     * shifted by the number of elements declared in the preceding chunks.
+     */
+    private final IntArrayList relativeSlots;
+
+    private final List<String> materialLibraries;
+
+    private final List<String> materialNames;
+
+    /**
+     * (first face index slot, index in {@link #materialNames}) pairs, one per
+     * <code>usemtl</code>. A material stays in use up to the next pair.
+     */
+    private final IntArrayList materialRanges;
+
+    private ByteBuffer buf;
+
+    private int cursor;
+
+    private int end;
+
+    OBJParser() {
+        positions = new FloatArrayList(1024);
+        texCoords = new FloatArrayList(1024);
+        normals = new FloatArrayList(1024);
+        faceIndices = new IntArrayList(4096);
+        relativeSlots = new IntArrayList(0);
+        materialLibraries = new ArrayList<>();
+        materialNames = new ArrayList<>();
+        materialRanges = new IntArrayList(0);
+    }
+
+    /**
+     * Concatenates the results of parsers that worked on consecutive chunks of
+     * the same file. Relative indices are moved by the prefix sum of the
+     * element counts of all previous chunks, so the result is the same as
+     * parsing the whole file at once.
+     *
+     * @param chunks Parsers in file order
+     * @return Parser holding the merged lists
+     */
+    static OBJParser merge(OBJParser[] chunks) {
+        int numPositions = 0, numTexCoords = 0, numNormals = 0, numFaceIndices = 0;
+        for (OBJParser chunk : chunks) {
+            numPositions += chunk.positions.size();
+            numTexCoords += chunk.texCoords.size();
+            numNormals += chunk.normals.size();
+            numFaceIndices += chunk.faceIndices.size();
+        }
+        OBJParser merged = new OBJParser(numPositions, numTexCoords, numNormals, numFaceIndices);
+        for (OBJParser chunk : chunks) {
+            int faceOffset = merged.faceIndices.size();
+            int[] offsets = {merged.getPositionCount(), merged.getTexCoordCount(), merged.getNormalCount()};
+            merged.positions.addAll(chunk.positions);
+            merged.texCoords.addAll(chunk.texCoords);
+            merged.normals.addAll(chunk.normals);
+            merged.faceIndices.addAll(chunk.faceIndices);
+            int[] faces = merged.faceIndices.elements();
+            for (int i = 0; i < chunk.relativeSlots.size(); i++) {
+                int slot = chunk.relativeSlots.get(i);
+                faces[faceOffset + slot] += offsets[slot % 3];
+            }
+            for (String library : chunk.materialLibraries) {
+                merged.addMaterialLibrary(library);
+            }
+            // Faces before the first usemtl of a chunk keep the material of the previous chunk
+            for (int i = 0; i < chunk.materialRanges.size(); i += 2) {
+                String name = chunk.materialNames.get(chunk.materialRanges.get(i + 1));
+                merged.useMaterial(faceOffset + chunk.materialRanges.get(i), name);
+            }
+        }
+        return merged;
+    }
+
+    private OBJParser(int positionsCapacity, int texCoordsCapacity, int normalsCapacity, int facesCapacity) {
+        positions = new FloatArrayList(positionsCapacity);
+        texCoords = new FloatArrayList(texCoordsCapacity);
+        normals = new FloatArrayList(normalsCapacity);
+        faceIndices = new IntArrayList(facesCapacity);
+        relativeSlots = new IntArrayList(0);
+        materialLibraries = new ArrayList<>();
+        materialNames = new ArrayList<>();
+        materialRanges = new IntArrayList(0);
+    }
+
+    /**
+     * Parses the bytes of <code>buffer</code> between <code>start</code>
+     * (inclusive) and <code>end</code> (exclusive).
+     *
+     * @param buffer Buffer holding the OBJ text
+     * @param start  First byte to parse
+     * @param end    End of the range to parse
+     */
+    void parse(ByteBuffer buffer, int start, int end) {
+        this.buf = buffer;
+        this.cursor = start;
+        this.end = end;
+        while (cursor < end) {
+            skipBlanks();
+            if (cursor >= end) {
+                break;
+            }
+            byte c = buf.get(cursor);
+            if (c == 'v' && cursor + 1 < end) {
+                byte next = buf.get(cursor + 1);
+                if (isBlank(next)) {
+                    // Geometric vertex
+                    cursor += 1;
+                    positions.add(parseFloat(), parseFloat(), parseFloat());
+                } else if (next == 't' && cursor + 2 < end && isBlank(buf.get(cursor + 2))) {
+                    // Texture coordinate
+                    cursor += 2;
+                    texCoords.add(parseFloat(), parseFloat());
+                } else if (next == 'n' && cursor + 2 < end && isBlank(buf.get(cursor + 2))) {
+                    // Vertex normal
+                    cursor += 2;
+                    normals.add(parseFloat(), parseFloat(), parseFloat());
+                }
+            } else if (c == 'f' && cursor + 1 < end && isBlank(buf.get(cursor + 1))) {
+                cursor += 1;
+                parseFace();
+            } else if (c == 'u' && matchKeyword("usemtl")) {
+                useMaterial(faceIndices.size(), readRestOfLine());
+            } else if (c == 'm' && matchKeyword("mtllib")) {
+                // Several libraries can be listed on one line
+                for (String library : readRestOfLine().split("\\s+")) {
+                    if (!library.isEmpty()) {
+                        addMaterialLibrary(library);
+                    }
+                }
+            }
+            // Ignore other lines and anything trailing a parsed record
+            skipLine();
+        }
+        this.buf = null;
+    }
+
+    private void addMaterialLibrary(String library) {
+        if (!materialLibraries.contains(library)) {
+            materialLibraries.add(library);
+        }
+    }
+
+    private void useMaterial(int faceSlot, String name) {
+        int material = materialNames.indexOf(name);
+        if (material < 0) {
+            material = materialNames.size();
+            materialNames.add(name);
+        }
+        int last = materialRanges.size() - 2;
+        if (last >= 0 && materialRanges.get(last) == faceSlot) {
+            // No face used the previous material
+            materialRanges.set(last + 1, material);
+        } else if (last < 0 || materialRanges.get(last + 1) != material) {
+            materialRanges.add(faceSlot, material);
+        }
+    }
+
+    FloatArrayList getPositions() {
+        return positions;
+    }
+
+    FloatArrayList getTexCoords() {
+        return texCoords;
+    }
+
+    FloatArrayList getNormals() {
+        return normals;
+    }
+
+    IntArrayList getFaceIndices() {
+        return faceIndices;
+    }
+
+    List<String> getMaterialLibraries() {
+        return materialLibraries;
+    }
+
+    List<String> getMaterialNames() {
+        return materialNames;
+    }
+
+    /**
+     * @return (first face index slot, index in {@link #getMaterialNames()})
+     * pairs, in file order
+     */
+    IntArrayList getMaterialRanges() {
+        return materialRanges;
+    }
+
+    int getPositionCount() {
+        return positions.size() / 3;
+    }
+
+    int getTexCoordCount() {
+        return texCoords.size() / 2;
+    }
+
+    int getNormalCount() {
+        return normals.size() / 3;
+    }
+
+    /**
+     * Parses the vertices of a face. Polygons with more than three vertices
+     * are split into a triangle fan around the first vertex.
+     */
+    private void parseFace() {
+        int firstPos = NO_VALUE, firstTex = NO_VALUE, firstNorm = NO_VALUE, firstRelative = 0;
+        int prevPos = NO_VALUE, prevTex = NO_VALUE, prevNorm = NO_VALUE, prevRelative = 0;
+        int count = 0;
+        while (true) {
+            skipBlanks();
+            if (cursor >= end || isLineEnd(buf.get(cursor))) {
+                break;
+            }
+            int relative = 0;
+            int idx = parseInt();
+            relative |= idx < 0 ? 1 : 0;
+            int pos = resolveIndex(idx, getPositionCount());
+            int tex = NO_VALUE;
+            int norm = NO_VALUE;
+            if (cursor < end && buf.get(cursor) == '/') {
+                cursor++;
+                // It can be empty if the obj does not define text coords
+                if (cursor < end && buf.get(cursor) != '/') {
+                    idx = parseInt();
+                    relative |= idx < 0 ? 2 : 0;
+                    tex = resolveIndex(idx, getTexCoordCount());
+                }
+                if (cursor < end && buf.get(cursor) == '/') {
+                    cursor++;
+                    idx = parseInt();
+                    relative |= idx < 0 ? 4 : 0;
+                    norm = resolveIndex(idx, getNormalCount());
+                }
+            }
+            if (count == 0) {
+                firstPos = pos;
+                firstTex = tex;
+                firstNorm = norm;
+                firstRelative = relative;
+            } else if (count >= 2) {
+                addFaceVertex(firstPos, firstTex, firstNorm, firstRelative);
+                addFaceVertex(prevPos, prevTex, prevNorm, prevRelative);
+                addFaceVertex(pos, tex, norm, relative);
+            }
+            prevPos = pos;
+            prevTex = tex;
+            prevNorm = norm;
+            prevRelative = relative;
+            count++;
+        }
+    }
+
+    /**
+     * Adds a face vertex. <code>relative</code> has bit 0, 1 and 2 set when
+     * the position, texture coordinate or normal index was relative.
+     */
+    private void addFaceVertex(int pos, int tex, int norm, int relative) {
+        int slot = faceIndices.size();
+        faceIndices.add(pos, tex, norm);
+        if (relative != 0) {
+            for (int i = 0; i < 3; i++) {
+                if ((relative & (1 << i)) != 0) {
+                    relativeSlots.add(slot + i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts a one based OBJ index into a zero based one. Negative indices are
+     * relative to the number of elements read so far.
+     */
+    private static int resolveIndex(int idx, int count) {
+        return idx < 0 ? count + idx : idx - 1;
+    }
+
+    private int parseInt() {
+        boolean negative = false;
+        byte c = cursor < end ? buf.get(cursor) : 0;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            cursor++;
+        }
+        int start = cursor;
+        int value = 0;
+        while (cursor < end) {
+            c = buf.get(cursor);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = value * 10 + (c - '0');
+            cursor++;
+        }
+        if (cursor == start) {
+            throw new NumberFormatException("Expected an index at byte " + start);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses a decimal float. Values whose digits fit exactly into a double are
+     * computed with a single correctly rounded operation, which yields the same
+     * float as {@link Float#parseFloat(String)}. Everything else (very long
+     * mantissas, big exponents, special values) falls back to the JDK parser.
+     */
+    private float parseFloat() {
+        skipBlanks();
+        int start = cursor;
+        boolean negative = false;
+        byte c = cursor < end ? buf.get(cursor) : 0;
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            cursor++;
+        }
+        long mantissa = 0;
+        int exponent = 0;
+        int digits = 0;
+        int significant = 0;
+        boolean truncated = false;
+        boolean fraction = false;
+        while (cursor < end) {
+            c = buf.get(cursor);
+            if (c >= '0' && c <= '9') {
+                digits++;
+                if (significant < MAX_MANTISSA_DIGITS) {
+                    if (mantissa != 0 || c != '0') {
+                        significant++;
+                    }
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else {
+                    truncated |= c != '0';
+                    if (!fraction) {
+                        exponent++;
+                    }
+                }
+            } else if (c == '.' && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+            cursor++;
+        }
+        if (cursor < end && (c == 'e' || c == 'E') && digits > 0) {
+            cursor++;
+            exponent += parseInt();
+        }
+        if (digits == 0 || truncated || mantissa > MAX_EXACT_MANTISSA || exponent < -22 || exponent > 22) {
+            return slowParseFloat(start);
+        }
+        double value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+        if (value != 0 && (value < Float.MIN_NORMAL || isFloatMidpoint(value))) {
+            // Rounding the double to float again could be off by one ulp
+            return slowParseFloat(start);
+        }
+        float result = (float) value;
+        return negative ? -result : result;
+    }
+
+    /**
+     * Checks if the double lies exactly half way between two floats, the only
+     * case where double rounding differs from direct rounding.
+     */
+    private static boolean isFloatMidpoint(double value) {
+        return (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) == 0x10000000L;
+    }
+
+    private float slowParseFloat(int start) {
+        while (cursor < end && !isBlank(buf.get(cursor)) && !isLineEnd(buf.get(cursor))) {
+            cursor++;
+        }
+        byte[] token = new byte[cursor - start];
+        for (int i = 0; i < token.length; i++) {
+            token[i] = buf.get(start + i);
+        }
+        return Float.parseFloat(new String(token, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Checks if the line continues with <code>keyword</code> followed by a
+     * blank, and moves past the keyword if it does.
+     */
+    private boolean matchKeyword(String keyword) {
+        int length = keyword.length();
+        if (cursor + length >= end || !isBlank(buf.get(cursor + length))) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buf.get(cursor + i) != keyword.charAt(i)) {
+                return false;
+            }
+        }
+        cursor += length;
+        return true;
+    }
+
+    /**
+     * Reads the rest of the line up to a comment, without surrounding blanks.
+     */
+    private String readRestOfLine() {
+        skipBlanks();
+        int start = cursor;
+        while (cursor < end && !isLineEnd(buf.get(cursor))) {
+            cursor++;
+        }
+        int stop = cursor;
+        while (stop > start && isBlank(buf.get(stop - 1))) {
+            stop--;
+        }
+        byte[] bytes = new byte[stop - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void skipBlanks() {
+        while (cursor < end && isBlank(buf.get(cursor))) {
+            cursor++;
+        }
+    }
+
+    private void skipLine() {
+        while (cursor < end && buf.get(cursor) != '\n') {
+            cursor++;
+        }
+        cursor++;
+    }
+
+    private static boolean isBlank(byte c) {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isLineEnd(byte c) {
+        return c == '\n' || c == '#';
+    }
+}
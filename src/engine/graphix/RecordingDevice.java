@@ -0,0 +1,676 @@
+package engine.graphix;
+
+import engine.IntArrayList;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_TRUE;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * A {@link GraphicsDevice} without a GPU. Every call is counted and, unless
+ * only counting was asked for, appended to a command stream of ints: the
+ * {@link Command} ordinal followed by its {@link Command#getArity() arity}
+ * arguments. Floats are stored as their bits, data passed in buffers as its
+ * size in bytes, or -1 if it comes from a bound unpack buffer.
+ * <p>
+ * Objects get increasing names and are counted while they live, so leaks
+ * show up in {@link #getLiveObjects()}. Shaders always compile and link and
+ * every uniform exists. A uniform block exists if a shader attached to the
+ * program declares it, so programs take the same path as on a GPU.
+ * {@link #glGetInteger(int)} answers the uniform buffer offset alignment, 256
+ * bytes like most drivers, and 0 for anything else.
+ */
+public class RecordingDevice implements GraphicsDevice {
+
+    public enum Command {
+        CLEAR(1), VIEWPORT(4), DRAW_ELEMENTS(4), DRAW_ELEMENTS_INSTANCED(5), ENABLE(1), DISABLE(1), BLEND_FUNC(2),
+        GEN_BUFFERS(1), BIND_BUFFER(2), BUFFER_DATA(3), BUFFER_SUB_DATA(3), DELETE_BUFFERS(1), BIND_BUFFER_BASE(3),
+        BIND_BUFFER_RANGE(5), MAP_BUFFER_RANGE(4), UNMAP_BUFFER(1),
+        GEN_VERTEX_ARRAYS(1), BIND_VERTEX_ARRAY(1), DELETE_VERTEX_ARRAYS(1),
+        ENABLE_VERTEX_ATTRIB_ARRAY(1), DISABLE_VERTEX_ATTRIB_ARRAY(1), VERTEX_ATTRIB_POINTER(6),
+        VERTEX_ATTRIB_DIVISOR(2),
+        GEN_TEXTURES(1), ACTIVE_TEXTURE(1), BIND_TEXTURE(2), DELETE_TEXTURES(1), PIXEL_STORE(2),
+        TEX_PARAMETER(3), TEX_IMAGE_2D(6), TEX_SUB_IMAGE_2D(7), COMPRESSED_TEX_IMAGE_2D(6), TEX_IMAGE_3D(7),
+        TEX_SUB_IMAGE_3D(9), GENERATE_MIPMAP(1),
+        CREATE_SHADER(2), SHADER_SOURCE(2), COMPILE_SHADER(1), DELETE_SHADER(1),
+        CREATE_PROGRAM(1), ATTACH_SHADER(2), DETACH_SHADER(2), LINK_PROGRAM(1), VALIDATE_PROGRAM(1),
+        USE_PROGRAM(1), DELETE_PROGRAM(1), GET_UNIFORM_LOCATION(2), GET_UNIFORM_BLOCK_INDEX(2),
+        UNIFORM_BLOCK_BINDING(3),
+        UNIFORM_1I(2), UNIFORM_1F(2), UNIFORM_3F(4), UNIFORM_4F(5), UNIFORM_MATRIX_4F(17);
+
+        private final int arity;
+
+        Command(int arity) {
+            this.arity = arity;
+        }
+
+        /**
+         * @return Number of ints following the command in the stream
+         */
+        public int getArity() {
+            return arity;
+        }
+    }
+
+    private static final Command[] COMMANDS = Command.values();
+
+    private final boolean keepStream;
+
+    private final IntArrayList stream = new IntArrayList(1024);
+
+    private final int[] counts = new int[COMMANDS.length];
+
+    private final Map<String, Integer> uniformLocations = new HashMap<>();
+
+    private final Map<String, Integer> uniformBlocks = new HashMap<>();
+
+    private final Map<Integer, CharSequence> shaderSources = new HashMap<>();
+
+    private final Map<Integer, List<Integer>> attachedShaders = new HashMap<>();
+
+    /**
+     * Sources of the shaders attached to each program when it was last linked
+     */
+    private final Map<Integer, List<CharSequence>> linkedSources = new HashMap<>();
+
+    private int nextName = 1;
+
+    private long triangles;
+
+    private long uploadedBytes;
+
+    private int liveObjects;
+
+    public RecordingDevice() {
+        this(true);
+    }
+
+    /**
+     * @param keepStream False to only count the calls, for long benchmarks
+     */
+    public RecordingDevice(boolean keepStream) {
+        this.keepStream = keepStream;
+    }
+
+    private void record(Command command) {
+        counts[command.ordinal()]++;
+        if (keepStream) {
+            stream.add(command.ordinal());
+        }
+    }
+
+    private void record(Command command, int a) {
+        record(command);
+        if (keepStream) {
+            stream.add(a);
+        }
+    }
+
+    private void record(Command command, int a, int b) {
+        record(command);
+        if (keepStream) {
+            stream.add(a, b);
+        }
+    }
+
+    private void record(Command command, int a, int b, int c) {
+        record(command);
+        if (keepStream) {
+            stream.add(a, b, c);
+        }
+    }
+
+    private void add(int a, int b, int c) {
+        if (keepStream) {
+            stream.add(a, b, c);
+        }
+    }
+
+    private int create(Command command) {
+        int name = nextName++;
+        liveObjects++;
+        record(command, name);
+        return name;
+    }
+
+    private void delete(Command command, int name) {
+        if (name != 0) {
+            liveObjects--;
+        }
+        record(command, name);
+    }
+
+    private int upload(Buffer data, int elementSize) {
+        int bytes = data.remaining() * elementSize;
+        uploadedBytes += bytes;
+        return bytes;
+    }
+
+    // Frame
+
+    @Override
+    public int glGetInteger(int pname) {
+        return pname == GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT ? 256 : 0;
+    }
+
+    @Override
+    public void glClear(int mask) {
+        record(Command.CLEAR, mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        record(Command.VIEWPORT, x, y);
+        if (keepStream) {
+            stream.add(width, height);
+        }
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, long indices) {
+        if (mode == GL_TRIANGLES) {
+            triangles += count / 3;
+        }
+        record(Command.DRAW_ELEMENTS, mode, count);
+        if (keepStream) {
+            stream.add(type, (int) indices);
+        }
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {
+        if (mode == GL_TRIANGLES) {
+            triangles += (long) count / 3 * primcount;
+        }
+        record(Command.DRAW_ELEMENTS_INSTANCED, mode, count, type);
+        if (keepStream) {
+            stream.add((int) indices, primcount);
+        }
+    }
+
+    @Override
+    public void glEnable(int capability) {
+        record(Command.ENABLE, capability);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        record(Command.DISABLE, capability);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        record(Command.BLEND_FUNC, sfactor, dfactor);
+    }
+
+    // Buffers and vertex arrays
+
+    @Override
+    public int glGenBuffers() {
+        return create(Command.GEN_BUFFERS);
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        record(Command.BIND_BUFFER, target, buffer);
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        record(Command.BUFFER_DATA, target, upload(data, Byte.BYTES), usage);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        record(Command.BUFFER_DATA, target, upload(data, Float.BYTES), usage);
+    }
+
+    @Override
+    public void glBufferData(int target, IntBuffer data, int usage) {
+        record(Command.BUFFER_DATA, target, upload(data, Integer.BYTES), usage);
+    }
+
+    @Override
+    public void glBufferData(int target, long size, int usage) {
+        record(Command.BUFFER_DATA, target, (int) size, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        record(Command.BUFFER_SUB_DATA, target, (int) offset, upload(data, Byte.BYTES));
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        record(Command.BUFFER_SUB_DATA, target, (int) offset, upload(data, Float.BYTES));
+    }
+
+    /**
+     * Hands out fresh memory, whatever is written to it counts as uploaded.
+     */
+    @Override
+    public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+        uploadedBytes += length;
+        record(Command.MAP_BUFFER_RANGE, target, (int) offset);
+        if (keepStream) {
+            stream.add((int) length, access);
+        }
+        return ByteBuffer.allocateDirect((int) length);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        record(Command.UNMAP_BUFFER, target);
+        return true;
+    }
+
+    @Override
+    public void glBindBufferBase(int target, int index, int buffer) {
+        record(Command.BIND_BUFFER_BASE, target, index, buffer);
+    }
+
+    @Override
+    public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+        record(Command.BIND_BUFFER_RANGE, target, index, buffer);
+        if (keepStream) {
+            stream.add((int) offset, (int) size);
+        }
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        delete(Command.DELETE_BUFFERS, buffer);
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        return create(Command.GEN_VERTEX_ARRAYS);
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        record(Command.BIND_VERTEX_ARRAY, array);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        delete(Command.DELETE_VERTEX_ARRAYS, array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        record(Command.ENABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        record(Command.DISABLE_VERTEX_ATTRIB_ARRAY, index);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        record(Command.VERTEX_ATTRIB_POINTER, index, size, type);
+        add(normalized ? 1 : 0, stride, (int) pointer);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        record(Command.VERTEX_ATTRIB_DIVISOR, index, divisor);
+    }
+
+    // Textures
+
+    @Override
+    public int glGenTextures() {
+        return create(Command.GEN_TEXTURES);
+    }
+
+    @Override
+    public void glActiveTexture(int texture) {
+        record(Command.ACTIVE_TEXTURE, texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        record(Command.BIND_TEXTURE, target, texture);
+    }
+
+    @Override
+    public void glDeleteTextures(int texture) {
+        delete(Command.DELETE_TEXTURES, texture);
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        record(Command.PIXEL_STORE, pname, param);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        record(Command.TEX_PARAMETER, target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, ByteBuffer pixels) {
+        record(Command.TEX_IMAGE_2D, target, level, internalFormat);
+        add(width, height, pixels != null ? upload(pixels, Byte.BYTES) : 0);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, long pixels) {
+        record(Command.TEX_IMAGE_2D, target, level, internalFormat);
+        add(width, height, -1);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type,
+                                ByteBuffer pixels) {
+        int bytes = upload(pixels, Byte.BYTES);
+        record(Command.TEX_SUB_IMAGE_2D, target, level, x);
+        add(y, width, height);
+        if (keepStream) {
+            stream.add(bytes);
+        }
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       ByteBuffer data) {
+        record(Command.COMPRESSED_TEX_IMAGE_2D, target, level, internalFormat);
+        add(width, height, upload(data, Byte.BYTES));
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       int imageSize, long data) {
+        record(Command.COMPRESSED_TEX_IMAGE_2D, target, level, internalFormat);
+        add(width, height, -1);
+    }
+
+    @Override
+    public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                             int format, int type, ByteBuffer pixels) {
+        int bytes = pixels != null ? upload(pixels, Byte.BYTES) : 0;
+        record(Command.TEX_IMAGE_3D, target, level, internalFormat);
+        add(width, height, depth);
+        if (keepStream) {
+            stream.add(bytes);
+        }
+    }
+
+    @Override
+    public void glTexSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                                int format, int type, ByteBuffer pixels) {
+        int bytes = upload(pixels, Byte.BYTES);
+        record(Command.TEX_SUB_IMAGE_3D, target, level, x);
+        add(y, z, width);
+        add(height, depth, bytes);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        record(Command.GENERATE_MIPMAP, target);
+    }
+
+    // Shaders
+
+    @Override
+    public int glCreateShader(int type) {
+        int name = nextName++;
+        liveObjects++;
+        record(Command.CREATE_SHADER, type, name);
+        return name;
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        shaderSources.put(shader, source);
+        record(Command.SHADER_SOURCE, shader, source.length());
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        record(Command.COMPILE_SHADER, shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        return GL_TRUE;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        shaderSources.remove(shader);
+        delete(Command.DELETE_SHADER, shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        return create(Command.CREATE_PROGRAM);
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        attachedShaders.computeIfAbsent(program, key -> new ArrayList<>()).add(shader);
+        record(Command.ATTACH_SHADER, program, shader);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        List<Integer> shaders = attachedShaders.get(program);
+        if (shaders != null) {
+            shaders.remove(Integer.valueOf(shader));
+        }
+        record(Command.DETACH_SHADER, program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        List<CharSequence> sources = new ArrayList<>();
+        for (int shader : attachedShaders.getOrDefault(program, Collections.emptyList())) {
+            CharSequence source = shaderSources.get(shader);
+            if (source != null) {
+                sources.add(source);
+            }
+        }
+        linkedSources.put(program, sources);
+        record(Command.LINK_PROGRAM, program);
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        record(Command.VALIDATE_PROGRAM, program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        return GL_TRUE;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        record(Command.USE_PROGRAM, program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        attachedShaders.remove(program);
+        linkedSources.remove(program);
+        delete(Command.DELETE_PROGRAM, program);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        int location = uniformLocations.computeIfAbsent(program + "/" + name, key -> uniformLocations.size());
+        record(Command.GET_UNIFORM_LOCATION, program, location);
+        return location;
+    }
+
+    @Override
+    public int glGetUniformBlockIndex(int program, CharSequence name) {
+        int index = declaresBlock(program, name)
+                ? uniformBlocks.computeIfAbsent(program + "/" + name, key -> uniformBlocks.size())
+                : GL_INVALID_INDEX;
+        record(Command.GET_UNIFORM_BLOCK_INDEX, program, index);
+        return index;
+    }
+
+    /**
+     * Looks for <code>uniform Name {</code> in the shaders the program was
+     * linked with, shaders detached afterwards still count.
+     */
+    private boolean declaresBlock(int program, CharSequence name) {
+        Pattern declaration = Pattern.compile("\\buniform\\s+" + Pattern.quote(name.toString()) + "\\s*\\{");
+        for (CharSequence source : linkedSources.getOrDefault(program, Collections.emptyList())) {
+            if (declaration.matcher(source).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void glUniformBlockBinding(int program, int blockIndex, int binding) {
+        record(Command.UNIFORM_BLOCK_BINDING, program, blockIndex, binding);
+    }
+
+    @Override
+    public void glUniform1i(int location, int value) {
+        record(Command.UNIFORM_1I, location, value);
+    }
+
+    @Override
+    public void glUniform1f(int location, float value) {
+        record(Command.UNIFORM_1F, location, Float.floatToRawIntBits(value));
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        record(Command.UNIFORM_3F, location, Float.floatToRawIntBits(x));
+        if (keepStream) {
+            stream.add(Float.floatToRawIntBits(y), Float.floatToRawIntBits(z));
+        }
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        record(Command.UNIFORM_4F, location, Float.floatToRawIntBits(x));
+        add(Float.floatToRawIntBits(y), Float.floatToRawIntBits(z), Float.floatToRawIntBits(w));
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        record(Command.UNIFORM_MATRIX_4F, location);
+        if (keepStream) {
+            for (int i = 0; i < 16; i++) {
+                stream.add(Float.floatToRawIntBits(value.get(value.position() + i)));
+            }
+        }
+    }
+
+    // Results
+
+    /**
+     * @return Number of calls of a command since the last {@link #reset()}
+     */
+    public int getCount(Command command) {
+        return counts[command.ordinal()];
+    }
+
+    /**
+     * @return Number of calls of all commands since the last {@link #reset()}
+     */
+    public int getCommandCount() {
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return Draw calls, instanced or not
+     */
+    public int getDrawCalls() {
+        return getCount(Command.DRAW_ELEMENTS) + getCount(Command.DRAW_ELEMENTS_INSTANCED);
+    }
+
+    public long getTriangles() {
+        return triangles;
+    }
+
+    /**
+     * @return Bytes passed in client memory to buffers and textures
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return Buffers, vertex arrays, textures, shaders and programs created
+     * and not deleted, over the whole life of the device
+     */
+    public int getLiveObjects() {
+        return liveObjects;
+    }
+
+    /**
+     * @return The command stream since the last {@link #reset()}, empty if
+     * only counting
+     */
+    public int[] getStream() {
+        return stream.toArray();
+    }
+
+    /**
+     * @return The command stream as text, one command per line
+     */
+    public String dump() {
+        StringBuilder result = new StringBuilder();
+        int[] data = stream.elements();
+        for (int i = 0; i < stream.size(); ) {
+            Command command = COMMANDS[data[i++]];
+            result.append(command);
+            for (int a = 0; a < command.getArity(); a++) {
+                result.append(' ').append(data[i++]);
+            }
+            result.append('\n');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Starts a new recording, the names and live objects are kept.
+     */
+    public void reset() {
+        stream.clear();
+        Arrays.fill(counts, 0);
+        triangles = 0;
+        uploadedBytes = 0;
+    }
+}
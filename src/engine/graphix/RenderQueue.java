@@ -0,0 +1,271 @@
+package engine.graphix;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import engine.items.GameItem;
+
+/**
+ * The draws of a frame, each with a 64 bit sort key, submitted in key order
+ * so that draws sharing a program, texture, material and mesh follow each
+ * other and the state changes between them are few. From the highest bits:
+ * <pre>
+ * pass     2 bits
+ * program  6 bits
+ * texture 12 bits
+ * material 10 bits
+ * mesh    10 bits
+ * depth   24 bits, nearest first so the depth test rejects hidden fragments early
+ * </pre>
+ * Ids wider than their field are masked, which only makes the grouping
+ * coarser. The keys are sorted with a radix sort over primitive arrays, the
+ * queue allocates nothing once its arrays hold a frame.
+ */
+public class RenderQueue {
+
+    public static final int PASS_OPAQUE = 0;
+
+    private static final int DEPTH_BITS = 24;
+    private static final int MESH_BITS = 10;
+    private static final int MATERIAL_BITS = 10;
+    private static final int TEXTURE_BITS = 12;
+    private static final int PROGRAM_BITS = 6;
+    private static final int PASS_BITS = 2;
+
+    private static final int DEPTH_SHIFT = 0;
+    private static final int MESH_SHIFT = DEPTH_SHIFT + DEPTH_BITS;
+    private static final int MATERIAL_SHIFT = MESH_SHIFT + MESH_BITS;
+    private static final int TEXTURE_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+    private static final int PROGRAM_SHIFT = TEXTURE_SHIFT + TEXTURE_BITS;
+    private static final int PASS_SHIFT = PROGRAM_SHIFT + PROGRAM_BITS;
+
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+    /**
+     * The sort goes over the keys a byte at a time, from the lowest
+     */
+    private static final int RADIX_BITS = 8;
+    private static final int RADIX = 1 << RADIX_BITS;
+    private static final int DIGITS = Long.SIZE / RADIX_BITS;
+
+    private long[] keys;
+    private long[] sortedKeys;
+    /**
+     * Entry of each key, moved along with it by the sort
+     */
+    private int[] order;
+    private int[] sortedOrder;
+    private final int[] counts = new int[DIGITS * RADIX];
+
+    private Mesh[] meshes;
+    private GameItem[] items;
+    private int[] subMeshes;
+    private int[] levels;
+    private int size;
+
+    private final Map<Material, Integer> materialIds = new IdentityHashMap<>();
+
+    public RenderQueue() {
+        this(256);
+    }
+
+    /**
+     * @param capacity Draws held before the arrays grow
+     */
+    public RenderQueue(int capacity) {
+        keys = new long[capacity];
+        sortedKeys = new long[capacity];
+        order = new int[capacity];
+        sortedOrder = new int[capacity];
+        meshes = new Mesh[capacity];
+        items = new GameItem[capacity];
+        subMeshes = new int[capacity];
+        levels = new int[capacity];
+    }
+
+    /**
+     * Builds a sort key, see the class comment for the fields.
+     *
+     * @param depth Quantized depth, see {@link #quantizeDepth(float, float)}
+     */
+    public static long key(int pass, int program, int texture, int material, int mesh, int depth) {
+        return field(pass, PASS_BITS, PASS_SHIFT)
+                | field(program, PROGRAM_BITS, PROGRAM_SHIFT)
+                | field(texture, TEXTURE_BITS, TEXTURE_SHIFT)
+                | field(material, MATERIAL_BITS, MATERIAL_SHIFT)
+                | field(mesh, MESH_BITS, MESH_SHIFT)
+                | field(depth, DEPTH_BITS, DEPTH_SHIFT);
+    }
+
+    private static long field(int value, int bits, int shift) {
+        return ((long) value & ((1L << bits) - 1)) << shift;
+    }
+
+    public static int getPass(long key) {
+        return (int) (key >>> PASS_SHIFT) & ((1 << PASS_BITS) - 1);
+    }
+
+    public static int getProgram(long key) {
+        return (int) (key >>> PROGRAM_SHIFT) & ((1 << PROGRAM_BITS) - 1);
+    }
+
+    public static int getDepth(long key) {
+        return (int) (key >>> DEPTH_SHIFT) & MAX_DEPTH;
+    }
+
+    /**
+     * @param depth    Distance from the camera along the view direction
+     * @param maxDepth Distance of the far plane, depths past it are clamped
+     * @return The depth linearly mapped to the 24 bits of the key
+     */
+    public static int quantizeDepth(float depth, float maxDepth) {
+        if (!(depth > 0)) {
+            return 0;
+        }
+        if (depth >= maxDepth) {
+            return MAX_DEPTH;
+        }
+        return (int) (depth / maxDepth * MAX_DEPTH);
+    }
+
+    /**
+     * @return A small id of a material, the same for as long as the queue lives
+     */
+    public int materialId(Material material) {
+        if (material == null) {
+            return 0;
+        }
+        Integer id = materialIds.get(material);
+        if (id == null) {
+            id = materialIds.size() + 1;
+            materialIds.put(material, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return The GL name of the texture or texture array a material samples, 0 if none
+     */
+    public static int textureId(Material material) {
+        if (material == null) {
+            return 0;
+        }
+        if (material.getTextureArray() != null) {
+            return material.getTextureArray().getId();
+        }
+        return material.getTexture() != null ? material.getTexture().getId() : 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Queues a draw.
+     *
+     * @param key      Its sort key
+     * @param mesh     The mesh drawn
+     * @param item     The item drawn, or null for all the items of the mesh
+     * @param subMesh  Index of the sub mesh, or -1 for all of them
+     * @param level    Level of detail
+     */
+    public void add(long key, Mesh mesh, GameItem item, int subMesh, int level) {
+        if (size == keys.length) {
+            grow(Math.max(1, size * 2));
+        }
+        keys[size] = key;
+        order[size] = size;
+        meshes[size] = mesh;
+        items[size] = item;
+        subMeshes[size] = subMesh;
+        levels[size] = level;
+        size++;
+    }
+
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        order = Arrays.copyOf(order, capacity);
+        meshes = Arrays.copyOf(meshes, capacity);
+        items = Arrays.copyOf(items, capacity);
+        subMeshes = Arrays.copyOf(subMeshes, capacity);
+        levels = Arrays.copyOf(levels, capacity);
+        sortedKeys = new long[capacity];
+        sortedOrder = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the draws by key, equal keys keep the order they were added in.
+     * <p>
+     * Least significant digit first radix sort, one counting pass per byte.
+     * The counts of all the bytes are taken in a single read of the keys,
+     * and bytes that are the same in every key are skipped, which is most
+     * of the high ones since a frame uses few passes and programs.
+     */
+    public void sort() {
+        if (size < 2) {
+            return;
+        }
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) {
+            long key = keys[i];
+            for (int digit = 0; digit < DIGITS; digit++) {
+                counts[digit * RADIX + ((int) (key >>> (digit * RADIX_BITS)) & (RADIX - 1))]++;
+            }
+        }
+
+        for (int digit = 0; digit < DIGITS; digit++) {
+            int base = digit * RADIX;
+            int shift = digit * RADIX_BITS;
+            if (counts[base + ((int) (keys[0] >>> shift) & (RADIX - 1))] == size) {
+                continue;
+            }
+            // Turn the counts into the first position of each byte value
+            int position = 0;
+            for (int value = 0; value < RADIX; value++) {
+                int count = counts[base + value];
+                counts[base + value] = position;
+                position += count;
+            }
+            for (int i = 0; i < size; i++) {
+                long key = keys[i];
+                int dest = counts[base + ((int) (key >>> shift) & (RADIX - 1))]++;
+                sortedKeys[dest] = key;
+                sortedOrder[dest] = order[i];
+            }
+            long[] swapKeys = keys;
+            keys = sortedKeys;
+            sortedKeys = swapKeys;
+            int[] swapOrder = order;
+            order = sortedOrder;
+            sortedOrder = swapOrder;
+        }
+    }
+
+    /**
+     * @param index Position in key order, after {@link #sort()}
+     */
+    public long getKey(int index) {
+        return keys[index];
+    }
+
+    public Mesh getMesh(int index) {
+        return meshes[order[index]];
+    }
+
+    public GameItem getItem(int index) {
+        return items[order[index]];
+    }
+
+    public int getSubMesh(int index) {
+        return subMeshes[order[index]];
+    }
+
+    public int getLevel(int index) {
+        return levels[order[index]];
+    }
+}
@@ -5,8 +5,11 @@ import engine.items.GameItem;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 
 public class Scene {
 
@@ -36,6 +39,57 @@ public class Scene {
             }
             list.add(gameItem);
         }
+        groupByTexture();
+    }
+
+    /**
+     * Orders the meshes so that meshes drawing with the same texture, such
+     * as a {@link TextureAtlas} page or a {@link TextureArray}, are rendered
+     * one after the other.
+     */
+    private void groupByTexture() {
+        Map<Mesh, List<GameItem>> grouped = new LinkedHashMap<>();
+        for (Mesh mesh : groupBy(meshMap.keySet(), Scene::textureOf)) {
+            grouped.put(mesh, meshMap.get(mesh));
+        }
+        meshMap = grouped;
+    }
+
+    private static Object textureOf(Mesh mesh) {
+        Material material = mesh.getMaterial();
+        if (material == null) {
+            return null;
+        }
+        return material.getTextureArray() != null ? material.getTextureArray() : material.getTexture();
+    }
+
+    /**
+     * Orders items so that items with the same key, compared by identity,
+     * follow each other. Groups keep the order of their first item, items
+     * keep their order inside a group.
+     *
+     * @param items Items to order
+     * @param key   Key of each item, may be null
+     * @return The ordered items
+     */
+    static <T> List<T> groupBy(Iterable<T> items, Function<T, Object> key) {
+        Map<Object, List<T>> groups = new IdentityHashMap<>();
+        List<List<T>> order = new ArrayList<>();
+        for (T item : items) {
+            Object itemKey = key.apply(item);
+            List<T> group = groups.get(itemKey);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(itemKey, group);
+                order.add(group);
+            }
+            group.add(item);
+        }
+        List<T> result = new ArrayList<>();
+        for (List<T> group : order) {
+            result.addAll(group);
+        }
+        return result;
     }
 
     public SkyBox getSkyBox() {
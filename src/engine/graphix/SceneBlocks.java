@@ -0,0 +1,251 @@
+package engine.graphix;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT;
+
+/**
+ * The std140 uniform blocks shared by the scene programs, each one on its
+ * own binding point:
+ * <pre>
+ * layout (std140) uniform FrameBlock {
+ *     mat4 projectionMatrix;
+ * };
+ *
+ * layout (std140) uniform LightBlock {
+ *     vec3 ambientLight;
+ *     float specularPower;
+ *     PointLight pointLights[MAX_POINT_LIGHTS];
+ *     DirectionalLight directionalLight;
+ *     Fog fog;
+ * };
+ *
+ * layout (std140) uniform MaterialBlock {
+ *     Material material;
+ * };
+ * </pre>
+ * The members have the names and struct types of the uniforms they replace,
+ * so the code of a shader reading them does not change. A program uses the
+ * blocks it declares, see {@link ShaderProgram#bindUniformBlock(String, int)}.
+ * <p>
+ * Frame and light data is packed once per frame and only the changed bytes
+ * are uploaded. Each material gets its own aligned slot of the material
+ * buffer, which is bound as a range, so switching materials uploads nothing
+ * unless the material changed. The slot is given back when the mesh of the
+ * material is cleaned up, see {@link Material#cleanup()}, and handed out
+ * again lowest first.
+ */
+public class SceneBlocks {
+
+    public static final String FRAME_BLOCK = "FrameBlock";
+
+    public static final String LIGHT_BLOCK = "LightBlock";
+
+    public static final String MATERIAL_BLOCK = "MaterialBlock";
+
+    public static final int FRAME_BINDING = 0;
+
+    public static final int LIGHT_BINDING = 1;
+
+    public static final int MATERIAL_BINDING = 2;
+
+    public static final int MAX_POINT_LIGHTS = 5;
+
+    // Offsets of the std140 layout, structs and arrays align to 16 bytes
+
+    public static final int FRAME_SIZE = Std140Buffer.MAT4_SIZE;
+
+    static final int POINT_LIGHT_COLOUR = 0;
+    static final int POINT_LIGHT_POSITION = 16;
+    static final int POINT_LIGHT_INTENSITY = 28;
+    static final int POINT_LIGHT_CONSTANT = 32;
+    static final int POINT_LIGHT_LINEAR = 36;
+    static final int POINT_LIGHT_EXPONENT = 40;
+    static final int POINT_LIGHT_SIZE = 48;
+
+    static final int DIRECTIONAL_LIGHT_COLOUR = 0;
+    static final int DIRECTIONAL_LIGHT_DIRECTION = 16;
+    static final int DIRECTIONAL_LIGHT_INTENSITY = 28;
+    static final int DIRECTIONAL_LIGHT_SIZE = 32;
+
+    static final int FOG_ACTIVE = 0;
+    static final int FOG_COLOUR = 16;
+    static final int FOG_DENSITY = 28;
+    static final int FOG_SIZE = 32;
+
+    public static final int LIGHT_AMBIENT = 0;
+    public static final int LIGHT_SPECULAR_POWER = 12;
+    public static final int LIGHT_POINT_LIGHTS = 16;
+    public static final int LIGHT_DIRECTIONAL = LIGHT_POINT_LIGHTS + MAX_POINT_LIGHTS * POINT_LIGHT_SIZE;
+    public static final int LIGHT_FOG = LIGHT_DIRECTIONAL + DIRECTIONAL_LIGHT_SIZE;
+    public static final int LIGHT_SIZE = LIGHT_FOG + FOG_SIZE;
+
+    static final int MATERIAL_AMBIENT = 0;
+    static final int MATERIAL_DIFFUSE = 16;
+    static final int MATERIAL_SPECULAR = 32;
+    static final int MATERIAL_HAS_TEXTURE = 48;
+    static final int MATERIAL_REFLECTANCE = 52;
+    static final int MATERIAL_LAYER = 56;
+    public static final int MATERIAL_SIZE = 64;
+
+    private static final int INITIAL_MATERIAL_SLOTS = 16;
+
+    private final UniformBuffer frame;
+
+    private final UniformBuffer lights;
+
+    private final UniformBuffer materials;
+
+    /**
+     * Distance between material slots, the size rounded up to the offset
+     * alignment of the driver
+     */
+    private final int materialStride;
+
+    private final Map<Material, Integer> materialSlots = new IdentityHashMap<>();
+
+    private final BitSet usedSlots = new BitSet();
+
+    public SceneBlocks() {
+        int alignment = Math.max(device().glGetInteger(GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT), 1);
+        materialStride = Std140Buffer.align(MATERIAL_SIZE, alignment);
+        frame = new UniformBuffer(FRAME_SIZE);
+        lights = new UniformBuffer(LIGHT_SIZE);
+        materials = new UniformBuffer(INITIAL_MATERIAL_SLOTS * materialStride);
+    }
+
+    public static void packFrame(Std140Buffer dest, Matrix4f projectionMatrix) {
+        dest.putMat4(0, projectionMatrix);
+    }
+
+    /**
+     * Packs the lights and the fog, positions and directions transformed to
+     * view coordinates. Point lights past {@link #MAX_POINT_LIGHTS} are left
+     * out, the unused ones get no intensity.
+     */
+    public static void packLights(Std140Buffer dest, SceneLight sceneLight, Matrix4f viewMatrix,
+                                  float specularPower, Fog fog) {
+        dest.putVec3(LIGHT_AMBIENT, sceneLight.getAmbientLight());
+        dest.putFloat(LIGHT_SPECULAR_POWER, specularPower);
+
+        PointLight[] pointLights = sceneLight.getPointLightList();
+        int numLights = pointLights != null ? Math.min(pointLights.length, MAX_POINT_LIGHTS) : 0;
+        for (int i = 0; i < MAX_POINT_LIGHTS; i++) {
+            int offset = LIGHT_POINT_LIGHTS + i * POINT_LIGHT_SIZE;
+            if (i >= numLights) {
+                dest.putFloat(offset + POINT_LIGHT_INTENSITY, 0);
+                continue;
+            }
+            PointLight light = pointLights[i];
+            dest.putVec3(offset + POINT_LIGHT_COLOUR, light.getColor());
+            putTransformed(dest, offset + POINT_LIGHT_POSITION, viewMatrix, light.getPosition(), 1);
+            dest.putFloat(offset + POINT_LIGHT_INTENSITY, light.getIntensity());
+            PointLight.Attenuation att = light.getAttenuation();
+            dest.putFloat(offset + POINT_LIGHT_CONSTANT, att.getConstant());
+            dest.putFloat(offset + POINT_LIGHT_LINEAR, att.getLinear());
+            dest.putFloat(offset + POINT_LIGHT_EXPONENT, att.getExponent());
+        }
+
+        DirectionalLight directionalLight = sceneLight.getDirectionalLight();
+        dest.putVec3(LIGHT_DIRECTIONAL + DIRECTIONAL_LIGHT_COLOUR, directionalLight.getColor());
+        putTransformed(dest, LIGHT_DIRECTIONAL + DIRECTIONAL_LIGHT_DIRECTION, viewMatrix,
+                directionalLight.getDirection(), 0);
+        dest.putFloat(LIGHT_DIRECTIONAL + DIRECTIONAL_LIGHT_INTENSITY, directionalLight.getIntensity());
+
+        dest.putInt(LIGHT_FOG + FOG_ACTIVE, fog.isActive() ? 1 : 0);
+        dest.putVec3(LIGHT_FOG + FOG_COLOUR, fog.getColour());
+        dest.putFloat(LIGHT_FOG + FOG_DENSITY, fog.getDensity());
+    }
+
+    public static void packMaterial(Std140Buffer dest, int offset, Material material) {
+        dest.putVec4(offset + MATERIAL_AMBIENT, material.getAmbientColour());
+        dest.putVec4(offset + MATERIAL_DIFFUSE, material.getDiffuseColour());
+        dest.putVec4(offset + MATERIAL_SPECULAR, material.getSpecularColour());
+        dest.putInt(offset + MATERIAL_HAS_TEXTURE, material.isTextured() ? 1 : 0);
+        dest.putFloat(offset + MATERIAL_REFLECTANCE, material.getReflectance());
+        dest.putInt(offset + MATERIAL_LAYER, material.getLayer());
+    }
+
+    /**
+     * Writes the xyz of <code>matrix * (v, w)</code>.
+     */
+    private static void putTransformed(Std140Buffer dest, int offset, Matrix4f matrix, Vector3f v, float w) {
+        dest.putVec3(offset,
+                matrix.m00() * v.x + matrix.m10() * v.y + matrix.m20() * v.z + matrix.m30() * w,
+                matrix.m01() * v.x + matrix.m11() * v.y + matrix.m21() * v.z + matrix.m31() * w,
+                matrix.m02() * v.x + matrix.m12() * v.y + matrix.m22() * v.z + matrix.m32() * w);
+    }
+
+    /**
+     * Packs the frame and light data, uploads what changed and binds both
+     * blocks.
+     */
+    public void update(Matrix4f projectionMatrix, Matrix4f viewMatrix, SceneLight sceneLight,
+                       float specularPower, Fog fog) {
+        packFrame(frame.getData(), projectionMatrix);
+        packLights(lights.getData(), sceneLight, viewMatrix, specularPower, fog);
+        frame.upload();
+        lights.upload();
+        frame.bind(FRAME_BINDING);
+        lights.bind(LIGHT_BINDING);
+    }
+
+    /**
+     * Makes the material block read a material, from a slot given to it the
+     * first time. The slot is uploaded again only if the material changed.
+     */
+    public void bindMaterial(Material material) {
+        Integer slot = materialSlots.get(material);
+        if (slot == null) {
+            slot = usedSlots.nextClearBit(0);
+            usedSlots.set(slot);
+            materialSlots.put(material, slot);
+            material.setSceneBlocks(this);
+            Std140Buffer data = materials.getData();
+            if ((slot + 1) * materialStride > data.size()) {
+                data.grow(data.size() * 2);
+            }
+        }
+        int offset = slot * materialStride;
+        packMaterial(materials.getData(), offset, material);
+        materials.upload();
+        materials.bind(MATERIAL_BINDING, offset, MATERIAL_SIZE);
+    }
+
+    /**
+     * Gives the slot of a material back. Binding the material again gives it
+     * a slot again.
+     */
+    void releaseMaterial(Material material) {
+        Integer slot = materialSlots.remove(material);
+        if (slot != null) {
+            usedSlots.clear(slot);
+        }
+    }
+
+    /**
+     * @return Materials holding a slot
+     */
+    public int getMaterialCount() {
+        return materialSlots.size();
+    }
+
+    /**
+     * @return Bytes uploaded to the three buffers over their life
+     */
+    public long getUploadedBytes() {
+        return frame.getUploadedBytes() + lights.getUploadedBytes() + materials.getUploadedBytes();
+    }
+
+    public void cleanup() {
+        frame.cleanup();
+        lights.cleanup();
+        materials.cleanup();
+    }
+}
@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL20.*;
 
@@ -27,7 +28,7 @@ public class Shader {
      * @param type Type of the shader
      */
     public Shader(int type) {
-        id = glCreateShader(type);
+        id = device().glCreateShader(type);
     }
 
     /**
@@ -36,12 +37,12 @@ public class Shader {
      * @param source GLSL Source Code for the shader
      */
     public void source(CharSequence source) {
-        glShaderSource(id, source);
+        device().glShaderSource(id, source);
     }
 
     /** Compiles the shader and checks it's status afertwards. */
     public void compile() {
-        glCompileShader(id);
+        device().glCompileShader(id);
 
         checkStatus();
     }
@@ -50,9 +51,9 @@ public class Shader {
      * Checks if the shader was compiled successfully.
      */
     private void checkStatus() {
-        int status = glGetShaderi(id, GL_COMPILE_STATUS);
+        int status = device().glGetShaderi(id, GL_COMPILE_STATUS);
         if (status != GL_TRUE) {
-            throw new RuntimeException(glGetShaderInfoLog(id));
+            throw new RuntimeException(device().glGetShaderInfoLog(id));
         }
     }
 
@@ -60,7 +61,7 @@ public class Shader {
      * Deletes the shader.
      */
     public void delete() {
-        glDeleteShader(id);
+        device().glDeleteShader(id);
     }
 
     /**
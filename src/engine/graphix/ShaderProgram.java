@@ -1,16 +1,14 @@
 package engine.graphix;
 
-import java.nio.FloatBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.joml.*;
-import org.lwjgl.system.MemoryStack;
 
-import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL11.GL_TRUE;
 import static org.lwjgl.opengl.GL20.*;
-import static org.lwjgl.opengl.GL30.glBindFragDataLocation;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
 
 /**
  * This class represents a shader program.
@@ -23,135 +21,119 @@ public class ShaderProgram {
 
     private int fragmentShaderId;
 
-    private final Map<String, Integer> uniforms;
+    private final Map<String, Uniform> uniforms;
 
     public ShaderProgram() throws Exception {
-        programId = glCreateProgram();
+        programId = device().glCreateProgram();
         if (programId == 0) {
             throw new Exception("Could not create Shader");
         }
         uniforms = new HashMap<>();
     }
 
-    public void createDirectionalLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".direction");
-        createUniform(uniformName + ".intensity");
+    public Uniform.DirectionalLightStruct createDirectionalLightUniform(String uniformName) throws Exception {
+        return new Uniform.DirectionalLightStruct(this, uniformName);
     }
 
-    public void createPointLightUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".position");
-        createUniform(uniformName + ".intensity");
-        createUniform(uniformName + ".att.constant");
-        createUniform(uniformName + ".att.linear");
-        createUniform(uniformName + ".att.exponent");
+    public Uniform.PointLightStruct createPointLightUniform(String uniformName) throws Exception {
+        return new Uniform.PointLightStruct(this, uniformName);
     }
 
-    public void createPointLightListUniform(String uniformName, int size) throws Exception {
+    public Uniform.PointLightStruct[] createPointLightListUniform(String uniformName, int size) throws Exception {
+        Uniform.PointLightStruct[] lights = new Uniform.PointLightStruct[size];
         for (int i = 0; i < size; i++) {
-            createPointLightUniform(uniformName + "[" + i + "]");
+            lights[i] = createPointLightUniform(uniformName + "[" + i + "]");
         }
+        return lights;
     }
 
-    public void createSpotLightUniform(String uniformName) throws Exception {
-        createPointLightUniform(uniformName + ".pl");
-        createUniform(uniformName + ".conedir");
-        createUniform(uniformName + ".cutoff");
+    public Uniform.SpotLightStruct createSpotLightUniform(String uniformName) throws Exception {
+        return new Uniform.SpotLightStruct(this, uniformName);
     }
 
-    public void createSpotLightListUniform(String uniformName, int size) throws Exception {
+    public Uniform.SpotLightStruct[] createSpotLightListUniform(String uniformName, int size) throws Exception {
+        Uniform.SpotLightStruct[] lights = new Uniform.SpotLightStruct[size];
         for (int i = 0; i < size; i++) {
-            createSpotLightUniform(uniformName + "[" + i + "]");
+            lights[i] = createSpotLightUniform(uniformName + "[" + i + "]");
         }
+        return lights;
     }
 
-    public void createMaterialUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".ambient");
-        createUniform(uniformName + ".diffuse");
-        createUniform(uniformName + ".specular");
-        createUniform(uniformName + ".hasTexture");
-        createUniform(uniformName + ".reflectance");
+    public Uniform.MaterialStruct createMaterialUniform(String uniformName) throws Exception {
+        return new Uniform.MaterialStruct(this, uniformName);
     }
 
-    public void createUniform(String uniformName) throws Exception {
-        int uniformLocation = glGetUniformLocation(programId, uniformName);
+    public Uniform.FogStruct createFogUniform(String uniformName) throws Exception {
+        return new Uniform.FogStruct(this, uniformName);
+    }
+
+    /**
+     * Looks up a uniform, the returned handle sets it without the name.
+     *
+     * @throws Exception If the shader does not use it
+     */
+    public Uniform createUniform(String uniformName) throws Exception {
+        int uniformLocation = device().glGetUniformLocation(programId, uniformName);
         if (uniformLocation < 0) {
             throw new Exception("Could not find uniform:" + uniformName);
         }
-        uniforms.put(uniformName, uniformLocation);
-    }
-
-    public void createFogUniform(String uniformName) throws Exception {
-        createUniform(uniformName + ".activeFog");
-        createUniform(uniformName + ".colour");
-        createUniform(uniformName + ".density");
+        Uniform uniform = new Uniform(uniformLocation);
+        uniforms.put(uniformName, uniform);
+        return uniform;
+    }
+
+    /**
+     * Creates a uniform if the shader declares it and uses it.
+     *
+     * @return The uniform, which ignores the values set if it does not exist
+     */
+    public Uniform createOptionalUniform(String uniformName) {
+        Uniform uniform = new Uniform(device().glGetUniformLocation(programId, uniformName));
+        if (uniform.exists()) {
+            uniforms.put(uniformName, uniform);
+        }
+        return uniform;
     }
 
-    public void setUniform(String uniformName, DirectionalLight dirLight) {
-        setUniform(uniformName + ".colour", dirLight.getColor());
-        setUniform(uniformName + ".direction", dirLight.getDirection());
-        setUniform(uniformName + ".intensity", dirLight.getIntensity());
+    public boolean hasUniform(String uniformName) {
+        return uniforms.containsKey(uniformName);
     }
 
-    public void setUniform(String uniformName, PointLight pointLight) {
-        setUniform(uniformName + ".colour", pointLight.getColor() );
-        setUniform(uniformName + ".position", pointLight.getPosition());
-        setUniform(uniformName + ".intensity", pointLight.getIntensity());
-        PointLight.Attenuation att = pointLight.getAttenuation();
-        setUniform(uniformName + ".att.constant", att.getConstant());
-        setUniform(uniformName + ".att.linear", att.getLinear());
-        setUniform(uniformName + ".att.exponent", att.getExponent());
+    /**
+     * Makes a uniform block of the program read the buffer bound to a
+     * binding point.
+     *
+     * @return If the program has the block
+     */
+    public boolean bindUniformBlock(String blockName, int bindingPoint) {
+        int blockIndex = device().glGetUniformBlockIndex(programId, blockName);
+        if (blockIndex == GL_INVALID_INDEX) {
+            return false;
+        }
+        device().glUniformBlockBinding(programId, blockIndex, bindingPoint);
+        return true;
     }
 
-    public void setUniform(String uniformName, Material material) {
-        setUniform(uniformName + ".ambient", material.getAmbientColour());
-        setUniform(uniformName + ".diffuse", material.getDiffuseColour());
-        setUniform(uniformName + ".specular", material.getSpecularColour());
-        setUniform(uniformName + ".hasTexture", material.isTextured() ? 1 : 0);
-        setUniform(uniformName + ".reflectance", material.getReflectance());
-    }
+    // Setters by name look the uniform up on each call, render loops keep the handles instead
 
     public void setUniform(String uniformName, float value) {
-        glUniform1f(uniforms.get(uniformName), value);
+        uniforms.get(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, Vector3f value) {
-        glUniform3f(uniforms.get(uniformName), value.x, value.y, value.z);
+        uniforms.get(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, Vector4f value) {
-        glUniform4f(uniforms.get(uniformName), value.x, value.y, value.z, value.w);
+        uniforms.get(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, Matrix4f value) {
-        try (MemoryStack stack = MemoryStack.stackPush()) {
-            // Dump the matrix into a float buffer
-            FloatBuffer fb = stack.mallocFloat(16);
-            value.get(fb);
-            glUniformMatrix4fv(uniforms.get(uniformName), false, fb);
-        }
+        uniforms.get(uniformName).set(value);
     }
 
     public void setUniform(String uniformName, int value) {
-        glUniform1i(uniforms.get(uniformName), value);
-    }
-
-    public void setUniform(String uniformName, PointLight pointLight, int pos) {
-        setUniform(uniformName + "[" + pos + "]", pointLight);
-    }
-
-    public void setUniform(String uniformName, PointLight[] pointLights) {
-        int numLights = pointLights != null ? pointLights.length : 0;
-        for (int i = 0; i < numLights; i++) {
-            setUniform(uniformName, pointLights[i], i);
-        }
-    }
-
-    public void setUniform(String uniformName, Fog fog) {
-        setUniform(uniformName + ".activeFog", fog.isActive() ? 1 : 0);
-        setUniform(uniformName + ".colour", fog.getColour() );
-        setUniform(uniformName + ".density", fog.getDensity());
+        uniforms.get(uniformName).set(value);
     }
 
     public void createVertexShader(String shaderCode) throws Exception {
@@ -163,54 +145,54 @@ public class ShaderProgram {
     }
 
     protected int createShader(String shaderCode, int shaderType) throws Exception {
-        int shaderId = glCreateShader(shaderType);
+        int shaderId = device().glCreateShader(shaderType);
         if (shaderId == 0) {
             throw new Exception("Error creating shader. Type: " + shaderType);
         }
 
-        glShaderSource(shaderId, shaderCode);
-        glCompileShader(shaderId);
+        device().glShaderSource(shaderId, shaderCode);
+        device().glCompileShader(shaderId);
 
-        if (glGetShaderi(shaderId, GL_COMPILE_STATUS) == 0) {
-            throw new Exception("Error compiling Shader code: " + glGetShaderInfoLog(shaderId, 1024));
+        if (device().glGetShaderi(shaderId, GL_COMPILE_STATUS) == 0) {
+            throw new Exception("Error compiling Shader code: " + device().glGetShaderInfoLog(shaderId));
         }
 
-        glAttachShader(programId, shaderId);
+        device().glAttachShader(programId, shaderId);
 
         return shaderId;
     }
 
     public void link() throws Exception {
-        glLinkProgram(programId);
-        if (glGetProgrami(programId, GL_LINK_STATUS) == 0) {
-            throw new Exception("Error linking Shader code: " + glGetProgramInfoLog(programId, 1024));
+        device().glLinkProgram(programId);
+        if (device().glGetProgrami(programId, GL_LINK_STATUS) == 0) {
+            throw new Exception("Error linking Shader code: " + device().glGetProgramInfoLog(programId));
         }
 
         if (vertexShaderId != 0) {
-            glDetachShader(programId, vertexShaderId);
+            device().glDetachShader(programId, vertexShaderId);
         }
         if (fragmentShaderId != 0) {
-            glDetachShader(programId, fragmentShaderId);
+            device().glDetachShader(programId, fragmentShaderId);
         }
 
-        glValidateProgram(programId);
-        if (glGetProgrami(programId, GL_VALIDATE_STATUS) == 0) {
-            System.err.println("Warning validating Shader code: " + glGetProgramInfoLog(programId, 1024));
+        device().glValidateProgram(programId);
+        if (device().glGetProgrami(programId, GL_VALIDATE_STATUS) == 0) {
+            System.err.println("Warning validating Shader code: " + device().glGetProgramInfoLog(programId));
         }
     }
 
     public void bind() {
-        glUseProgram(programId);
+        device().glUseProgram(programId);
     }
 
     public void unbind() {
-        glUseProgram(0);
+        device().glUseProgram(0);
     }
 
     public void cleanup() {
         unbind();
         if (programId != 0) {
-            glDeleteProgram(programId);
+            device().glDeleteProgram(programId);
         }
     }
 
@@ -0,0 +1,113 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Reuses off-heap buffers that hold data on its way to the GPU. Buffers are
+ * handed out in power of two size classes, so a released buffer fits any
+ * later request of the same class. The pool is safe to use from several
+ * threads.
+ * <p>
+ * Idle buffers are kept up to a limit, anything released beyond it is freed.
+ */
+public class StagingBufferPool {
+
+    private static final int MIN_SIZE_CLASS = 4096;
+
+    private final Map<Integer, Queue<ByteBuffer>> idle = new ConcurrentHashMap<>();
+
+    private final long maxIdleBytes;
+
+    private final AtomicLong idleBytes = new AtomicLong();
+
+    private final AtomicLong allocations = new AtomicLong();
+
+    private final AtomicLong reuses = new AtomicLong();
+
+    /**
+     * @param maxIdleBytes Size in bytes of the buffers kept for reuse
+     */
+    public StagingBufferPool(long maxIdleBytes) {
+        this.maxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * Takes a buffer of at least <code>size</code> bytes, its position is 0
+     * and its limit is <code>size</code>.
+     *
+     * @param size Size in bytes
+     * @return The buffer, which has to be given back with
+     * {@link #release(ByteBuffer)}
+     */
+    public ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer buffer = idle.computeIfAbsent(sizeClass, c -> new ConcurrentLinkedQueue<>()).poll();
+        if (buffer != null) {
+            idleBytes.addAndGet(-sizeClass);
+            reuses.incrementAndGet();
+        } else {
+            buffer = memAlloc(sizeClass);
+            allocations.incrementAndGet();
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer) {
+        int sizeClass = buffer.capacity();
+        if (idleBytes.addAndGet(sizeClass) <= maxIdleBytes) {
+            idle.computeIfAbsent(sizeClass, c -> new ConcurrentLinkedQueue<>()).offer(buffer);
+        } else {
+            idleBytes.addAndGet(-sizeClass);
+            memFree(buffer);
+        }
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_SIZE_CLASS) {
+            return MIN_SIZE_CLASS;
+        }
+        int sizeClass = Integer.highestOneBit(size);
+        return sizeClass == size ? size : sizeClass << 1;
+    }
+
+    /**
+     * @return Number of buffers allocated because none of the class was idle
+     */
+    public long getAllocations() {
+        return allocations.get();
+    }
+
+    /**
+     * @return Number of buffers handed out again
+     */
+    public long getReuses() {
+        return reuses.get();
+    }
+
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    /**
+     * Frees the idle buffers. Buffers still handed out are freed when they
+     * are released, if they do not fit under the limit again.
+     */
+    public void free() {
+        for (Queue<ByteBuffer> queue : idle.values()) {
+            ByteBuffer buffer;
+            while ((buffer = queue.poll()) != null) {
+                idleBytes.addAndGet(-buffer.capacity());
+                memFree(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,723 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * A {@link GraphicsDevice} that remembers the bound program, vertex array,
+ * buffers, uniform buffer binding points, textures of each unit, enabled
+ * capabilities and blend function, and drops the calls that would not change
+ * them before they reach the device it wraps.
+ * <p>
+ * Element buffer bindings and enabled vertex attributes are kept per vertex
+ * array, like OpenGL does. Everything starts unknown, so the first call
+ * always goes through. Code that changes the state without this cache, like
+ * NanoVG, has to be followed by {@link #invalidate()}.
+ */
+public class StateCache implements GraphicsDevice {
+
+    private static final int UNKNOWN = -1;
+
+    private static final int MAX_TEXTURE_UNITS = 16;
+
+    private static final int MAX_UNIFORM_BINDINGS = 16;
+
+    /**
+     * Size of a binding point bound to a whole buffer
+     */
+    private static final long WHOLE_BUFFER = -1;
+
+    private static final int[] TEXTURE_TARGETS = {GL_TEXTURE_2D, GL_TEXTURE_2D_ARRAY};
+
+    private static final int[] BUFFER_TARGETS = {GL_ARRAY_BUFFER, GL_PIXEL_PACK_BUFFER, GL_PIXEL_UNPACK_BUFFER,
+            GL_UNIFORM_BUFFER};
+
+    private static final int[] CAPABILITIES = {GL_BLEND, GL_DEPTH_TEST, GL_STENCIL_TEST, GL_CULL_FACE,
+            GL_MULTISAMPLE};
+
+    private final GraphicsDevice device;
+
+    private int program;
+
+    private int vertexArray;
+
+    private final int[] buffers = new int[BUFFER_TARGETS.length];
+
+    /**
+     * Buffer, offset and size bound to each uniform buffer binding point
+     */
+    private final int[] uniformBuffers = new int[MAX_UNIFORM_BINDINGS];
+
+    private final long[] uniformOffsets = new long[MAX_UNIFORM_BINDINGS];
+
+    private final long[] uniformSizes = new long[MAX_UNIFORM_BINDINGS];
+
+    private int activeUnit;
+
+    private final int[] textures = new int[MAX_TEXTURE_UNITS * TEXTURE_TARGETS.length];
+
+    /**
+     * Bits of the known capabilities, and which of them are enabled
+     */
+    private int knownCapabilities;
+
+    private int enabledCapabilities;
+
+    private int blendSource;
+
+    private int blendDestination;
+
+    /**
+     * State of each vertex array, indexed by name
+     */
+    private int[] elementBuffers = new int[64];
+
+    private int[] knownAttributes = new int[64];
+
+    private int[] enabledAttributes = new int[64];
+
+    private long issuedCalls;
+
+    private long skippedCalls;
+
+    public StateCache(GraphicsDevice device) {
+        this.device = device;
+        invalidate();
+    }
+
+    /**
+     * Forgets all the state, the next call of each kind goes through.
+     */
+    public void invalidate() {
+        program = UNKNOWN;
+        vertexArray = UNKNOWN;
+        Arrays.fill(buffers, UNKNOWN);
+        Arrays.fill(uniformBuffers, UNKNOWN);
+        activeUnit = UNKNOWN;
+        Arrays.fill(textures, UNKNOWN);
+        knownCapabilities = 0;
+        enabledCapabilities = 0;
+        blendSource = UNKNOWN;
+        blendDestination = UNKNOWN;
+        Arrays.fill(elementBuffers, UNKNOWN);
+        Arrays.fill(knownAttributes, 0);
+        Arrays.fill(enabledAttributes, 0);
+    }
+
+    /**
+     * @return The device the calls that change something go to
+     */
+    public GraphicsDevice getDevice() {
+        return device;
+    }
+
+    /**
+     * @return Calls passed to the device since the last
+     * {@link #resetCounters()}
+     */
+    public long getIssuedCalls() {
+        return issuedCalls;
+    }
+
+    /**
+     * @return Calls dropped because they would not have changed anything
+     */
+    public long getSkippedCalls() {
+        return skippedCalls;
+    }
+
+    public void resetCounters() {
+        issuedCalls = 0;
+        skippedCalls = 0;
+    }
+
+    /**
+     * Counts a call, returns if it has to be issued.
+     */
+    private boolean changes(int cached, int value) {
+        if (cached == value && cached != UNKNOWN) {
+            skippedCalls++;
+            return false;
+        }
+        issuedCalls++;
+        return true;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void ensureVertexArray(int array) {
+        if (array >= elementBuffers.length) {
+            int length = Math.max(array + 1, elementBuffers.length * 2);
+            int oldLength = elementBuffers.length;
+            elementBuffers = Arrays.copyOf(elementBuffers, length);
+            Arrays.fill(elementBuffers, oldLength, length, UNKNOWN);
+            knownAttributes = Arrays.copyOf(knownAttributes, length);
+            enabledAttributes = Arrays.copyOf(enabledAttributes, length);
+        }
+    }
+
+    private void setCapability(int capability, boolean enable) {
+        int index = indexOf(CAPABILITIES, capability);
+        if (index < 0) {
+            issuedCalls++;
+        } else {
+            int bit = 1 << index;
+            boolean enabled = (enabledCapabilities & bit) != 0;
+            if ((knownCapabilities & bit) != 0 && enabled == enable) {
+                skippedCalls++;
+                return;
+            }
+            issuedCalls++;
+            knownCapabilities |= bit;
+            enabledCapabilities = enable ? enabledCapabilities | bit : enabledCapabilities & ~bit;
+        }
+        if (enable) {
+            device.glEnable(capability);
+        } else {
+            device.glDisable(capability);
+        }
+    }
+
+    private void setAttribute(int index, boolean enable) {
+        int bit = 1 << index;
+        if (vertexArray != UNKNOWN && index < Integer.SIZE) {
+            boolean enabled = (enabledAttributes[vertexArray] & bit) != 0;
+            if ((knownAttributes[vertexArray] & bit) != 0 && enabled == enable) {
+                skippedCalls++;
+                return;
+            }
+            knownAttributes[vertexArray] |= bit;
+            enabledAttributes[vertexArray] = enable ? enabledAttributes[vertexArray] | bit
+                    : enabledAttributes[vertexArray] & ~bit;
+        }
+        issuedCalls++;
+        if (enable) {
+            device.glEnableVertexAttribArray(index);
+        } else {
+            device.glDisableVertexAttribArray(index);
+        }
+    }
+
+    // Frame
+
+    @Override
+    public void glEnable(int capability) {
+        setCapability(capability, true);
+    }
+
+    @Override
+    public void glDisable(int capability) {
+        setCapability(capability, false);
+    }
+
+    @Override
+    public void glBlendFunc(int sfactor, int dfactor) {
+        if (blendSource == sfactor && blendDestination == dfactor) {
+            skippedCalls++;
+            return;
+        }
+        issuedCalls++;
+        blendSource = sfactor;
+        blendDestination = dfactor;
+        device.glBlendFunc(sfactor, dfactor);
+    }
+
+    // Buffers and vertex arrays
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        if (target == GL_ELEMENT_ARRAY_BUFFER && vertexArray != UNKNOWN) {
+            if (!changes(elementBuffers[vertexArray], buffer)) {
+                return;
+            }
+            elementBuffers[vertexArray] = buffer;
+        } else {
+            int index = indexOf(BUFFER_TARGETS, target);
+            if (index < 0) {
+                issuedCalls++;
+            } else {
+                if (!changes(buffers[index], buffer)) {
+                    return;
+                }
+                buffers[index] = buffer;
+            }
+        }
+        device.glBindBuffer(target, buffer);
+    }
+
+    @Override
+    public void glDeleteBuffers(int buffer) {
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == buffer) {
+                buffers[i] = 0;
+            }
+        }
+        for (int i = 0; i < uniformBuffers.length; i++) {
+            if (uniformBuffers[i] == buffer) {
+                uniformBuffers[i] = 0;
+            }
+        }
+        for (int i = 0; i < elementBuffers.length; i++) {
+            if (elementBuffers[i] == buffer) {
+                // Only the bound vertex array lets go of it
+                elementBuffers[i] = i == vertexArray ? 0 : UNKNOWN;
+            }
+        }
+        issuedCalls++;
+        device.glDeleteBuffers(buffer);
+    }
+
+    @Override
+    public void glBindBufferBase(int target, int index, int buffer) {
+        if (bindsUniformBuffer(target, index, buffer, 0, WHOLE_BUFFER)) {
+            device.glBindBufferBase(target, index, buffer);
+        }
+    }
+
+    @Override
+    public void glBindBufferRange(int target, int index, int buffer, long offset, long size) {
+        if (bindsUniformBuffer(target, index, buffer, offset, size)) {
+            device.glBindBufferRange(target, index, buffer, offset, size);
+        }
+    }
+
+    /**
+     * Counts a binding of an indexed target, returns if it has to be issued.
+     * Binding a binding point binds the generic target too.
+     */
+    private boolean bindsUniformBuffer(int target, int index, int buffer, long offset, long size) {
+        if (target != GL_UNIFORM_BUFFER || index >= MAX_UNIFORM_BINDINGS) {
+            issuedCalls++;
+            return true;
+        }
+        if (uniformBuffers[index] == buffer && uniformOffsets[index] == offset && uniformSizes[index] == size) {
+            skippedCalls++;
+            return false;
+        }
+        issuedCalls++;
+        uniformBuffers[index] = buffer;
+        uniformOffsets[index] = offset;
+        uniformSizes[index] = size;
+        buffers[indexOf(BUFFER_TARGETS, GL_UNIFORM_BUFFER)] = buffer;
+        return true;
+    }
+
+    @Override
+    public int glGenVertexArrays() {
+        issuedCalls++;
+        int array = device.glGenVertexArrays();
+        ensureVertexArray(array);
+        // A new vertex array has no element buffer and no enabled attribute
+        elementBuffers[array] = 0;
+        knownAttributes[array] = -1;
+        enabledAttributes[array] = 0;
+        return array;
+    }
+
+    @Override
+    public void glBindVertexArray(int array) {
+        if (!changes(vertexArray, array)) {
+            return;
+        }
+        ensureVertexArray(array);
+        vertexArray = array;
+        device.glBindVertexArray(array);
+    }
+
+    @Override
+    public void glDeleteVertexArrays(int array) {
+        if (vertexArray == array) {
+            vertexArray = 0;
+        }
+        if (array < elementBuffers.length) {
+            elementBuffers[array] = UNKNOWN;
+            knownAttributes[array] = 0;
+            enabledAttributes[array] = 0;
+        }
+        issuedCalls++;
+        device.glDeleteVertexArrays(array);
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        setAttribute(index, true);
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        setAttribute(index, false);
+    }
+
+    // Textures
+
+    @Override
+    public void glActiveTexture(int texture) {
+        if (!changes(activeUnit, texture - GL_TEXTURE0)) {
+            return;
+        }
+        activeUnit = texture - GL_TEXTURE0;
+        device.glActiveTexture(texture);
+    }
+
+    @Override
+    public void glBindTexture(int target, int texture) {
+        int index = indexOf(TEXTURE_TARGETS, target);
+        if (index < 0 || activeUnit == UNKNOWN || activeUnit >= MAX_TEXTURE_UNITS) {
+            issuedCalls++;
+        } else {
+            int slot = activeUnit * TEXTURE_TARGETS.length + index;
+            if (!changes(textures[slot], texture)) {
+                return;
+            }
+            textures[slot] = texture;
+        }
+        device.glBindTexture(target, texture);
+    }
+
+    @Override
+    public void glDeleteTextures(int texture) {
+        for (int i = 0; i < textures.length; i++) {
+            if (textures[i] == texture) {
+                textures[i] = 0;
+            }
+        }
+        issuedCalls++;
+        device.glDeleteTextures(texture);
+    }
+
+    // Programs
+
+    @Override
+    public void glUseProgram(int program) {
+        if (!changes(this.program, program)) {
+            return;
+        }
+        this.program = program;
+        device.glUseProgram(program);
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        if (this.program == program) {
+            this.program = UNKNOWN;
+        }
+        issuedCalls++;
+        device.glDeleteProgram(program);
+    }
+
+    // Calls that go through unchanged
+
+    @Override
+    public void glClear(int mask) {
+        issuedCalls++;
+        device.glClear(mask);
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        issuedCalls++;
+        device.glViewport(x, y, width, height);
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, long indices) {
+        issuedCalls++;
+        device.glDrawElements(mode, count, type, indices);
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, long indices, int primcount) {
+        issuedCalls++;
+        device.glDrawElementsInstanced(mode, count, type, indices, primcount);
+    }
+
+    @Override
+    public int glGenBuffers() {
+        issuedCalls++;
+        return device.glGenBuffers();
+    }
+
+    @Override
+    public void glBufferData(int target, ByteBuffer data, int usage) {
+        issuedCalls++;
+        device.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, FloatBuffer data, int usage) {
+        issuedCalls++;
+        device.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, IntBuffer data, int usage) {
+        issuedCalls++;
+        device.glBufferData(target, data, usage);
+    }
+
+    @Override
+    public void glBufferData(int target, long size, int usage) {
+        issuedCalls++;
+        device.glBufferData(target, size, usage);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, ByteBuffer data) {
+        issuedCalls++;
+        device.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public void glBufferSubData(int target, long offset, FloatBuffer data) {
+        issuedCalls++;
+        device.glBufferSubData(target, offset, data);
+    }
+
+    @Override
+    public ByteBuffer glMapBufferRange(int target, long offset, long length, int access) {
+        issuedCalls++;
+        return device.glMapBufferRange(target, offset, length, access);
+    }
+
+    @Override
+    public boolean glUnmapBuffer(int target) {
+        issuedCalls++;
+        return device.glUnmapBuffer(target);
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer) {
+        issuedCalls++;
+        device.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        issuedCalls++;
+        device.glVertexAttribDivisor(index, divisor);
+    }
+
+    @Override
+    public int glGenTextures() {
+        issuedCalls++;
+        return device.glGenTextures();
+    }
+
+    @Override
+    public void glPixelStorei(int pname, int param) {
+        issuedCalls++;
+        device.glPixelStorei(pname, param);
+    }
+
+    @Override
+    public void glTexParameteri(int target, int pname, int param) {
+        issuedCalls++;
+        device.glTexParameteri(target, pname, param);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, ByteBuffer pixels) {
+        issuedCalls++;
+        device.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexImage2D(int target, int level, int internalFormat, int width, int height, int border, int format,
+                             int type, long pixels) {
+        issuedCalls++;
+        device.glTexImage2D(target, level, internalFormat, width, height, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexSubImage2D(int target, int level, int x, int y, int width, int height, int format, int type,
+                                ByteBuffer pixels) {
+        issuedCalls++;
+        device.glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       ByteBuffer data) {
+        issuedCalls++;
+        device.glCompressedTexImage2D(target, level, internalFormat, width, height, border, data);
+    }
+
+    @Override
+    public void glCompressedTexImage2D(int target, int level, int internalFormat, int width, int height, int border,
+                                       int imageSize, long data) {
+        issuedCalls++;
+        device.glCompressedTexImage2D(target, level, internalFormat, width, height, border, imageSize, data);
+    }
+
+    @Override
+    public void glTexImage3D(int target, int level, int internalFormat, int width, int height, int depth, int border,
+                             int format, int type, ByteBuffer pixels) {
+        issuedCalls++;
+        device.glTexImage3D(target, level, internalFormat, width, height, depth, border, format, type, pixels);
+    }
+
+    @Override
+    public void glTexSubImage3D(int target, int level, int x, int y, int z, int width, int height, int depth,
+                                int format, int type, ByteBuffer pixels) {
+        issuedCalls++;
+        device.glTexSubImage3D(target, level, x, y, z, width, height, depth, format, type, pixels);
+    }
+
+    @Override
+    public void glGenerateMipmap(int target) {
+        issuedCalls++;
+        device.glGenerateMipmap(target);
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        issuedCalls++;
+        return device.glCreateShader(type);
+    }
+
+    @Override
+    public void glShaderSource(int shader, CharSequence source) {
+        issuedCalls++;
+        device.glShaderSource(shader, source);
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        issuedCalls++;
+        device.glCompileShader(shader);
+    }
+
+    @Override
+    public int glGetShaderi(int shader, int pname) {
+        issuedCalls++;
+        return device.glGetShaderi(shader, pname);
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        issuedCalls++;
+        return device.glGetShaderInfoLog(shader);
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        issuedCalls++;
+        device.glDeleteShader(shader);
+    }
+
+    @Override
+    public int glCreateProgram() {
+        issuedCalls++;
+        return device.glCreateProgram();
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        issuedCalls++;
+        device.glAttachShader(program, shader);
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        issuedCalls++;
+        device.glDetachShader(program, shader);
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        issuedCalls++;
+        device.glLinkProgram(program);
+    }
+
+    @Override
+    public void glValidateProgram(int program) {
+        issuedCalls++;
+        device.glValidateProgram(program);
+    }
+
+    @Override
+    public int glGetProgrami(int program, int pname) {
+        issuedCalls++;
+        return device.glGetProgrami(program, pname);
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        issuedCalls++;
+        return device.glGetProgramInfoLog(program);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, CharSequence name) {
+        issuedCalls++;
+        return device.glGetUniformLocation(program, name);
+    }
+
+    @Override
+    public void glUniform1i(int location, int value) {
+        issuedCalls++;
+        device.glUniform1i(location, value);
+    }
+
+    @Override
+    public void glUniform1f(int location, float value) {
+        issuedCalls++;
+        device.glUniform1f(location, value);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        issuedCalls++;
+        device.glUniform3f(location, x, y, z);
+    }
+
+    @Override
+    public void glUniform4f(int location, float x, float y, float z, float w) {
+        issuedCalls++;
+        device.glUniform4f(location, x, y, z, w);
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, boolean transpose, FloatBuffer value) {
+        issuedCalls++;
+        device.glUniformMatrix4fv(location, transpose, value);
+    }
+
+    @Override
+    public int glGetInteger(int pname) {
+        issuedCalls++;
+        return device.glGetInteger(pname);
+    }
+
+    @Override
+    public int glGetUniformBlockIndex(int program, CharSequence name) {
+        issuedCalls++;
+        return device.glGetUniformBlockIndex(program, name);
+    }
+
+    @Override
+    public void glUniformBlockBinding(int program, int blockIndex, int binding) {
+        issuedCalls++;
+        device.glUniformBlockBinding(program, blockIndex, binding);
+    }
+}
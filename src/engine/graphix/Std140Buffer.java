@@ -0,0 +1,166 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCalloc;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * CPU copy of uniform block data in the std140 layout. Values are written at
+ * byte offsets the caller computes with the std140 rules: scalars align to 4
+ * bytes, <code>vec3</code> and <code>vec4</code> to 16, matrices are four
+ * <code>vec4</code> columns and structs and array elements start and end on
+ * 16 bytes.
+ * <p>
+ * Writing a value that is already there changes nothing. Writing anything
+ * else extends the dirty range, the smallest range of bytes holding all the
+ * changes since {@link #clearDirty()}, which is all that has to be uploaded.
+ * Nothing here talks to OpenGL.
+ */
+public class Std140Buffer {
+
+    public static final int VEC4_SIZE = 4 * Float.BYTES;
+
+    public static final int MAT4_SIZE = 4 * VEC4_SIZE;
+
+    private ByteBuffer data;
+
+    private int dirtyStart;
+
+    private int dirtyEnd;
+
+    /**
+     * @param size Size in bytes, all zero and dirty
+     */
+    public Std140Buffer(int size) {
+        data = memCalloc(size);
+        markAllDirty();
+    }
+
+    /**
+     * @return Offset rounded up to a multiple of the alignment
+     */
+    public static int align(int offset, int alignment) {
+        return (offset + alignment - 1) / alignment * alignment;
+    }
+
+    public int size() {
+        return data.capacity();
+    }
+
+    /**
+     * Grows the buffer, the new bytes are zero. Everything becomes dirty,
+     * since the buffer object has to be reallocated.
+     *
+     * @param size New size in bytes, larger than the current one
+     */
+    public void grow(int size) {
+        ByteBuffer grown = memCalloc(size);
+        memCopy(memAddress(data), memAddress(grown), data.capacity());
+        memFree(data);
+        data = grown;
+        markAllDirty();
+    }
+
+    public void putInt(int offset, int value) {
+        if (data.getInt(offset) != value) {
+            data.putInt(offset, value);
+            markDirty(offset, Integer.BYTES);
+        }
+    }
+
+    public void putFloat(int offset, float value) {
+        putInt(offset, Float.floatToRawIntBits(value));
+    }
+
+    public void putVec3(int offset, float x, float y, float z) {
+        putFloat(offset, x);
+        putFloat(offset + 4, y);
+        putFloat(offset + 8, z);
+    }
+
+    public void putVec3(int offset, Vector3f value) {
+        putVec3(offset, value.x, value.y, value.z);
+    }
+
+    public void putVec4(int offset, float x, float y, float z, float w) {
+        putVec3(offset, x, y, z);
+        putFloat(offset + 12, w);
+    }
+
+    public void putVec4(int offset, Vector4f value) {
+        putVec4(offset, value.x, value.y, value.z, value.w);
+    }
+
+    public void putMat4(int offset, Matrix4f value) {
+        putVec4(offset, value.m00(), value.m01(), value.m02(), value.m03());
+        putVec4(offset + VEC4_SIZE, value.m10(), value.m11(), value.m12(), value.m13());
+        putVec4(offset + 2 * VEC4_SIZE, value.m20(), value.m21(), value.m22(), value.m23());
+        putVec4(offset + 3 * VEC4_SIZE, value.m30(), value.m31(), value.m32(), value.m33());
+    }
+
+    public int getInt(int offset) {
+        return data.getInt(offset);
+    }
+
+    public float getFloat(int offset) {
+        return data.getFloat(offset);
+    }
+
+    public boolean isDirty() {
+        return dirtyStart < dirtyEnd;
+    }
+
+    public int getDirtyStart() {
+        return dirtyStart;
+    }
+
+    /**
+     * @return Offset after the last changed byte
+     */
+    public int getDirtyEnd() {
+        return dirtyEnd;
+    }
+
+    /**
+     * @return The dirty bytes, valid until the next write
+     */
+    public ByteBuffer getDirtyData() {
+        ByteBuffer dirty = data.duplicate();
+        dirty.position(dirtyStart).limit(dirtyEnd);
+        return dirty;
+    }
+
+    /**
+     * @return All the bytes, valid until the next {@link #grow(int)}
+     */
+    public ByteBuffer getData() {
+        return data.duplicate();
+    }
+
+    public void clearDirty() {
+        dirtyStart = Integer.MAX_VALUE;
+        dirtyEnd = 0;
+    }
+
+    public void markAllDirty() {
+        dirtyStart = 0;
+        dirtyEnd = data.capacity();
+    }
+
+    private void markDirty(int offset, int length) {
+        dirtyStart = Math.min(dirtyStart, offset);
+        dirtyEnd = Math.max(dirtyEnd, offset + length);
+    }
+
+    public void free() {
+        memFree(data);
+        data = null;
+    }
+}
@@ -0,0 +1,54 @@
+package engine.graphix;
+
+/**
+ * A part of a {@link Mesh} drawn with one material. All sub meshes share the
+ * vertex and index buffers of their mesh, each one owns a range of the index
+ * buffer per level of detail.
+ */
+public class SubMesh {
+
+    private final String materialName;
+
+    private Material material;
+
+    private MeshLod[] lods;
+
+    /**
+     * @param materialName Name of the material in the material library, or
+     *                     null if the model did not name one
+     * @param lods         Index ranges of the sub mesh, level 0 being the
+     *                     full detail one
+     */
+    public SubMesh(String materialName, MeshLod[] lods) {
+        this.materialName = materialName;
+        this.lods = lods;
+    }
+
+    public String getMaterialName() {
+        return materialName;
+    }
+
+    public Material getMaterial() {
+        return material;
+    }
+
+    public void setMaterial(Material material) {
+        this.material = material;
+    }
+
+    public MeshLod[] getLods() {
+        return lods;
+    }
+
+    public void setLods(MeshLod[] lods) {
+        this.lods = lods;
+    }
+
+    /**
+     * @param level Level of detail, levels past the last one use the last one
+     * @return Index range of the level
+     */
+    public MeshLod getLod(int level) {
+        return lods[Math.min(level, lods.length - 1)];
+    }
+}
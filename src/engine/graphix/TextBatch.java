@@ -0,0 +1,460 @@
+package engine.graphix;
+
+import engine.IntArrayList;
+import engine.items.TextItem;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memAllocInt;
+import static org.lwjgl.system.MemoryUtil.memCalloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+import static org.lwjgl.system.MemoryUtil.memRealloc;
+import static org.lwjgl.system.MemoryUtil.memSet;
+
+/**
+ * Draws many {@link TextItem texts} with one draw call per
+ * {@link FontTexture}. The glyph quads of all texts of a font live in one
+ * vertex buffer that stays allocated while the texts change, each text owns a
+ * slot of quads in it. The quads are stored already transformed by the
+ * position, rotation and scale of their item, so the items need no uniforms
+ * of their own.
+ * <p>
+ * Texts and transforms are compared with what was written last when the
+ * batch is rendered. Only the quads that differ are written and uploaded, a
+ * counter going from 99 to 100 uploads three quads. A text outgrowing its
+ * slot moves to a bigger one, the buffer grows when no free slot fits.
+ * Unused quads of a slot have no area and draw nothing.
+ */
+public class TextBatch {
+
+    /**
+     * Position (3 floats) and texture coordinate (2 floats).
+     */
+    public static final VertexFormat FORMAT = new VertexFormat(
+            new VertexFormat.Attribute(0, 3, GL_FLOAT, false),
+            new VertexFormat.Attribute(1, 2, GL_FLOAT, false));
+
+    private static final int VERTICES_PER_QUAD = 4;
+
+    private static final int INDICES_PER_QUAD = 6;
+
+    private static final int FLOATS_PER_VERTEX = 5;
+
+    private static final int FLOATS_PER_QUAD = VERTICES_PER_QUAD * FLOATS_PER_VERTEX;
+
+    private static final int QUAD_SIZE = VERTICES_PER_QUAD * FORMAT.getStride();
+
+    /**
+     * Smallest slot, in quads, so short texts can grow a little in place.
+     */
+    private static final int MIN_SLOT = 8;
+
+    private static final int INITIAL_QUADS = 256;
+
+    private final Map<FontTexture, Page> pages = new LinkedHashMap<>();
+
+    private final Map<TextItem, Entry> entries = new IdentityHashMap<>();
+
+    private final Matrix4f transform = new Matrix4f();
+
+    private final Vector3f corner = new Vector3f();
+
+    private float[] quads = new float[MIN_SLOT * FLOATS_PER_QUAD];
+
+    private long uploadedBytes;
+
+    /**
+     * Adds a text, it is drawn from the next {@link #render(Consumer)} on.
+     *
+     * @param item The text
+     */
+    public void add(TextItem item) {
+        FontTexture font = item.getFontTexture();
+        Page page = pages.computeIfAbsent(font, Page::new);
+        entries.putIfAbsent(item, new Entry(item, page));
+    }
+
+    /**
+     * Removes a text, its slot is reused by later texts.
+     *
+     * @param item The text
+     */
+    public void remove(TextItem item) {
+        Entry entry = entries.remove(item);
+        if (entry != null && entry.capacity > 0) {
+            entry.page.release(entry.start, entry.capacity);
+        }
+    }
+
+    /**
+     * Writes the changes of all texts and draws them, one draw call per
+     * font. The caller sets up the shader, like for
+     * {@link Mesh#renderList(java.util.List, Consumer)}.
+     *
+     * @param fontConsumer Sets up the data required by each font, for example
+     *                     if it holds distance fields
+     */
+    public void render(Consumer<FontTexture> fontConsumer) {
+        for (Entry entry : entries.values()) {
+            update(entry);
+        }
+        device().glActiveTexture(GL_TEXTURE0);
+        for (Page page : pages.values()) {
+            if (page.used == 0) {
+                continue;
+            }
+            page.flush();
+            fontConsumer.accept(page.font);
+            // Uploads the glyphs the texts used for the first time
+            device().glBindTexture(GL_TEXTURE_2D, page.font.getTexture().getId());
+            page.vao.bind();
+            FORMAT.enable();
+            device().glDrawElements(GL_TRIANGLES, page.used * INDICES_PER_QUAD, GL_UNSIGNED_INT, 0);
+        }
+    }
+
+    /**
+     * @return Bytes of vertex data uploaded since the batch was created
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return Number of draw calls a render makes
+     */
+    public int getDrawCount() {
+        int draws = 0;
+        for (Page page : pages.values()) {
+            if (page.used > 0) {
+                draws++;
+            }
+        }
+        return draws;
+    }
+
+    /**
+     * Lays out the text of an entry again if it or its item changed and
+     * writes the quads that differ from the last layout.
+     */
+    private void update(Entry entry) {
+        TextItem item = entry.item;
+        String text = item.getText();
+        if (text.equals(entry.text) && !entry.moved()) {
+            return;
+        }
+        int count = layout(entry, text);
+        Page page = entry.page;
+        if (count > entry.capacity) {
+            if (entry.capacity > 0) {
+                page.release(entry.start, entry.capacity);
+            }
+            entry.capacity = Math.max(MIN_SLOT, Integer.highestOneBit(count - 1) << 1);
+            entry.start = page.allocate(entry.capacity);
+            // Free slots are cleared, there is nothing of the old text to overwrite
+            entry.quadCount = 0;
+        }
+        // Quads past the new text are cleared, a quad of zeros has no area
+        int total = Math.max(count, entry.quadCount);
+        int first = -1;
+        int last = -1;
+        for (int q = 0; q < total; q++) {
+            int offset = (entry.start + q) * QUAD_SIZE;
+            boolean changed = false;
+            for (int i = 0; i < FLOATS_PER_QUAD; i++) {
+                int bits = q < count ? Float.floatToRawIntBits(quads[q * FLOATS_PER_QUAD + i]) : 0;
+                if (page.shadow.getInt(offset + i * Float.BYTES) != bits) {
+                    page.shadow.putInt(offset + i * Float.BYTES, bits);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                first = first < 0 ? q : first;
+                last = q;
+            }
+        }
+        if (first >= 0) {
+            page.markDirty(entry.start + first, last - first + 1);
+        }
+        entry.quadCount = count;
+        entry.text = text;
+    }
+
+    /**
+     * Computes the transformed quads of a text into {@link #quads}.
+     *
+     * @return Number of quads, characters without a glyph have none
+     */
+    private int layout(Entry entry, String text) {
+        TextItem item = entry.item;
+        FontTexture fontTexture = item.getFontTexture();
+        Vector3f rotation = item.getRotation();
+        transform.identity().translate(item.getPosition())
+                .rotateX((float) Math.toRadians(-rotation.x))
+                .rotateY((float) Math.toRadians(-rotation.y))
+                .rotateZ((float) Math.toRadians(-rotation.z))
+                .scale(item.getScale());
+        entry.remember();
+
+        // New glyphs of the text are rasterized together, in parallel
+        fontTexture.preload(text);
+        if (quads.length < text.length() * FLOATS_PER_QUAD) {
+            quads = new float[text.length() * FLOATS_PER_QUAD];
+        }
+        float width = fontTexture.getWidth();
+        float height = fontTexture.getHeight();
+        float startx = 0;
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            FontTexture.CharInfo charInfo = fontTexture.getCharInfo(text.charAt(i));
+            if (charInfo == null) {
+                continue;
+            }
+            float left = charInfo.getStartX() / width;
+            float right = (charInfo.getStartX() + charInfo.getWidth()) / width;
+            float top = charInfo.getStartY() / height;
+            float bottom = (charInfo.getStartY() + charInfo.getHeight()) / height;
+            float x0 = startx - charInfo.getOffset();
+            float x1 = x0 + charInfo.getWidth();
+            float y0 = -charInfo.getOffset();
+            float y1 = y0 + charInfo.getHeight();
+
+            // Same corners and order as the meshes of TextItem
+            int base = count * FLOATS_PER_QUAD;
+            base = putVertex(base, x0, y0, left, top);
+            base = putVertex(base, x0, y1, left, bottom);
+            base = putVertex(base, x1, y1, right, bottom);
+            putVertex(base, x1, y0, right, top);
+
+            startx += charInfo.getAdvance();
+            count++;
+        }
+        return count;
+    }
+
+    private int putVertex(int base, float x, float y, float u, float v) {
+        transform.transformPosition(corner.set(x, y, 0));
+        quads[base] = corner.x;
+        quads[base + 1] = corner.y;
+        quads[base + 2] = corner.z;
+        quads[base + 3] = u;
+        quads[base + 4] = v;
+        return base + FLOATS_PER_VERTEX;
+    }
+
+    /**
+     * Deletes the buffers. The fonts belong to the caller.
+     */
+    public void cleanup() {
+        for (Page page : pages.values()) {
+            page.cleanup();
+        }
+        pages.clear();
+        entries.clear();
+    }
+
+    /**
+     * The quads of the texts of one font.
+     */
+    private class Page {
+
+        private final FontTexture font;
+
+        /**
+         * Copy of the vertex buffer, the quads are compared against it.
+         */
+        private ByteBuffer shadow;
+
+        private int capacity;
+
+        /**
+         * Quads up to the end of the last slot, the range that is drawn.
+         */
+        private int used;
+
+        /**
+         * First quads of released slots, by slot size. Slot sizes are powers
+         * of two, so a released slot fits every later text of its class.
+         */
+        private final Map<Integer, ArrayDeque<Integer>> free = new HashMap<>();
+
+        /**
+         * Quads to upload, start and count each.
+         */
+        private final IntArrayList dirty = new IntArrayList();
+
+        private boolean resized = true;
+
+        private VertexArrayObject vao;
+
+        private VertexBufferObject vbo;
+
+        private VertexBufferObject ebo;
+
+        private Page(FontTexture font) {
+            this.font = font;
+            this.capacity = INITIAL_QUADS;
+            this.shadow = memCalloc(capacity * QUAD_SIZE);
+        }
+
+        /**
+         * @return First quad of a free slot
+         */
+        private int allocate(int size) {
+            ArrayDeque<Integer> released = free.get(size);
+            if (released != null && !released.isEmpty()) {
+                return released.pop();
+            }
+            int start = used;
+            used += size;
+            if (used > capacity) {
+                int grown = Math.max(used, capacity * 2);
+                shadow = memRealloc(shadow, grown * QUAD_SIZE);
+                memSet(memAddress(shadow) + (long) capacity * QUAD_SIZE, 0, (grown - capacity) * QUAD_SIZE);
+                capacity = grown;
+                resized = true;
+            }
+            return start;
+        }
+
+        private void release(int start, int size) {
+            memSet(memAddress(shadow) + (long) start * QUAD_SIZE, 0, size * QUAD_SIZE);
+            markDirty(start, size);
+            free.computeIfAbsent(size, key -> new ArrayDeque<>()).push(start);
+        }
+
+        private void markDirty(int start, int count) {
+            int n = dirty.size();
+            if (n > 0 && dirty.get(n - 2) + dirty.get(n - 1) == start) {
+                dirty.set(n - 1, dirty.get(n - 1) + count);
+            } else {
+                dirty.add(start, count);
+            }
+        }
+
+        /**
+         * Uploads the changed quads, or everything after the buffer grew.
+         */
+        private void flush() {
+            if (vao == null) {
+                vao = new VertexArrayObject();
+                vbo = new VertexBufferObject();
+                ebo = new VertexBufferObject();
+            }
+            if (resized) {
+                vao.bind();
+                vbo.bind(GL_ARRAY_BUFFER);
+                ByteBuffer data = shadow.duplicate();
+                data.position(0).limit(capacity * QUAD_SIZE);
+                vbo.uploadData(GL_ARRAY_BUFFER, data, GL_DYNAMIC_DRAW);
+                uploadedBytes += data.remaining();
+                FORMAT.setup();
+
+                IntBuffer indices = memAllocInt(capacity * INDICES_PER_QUAD);
+                try {
+                    for (int q = 0; q < capacity; q++) {
+                        int v = q * VERTICES_PER_QUAD;
+                        indices.put(v).put(v + 1).put(v + 2).put(v + 3).put(v).put(v + 2);
+                    }
+                    indices.flip();
+                    ebo.bind(GL_ELEMENT_ARRAY_BUFFER);
+                    ebo.uploadData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+                } finally {
+                    memFree(indices);
+                }
+                device().glBindVertexArray(0);
+                device().glBindBuffer(GL_ARRAY_BUFFER, 0);
+                resized = false;
+            } else if (!dirty.isEmpty()) {
+                vbo.bind(GL_ARRAY_BUFFER);
+                for (int i = 0; i < dirty.size(); i += 2) {
+                    ByteBuffer data = shadow.duplicate();
+                    data.position(dirty.get(i) * QUAD_SIZE).limit((dirty.get(i) + dirty.get(i + 1)) * QUAD_SIZE);
+                    uploadedBytes += data.remaining();
+                    vbo.uploadSubData(GL_ARRAY_BUFFER, (long) dirty.get(i) * QUAD_SIZE, data);
+                }
+                device().glBindBuffer(GL_ARRAY_BUFFER, 0);
+            }
+            dirty.clear();
+        }
+
+        private void cleanup() {
+            if (vao != null) {
+                vbo.delete();
+                ebo.delete();
+                vao.delete();
+            }
+            memFree(shadow);
+        }
+    }
+
+    /**
+     * A text and what was last written of it.
+     */
+    private static class Entry {
+
+        private final TextItem item;
+
+        private final Page page;
+
+        private final float[] state = new float[9];
+
+        private String text;
+
+        private int start;
+
+        private int capacity;
+
+        private int quadCount;
+
+        private Entry(TextItem item, Page page) {
+            this.item = item;
+            this.page = page;
+        }
+
+        /**
+         * @return If the position, rotation or scale of the item changed
+         * since {@link #remember()}
+         */
+        private boolean moved() {
+            Vector3f position = item.getPosition();
+            Vector3f rotation = item.getRotation();
+            Vector3f scale = item.getScale();
+            return state[0] != position.x || state[1] != position.y || state[2] != position.z
+                    || state[3] != rotation.x || state[4] != rotation.y || state[5] != rotation.z
+                    || state[6] != scale.x || state[7] != scale.y || state[8] != scale.z;
+        }
+
+        private void remember() {
+            Vector3f position = item.getPosition();
+            Vector3f rotation = item.getRotation();
+            Vector3f scale = item.getScale();
+            state[0] = position.x;
+            state[1] = position.y;
+            state[2] = position.z;
+            state[3] = rotation.x;
+            state[4] = rotation.y;
+            state[5] = rotation.z;
+            state[6] = scale.x;
+            state[7] = scale.y;
+            state[8] = scale.z;
+        }
+    }
+}
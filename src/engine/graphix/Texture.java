@@ -3,26 +3,56 @@ package engine.graphix;
 
 import de.matthiasmann.twl.utils.PNGDecoder;
 import de.matthiasmann.twl.utils.PNGDecoder.Format;
+import engine.IntArrayList;
 
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
-import static org.lwjgl.opengl.ARBFramebufferObject.glGenFramebuffers;
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
 import static org.lwjgl.opengl.GL14.GL_TEXTURE_FILTER_CONTROL;
 import static org.lwjgl.opengl.GL30.*;
 import static org.lwjgl.opengl.GL32.GL_TEXTURE_2D_MULTISAMPLE;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
 import static org.lwjglx.debug.opengl.ARBFramebufferObject.glBindFramebuffer;
 
 public class Texture {
 
-    private final int id;
-    private final int width;
-    private final int height;
+    private int id;
+    private int width;
+    private int height;
+    private BlockCompressor.Format format;
+    private boolean resident = true;
+    private boolean deleted;
+    private final IntArrayList pendingParams = new IntArrayList(0);
+    private TextureCache cache;
+
+    /**
+     * Wraps a texture object that is already uploaded.
+     */
+    Texture(int id, int width, int height) {
+        this.id = id;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a texture that shows <code>placeholder</code> until
+     * {@link #setImage(int, int, int, BlockCompressor.Format)} is called.
+     */
+    Texture(Texture placeholder) {
+        this(placeholder.id, placeholder.width, placeholder.height);
+        this.resident = false;
+    }
 
     public Texture(String fileName) throws Exception {
-        this(new FileInputStream(fileName));
+        // Read the whole file so no stream is left open
+        this(new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName))));
     }
 
     public Texture(InputStream is) throws Exception {
@@ -32,31 +62,95 @@ public class Texture {
         this.width = decoder.getWidth();
         this.height = decoder.getHeight();
 
-        // Load texture contents into a byte buffer
-        ByteBuffer buf = ByteBuffer.allocateDirect(
-                4 * decoder.getWidth() * decoder.getHeight());
-        decoder.decode(buf, decoder.getWidth() * 4, Format.RGBA);
-        buf.flip();
-
-        // Create a new OpenGL texture
-        this.id = glGenTextures();
-        // Bind the texture
-        glBindTexture(GL_TEXTURE_2D, this.id);
+        // Load texture contents into a byte buffer, freed right after the upload instead of by the GC
+        ByteBuffer buf = memAlloc(4 * decoder.getWidth() * decoder.getHeight());
+        try {
+            decoder.decode(buf, decoder.getWidth() * 4, Format.RGBA);
+            buf.flip();
+
+            // Create a new OpenGL texture
+            this.id = device().glGenTextures();
+            // Bind the texture
+            device().glBindTexture(GL_TEXTURE_2D, this.id);
+
+            // Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte size
+            device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+
+            // Upload the texture data
+            device().glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.width, this.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buf);
+        } finally {
+            memFree(buf);
+        }
+        // Generate Mip Map
+        device().glGenerateMipmap(GL_TEXTURE_2D);
+    }
 
-        // Tell OpenGL how to unpack the RGBA bytes. Each component is 1 byte size
-        glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+    /**
+     * Uploads a precomputed mip chain, RGBA8 or block compressed, level by
+     * level, without <code>glGenerateMipmap</code>.
+     *
+     * @param chain      The levels
+     * @param skipLevels Number of top levels to leave out, to save memory
+     */
+    public Texture(MipChain chain, int skipLevels) {
+        int first = Math.min(skipLevels, chain.getLevelCount() - 1);
+        this.id = uploadMipChain(chain, first, false);
+        this.width = chain.getWidth(first);
+        this.height = chain.getHeight(first);
+        this.format = chain.getFormat();
+    }
 
-        // Upload the texture data
-        glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.width, this.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, buf);
-        // Generate Mip Map
-        glGenerateMipmap(GL_TEXTURE_2D);
+    /**
+     * Creates a texture object from the levels of a chain starting at
+     * <code>first</code>.
+     *
+     * @param fromUnpackBuffer If the levels are read from the buffer bound to
+     *                         <code>GL_PIXEL_UNPACK_BUFFER</code>, which holds
+     *                         {@link MipChain#getLevels(int)} of
+     *                         <code>first</code>, instead of from the chain
+     * @return Name of the texture object
+     */
+    static int uploadMipChain(MipChain chain, int first, boolean fromUnpackBuffer) {
+        int id = device().glGenTextures();
+        device().glBindTexture(GL_TEXTURE_2D, id);
+        device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        int base = chain.getOffset(first);
+        BlockCompressor.Format format = chain.getFormat();
+        for (int level = first; level < chain.getLevelCount(); level++) {
+            int w = chain.getWidth(level);
+            int h = chain.getHeight(level);
+            if (format != null) {
+                // Compressed blocks go to the driver as they are
+                int internalFormat = format.getGlInternalFormat();
+                if (fromUnpackBuffer) {
+                    device().glCompressedTexImage2D(GL_TEXTURE_2D, level - first, internalFormat, w, h, 0,
+                            format.computeSize(w, h), (long) chain.getOffset(level) - base);
+                } else {
+                    device().glCompressedTexImage2D(GL_TEXTURE_2D, level - first, internalFormat, w, h, 0,
+                            chain.getLevel(level));
+                }
+            } else if (fromUnpackBuffer) {
+                device().glTexImage2D(GL_TEXTURE_2D, level - first, GL_RGBA, w, h, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                        (long) chain.getOffset(level) - base);
+            } else {
+                device().glTexImage2D(GL_TEXTURE_2D, level - first, GL_RGBA, w, h, 0, GL_RGBA, GL_UNSIGNED_BYTE,
+                        chain.getLevel(level));
+            }
+        }
+        device().glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, chain.getLevelCount() - 1 - first);
+        return id;
     }
 
     public void setTexParam(int pname, int param){
         //glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
         //glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        if (!resident) {
+            // Keep the shared placeholder untouched, the parameters are set once the image arrives
+            pendingParams.add(pname, param);
+            return;
+        }
         bind();
-        glTexParameteri(GL_TEXTURE_2D, pname, param);
+        device().glTexParameteri(GL_TEXTURE_2D, pname, param);
     }
 
     public int getWidth() {
@@ -68,14 +162,74 @@ public class Texture {
     }
 
     public void bind() {
-        glBindTexture(GL_TEXTURE_2D, id);
+        device().glBindTexture(GL_TEXTURE_2D, id);
     }
 
     public int getId() {
         return id;
     }
 
+    /**
+     * @return False while the texture still shows a placeholder
+     */
+    public boolean isResident() {
+        return resident;
+    }
+
+    /**
+     * @return Block compression of the image, null for RGBA8
+     */
+    public BlockCompressor.Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Replaces the placeholder by the loaded texture object.
+     */
+    void setImage(int id, int width, int height, BlockCompressor.Format format) {
+        this.id = id;
+        this.width = width;
+        this.height = height;
+        this.format = format;
+        this.resident = true;
+        for (int i = 0; i < pendingParams.size(); i += 2) {
+            setTexParam(pendingParams.get(i), pendingParams.get(i + 1));
+        }
+        pendingParams.clear();
+    }
+
+    boolean isDeleted() {
+        return deleted;
+    }
+
+    void setCache(TextureCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return The cache this texture was loaded through, or null
+     */
+    public TextureCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Deletes the texture, or gives back one reference if it was loaded
+     * through a {@link TextureCache}.
+     */
     public void cleanup() {
-        glDeleteTextures(id);
+        if (cache != null) {
+            cache.release(this);
+        } else {
+            delete();
+        }
+    }
+
+    void delete() {
+        deleted = true;
+        // The placeholder is shared, it belongs to the loader
+        if (resident) {
+            device().glDeleteTextures(id);
+        }
     }
 }
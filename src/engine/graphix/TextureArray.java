@@ -0,0 +1,126 @@
+package engine.graphix;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * A <code>GL_TEXTURE_2D_ARRAY</code> of RGBA8 layers of one size, each with
+ * all its mip levels. Layers are handed out by a
+ * {@link TextureArrayAllocator}, a {@link Material} draws with one through
+ * {@link Material#setTextureLayer(TextureArray, int)}.
+ * <p>
+ * Arrays are bound to their own texture unit, {@link #TEXTURE_UNIT}, so they
+ * do not disturb the 2D textures on unit 0.
+ */
+public class TextureArray {
+
+    /**
+     * Texture unit the arrays are bound to, the value of the
+     * <code>texture_array</code> sampler.
+     */
+    public static final int TEXTURE_UNIT = 1;
+
+    private final int id;
+
+    private final int width;
+
+    private final int height;
+
+    private final int levels;
+
+    private final int layers;
+
+    /**
+     * Creates the storage of every level and layer, without contents.
+     */
+    public TextureArray(int width, int height, int levels, int layers) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.layers = layers;
+        id = device().glGenTextures();
+        device().glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+        for (int level = 0; level < levels; level++) {
+            device().glTexImage3D(GL_TEXTURE_2D_ARRAY, level, GL_RGBA8, Math.max(1, width >> level),
+                    Math.max(1, height >> level), layers, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+        }
+        device().glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_LEVEL, levels - 1);
+        device().glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR_MIPMAP_LINEAR);
+        device().glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+        device().glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+    }
+
+    /**
+     * Loads a PNG file into a free layer.
+     *
+     * @param allocator Allocator of the layers
+     * @param fileName  Path of the PNG file
+     * @return The layer holding the image
+     * @throws Exception If the file can not be loaded
+     */
+    public static TextureArrayAllocator.Slot<TextureArray> load(TextureArrayAllocator<TextureArray> allocator,
+                                                                String fileName) throws Exception {
+        PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName))));
+        int width = decoder.getWidth();
+        int height = decoder.getHeight();
+        ByteBuffer data = memAlloc(MipChain.computeSize(width, height));
+        try {
+            decoder.decode(data, width * 4, Format.RGBA);
+            data.rewind();
+            MipChain chain = MipChain.generate(data, width, height);
+            TextureArrayAllocator.Slot<TextureArray> slot = allocator.allocate(width, height, chain.getLevelCount());
+            slot.getArray().upload(slot.getLayer(), chain);
+            return slot;
+        } finally {
+            memFree(data);
+        }
+    }
+
+    /**
+     * Replaces the contents of a layer.
+     *
+     * @param layer Layer index
+     * @param chain RGBA8 levels of the size of this array
+     */
+    public void upload(int layer, MipChain chain) {
+        device().glBindTexture(GL_TEXTURE_2D_ARRAY, id);
+        device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        for (int level = 0; level < levels; level++) {
+            device().glTexSubImage3D(GL_TEXTURE_2D_ARRAY, level, 0, 0, layer, chain.getWidth(level), chain.getHeight(level), 1,
+                    GL_RGBA, GL_UNSIGNED_BYTE, chain.getLevel(level));
+        }
+        device().glBindTexture(GL_TEXTURE_2D_ARRAY, 0);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getLayers() {
+        return layers;
+    }
+
+    public void delete() {
+        device().glDeleteTextures(id);
+    }
+}
@@ -0,0 +1,209 @@
+package engine.graphix;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out layers of texture arrays. Images of the same size and mip level
+ * count share an array, so meshes drawing with different images can be drawn
+ * without binding another texture: only the layer index changes. A new array
+ * is created when all arrays of a size are full, freed layers are handed out
+ * again lowest first.
+ * <p>
+ * The allocator only does the bookkeeping, the arrays themselves come from a
+ * {@link Factory}. With {@link TextureArray} as array type it manages
+ * <code>GL_TEXTURE_2D_ARRAY</code> objects, with any other type it runs
+ * without a GPU.
+ *
+ * @param <A> Type of the arrays
+ */
+public class TextureArrayAllocator<A> {
+
+    public static final int DEFAULT_LAYERS_PER_ARRAY = 16;
+
+    /**
+     * Creates the array objects.
+     */
+    public interface Factory<A> {
+
+        /**
+         * @param width  Width of every layer
+         * @param height Height of every layer
+         * @param levels Mip level count of every layer
+         * @param layers Number of layers
+         * @return A new array
+         */
+        A create(int width, int height, int levels, int layers);
+    }
+
+    private final Factory<A> factory;
+
+    private final int layersPerArray;
+
+    private final Map<Shape, List<Array<A>>> arraysByShape = new HashMap<>();
+
+    private final List<Array<A>> arrays = new ArrayList<>();
+
+    private int usedLayers;
+
+    public TextureArrayAllocator(Factory<A> factory) {
+        this(factory, DEFAULT_LAYERS_PER_ARRAY);
+    }
+
+    /**
+     * @param factory        Creates the arrays
+     * @param layersPerArray Layers of each array, at most
+     *                       <code>GL_MAX_ARRAY_TEXTURE_LAYERS</code>
+     */
+    public TextureArrayAllocator(Factory<A> factory, int layersPerArray) {
+        this.factory = factory;
+        this.layersPerArray = layersPerArray;
+    }
+
+    /**
+     * Reserves a layer for an image.
+     *
+     * @param width  Width of the image
+     * @param height Height of the image
+     * @param levels Number of mip levels of the image
+     * @return The array and layer
+     */
+    public Slot<A> allocate(int width, int height, int levels) {
+        Shape shape = new Shape(width, height, levels);
+        List<Array<A>> candidates = arraysByShape.computeIfAbsent(shape, key -> new ArrayList<>());
+        Array<A> target = null;
+        for (Array<A> array : candidates) {
+            if (array.used.cardinality() < layersPerArray) {
+                target = array;
+                break;
+            }
+        }
+        if (target == null) {
+            target = new Array<>(arrays.size(), factory.create(width, height, levels, layersPerArray));
+            candidates.add(target);
+            arrays.add(target);
+        }
+        int layer = target.used.nextClearBit(0);
+        target.used.set(layer);
+        usedLayers++;
+        return new Slot<>(target, layer);
+    }
+
+    /**
+     * Gives a layer back. Its contents stay until the layer is handed out
+     * again. Arrays are never deleted here, the owner of the allocator
+     * deletes {@link #getArrays()} when it is done.
+     *
+     * @param slot The slot, freed at most once
+     */
+    public void free(Slot<A> slot) {
+        if (slot.freed) {
+            throw new IllegalStateException("Layer " + slot.layer + " of array " + slot.owner.index
+                    + " is already free");
+        }
+        slot.freed = true;
+        slot.owner.used.clear(slot.layer);
+        usedLayers--;
+    }
+
+    /**
+     * @return Every array created, in the order they were created
+     */
+    public List<A> getArrays() {
+        List<A> result = new ArrayList<>(arrays.size());
+        for (Array<A> array : arrays) {
+            result.add(array.array);
+        }
+        return result;
+    }
+
+    public int getArrayCount() {
+        return arrays.size();
+    }
+
+    public int getUsedLayers() {
+        return usedLayers;
+    }
+
+    public int getLayersPerArray() {
+        return layersPerArray;
+    }
+
+    /**
+     * A layer of an array.
+     */
+    public static class Slot<A> {
+
+        private final Array<A> owner;
+
+        private final int layer;
+
+        private boolean freed;
+
+        private Slot(Array<A> owner, int layer) {
+            this.owner = owner;
+            this.layer = layer;
+        }
+
+        public A getArray() {
+            return owner.array;
+        }
+
+        /**
+         * @return Index of the array, in the order the arrays were created
+         */
+        public int getArrayIndex() {
+            return owner.index;
+        }
+
+        public int getLayer() {
+            return layer;
+        }
+    }
+
+    private static class Array<A> {
+
+        private final int index;
+
+        private final A array;
+
+        private final BitSet used = new BitSet();
+
+        private Array(int index, A array) {
+            this.index = index;
+            this.array = array;
+        }
+    }
+
+    private static class Shape {
+
+        private final int width;
+
+        private final int height;
+
+        private final int levels;
+
+        private Shape(int width, int height, int levels) {
+            this.width = width;
+            this.height = height;
+            this.levels = levels;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Shape)) {
+                return false;
+            }
+            Shape other = (Shape) obj;
+            return width == other.width && height == other.height && levels == other.levels;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + levels;
+        }
+    }
+}
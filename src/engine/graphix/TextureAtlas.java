@@ -0,0 +1,336 @@
+package engine.graphix;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memCalloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Packs small textures into shared pages, so meshes using different images
+ * can be drawn without binding another texture. Images are placed with an
+ * {@link AtlasPacker} and meshes address their image through a
+ * {@link Region}, which moves their texture coordinates into the page when
+ * the mesh is loaded, see
+ * {@link OBJLoader#loadMesh(String, boolean, boolean, Region)}.
+ * <p>
+ * Every image is surrounded by a gutter of <code>padding</code> texels that
+ * repeats its edge texels, so linear filtering at the border of a region
+ * never reads a neighbour. Regions start on multiples of the padding and
+ * their size is rounded up to one, so the 2x2 averages of the mip levels stay
+ * inside a region down to the level where the gutter is one texel wide. The
+ * smaller levels would mix neighbours and are not generated.
+ * <p>
+ * Only images sampled inside [0, 1] can share a page, a mesh that repeats its
+ * texture keeps the image as a texture of its own.
+ */
+public class TextureAtlas {
+
+    public static final int DEFAULT_PAGE_SIZE = 2048;
+
+    public static final int DEFAULT_PADDING = 8;
+
+    private final int pageSize;
+
+    private final int padding;
+
+    private final Map<Path, Region> regions = new LinkedHashMap<>();
+
+    private final List<Texture> pages = new ArrayList<>();
+
+    /**
+     * Fraction of each page covered by regions and their gutters.
+     */
+    private final List<Float> occupancy = new ArrayList<>();
+
+    private TextureCache cache;
+
+    public TextureAtlas() {
+        this(DEFAULT_PAGE_SIZE, DEFAULT_PADDING);
+    }
+
+    /**
+     * @param pageSize Width and height of the pages, a multiple of the
+     *                 padding
+     * @param padding  Width of the gutter around each image, a power of two
+     */
+    public TextureAtlas(int pageSize, int padding) {
+        if (Integer.bitCount(padding) != 1 || pageSize % padding != 0) {
+            throw new IllegalArgumentException("Padding " + padding + " must be a power of two dividing the page size "
+                    + pageSize);
+        }
+        this.pageSize = pageSize;
+        this.padding = padding;
+    }
+
+    /**
+     * Adds an image to the next {@link #build(TextureCache)}.
+     *
+     * @param fileName Path of the PNG file
+     * @return The region of the image, usable once the atlas is built
+     */
+    public Region add(String fileName) {
+        if (cache != null) {
+            throw new IllegalStateException("Images can not be added to a built atlas");
+        }
+        Path path = Paths.get(fileName).toAbsolutePath().normalize();
+        return regions.computeIfAbsent(path, key -> new Region(key.toString()));
+    }
+
+    /**
+     * @param fileName Path of the PNG file
+     * @return The region of an added image, or null
+     */
+    public Region getRegion(String fileName) {
+        return regions.get(Paths.get(fileName).toAbsolutePath().normalize());
+    }
+
+    /**
+     * Decodes the images, packs them and uploads the pages. The pages are
+     * shared through the cache like loaded textures. Images too big for a
+     * page, or which can not be read, are not packed.
+     *
+     * @param cache Cache taking the pages, the atlas holds one reference to
+     *              each until {@link #cleanup()}
+     */
+    public void build(TextureCache cache) {
+        this.cache = cache;
+        List<Region> sorted = new ArrayList<>();
+        for (Region region : regions.values()) {
+            try {
+                region.decode();
+                sorted.add(region);
+            } catch (Exception excp) {
+                System.err.println("Could not add " + region.fileName + " to atlas: " + excp.getMessage());
+            }
+        }
+        // Tallest first packs the densest
+        sorted.sort(Collections.reverseOrder((a, b) -> Integer.compare(a.cellHeight, b.cellHeight)));
+        List<AtlasPacker> packers = new ArrayList<>();
+        List<List<Region>> pageRegions = new ArrayList<>();
+        int[] position = new int[2];
+        for (Region region : sorted) {
+            if (region.cellWidth > pageSize || region.cellHeight > pageSize) {
+                System.err.println(region.fileName + " does not fit an atlas page, it stays on its own");
+                region.free();
+                continue;
+            }
+            int page = 0;
+            while (page < packers.size() && !packers.get(page).pack(region.cellWidth, region.cellHeight, position)) {
+                page++;
+            }
+            if (page == packers.size()) {
+                packers.add(new AtlasPacker(pageSize, pageSize));
+                pageRegions.add(new ArrayList<>());
+                packers.get(page).pack(region.cellWidth, region.cellHeight, position);
+            }
+            region.page = page;
+            region.x = position[0] + padding;
+            region.y = position[1] + padding;
+            pageRegions.get(page).add(region);
+        }
+
+        int maxLevel = Integer.numberOfTrailingZeros(padding);
+        for (int i = 0; i < pageRegions.size(); i++) {
+            ByteBuffer data = memCalloc(MipChain.computeSize(pageSize, pageSize, maxLevel + 1));
+            try {
+                for (Region region : pageRegions.get(i)) {
+                    region.copyTo(data);
+                    region.free();
+                }
+                Texture texture = new Texture(MipChain.generate(data, pageSize, pageSize, maxLevel + 1), 0);
+                pages.add(cache.add(String.format("atlas-%08x-page-%d", System.identityHashCode(this), i),
+                        texture, GL_LINEAR_MIPMAP_LINEAR, GL_LINEAR));
+            } finally {
+                memFree(data);
+            }
+            occupancy.add(packers.get(i).getOccupancy());
+        }
+    }
+
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    public Texture getPage(int page) {
+        return pages.get(page);
+    }
+
+    /**
+     * @return Fraction of the page covered by regions and their gutters
+     */
+    public float getOccupancy(int page) {
+        return occupancy.get(page);
+    }
+
+    /**
+     * Gives back the references of the atlas to its pages. Pages still used
+     * by meshes stay resident until these release them. The regions can not
+     * be used afterwards.
+     */
+    public void cleanup() {
+        for (Texture page : pages) {
+            page.cleanup();
+        }
+        pages.clear();
+        occupancy.clear();
+    }
+
+    /**
+     * Place of one image in the atlas.
+     */
+    public class Region {
+
+        private final String fileName;
+
+        private int page = -1;
+
+        private int x;
+
+        private int y;
+
+        private int width;
+
+        private int height;
+
+        private int cellWidth;
+
+        private int cellHeight;
+
+        /**
+         * Decoded pixels until the region is copied to its page.
+         */
+        private ByteBuffer pixels;
+
+        private Region(String fileName) {
+            this.fileName = fileName;
+        }
+
+        private void decode() throws Exception {
+            PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(Files.readAllBytes(Paths.get(fileName))));
+            width = decoder.getWidth();
+            height = decoder.getHeight();
+            cellWidth = roundUp(width + 2 * padding);
+            cellHeight = roundUp(height + 2 * padding);
+            pixels = memAlloc(width * height * 4);
+            decoder.decode(pixels, width * 4, Format.RGBA);
+            pixels.flip();
+        }
+
+        private int roundUp(int size) {
+            return (size + padding - 1) & -padding;
+        }
+
+        /**
+         * Copies the image and its gutter, which repeats the edge texels.
+         */
+        private void copyTo(ByteBuffer data) {
+            int cellX = x - padding;
+            int cellY = y - padding;
+            for (int py = cellY; py < cellY + cellHeight; py++) {
+                int sy = Math.max(0, Math.min(height - 1, py - y));
+                int row = py * pageSize;
+                // The image row itself, then the gutter on both sides
+                ByteBuffer src = pixels.duplicate();
+                src.position(sy * width * 4).limit((sy + 1) * width * 4);
+                ByteBuffer dst = data.duplicate();
+                dst.position((row + x) * 4);
+                dst.put(src);
+                int first = pixels.getInt(sy * width * 4);
+                int last = pixels.getInt(((sy + 1) * width - 1) * 4);
+                for (int px = cellX; px < x; px++) {
+                    data.putInt((row + px) * 4, first);
+                }
+                for (int px = x + width; px < cellX + cellWidth; px++) {
+                    data.putInt((row + px) * 4, last);
+                }
+            }
+        }
+
+        private void free() {
+            if (pixels != null) {
+                memFree(pixels);
+                pixels = null;
+            }
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * @return If the image was packed into a page
+         */
+        public boolean isPacked() {
+            return page >= 0;
+        }
+
+        /**
+         * @return The page of the image, null if it is not packed
+         */
+        public Texture getPage() {
+            return isPacked() ? pages.get(page) : null;
+        }
+
+        /**
+         * Moves texture coordinates of the image into its place on the page.
+         * Coordinates outside [0, 1] would sample other images, they are
+         * left unchanged.
+         *
+         * @param texCoords Texture coordinates, 2 floats each, changed in
+         *                  place
+         * @return False if the coordinates are unchanged, because the image
+         * is not packed or they leave [0, 1]
+         */
+        public boolean remap(float[] texCoords) {
+            if (!isPacked()) {
+                return false;
+            }
+            for (float value : texCoords) {
+                if (!(value >= 0 && value <= 1)) {
+                    return false;
+                }
+            }
+            float scaleU = width / (float) pageSize;
+            float scaleV = height / (float) pageSize;
+            float offsetU = x / (float) pageSize;
+            float offsetV = y / (float) pageSize;
+            for (int i = 0; i < texCoords.length; i += 2) {
+                texCoords[i] = offsetU + texCoords[i] * scaleU;
+                texCoords[i + 1] = offsetV + texCoords[i + 1] * scaleV;
+            }
+            return true;
+        }
+
+        /**
+         * Takes a reference to the texture a mesh draws the image with.
+         *
+         * @param remapped If the texture coordinates of the mesh were
+         *                 {@link #remap(float[]) remapped}
+         * @return The page if they were, otherwise the image loaded as a
+         * texture of its own
+         * @throws Exception If the image can not be loaded
+         */
+        public Texture acquireTexture(boolean remapped) throws Exception {
+            if (remapped) {
+                Texture texture = getPage();
+                cache.retain(texture);
+                return texture;
+            }
+            return cache.acquire(fileName);
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package engine.graphix;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.*;
+
+/**
+ * Shares textures loaded from files. A texture is decoded and uploaded once
+ * per file and filter combination, later loads are a hash map lookup.
+ * <p>
+ * Every {@link #acquire(String)} takes a reference that is given back with
+ * {@link #release(Texture)}, or with {@link Texture#cleanup()}. Textures
+ * nobody references stay resident for a later load, until the resident size
+ * goes over the budget: then the least recently released ones are deleted.
+ * Referenced textures are never deleted, so the budget can be exceeded while
+ * they are in use.
+ * <p>
+ * With a {@link TextureLoader} misses return at once with a placeholder and
+ * a texture counts towards the budget once its image is resident. While the
+ * referenced textures alone exceed the budget, new ones are loaded without
+ * their largest mip level.
+ */
+public class TextureCache {
+
+    public static final long DEFAULT_BUDGET = 256L * 1024 * 1024;
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    private final Map<Texture, Entry> byTexture = new IdentityHashMap<>();
+
+    /**
+     * Unreferenced entries, least recently released first.
+     */
+    private final LinkedHashMap<Key, Entry> unused = new LinkedHashMap<>();
+
+    private final TextureLoader loader;
+
+    private long budget;
+
+    private long residentBytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    public TextureCache() {
+        this(DEFAULT_BUDGET);
+    }
+
+    /**
+     * @param budget Size in bytes the resident textures may take before
+     *               unreferenced ones are evicted
+     */
+    public TextureCache(long budget) {
+        this(budget, null);
+    }
+
+    /**
+     * @param budget Size in bytes the resident textures may take before
+     *               unreferenced ones are evicted
+     * @param loader Loader decoding the textures in the background, or null to
+     *               load them synchronously
+     */
+    public TextureCache(long budget, TextureLoader loader) {
+        this.budget = budget;
+        this.loader = loader;
+    }
+
+    /**
+     * Loads a texture with the default OpenGL filters.
+     *
+     * @param fileName Path of the PNG file
+     * @return The texture, with one more reference
+     * @throws Exception If the file can not be loaded
+     */
+    public Texture acquire(String fileName) throws Exception {
+        return acquire(fileName, GL_NEAREST_MIPMAP_LINEAR, GL_LINEAR);
+    }
+
+    /**
+     * Loads a texture, or returns the one already loaded from the same file
+     * with the same filters.
+     *
+     * @param fileName  Path of the PNG file
+     * @param minFilter Value of <code>GL_TEXTURE_MIN_FILTER</code>
+     * @param magFilter Value of <code>GL_TEXTURE_MAG_FILTER</code>
+     * @return The texture, with one more reference
+     * @throws Exception If the file can not be loaded
+     */
+    public Texture acquire(String fileName, int minFilter, int magFilter) throws Exception {
+        Key key = new Key(Paths.get(fileName).toAbsolutePath().normalize(), minFilter, magFilter);
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            hits++;
+            if (entry.references++ == 0) {
+                unused.remove(key);
+            }
+            return entry.texture;
+        }
+
+        misses++;
+        Texture texture = loader != null ? loader.load(key.path.toString(), this::onResident)
+                : new Texture(key.path.toString());
+        texture.setTexParam(GL_TEXTURE_MIN_FILTER, minFilter);
+        texture.setTexParam(GL_TEXTURE_MAG_FILTER, magFilter);
+        texture.setCache(this);
+        entry = new Entry(key, texture);
+        entry.references = 1;
+        entries.put(key, entry);
+        byTexture.put(texture, entry);
+        if (texture.isResident()) {
+            onResident(texture);
+        }
+        return texture;
+    }
+
+    /**
+     * Shares a texture that is not loaded from a file, such as a page of a
+     * {@link TextureAtlas}. It is referenced, released and evicted like the
+     * loaded ones.
+     *
+     * @param name      Name of the texture, which must not be the path of
+     *                  a loaded file
+     * @param texture   The texture, resident
+     * @param minFilter Value of <code>GL_TEXTURE_MIN_FILTER</code>
+     * @param magFilter Value of <code>GL_TEXTURE_MAG_FILTER</code>
+     * @return The texture, with one reference
+     */
+    public Texture add(String name, Texture texture, int minFilter, int magFilter) {
+        Key key = new Key(Paths.get(name).toAbsolutePath().normalize(), minFilter, magFilter);
+        if (entries.containsKey(key)) {
+            throw new IllegalArgumentException("Texture " + name + " is already in the cache");
+        }
+        texture.setTexParam(GL_TEXTURE_MIN_FILTER, minFilter);
+        texture.setTexParam(GL_TEXTURE_MAG_FILTER, magFilter);
+        texture.setCache(this);
+        Entry entry = new Entry(key, texture);
+        entry.references = 1;
+        entries.put(key, entry);
+        byTexture.put(texture, entry);
+        onResident(texture);
+        return texture;
+    }
+
+    private void onResident(Texture texture) {
+        Entry entry = byTexture.get(texture);
+        if (entry != null) {
+            entry.size = computeSize(texture, entry.key.minFilter);
+            residentBytes += entry.size;
+            evict();
+        }
+    }
+
+    /**
+     * Takes one more reference to a texture of this cache.
+     *
+     * @param texture The texture
+     */
+    public void retain(Texture texture) {
+        Entry entry = getEntry(texture);
+        if (entry.references++ == 0) {
+            unused.remove(entry.key);
+        }
+    }
+
+    /**
+     * Gives back one reference. A texture without references stays resident
+     * until it is evicted.
+     *
+     * @param texture The texture
+     */
+    public void release(Texture texture) {
+        Entry entry = getEntry(texture);
+        if (entry.references == 0) {
+            throw new IllegalStateException("Texture " + entry.key.path + " released more often than acquired");
+        }
+        if (--entry.references == 0) {
+            unused.put(entry.key, entry);
+            evict();
+        }
+    }
+
+    private Entry getEntry(Texture texture) {
+        Entry entry = byTexture.get(texture);
+        if (entry == null) {
+            throw new IllegalArgumentException("Texture does not belong to this cache");
+        }
+        return entry;
+    }
+
+    private void evict() {
+        Iterator<Entry> it = unused.values().iterator();
+        while (residentBytes > budget && it.hasNext()) {
+            Entry entry = it.next();
+            it.remove();
+            remove(entry);
+            evictions++;
+        }
+        if (loader != null) {
+            // Still over budget with only referenced textures left, load the next ones at half size
+            loader.setSkipLevels(residentBytes > budget ? 1 : 0);
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        byTexture.remove(entry.texture);
+        residentBytes -= entry.size;
+        entry.texture.delete();
+    }
+
+    private static long computeSize(Texture texture, int minFilter) {
+        BlockCompressor.Format format = texture.getFormat();
+        long size = format != null ? format.computeSize(texture.getWidth(), texture.getHeight())
+                : (long) texture.getWidth() * texture.getHeight() * 4;
+        // Mipmaps add a third of the top level
+        boolean mipmapped = minFilter != GL_NEAREST && minFilter != GL_LINEAR;
+        return mipmapped ? size * 4 / 3 : size;
+    }
+
+    /**
+     * Changes the budget, evicting unreferenced textures if the resident ones
+     * no longer fit.
+     *
+     * @param budget Size in bytes
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * @return Estimated video memory used by the resident textures, in bytes
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public int getTextureCount() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Deletes every texture, referenced or not.
+     */
+    public void cleanup() {
+        for (Entry entry : entries.values()) {
+            entry.texture.delete();
+        }
+        entries.clear();
+        byTexture.clear();
+        unused.clear();
+        residentBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d textures, %d KB of %d KB, %d hits, %d misses, %d evictions",
+                entries.size(), residentBytes / 1024, budget / 1024, hits, misses, evictions);
+    }
+
+    private static class Key {
+
+        private final Path path;
+
+        private final int minFilter;
+
+        private final int magFilter;
+
+        private Key(Path path, int minFilter, int magFilter) {
+            this.path = path;
+            this.minFilter = minFilter;
+            this.magFilter = magFilter;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return path.equals(other.path) && minFilter == other.minFilter && magFilter == other.magFilter;
+        }
+
+        @Override
+        public int hashCode() {
+            return (path.hashCode() * 31 + minFilter) * 31 + magFilter;
+        }
+    }
+
+    private static class Entry {
+
+        private final Key key;
+
+        private final Texture texture;
+
+        private long size;
+
+        private int references;
+
+        private Entry(Key key, Texture texture) {
+            this.key = key;
+            this.texture = texture;
+        }
+    }
+}
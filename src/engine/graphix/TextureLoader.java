@@ -0,0 +1,510 @@
+package engine.graphix;
+
+import de.matthiasmann.twl.utils.PNGDecoder;
+import de.matthiasmann.twl.utils.PNGDecoder.Format;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_INVALIDATE_BUFFER_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_UNSYNCHRONIZED_BIT;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+
+/**
+ * Loads PNG textures without stalling the render thread. Files are read and
+ * decoded on a pool of worker threads into buffers of a
+ * {@link StagingBufferPool}, where the mip levels are generated as well.
+ * Images wait in a bounded queue for one of a small ring of pixel buffer
+ * objects. The render thread orphans the buffer and maps it unsynchronized,
+ * a copy thread writes the levels into the mapping, and on a later frame
+ * {@link #processUploads(long)} unmaps it and creates the texture from it, a
+ * few per frame. The render thread never touches the pixels itself.
+ * <p>
+ * The generated mip chains are kept in a {@link MipChainCache}. The next load
+ * of the same file maps the cached levels, nothing is decoded or generated.
+ * Top levels can be left out with {@link #setSkipLevels(int)} when video
+ * memory runs short.
+ * <p>
+ * With {@link #setCompression(BlockCompressor.Format, BlockCompressor.Quality)}
+ * the workers also block compress the chains, which takes a quarter (BC3,
+ * BC7) or an eighth (BC1) of the video memory and bandwidth. The compressed
+ * chains are cached next to the RGBA8 ones, so an image is only compressed
+ * once.
+ * <p>
+ * {@link #load(String)} returns at once with a texture that shows a grey
+ * placeholder until its image is resident. When the queue is full the
+ * workers wait, which bounds the staging memory.
+ * <p>
+ * The loader has to be created, used and cleaned up on the thread that owns
+ * the OpenGL context.
+ */
+public class TextureLoader {
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    private static final long MAX_IDLE_STAGING_BYTES = 32L * 1024 * 1024;
+
+    private static final long FINISH_POLL_MILLIS = 10;
+
+    private final ExecutorService workers;
+
+    /**
+     * Writes decoded images into mapped pixel buffers. Not done by the
+     * workers, which may all be waiting for room in {@link #decoded}.
+     */
+    private final ExecutorService copier;
+
+    /**
+     * Decoded images waiting for a pixel buffer.
+     */
+    private final BlockingQueue<Upload> decoded;
+
+    /**
+     * Images written into their pixel buffer, waiting for the render thread.
+     */
+    private final BlockingQueue<Upload> copied = new LinkedBlockingQueue<>();
+
+    private final StagingBufferPool stagingPool;
+
+    private final VertexBufferObject[] pixelBuffers;
+
+    /**
+     * Pixel buffers that are not mapped, used on the render thread only.
+     */
+    private final Deque<VertexBufferObject> freePixelBuffers = new ArrayDeque<>();
+
+    private final Texture placeholder;
+
+    private final MipChainCache mipChainCache;
+
+    private int skipLevels;
+
+    /**
+     * Set on the render thread, read by the workers.
+     */
+    private volatile BlockCompressor compressor;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private int uploaded;
+
+    private int failed;
+
+    public TextureLoader() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEFAULT_QUEUE_CAPACITY,
+                new MipChainCache());
+    }
+
+    /**
+     * @param threads       Number of decoding threads
+     * @param queueCapacity Number of decoded images that may wait for a pixel
+     *                      buffer, and number of pixel buffers
+     * @param mipChainCache Cache of generated mip chains, null disables it
+     */
+    public TextureLoader(int threads, int queueCapacity, MipChainCache mipChainCache) {
+        this.mipChainCache = mipChainCache;
+        workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TEXTURE_LOADER_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
+        copier = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TEXTURE_COPY_THREAD");
+            thread.setDaemon(true);
+            return thread;
+        });
+        decoded = new ArrayBlockingQueue<>(queueCapacity);
+        stagingPool = new StagingBufferPool(MAX_IDLE_STAGING_BYTES);
+        pixelBuffers = new VertexBufferObject[queueCapacity];
+        for (int i = 0; i < pixelBuffers.length; i++) {
+            pixelBuffers[i] = new VertexBufferObject();
+            freePixelBuffers.add(pixelBuffers[i]);
+        }
+        placeholder = createPlaceholder();
+    }
+
+    private static Texture createPlaceholder() {
+        ByteBuffer pixel = ByteBuffer.allocateDirect(4);
+        pixel.put((byte) 128).put((byte) 128).put((byte) 128).put((byte) 255).flip();
+        int id = device().glGenTextures();
+        device().glBindTexture(GL_TEXTURE_2D, id);
+        device().glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+        device().glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, 1, 1, 0, GL_RGBA, GL_UNSIGNED_BYTE, pixel);
+        // No mipmaps, the default filter would leave the texture incomplete
+        device().glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+        device().glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+        return new Texture(id, 1, 1);
+    }
+
+    public Texture load(String fileName) {
+        return load(fileName, null);
+    }
+
+    /**
+     * Starts loading a texture.
+     *
+     * @param fileName   Path of the PNG file
+     * @param onResident Called on the render thread once the image is
+     *                   uploaded, or null
+     * @return Texture showing the placeholder until the image is uploaded
+     */
+    public Texture load(String fileName, Consumer<Texture> onResident) {
+        Texture texture = new Texture(placeholder);
+        pending.incrementAndGet();
+        workers.execute(() -> decode(fileName, texture, onResident));
+        return texture;
+    }
+
+    private void decode(String fileName, Texture texture, Consumer<Texture> onResident) {
+        Upload upload;
+        ByteBuffer staging = null;
+        BlockCompressor compressor = this.compressor;
+        BlockCompressor.Format format = compressor != null ? compressor.getFormat() : null;
+        try {
+            MappedByteBuffer source;
+            try (FileChannel fc = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+                source = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            }
+            long length = source.limit();
+            long hash = mipChainCache != null ? MeshCache.hash(source) : 0;
+            MipChain compressed = format != null && mipChainCache != null
+                    ? mipChainCache.find(hash, length, format) : null;
+            MipChain chain = compressed == null && mipChainCache != null ? mipChainCache.find(hash, length) : null;
+            if (compressed == null && chain == null) {
+                byte[] data = new byte[source.limit()];
+                source.get(data);
+                PNGDecoder decoder = new PNGDecoder(new ByteArrayInputStream(data));
+                int width = decoder.getWidth();
+                int height = decoder.getHeight();
+                // Level 0 is decoded straight into the chain, the other levels follow it
+                staging = stagingPool.acquire(MipChain.computeSize(width, height));
+                decoder.decode(staging, width * 4, Format.RGBA);
+                staging.rewind();
+                chain = MipChain.generate(staging, width, height);
+                store(hash, length, chain, fileName);
+            }
+            if (compressed == null && compressor != null) {
+                ByteBuffer blocks = stagingPool.acquire(MipChain.computeSize(chain.getWidth(0), chain.getHeight(0),
+                        format));
+                compressed = compressor.encode(chain, blocks);
+                if (staging != null) {
+                    stagingPool.release(staging);
+                }
+                staging = blocks;
+                store(hash, length, compressed, fileName);
+            }
+            upload = new Upload(texture, compressed != null ? compressed : chain, staging, onResident);
+        } catch (Exception excp) {
+            System.err.println("Could not load texture " + fileName + ": " + excp.getMessage());
+            if (staging != null) {
+                stagingPool.release(staging);
+            }
+            // Still queued, so the render thread counts the load as finished
+            upload = new Upload(texture, null, null, null);
+        }
+        try {
+            // Waits while the render thread has enough work queued
+            decoded.put(upload);
+        } catch (InterruptedException excp) {
+            if (upload.staging != null) {
+                stagingPool.release(upload.staging);
+            }
+            // Never reaches the render thread, the texture keeps the placeholder
+            System.err.println("Loading of texture " + fileName + " was interrupted");
+            pending.decrementAndGet();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void store(long hash, long length, MipChain chain, String fileName) {
+        if (mipChainCache != null) {
+            try {
+                mipChainCache.store(hash, length, chain);
+            } catch (IOException excp) {
+                System.err.println("Could not cache mip chain of " + fileName + ": " + excp.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Creates the textures of the images written into their pixel buffers
+     * until none is left or the time budget is spent, then maps the free
+     * pixel buffers for the images decoded since. At least one texture is
+     * created if one is waiting, so loading always makes progress. Has to be
+     * called once per frame.
+     *
+     * @param budgetNanos Time the uploads may take, in nanoseconds
+     * @return Number of images uploaded
+     */
+    public int processUploads(long budgetNanos) {
+        long start = System.nanoTime();
+        int count = 0;
+        Upload upload;
+        while ((count == 0 || System.nanoTime() - start < budgetNanos) && (upload = copied.poll()) != null) {
+            finish(upload);
+            count++;
+        }
+        mapPixelBuffers();
+        return count;
+    }
+
+    /**
+     * Waits for every started load and uploads it, for loading screens.
+     *
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public void finishAll() throws InterruptedException {
+        while (pending.get() > 0) {
+            mapPixelBuffers();
+            Upload upload = copied.poll();
+            if (upload == null && freePixelBuffers.size() < pixelBuffers.length) {
+                // Wakes up now and then, an interrupted worker drops its load without queueing it
+                upload = copied.poll(FINISH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (upload != null) {
+                finish(upload);
+            } else if (freePixelBuffers.size() == pixelBuffers.length) {
+                upload = decoded.poll(FINISH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (upload != null) {
+                    map(upload, freePixelBuffers.poll());
+                }
+            }
+        }
+    }
+
+    private void mapPixelBuffers() {
+        Upload upload;
+        while (!freePixelBuffers.isEmpty() && (upload = decoded.poll()) != null) {
+            map(upload, freePixelBuffers.poll());
+        }
+    }
+
+    /**
+     * Maps a pixel buffer for a decoded image and has the copy thread write
+     * the image into it.
+     */
+    private void map(Upload upload, VertexBufferObject pixelBuffer) {
+        if (upload.chain == null || upload.texture.isDeleted()) {
+            freePixelBuffers.add(pixelBuffer);
+            finish(upload);
+            return;
+        }
+        MipChain chain = upload.chain;
+        upload.first = Math.min(skipLevels, chain.getLevelCount() - 1);
+        ByteBuffer levels = chain.getLevels(upload.first);
+        pixelBuffer.bind(GL_PIXEL_UNPACK_BUFFER);
+        // Orphaning gives the buffer new storage, so mapping it does not wait for the last upload from it
+        pixelBuffer.uploadData(GL_PIXEL_UNPACK_BUFFER, levels.remaining(), GL_STREAM_DRAW);
+        ByteBuffer mapped = pixelBuffer.map(GL_PIXEL_UNPACK_BUFFER, levels.remaining(),
+                GL_MAP_WRITE_BIT | GL_MAP_INVALIDATE_BUFFER_BIT | GL_MAP_UNSYNCHRONIZED_BIT);
+        device().glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+        if (mapped == null) {
+            // Uploaded from client memory on the next frame
+            freePixelBuffers.add(pixelBuffer);
+            copied.add(upload);
+            return;
+        }
+        upload.pixelBuffer = pixelBuffer;
+        copier.execute(() -> {
+            mapped.put(levels);
+            copied.add(upload);
+        });
+    }
+
+    private void finish(Upload upload) {
+        pending.decrementAndGet();
+        if (upload.chain == null) {
+            // Decoding failed, the texture keeps the placeholder
+            failed++;
+            return;
+        }
+        try {
+            boolean fromPixelBuffer = false;
+            if (upload.pixelBuffer != null) {
+                upload.pixelBuffer.bind(GL_PIXEL_UNPACK_BUFFER);
+                // Fails if the driver lost the contents, the levels are read from the chain then
+                fromPixelBuffer = upload.pixelBuffer.unmap(GL_PIXEL_UNPACK_BUFFER);
+                if (!fromPixelBuffer) {
+                    device().glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+                }
+            }
+            // A texture deleted while it was loading does not need its image any more
+            if (!upload.texture.isDeleted()) {
+                upload(upload, fromPixelBuffer);
+                uploaded++;
+            }
+        } finally {
+            if (upload.pixelBuffer != null) {
+                device().glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+                freePixelBuffers.add(upload.pixelBuffer);
+            }
+            if (upload.staging != null) {
+                stagingPool.release(upload.staging);
+            }
+        }
+    }
+
+    /**
+     * @param fromPixelBuffer If the levels are read from the bound pixel
+     *                        buffer, otherwise from the chain, when mapping
+     *                        failed or lost the data
+     */
+    private void upload(Upload upload, boolean fromPixelBuffer) {
+        MipChain chain = upload.chain;
+        int first = upload.first;
+        int id = Texture.uploadMipChain(chain, first, fromPixelBuffer);
+        upload.texture.setImage(id, chain.getWidth(first), chain.getHeight(first), chain.getFormat());
+        if (upload.onResident != null) {
+            upload.onResident.accept(upload.texture);
+        }
+    }
+
+    /**
+     * Sets how many of the largest mip levels are left out of the textures
+     * uploaded from now on. Each level saves three quarters of the memory.
+     *
+     * @param skipLevels Number of levels, 0 uploads the full size
+     */
+    public void setSkipLevels(int skipLevels) {
+        this.skipLevels = skipLevels;
+    }
+
+    public int getSkipLevels() {
+        return skipLevels;
+    }
+
+    /**
+     * Sets the block compression of the textures loaded from now on. Formats
+     * the driver does not support fall back to uncompressed textures.
+     *
+     * @param format  Format of the blocks, null for RGBA8
+     * @param quality Quality of the encoder
+     * @return If the format is used
+     */
+    public boolean setCompression(BlockCompressor.Format format, BlockCompressor.Quality quality) {
+        if (format != null && !isSupported(format)) {
+            System.err.println("Texture compression " + format + " not supported, textures stay uncompressed");
+            format = null;
+        }
+        compressor = format != null ? new BlockCompressor(format, quality) : null;
+        return format != null;
+    }
+
+    private static boolean isSupported(BlockCompressor.Format format) {
+        GLCapabilities caps = GL.getCapabilities();
+        if (format == BlockCompressor.Format.BC7) {
+            return caps.OpenGL42 || caps.GL_ARB_texture_compression_bptc;
+        }
+        return caps.GL_EXT_texture_compression_s3tc;
+    }
+
+    /**
+     * @return The encoder compressing the textures, or null
+     */
+    public BlockCompressor getCompressor() {
+        return compressor;
+    }
+
+    /**
+     * @return Number of loads that are not uploaded yet
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    public int getUploadedCount() {
+        return uploaded;
+    }
+
+    public int getFailedCount() {
+        return failed;
+    }
+
+    public StagingBufferPool getStagingPool() {
+        return stagingPool;
+    }
+
+    /**
+     * Stops the workers, drops the loads that are not finished and deletes
+     * the placeholder. Textures still showing it must not be used afterwards.
+     */
+    public void cleanup() {
+        workers.shutdownNow();
+        copier.shutdownNow();
+        try {
+            workers.awaitTermination(1, TimeUnit.SECONDS);
+            copier.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        Upload upload;
+        while ((upload = decoded.poll()) != null || (upload = copied.poll()) != null) {
+            if (upload.staging != null) {
+                stagingPool.release(upload.staging);
+            }
+        }
+        stagingPool.free();
+        // Deleting a mapped buffer unmaps it
+        for (VertexBufferObject pixelBuffer : pixelBuffers) {
+            pixelBuffer.delete();
+        }
+        placeholder.delete();
+    }
+
+    /**
+     * A decoded image waiting for the render thread.
+     */
+    private static class Upload {
+
+        private final Texture texture;
+
+        private final MipChain chain;
+
+        /**
+         * Pooled buffer backing the chain, null when the chain is mapped.
+         */
+        private final ByteBuffer staging;
+
+        private final Consumer<Texture> onResident;
+
+        /**
+         * First level uploaded, chosen when the pixel buffer is mapped.
+         */
+        private int first;
+
+        /**
+         * Mapped pixel buffer the levels are written to, null until then or
+         * if mapping failed.
+         */
+        private VertexBufferObject pixelBuffer;
+
+        private Upload(Texture texture, MipChain chain, ByteBuffer staging, Consumer<Texture> onResident) {
+            this.texture = texture;
+            this.chain = chain;
+            this.staging = staging;
+            this.onResident = onResident;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package engine.graphix;
+
+import java.nio.FloatBuffer;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.lwjgl.system.MemoryStack;
+
+import static engine.graphix.Graphics.device;
+
+/**
+ * Location of a uniform of a {@link ShaderProgram}, looked up once when the
+ * uniform is created. Setting a value goes straight to the device, with no
+ * name to build or hash. Uniforms the shader does not have are ignored.
+ * <p>
+ * The nested classes group the members of the structs of the scene shader.
+ */
+public class Uniform {
+
+    private final int location;
+
+    Uniform(int location) {
+        this.location = location;
+    }
+
+    public int getLocation() {
+        return location;
+    }
+
+    /**
+     * @return If the shader has the uniform
+     */
+    public boolean exists() {
+        return location >= 0;
+    }
+
+    public void set(int value) {
+        if (location >= 0) {
+            device().glUniform1i(location, value);
+        }
+    }
+
+    public void set(boolean value) {
+        set(value ? 1 : 0);
+    }
+
+    public void set(float value) {
+        if (location >= 0) {
+            device().glUniform1f(location, value);
+        }
+    }
+
+    public void set(Vector3f value) {
+        if (location >= 0) {
+            device().glUniform3f(location, value.x, value.y, value.z);
+        }
+    }
+
+    public void set(Vector4f value) {
+        if (location >= 0) {
+            device().glUniform4f(location, value.x, value.y, value.z, value.w);
+        }
+    }
+
+    public void set(Matrix4f value) {
+        if (location < 0) {
+            return;
+        }
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            // Dump the matrix into a float buffer
+            FloatBuffer fb = stack.mallocFloat(16);
+            value.get(fb);
+            device().glUniformMatrix4fv(location, false, fb);
+        }
+    }
+
+    public static class DirectionalLightStruct {
+
+        private final Uniform colour;
+
+        private final Uniform direction;
+
+        private final Uniform intensity;
+
+        DirectionalLightStruct(ShaderProgram program, String name) throws Exception {
+            colour = program.createUniform(name + ".colour");
+            direction = program.createUniform(name + ".direction");
+            intensity = program.createUniform(name + ".intensity");
+        }
+
+        /**
+         * @param light     The light
+         * @param direction Its direction in view coordinates
+         */
+        public void set(DirectionalLight light, Vector3f direction) {
+            colour.set(light.getColor());
+            this.direction.set(direction);
+            intensity.set(light.getIntensity());
+        }
+    }
+
+    public static class PointLightStruct {
+
+        private final Uniform colour;
+
+        private final Uniform position;
+
+        private final Uniform intensity;
+
+        private final Uniform constant;
+
+        private final Uniform linear;
+
+        private final Uniform exponent;
+
+        PointLightStruct(ShaderProgram program, String name) throws Exception {
+            colour = program.createUniform(name + ".colour");
+            position = program.createUniform(name + ".position");
+            intensity = program.createUniform(name + ".intensity");
+            constant = program.createUniform(name + ".att.constant");
+            linear = program.createUniform(name + ".att.linear");
+            exponent = program.createUniform(name + ".att.exponent");
+        }
+
+        /**
+         * @param light    The light
+         * @param position Its position in view coordinates
+         */
+        public void set(PointLight light, Vector3f position) {
+            colour.set(light.getColor());
+            this.position.set(position);
+            intensity.set(light.getIntensity());
+            PointLight.Attenuation att = light.getAttenuation();
+            constant.set(att.getConstant());
+            linear.set(att.getLinear());
+            exponent.set(att.getExponent());
+        }
+    }
+
+    public static class SpotLightStruct {
+
+        private final PointLightStruct pointLight;
+
+        private final Uniform coneDirection;
+
+        private final Uniform cutoff;
+
+        SpotLightStruct(ShaderProgram program, String name) throws Exception {
+            pointLight = new PointLightStruct(program, name + ".pl");
+            coneDirection = program.createUniform(name + ".conedir");
+            cutoff = program.createUniform(name + ".cutoff");
+        }
+
+        /**
+         * @param light         The light of the cone
+         * @param position      Its position in view coordinates
+         * @param coneDirection Direction of the cone in view coordinates
+         * @param cutoff        Cosine of the half angle of the cone
+         */
+        public void set(PointLight light, Vector3f position, Vector3f coneDirection, float cutoff) {
+            pointLight.set(light, position);
+            this.coneDirection.set(coneDirection);
+            this.cutoff.set(cutoff);
+        }
+    }
+
+    public static class MaterialStruct {
+
+        private final Uniform ambient;
+
+        private final Uniform diffuse;
+
+        private final Uniform specular;
+
+        private final Uniform hasTexture;
+
+        private final Uniform reflectance;
+
+        private final Uniform layer;
+
+        MaterialStruct(ShaderProgram program, String name) throws Exception {
+            ambient = program.createUniform(name + ".ambient");
+            diffuse = program.createUniform(name + ".diffuse");
+            specular = program.createUniform(name + ".specular");
+            hasTexture = program.createUniform(name + ".hasTexture");
+            reflectance = program.createUniform(name + ".reflectance");
+            // Only shaders sampling texture arrays have it
+            layer = program.createOptionalUniform(name + ".layer");
+        }
+
+        public void set(Material material) {
+            ambient.set(material.getAmbientColour());
+            diffuse.set(material.getDiffuseColour());
+            specular.set(material.getSpecularColour());
+            hasTexture.set(material.isTextured());
+            reflectance.set(material.getReflectance());
+            layer.set(material.getLayer());
+        }
+    }
+
+    public static class FogStruct {
+
+        private final Uniform active;
+
+        private final Uniform colour;
+
+        private final Uniform density;
+
+        FogStruct(ShaderProgram program, String name) throws Exception {
+            active = program.createUniform(name + ".activeFog");
+            colour = program.createUniform(name + ".colour");
+            density = program.createUniform(name + ".density");
+        }
+
+        public void set(Fog fog) {
+            active.set(fog.isActive());
+            colour.set(fog.getColour());
+            density.set(fog.getDensity());
+        }
+    }
+}
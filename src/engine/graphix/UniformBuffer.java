@@ -0,0 +1,89 @@
+package engine.graphix;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL15.GL_DYNAMIC_DRAW;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+/**
+ * A uniform buffer object and the {@link Std140Buffer} it is filled from.
+ * Only the bytes changed since the last upload go to the driver.
+ */
+public class UniformBuffer {
+
+    private final Std140Buffer data;
+
+    private final VertexBufferObject buffer;
+
+    /**
+     * Size of the buffer object store, 0 until the first upload
+     */
+    private int allocatedSize;
+
+    private long uploadedBytes;
+
+    /**
+     * @param size Size in bytes
+     */
+    public UniformBuffer(int size) {
+        data = new Std140Buffer(size);
+        buffer = new VertexBufferObject();
+    }
+
+    public Std140Buffer getData() {
+        return data;
+    }
+
+    /**
+     * Uploads the dirty range of the data, or all of it when the data grew.
+     *
+     * @return Bytes uploaded
+     */
+    public int upload() {
+        if (!data.isDirty()) {
+            return 0;
+        }
+        buffer.bind(GL_UNIFORM_BUFFER);
+        int bytes;
+        if (allocatedSize != data.size()) {
+            allocatedSize = data.size();
+            bytes = allocatedSize;
+            buffer.uploadData(GL_UNIFORM_BUFFER, data.getData(), GL_DYNAMIC_DRAW);
+        } else {
+            bytes = data.getDirtyEnd() - data.getDirtyStart();
+            buffer.uploadSubData(GL_UNIFORM_BUFFER, data.getDirtyStart(), data.getDirtyData());
+        }
+        data.clearDirty();
+        uploadedBytes += bytes;
+        return bytes;
+    }
+
+    /**
+     * Binds the whole buffer to a binding point.
+     */
+    public void bind(int bindingPoint) {
+        device().glBindBufferBase(GL_UNIFORM_BUFFER, bindingPoint, buffer.getID());
+    }
+
+    /**
+     * Binds a range of the buffer to a binding point.
+     *
+     * @param offset Start of the range, a multiple of
+     *               <code>GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT</code>
+     * @param size   Size of the range in bytes
+     */
+    public void bind(int bindingPoint, int offset, int size) {
+        device().glBindBufferRange(GL_UNIFORM_BUFFER, bindingPoint, buffer.getID(), offset, size);
+    }
+
+    /**
+     * @return Bytes uploaded over the life of the buffer
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public void cleanup() {
+        buffer.delete();
+        data.free();
+    }
+}
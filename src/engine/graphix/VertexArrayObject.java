@@ -1,6 +1,6 @@
 package engine.graphix;
 
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL30.*;
 
 /**
@@ -18,22 +18,22 @@ public class VertexArrayObject {
      * Creates a Vertex Array Object (VAO).
      */
     public VertexArrayObject() {
-        id = glGenVertexArrays();
+        id = device().glGenVertexArrays();
     }
 
     /**
      * Binds the VAO.
      */
     public void bind() {
-        glBindVertexArray(id);
+        device().glBindVertexArray(id);
     }
 
     /**
      * Deletes the VAO.
      */
     public void delete() {
-        glBindVertexArray(0);
-        glDeleteVertexArrays(id);
+        device().glBindVertexArray(0);
+        device().glDeleteVertexArrays(id);
     }
 
     /**
@@ -1,8 +1,10 @@
 package engine.graphix;
 
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL15.*;
 
 /**
@@ -20,7 +22,7 @@ public class VertexBufferObject {
      * Creates a Vertex Buffer Object (VBO).
      */
     public VertexBufferObject() {
-        id = glGenBuffers();
+        id = device().glGenBuffers();
     }
 
     /**
@@ -30,7 +32,7 @@ public class VertexBufferObject {
      * @param target Target to bind
      */
     public void bind(int target) {
-        glBindBuffer(target, id);
+        device().glBindBuffer(target, id);
     }
 
     /**
@@ -43,7 +45,7 @@ public class VertexBufferObject {
      * @param usage  Usage of the data
      */
     public void uploadData(int target, FloatBuffer data, int usage) {
-        glBufferData(target, data, usage);
+        device().glBufferData(target, data, usage);
     }
 
     /**
@@ -56,7 +58,7 @@ public class VertexBufferObject {
      * @param usage  Usage of the data
      */
     public void uploadData(int target, long size, int usage) {
-        glBufferData(target, size, usage);
+        device().glBufferData(target, size, usage);
     }
 
     /**
@@ -69,7 +71,19 @@ public class VertexBufferObject {
      * @param data   Buffer with the data to upload
      */
     public void uploadSubData(int target, long offset, FloatBuffer data) {
-        glBufferSubData(target, offset, data);
+        device().glBufferSubData(target, offset, data);
+    }
+
+    /**
+     * Upload raw sub data to this VBO with specified target, offset and data.
+     * Used to update a part of interleaved vertex data.
+     *
+     * @param target Target to upload
+     * @param offset Offset where the data should go in bytes
+     * @param data   Buffer with the data to upload
+     */
+    public void uploadSubData(int target, long offset, ByteBuffer data) {
+        device().glBufferSubData(target, offset, data);
     }
 
     /**
@@ -82,14 +96,52 @@ public class VertexBufferObject {
      * @param usage  Usage of the data
      */
     public void uploadData(int target, IntBuffer data, int usage) {
-        glBufferData(target, data, usage);
+        device().glBufferData(target, data, usage);
+    }
+
+    /**
+     * Upload raw data to this VBO with specified target, data and usage. Used
+     * for interleaved vertex data, where one buffer holds values of different
+     * types.
+     *
+     * @param target Target to upload
+     * @param data   Buffer with the data to upload
+     * @param usage  Usage of the data
+     */
+    public void uploadData(int target, ByteBuffer data, int usage) {
+        device().glBufferData(target, data, usage);
+    }
+
+    /**
+     * Maps the data store of this VBO, which has to be bound to
+     * <code>target</code>, for the CPU to write it.
+     *
+     * @param target Target the VBO is bound to
+     * @param size   Number of bytes from the start of the data store
+     * @param access Access flags, such as <code>GL_MAP_WRITE_BIT</code>
+     * @return Memory backed by the data store, or null if mapping failed
+     */
+    public ByteBuffer map(int target, long size, int access) {
+        return device().glMapBufferRange(target, 0, size, access);
+    }
+
+    /**
+     * Unmaps the data store of this VBO, which has to be bound to
+     * <code>target</code>. The memory returned by {@link #map} must not be
+     * used any more.
+     *
+     * @param target Target the VBO is bound to
+     * @return False if the data was lost and has to be written again
+     */
+    public boolean unmap(int target) {
+        return device().glUnmapBuffer(target);
     }
 
     /**
      * Deletes this VBO.
      */
     public void delete( ) {
-        glDeleteBuffers(id);
+        device().glDeleteBuffers(id);
     }
 
 
@@ -0,0 +1,355 @@
+package engine.graphix;
+
+import java.nio.ByteBuffer;
+
+import static engine.graphix.Graphics.device;
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+/**
+ * Describes an interleaved vertex layout: which attributes a vertex has, how
+ * each one is stored and where it sits inside the vertex. All attributes live
+ * in one buffer, so a vertex fetch reads a single memory stream.
+ * <p>
+ * Offsets are assigned in declaration order and every attribute starts on a
+ * 4 byte boundary, as does the stride. Only {@link #setup()},
+ * {@link #enable()} and {@link #disable()} talk to OpenGL, the layout math
+ * and the encoding work without a context.
+ */
+public class VertexFormat {
+
+    /**
+     * Position (3 floats), texture coordinate (2 floats) and normal (3 floats).
+     */
+    public static final VertexFormat FLOAT = new VertexFormat(
+            new Attribute(0, 3, GL_FLOAT, false),
+            new Attribute(1, 2, GL_FLOAT, false),
+            new Attribute(2, 3, GL_FLOAT, false));
+
+    /**
+     * Position (3 normalized unsigned shorts), texture coordinate (2 half
+     * floats) and normal (3 normalized bytes), see {@link MeshQuantizer}.
+     */
+    public static final VertexFormat COMPACT = new VertexFormat(
+            new Attribute(0, 3, GL_UNSIGNED_SHORT, true),
+            new Attribute(1, 2, GL_HALF_FLOAT, false),
+            new Attribute(2, 3, GL_BYTE, true));
+
+    /**
+     * Like {@link #COMPACT} with the texture coordinate as 2 normalized
+     * unsigned shorts, for coordinates inside [0, 1] such as those moved into
+     * a {@link TextureAtlas}. Half floats lose precision towards 1, where
+     * their step grows to 1/2048.
+     */
+    public static final VertexFormat COMPACT_UNIT_UV = new VertexFormat(
+            new Attribute(0, 3, GL_UNSIGNED_SHORT, true),
+            new Attribute(1, 2, GL_UNSIGNED_SHORT, true),
+            new Attribute(2, 3, GL_BYTE, true));
+
+    private static final int ALIGNMENT = 4;
+
+    private final Attribute[] attributes;
+
+    private final int[] offsets;
+
+    private final int stride;
+
+    public VertexFormat(Attribute... attributes) {
+        this.attributes = attributes.clone();
+        this.offsets = new int[attributes.length];
+        int offset = 0;
+        for (int i = 0; i < attributes.length; i++) {
+            offsets[i] = offset;
+            offset = align(offset + attributes[i].getSize());
+        }
+        this.stride = offset;
+    }
+
+    private static int align(int value) {
+        return (value + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * @return Size of one vertex in bytes
+     */
+    public int getStride() {
+        return stride;
+    }
+
+    public int getAttributeCount() {
+        return attributes.length;
+    }
+
+    public Attribute getAttribute(int attribute) {
+        return attributes[attribute];
+    }
+
+    /**
+     * @param attribute Attribute number in this format, not its location
+     * @return Offset of the attribute inside a vertex in bytes
+     */
+    public int getOffset(int attribute) {
+        return offsets[attribute];
+    }
+
+    /**
+     * Sets the attribute pointers of the bound vertex array to the buffer
+     * bound to <code>GL_ARRAY_BUFFER</code>.
+     */
+    public void setup() {
+        for (int i = 0; i < attributes.length; i++) {
+            Attribute attribute = attributes[i];
+            device().glVertexAttribPointer(attribute.getLocation(), attribute.getComponents(), attribute.getType(),
+                    attribute.isNormalized(), stride, offsets[i]);
+        }
+    }
+
+    public void enable() {
+        for (Attribute attribute : attributes) {
+            device().glEnableVertexAttribArray(attribute.getLocation());
+        }
+    }
+
+    public void disable() {
+        for (Attribute attribute : attributes) {
+            device().glDisableVertexAttribArray(attribute.getLocation());
+        }
+    }
+
+    /**
+     * Writes one attribute of every vertex. The buffer position is not
+     * modified.
+     *
+     * @param dest      Vertex buffer, at least <code>stride</code> bytes per vertex
+     * @param attribute Attribute number in this format
+     * @param values    Attribute values, <code>components</code> floats per vertex
+     */
+    public void put(ByteBuffer dest, int attribute, float[] values) {
+        int components = attributes[attribute].getComponents();
+        int vertexCount = values.length / components;
+        for (int v = 0; v < vertexCount; v++) {
+            put(dest, v, attribute, values, v * components);
+        }
+    }
+
+    /**
+     * Writes one attribute of one vertex, encoding the values to the type of
+     * the attribute. Normalized values are clamped to the range of the type.
+     * The buffer position is not modified.
+     *
+     * @param dest      Vertex buffer
+     * @param vertex    Vertex index
+     * @param attribute Attribute number in this format
+     * @param values    Source values
+     * @param offset    Index of the first component in <code>values</code>
+     */
+    public void put(ByteBuffer dest, int vertex, int attribute, float[] values, int offset) {
+        Attribute attr = attributes[attribute];
+        int base = vertex * stride + offsets[attribute];
+        int componentSize = sizeOf(attr.getType());
+        for (int c = 0; c < attr.getComponents(); c++) {
+            int pos = base + c * componentSize;
+            float value = values[offset + c];
+            switch (attr.getType()) {
+                case GL_FLOAT:
+                    dest.putFloat(pos, value);
+                    break;
+                case GL_HALF_FLOAT:
+                    dest.putShort(pos, toHalf(value));
+                    break;
+                case GL_UNSIGNED_SHORT:
+                    dest.putShort(pos, (short) encode(value, 0xFFFF, false, attr.isNormalized()));
+                    break;
+                case GL_SHORT:
+                    dest.putShort(pos, (short) encode(value, Short.MAX_VALUE, true, attr.isNormalized()));
+                    break;
+                case GL_UNSIGNED_BYTE:
+                    dest.put(pos, (byte) encode(value, 0xFF, false, attr.isNormalized()));
+                    break;
+                case GL_BYTE:
+                    dest.put(pos, (byte) encode(value, Byte.MAX_VALUE, true, attr.isNormalized()));
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported attribute type " + attr.getType());
+            }
+        }
+    }
+
+    /**
+     * Reads one component of one vertex attribute back as the GPU sees it.
+     *
+     * @param src       Vertex buffer
+     * @param vertex    Vertex index
+     * @param attribute Attribute number in this format
+     * @param component Component of the attribute
+     * @return The decoded value
+     */
+    public float get(ByteBuffer src, int vertex, int attribute, int component) {
+        Attribute attr = attributes[attribute];
+        int pos = vertex * stride + offsets[attribute] + component * sizeOf(attr.getType());
+        boolean normalized = attr.isNormalized();
+        switch (attr.getType()) {
+            case GL_FLOAT:
+                return src.getFloat(pos);
+            case GL_HALF_FLOAT:
+                return fromHalf(src.getShort(pos));
+            case GL_UNSIGNED_SHORT:
+                int ushort = src.getShort(pos) & 0xFFFF;
+                return normalized ? ushort / (float) 0xFFFF : ushort;
+            case GL_SHORT:
+                short sshort = src.getShort(pos);
+                return normalized ? Math.max(-1.0f, sshort / (float) Short.MAX_VALUE) : sshort;
+            case GL_UNSIGNED_BYTE:
+                int ubyte = src.get(pos) & 0xFF;
+                return normalized ? ubyte / (float) 0xFF : ubyte;
+            case GL_BYTE:
+                byte sbyte = src.get(pos);
+                return normalized ? Math.max(-1.0f, sbyte / (float) Byte.MAX_VALUE) : sbyte;
+            default:
+                throw new IllegalStateException("Unsupported attribute type " + attr.getType());
+        }
+    }
+
+    private static int encode(float value, int max, boolean signed, boolean normalized) {
+        if (!normalized) {
+            return (int) value;
+        }
+        float clamped = Math.max(signed ? -1.0f : 0.0f, Math.min(1.0f, value));
+        return Math.round(clamped * max);
+    }
+
+    /**
+     * @param type OpenGL component type
+     * @return Size of one component in bytes
+     */
+    public static int sizeOf(int type) {
+        switch (type) {
+            case GL_FLOAT:
+            case GL_INT:
+            case GL_UNSIGNED_INT:
+                return 4;
+            case GL_HALF_FLOAT:
+            case GL_SHORT:
+            case GL_UNSIGNED_SHORT:
+                return 2;
+            case GL_BYTE:
+            case GL_UNSIGNED_BYTE:
+                return 1;
+            default:
+                throw new IllegalArgumentException("Unsupported attribute type " + type);
+        }
+    }
+
+    /**
+     * Converts a float to an IEEE 754 half float, rounding to nearest even.
+     * Values too big for a half become infinity.
+     *
+     * @param value The float
+     * @return Bits of the half float
+     */
+    public static short toHalf(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xFF;
+        int mantissa = bits & 0x7FFFFF;
+        if (exponent == 0xFF) {
+            // Infinity stays infinity, NaN stays a quiet NaN
+            return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int halfExponent = exponent - 127 + 15;
+        if (halfExponent >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (halfExponent <= 0) {
+            // Subnormal half, shift the mantissa including its implicit bit
+            if (halfExponent < -10) {
+                return (short) sign;
+            }
+            int shift = 14 - halfExponent;
+            int full = mantissa | 0x800000;
+            return (short) (sign | roundShift(full, shift));
+        }
+        // A carry out of the mantissa correctly bumps the exponent, up to infinity
+        return (short) (sign | roundShift((halfExponent << 23) | mantissa, 13));
+    }
+
+    private static int roundShift(int value, int shift) {
+        int result = value >>> shift;
+        int remainder = value & ((1 << shift) - 1);
+        int halfway = 1 << (shift - 1);
+        if (remainder > halfway || (remainder == halfway && (result & 1) != 0)) {
+            result++;
+        }
+        return result;
+    }
+
+    /**
+     * Converts an IEEE 754 half float to a float.
+     *
+     * @param half Bits of the half float
+     * @return The float
+     */
+    public static float fromHalf(short half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1F;
+        int mantissa = half & 0x3FF;
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 127 - 15) << 23) | (mantissa << 13));
+    }
+
+    /**
+     * One vertex attribute.
+     */
+    public static class Attribute {
+
+        private final int location;
+
+        private final int components;
+
+        private final int type;
+
+        private final boolean normalized;
+
+        /**
+         * @param location   Shader attribute location
+         * @param components Number of components, 1 to 4
+         * @param type       OpenGL component type, such as <code>GL_FLOAT</code>
+         * @param normalized If integer values are mapped to [0, 1] or [-1, 1]
+         */
+        public Attribute(int location, int components, int type, boolean normalized) {
+            this.location = location;
+            this.components = components;
+            this.type = type;
+            this.normalized = normalized;
+        }
+
+        public int getLocation() {
+            return location;
+        }
+
+        public int getComponents() {
+            return components;
+        }
+
+        public int getType() {
+            return type;
+        }
+
+        public boolean isNormalized() {
+            return normalized;
+        }
+
+        /**
+         * @return Size of the attribute in bytes, without padding
+         */
+        public int getSize() {
+            return components * sizeOf(type);
+        }
+    }
+}
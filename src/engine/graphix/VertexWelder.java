@@ -0,0 +1,156 @@
+package engine.graphix;
+
+import engine.FloatArrayList;
+import engine.IntArrayList;
+import engine.LongIntHashMap;
+
+/**
+ * Builds an indexed vertex set out of OBJ style face vertices, where each
+ * face vertex references a position, a texture coordinate and a normal
+ * independently. Every distinct (position, texture coordinate, normal) tuple
+ * becomes exactly one output vertex, so positions shared by faces with
+ * different texture coordinates or normals are split instead of overwritten.
+ */
+public class VertexWelder {
+
+    private static final int BYTES_PER_VERTEX = (3 + 2 + 3) * Float.BYTES;
+
+    private final FloatArrayList positions;
+
+    private final FloatArrayList texCoords;
+
+    private final FloatArrayList normals;
+
+    private final int[] indices;
+
+    private final int numSourcePositions;
+
+    /**
+     * Creates a welder and welds the given face vertices.
+     *
+     * @param srcPositions Source positions, 3 floats each
+     * @param srcTexCoords Source texture coordinates, 2 floats each
+     * @param srcNormals   Source normals, 3 floats each
+     * @param faceIndices  (position, texture coordinate, normal) index triplets,
+     *                     missing indices are negative
+     */
+    public VertexWelder(FloatArrayList srcPositions, FloatArrayList srcTexCoords, FloatArrayList srcNormals,
+                        IntArrayList faceIndices) {
+        int numCorners = faceIndices.size() / 3;
+        numSourcePositions = srcPositions.size() / 3;
+        positions = new FloatArrayList(srcPositions.size());
+        texCoords = new FloatArrayList(srcPositions.size() / 3 * 2);
+        normals = new FloatArrayList(srcPositions.size());
+        indices = new int[numCorners];
+        weld(srcPositions, srcTexCoords, srcNormals, faceIndices.elements(), numCorners);
+    }
+
+    private void weld(FloatArrayList srcPositions, FloatArrayList srcTexCoords, FloatArrayList srcNormals,
+                      int[] faces, int numCorners) {
+        // Pack the three indices into one key, missing indices are stored as 0
+        int posBits = bitsFor(numSourcePositions);
+        int texBits = bitsFor(srcTexCoords.size() / 2 + 1);
+        int normBits = bitsFor(srcNormals.size() / 3 + 1);
+        if (posBits + texBits + normBits > Long.SIZE) {
+            throw new IllegalArgumentException("Too many positions, texture coordinates and normals to weld: "
+                    + numSourcePositions + ", " + srcTexCoords.size() / 2 + ", " + srcNormals.size() / 3);
+        }
+        int texShift = posBits;
+        int normShift = posBits + texBits;
+
+        float[] pos = srcPositions.elements();
+        float[] tex = srcTexCoords.elements();
+        float[] norm = srcNormals.elements();
+        LongIntHashMap vertexMap = new LongIntHashMap(Math.max(numSourcePositions, 16));
+        int numVertices = 0;
+        for (int i = 0; i < numCorners; i++) {
+            int idxPos = faces[i * 3];
+            int idxTextCoord = faces[i * 3 + 1];
+            int idxVecNormal = faces[i * 3 + 2];
+            long key = (long) idxPos
+                    | (long) (idxTextCoord + 1) << texShift
+                    | (long) (idxVecNormal + 1) << normShift;
+            int vertex = vertexMap.putIfAbsent(key, numVertices);
+            if (vertex == LongIntHashMap.NO_VALUE) {
+                vertex = numVertices++;
+                positions.add(pos[idxPos * 3], pos[idxPos * 3 + 1], pos[idxPos * 3 + 2]);
+                if (idxTextCoord >= 0) {
+                    texCoords.add(tex[idxTextCoord * 2], 1 - tex[idxTextCoord * 2 + 1]);
+                } else {
+                    texCoords.add(0, 0);
+                }
+                if (idxVecNormal >= 0) {
+                    normals.add(norm[idxVecNormal * 3], norm[idxVecNormal * 3 + 1], norm[idxVecNormal * 3 + 2]);
+                } else {
+                    normals.add(0, 0, 0);
+                }
+            }
+            indices[i] = vertex;
+        }
+    }
+
+    private static int bitsFor(int count) {
+        return Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(count));
+    }
+
+    public float[] getPositions() {
+        return positions.toArray();
+    }
+
+    public float[] getTexCoords() {
+        return texCoords.toArray();
+    }
+
+    public float[] getNormals() {
+        return normals.toArray();
+    }
+
+    public int[] getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return Number of unique vertices emitted
+     */
+    public int getVertexCount() {
+        return positions.size() / 3;
+    }
+
+    /**
+     * @return Number of face vertices, which is the vertex count of a mesh
+     * without any sharing
+     */
+    public int getFaceVertexCount() {
+        return indices.length;
+    }
+
+    /**
+     * @return Number of positions declared in the source
+     */
+    public int getSourcePositionCount() {
+        return numSourcePositions;
+    }
+
+    /**
+     * @return Vertex buffer size in bytes of the welded vertices
+     */
+    public long getVertexBytes() {
+        return (long) getVertexCount() * BYTES_PER_VERTEX;
+    }
+
+    /**
+     * @return Vertex buffer size in bytes if every face vertex was its own vertex
+     */
+    public long getUnweldedVertexBytes() {
+        return (long) getFaceVertexCount() * BYTES_PER_VERTEX;
+    }
+
+    @Override
+    public String toString() {
+        long unwelded = getUnweldedVertexBytes();
+        return String.format("%d face vertices welded to %d vertices (%d positions declared), "
+                        + "vertex buffers %d bytes instead of %d (%.1f%% smaller)",
+                getFaceVertexCount(), getVertexCount(), numSourcePositions, getVertexBytes(), unwelded,
+                unwelded == 0 ? 0.0 : 100.0 * (unwelded - getVertexBytes()) / unwelded);
+    }
+}
@@ -1,12 +1,11 @@
 package engine.items;
 
-import engine.Utils;
 import engine.graphix.FontTexture;
 import engine.graphix.Material;
 import engine.graphix.Mesh;
-
-import java.util.ArrayList;
-import java.util.List;
+import engine.graphix.MeshBuilder;
+import engine.graphix.TextBatch;
+import engine.graphix.VertexFormat;
 
 public class TextItem extends GameItem {
 
@@ -25,74 +24,93 @@ public class TextItem extends GameItem {
         setMesh(buildMesh());
     }
 
+    /**
+     * Creates a text drawn by a batch, it has no mesh of its own. Changes of
+     * the text or the transform are picked up by the next render of the
+     * batch.
+     *
+     * @param text        The text
+     * @param fontTexture Font of the text
+     * @param batch       Batch drawing the text
+     */
+    public TextItem(String text, FontTexture fontTexture, TextBatch batch) {
+        super();
+        this.text = text;
+        this.fontTexture = fontTexture;
+        batch.add(this);
+    }
+
     private Mesh buildMesh() {
-        List<Float> positions = new ArrayList();
-        List<Float> textCoords = new ArrayList();
-        float[] normals   = new float[0];
-        List<Integer> indices   = new ArrayList();
         char[] characters = text.toCharArray();
         int numChars = characters.length;
+        MeshBuilder builder = new MeshBuilder(VertexFormat.FLOAT, numChars * VERTICES_PER_QUAD, numChars * 6);
+        float width = (float)fontTexture.getWidth();
+        float height = (float)fontTexture.getHeight();
+        // New glyphs of the text are rasterized together, in parallel
+        fontTexture.preload(text);
 
         float startx = 0;
         for(int i=0; i<numChars; i++) {
             FontTexture.CharInfo charInfo = fontTexture.getCharInfo(characters[i]);
-
-            // Build a character tile composed by two triangles
-
-            // Left Top vertex
-            positions.add(startx); // x
-            positions.add(0.0f); //y
-            positions.add(ZPOS); //z
-            textCoords.add( (float)charInfo.getStartX() / (float)fontTexture.getWidth());
-            textCoords.add(0.0f);
-            indices.add(i*VERTICES_PER_QUAD);
-
-            // Left Bottom vertex
-            positions.add(startx); // x
-            positions.add((float)fontTexture.getHeight()); //y
-            positions.add(ZPOS); //z
-            textCoords.add((float)charInfo.getStartX() / (float)fontTexture.getWidth());
-            textCoords.add(1.0f);
-            indices.add(i*VERTICES_PER_QUAD + 1);
-
-            // Right Bottom vertex
-            positions.add(startx + charInfo.getWidth()); // x
-            positions.add((float)fontTexture.getHeight()); //y
-            positions.add(ZPOS); //z
-            textCoords.add((float)(charInfo.getStartX() + charInfo.getWidth() )/ (float)fontTexture.getWidth());
-            textCoords.add(1.0f);
-            indices.add(i*VERTICES_PER_QUAD + 2);
-
-            // Right Top vertex
-            positions.add(startx + charInfo.getWidth()); // x
-            positions.add(0.0f); //y
-            positions.add(ZPOS); //z
-            textCoords.add((float)(charInfo.getStartX() + charInfo.getWidth() )/ (float)fontTexture.getWidth());
-            textCoords.add(0.0f);
-            indices.add(i*VERTICES_PER_QUAD + 3);
-
+            if (charInfo == null) {
+                // Not in the charset of the font
+                continue;
+            }
+            float left = (float)charInfo.getStartX() / width;
+            float right = (float)(charInfo.getStartX() + charInfo.getWidth()) / width;
+            float top = (float)charInfo.getStartY() / height;
+            float bottom = (float)(charInfo.getStartY() + charInfo.getHeight()) / height;
+
+            // The tile covers the glyph box, which reaches past the advance by the distance field spread
+            float x0 = startx - charInfo.getOffset();
+            float x1 = x0 + charInfo.getWidth();
+            float y0 = -charInfo.getOffset();
+            float y1 = y0 + charInfo.getHeight();
+
+            // Build a character tile composed by two triangles, text has no normals
+            int leftTop = builder.addVertex(x0, y0, ZPOS, left, top, 0, 0, 0);
+            int leftBottom = builder.addVertex(x0, y1, ZPOS, left, bottom, 0, 0, 0);
+            int rightBottom = builder.addVertex(x1, y1, ZPOS, right, bottom, 0, 0, 0);
+            int rightTop = builder.addVertex(x1, y0, ZPOS, right, top, 0, 0, 0);
+
+            builder.addTriangle(leftTop, leftBottom, rightBottom);
             // Add indices por left top and bottom right vertices
-            indices.add(i*VERTICES_PER_QUAD);
-            indices.add(i*VERTICES_PER_QUAD + 2);
+            builder.addTriangle(rightTop, leftTop, rightBottom);
 
-            startx += charInfo.getWidth();
+            startx += charInfo.getAdvance();
         }
 
-        float[] posArr = Utils.listToArray(positions);
-        float[] textCoordsArr = Utils.listToArray(textCoords);
-        int[] indicesArr = indices.stream().mapToInt(i->i).toArray();
-        Mesh mesh = new Mesh(posArr, textCoordsArr, normals, indicesArr);
+        Mesh mesh = builder.build();
+        // Uploads the glyphs this text used for the first time
         mesh.setMaterial(new Material(fontTexture.getTexture()));
         return mesh;
     }
 
+    /**
+     * Scales the text to a font size. Glyphs of a distance field
+     * {@link FontTexture} stay sharp at every size, plain ones blur when
+     * enlarged.
+     *
+     * @param size Font size in pixels
+     */
+    public void setTextSize(float size) {
+        setScale(size / fontTexture.getFontSize());
+    }
+
     public String getText() {
         return text;
     }
 
+    public FontTexture getFontTexture() {
+        return fontTexture;
+    }
+
     public void setText(String text) {
         this.text = text;
-        this.getMesh().deleteBuffers();
-        this.setMesh(buildMesh());
+        // Batched texts are written by their batch
+        if (getMesh() != null) {
+            this.getMesh().deleteBuffers();
+            this.setMesh(buildMesh());
+        }
     }
 }
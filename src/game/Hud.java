@@ -3,6 +3,7 @@ package game;
 import engine.GameSettings;
 import engine.Utils;
 import engine.Window;
+import engine.graphix.Graphics;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.nanovg.NVGColor;
 
@@ -12,6 +13,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.glfw.GLFW.glfwGetCursorPos;
 import static org.lwjgl.nanovg.NanoVG.*;
 import static org.lwjgl.nanovg.NanoVGGL3.*;
@@ -72,10 +74,11 @@ public class Hud {
 
         nvgEndFrame(vg);
 
-        // Restore state
-        glEnable(GL_DEPTH_TEST);
-        glEnable(GL_STENCIL_TEST);
-        glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        // NanoVG changed the state without the device, then restore it
+        Graphics.invalidateState();
+        device().glEnable(GL_DEPTH_TEST);
+        device().glEnable(GL_STENCIL_TEST);
+        device().glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
     }
 
     private void drawHud(Window window){
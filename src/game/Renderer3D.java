@@ -11,6 +11,7 @@ import org.joml.Vector4f;
 import java.util.List;
 import java.util.Map;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.opengl.GL11.*;
 
 public class Renderer3D {
@@ -20,13 +21,50 @@ public class Renderer3D {
     private static final float FOV = (float) Math.toRadians(60.0f);
     private static final float Z_NEAR = 0.01f;
     private static final float Z_FAR = 1000.f;
-    private static final int MAX_POINT_LIGHTS = 5;
+    private static final int MAX_POINT_LIGHTS = SceneBlocks.MAX_POINT_LIGHTS;
     private static final int MAX_SPOT_LIGHTS = 5;
+    /**
+     * Largest geometric error, in pixels, accepted when picking a mesh level of detail
+     */
+    private static final float MAX_LOD_PIXEL_ERROR = 1.0f;
+    /**
+     * Program field of the sort keys
+     */
+    private static final int SCENE_PROGRAM = 0;
+    private static final int INSTANCED_PROGRAM = 1;
 
     private final Transformation transformation;
-    private ShaderProgram sceneShaderProgram;
+    private SceneShader sceneShader;
+    /**
+     * Draws the meshes that render their items instanced
+     */
+    private SceneShader instancedShader;
+    /**
+     * Frame, light and material data of the programs that declare the blocks
+     */
+    private SceneBlocks sceneBlocks;
     private ShaderProgram skyBoxShaderProgram;
+    /**
+     * Null if the skybox program reads the projection from the frame block
+     */
+    private Uniform skyBoxProjectionMatrix;
+    private Uniform skyBoxModelViewMatrix;
+    private Uniform skyBoxTextureSampler;
+    private Uniform skyBoxAmbientLight;
     private float specularPower;
+    /**
+     * Light position or direction in view coordinates, reused for every light
+     */
+    private final Vector4f lightView = new Vector4f();
+    private final Vector3f lightViewXyz = new Vector3f();
+    /**
+     * Draws of the scene meshes, sorted before they are submitted
+     */
+    private final RenderQueue renderQueue = new RenderQueue();
+    /**
+     * Sort keys of the sub meshes of the mesh being queued
+     */
+    private long[] subMeshKeys = new long[0];
 
 
     public Renderer3D() {
@@ -35,31 +73,10 @@ public class Renderer3D {
     }
 
     public void init(Window window) throws Exception {
+        sceneBlocks = new SceneBlocks();
         setupSkyBoxShader();
-        setupSceneShader();
-    }
-
-    private void setupSceneShader() throws Exception {
-        // Create shader
-        sceneShaderProgram = new ShaderProgram();
-        sceneShaderProgram.createVertexShader(Utils.loadResource("src/resources/shaders/scene_vertex.vs"));
-        sceneShaderProgram.createFragmentShader(Utils.loadResource("src/resources/shaders/scene_fragment.fs"));
-        sceneShaderProgram.link();
-
-        // Create uniforms for modelView and projection matrices and texture
-        sceneShaderProgram.createUniform("projectionMatrix");
-        sceneShaderProgram.createUniform("modelViewMatrix");
-        sceneShaderProgram.createUniform("texture_sampler");
-        // Create uniform for material
-        sceneShaderProgram.createMaterialUniform("material");
-        // Create lighting related uniforms
-        sceneShaderProgram.createUniform("specularPower");
-        sceneShaderProgram.createUniform("ambientLight");
-        sceneShaderProgram.createPointLightListUniform("pointLights", MAX_POINT_LIGHTS);
-        sceneShaderProgram.createSpotLightListUniform("spotLights", MAX_SPOT_LIGHTS);
-        sceneShaderProgram.createDirectionalLightUniform("directionalLight");
-        // Create uniform for fog
-        sceneShaderProgram.createFogUniform("fog");
+        sceneShader = new SceneShader("src/resources/shaders/scene_vertex.vs", false);
+        instancedShader = new SceneShader("src/resources/shaders/scene_instanced_vertex.vs", true);
     }
 
     private void setupSkyBoxShader() throws Exception {
@@ -68,64 +85,176 @@ public class Renderer3D {
         skyBoxShaderProgram.createFragmentShader(Utils.loadResource("src/resources/shaders/sb_fragment.fs"));
         skyBoxShaderProgram.link();
 
-        skyBoxShaderProgram.createUniform("projectionMatrix");
-        skyBoxShaderProgram.createUniform("modelViewMatrix");
-        skyBoxShaderProgram.createUniform("texture_sampler");
-        skyBoxShaderProgram.createUniform("ambientLight");
+        if (!skyBoxShaderProgram.bindUniformBlock(SceneBlocks.FRAME_BLOCK, SceneBlocks.FRAME_BINDING)) {
+            skyBoxProjectionMatrix = skyBoxShaderProgram.createUniform("projectionMatrix");
+        }
+        skyBoxModelViewMatrix = skyBoxShaderProgram.createUniform("modelViewMatrix");
+        skyBoxTextureSampler = skyBoxShaderProgram.createUniform("texture_sampler");
+        skyBoxAmbientLight = skyBoxShaderProgram.createUniform("ambientLight");
     }
 
     public void render(Window window, Camera camera, Scene scene) {
         clear();
 
         if ( window.isResized() ) {
-            glViewport(0, 0, window.getWidth(), window.getHeight());
+            device().glViewport(0, 0, window.getWidth(), window.getHeight());
             window.setResized(false);
         }
 
         // Update projection and view atrices once per render cycle
         transformation.updateProjectionMatrix(FOV, window.getWidth(), window.getHeight(), Z_NEAR, Z_FAR);
         transformation.updateViewMatrix(camera);
+        // Only what changed since the last frame is uploaded
+        sceneBlocks.update(transformation.getProjectionMatrix(), transformation.getViewMatrix(),
+                scene.getSceneLight(), specularPower, scene.getFog());
 
         renderSkyBox(window, camera, scene);
         renderScene(window, camera, scene);
+    }
 
+    public void renderScene(Window window, Camera camera, Scene scene) {
+        // Pixels covered by one world unit at distance one, used to pick the level of detail
+        float pixelsPerUnit = window.getHeight() / (2.0f * (float) Math.tan(FOV / 2.0f));
+        Vector3f cameraPos = camera.getPosition();
+
+        queueMeshes(scene, cameraPos, pixelsPerUnit);
+        renderQueue.sort();
+
+        // Submit in key order, setting up the program and material only when they change
+        SceneShader shader = null;
+        Material currentMaterial = null;
+        for (int i = 0; i < renderQueue.size(); i++) {
+            SceneShader nextShader = RenderQueue.getProgram(renderQueue.getKey(i)) == INSTANCED_PROGRAM
+                    ? instancedShader : sceneShader;
+            if (nextShader != shader) {
+                shader = nextShader;
+                setupShader(shader, scene);
+                currentMaterial = null;
+            }
+            Mesh mesh = renderQueue.getMesh(i);
+            GameItem gameItem = renderQueue.getItem(i);
+            if (gameItem == null) {
+                // Meshes with enough items draw them instanced, each sub mesh with its material
+                renderInstanced(shader, mesh, scene.getGameMeshes().get(mesh), cameraPos, pixelsPerUnit);
+                currentMaterial = null;
+                continue;
+            }
+            int subMesh = renderQueue.getSubMesh(i);
+            Material material = mesh.getSubMeshes()[subMesh].getMaterial();
+            if (material != null && material != currentMaterial) {
+                setMaterial(shader, material);
+                currentMaterial = material;
+            }
+            shader.modelViewMatrix.set(buildModelViewMatrix(mesh, gameItem));
+            mesh.renderSubMesh(subMesh, renderQueue.getLevel(i));
+        }
+    }
 
+    /**
+     * Queues a draw for each sub mesh of each item, or a single one for all
+     * the items of a mesh drawn instanced.
+     */
+    private void queueMeshes(Scene scene, Vector3f cameraPos, float pixelsPerUnit) {
+        renderQueue.clear();
+        Matrix4f viewMatrix = transformation.getViewMatrix();
+        int meshId = 0;
+        for (Map.Entry<Mesh, List<GameItem>> entry : scene.getGameMeshes().entrySet()) {
+            Mesh mesh = entry.getKey();
+            List<GameItem> gameItems = entry.getValue();
+            SubMesh[] subMeshes = mesh.getSubMeshes();
+            meshId++;
+            if (mesh.drawsInstanced(gameItems.size())) {
+                // Ordered by the material of the first sub mesh
+                renderQueue.add(subMeshKey(INSTANCED_PROGRAM, subMeshes[0].getMaterial(), meshId),
+                        mesh, null, -1, 0);
+                continue;
+            }
+            // The keys of the sub meshes only lack the depth of each item
+            if (subMeshKeys.length < subMeshes.length) {
+                subMeshKeys = new long[subMeshes.length];
+            }
+            for (int i = 0; i < subMeshes.length; i++) {
+                subMeshKeys[i] = subMeshKey(SCENE_PROGRAM, subMeshes[i].getMaterial(), meshId);
+            }
+            for (GameItem gameItem : gameItems) {
+                int level = selectLod(mesh, gameItem, cameraPos, pixelsPerUnit);
+                // Distance along the view direction, which is -z in view coordinates
+                Vector3f position = gameItem.getPosition();
+                float depth = -(viewMatrix.m02() * position.x + viewMatrix.m12() * position.y
+                        + viewMatrix.m22() * position.z + viewMatrix.m32());
+                int quantizedDepth = RenderQueue.quantizeDepth(depth, Z_FAR);
+                for (int i = 0; i < subMeshes.length; i++) {
+                    renderQueue.add(subMeshKeys[i] | quantizedDepth, mesh, gameItem, i, level);
+                }
+            }
+        }
     }
 
-    public void renderScene(Window window, Camera camera, Scene scene) {
-        sceneShaderProgram.bind();
+    private long subMeshKey(int program, Material material, int meshId) {
+        return RenderQueue.key(RenderQueue.PASS_OPAQUE, program, RenderQueue.textureId(material),
+                renderQueue.materialId(material), meshId, 0);
+    }
 
-        Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-        sceneShaderProgram.setUniform("projectionMatrix", projectionMatrix);
+    private void setupShader(SceneShader shader, Scene scene) {
+        shader.program.bind();
 
-        Matrix4f viewMatrix = transformation.getViewMatrix();
+        if (!shader.frameBlock) {
+            shader.projectionMatrix.set(transformation.getProjectionMatrix());
+        }
+        if (!shader.lightBlock) {
+            renderLights(shader, transformation.getViewMatrix(), scene.getSceneLight());
+            shader.fog.set(scene.getFog());
+        }
 
-        SceneLight sceneLight = scene.getSceneLight();
-        renderLights(viewMatrix, sceneLight);
-
-        sceneShaderProgram.setUniform("texture_sampler", 0);
-        sceneShaderProgram.setUniform("fog", scene.getFog());
-        // Render each mesh with the associated game Items
-        Map<Mesh, List<GameItem>> mapMeshes = scene.getGameMeshes();
-        for (Mesh mesh : mapMeshes.keySet()) {
-            sceneShaderProgram.setUniform("material", mesh.getMaterial());
-            mesh.renderList(mapMeshes.get(mesh), (GameItem gameItem) -> {
-                        Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(gameItem, viewMatrix);
-                        sceneShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-                    }
-            );
+        shader.textureSampler.set(0);
+        shader.textureArray.set(TextureArray.TEXTURE_UNIT);
+    }
+
+    private void setMaterial(SceneShader shader, Material material) {
+        if (shader.materialBlock) {
+            sceneBlocks.bindMaterial(material);
+        } else {
+            shader.material.set(material);
+        }
+    }
+
+    private Matrix4f buildModelViewMatrix(Mesh mesh, GameItem gameItem) {
+        Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(gameItem, transformation.getViewMatrix());
+        // Compact meshes store quantized positions, scale them back to object space
+        Matrix4f positionTransform = mesh.getPositionTransform();
+        if (positionTransform != null) {
+            modelViewMatrix.mul(positionTransform);
         }
+        return modelViewMatrix;
+    }
 
-        sceneShaderProgram.unbind();
+    private int selectLod(Mesh mesh, GameItem gameItem, Vector3f cameraPos, float pixelsPerUnit) {
+        Vector3f scale = gameItem.getScale();
+        float maxScale = Math.max(scale.x, Math.max(scale.y, scale.z));
+        float distance = Math.max(gameItem.getPosition().distance(cameraPos), Z_NEAR);
+        return mesh.selectLod(pixelsPerUnit * maxScale / distance, MAX_LOD_PIXEL_ERROR);
+    }
+
+    private void renderInstanced(SceneShader shader, Mesh mesh, List<GameItem> gameItems,
+                                 Vector3f cameraPos, float pixelsPerUnit) {
+        mesh.renderListInstanced(gameItems,
+                (Material material) -> {
+                    if (material != null) {
+                        setMaterial(shader, material);
+                    }
+                },
+                (GameItem gameItem) -> buildModelViewMatrix(mesh, gameItem),
+                (GameItem gameItem) -> selectLod(mesh, gameItem, cameraPos, pixelsPerUnit));
     }
 
     private void renderSkyBox(Window window, Camera camera, Scene scene) {
         skyBoxShaderProgram.bind();
 
-        skyBoxShaderProgram.setUniform("texture_sampler", 0);
+        skyBoxTextureSampler.set(0);
 
-        Matrix4f projectionMatrix = transformation.getProjectionMatrix();
-        skyBoxShaderProgram.setUniform("projectionMatrix", projectionMatrix);
+        if (skyBoxProjectionMatrix != null) {
+            skyBoxProjectionMatrix.set(transformation.getProjectionMatrix());
+        }
         SkyBox skyBox = scene.getSkyBox();
         Matrix4f viewMatrix = transformation.getViewMatrix();
         float tmp1 = viewMatrix.m30();
@@ -135,59 +264,115 @@ public class Renderer3D {
         viewMatrix.m31(0);
         viewMatrix.m32(0);
         Matrix4f modelViewMatrix = transformation.buildModelViewMatrix(skyBox, viewMatrix);
-        skyBoxShaderProgram.setUniform("modelViewMatrix", modelViewMatrix);
-        skyBoxShaderProgram.setUniform("ambientLight", scene.getSceneLight().getSkyBoxLight());
+        skyBoxModelViewMatrix.set(modelViewMatrix);
+        skyBoxAmbientLight.set(scene.getSceneLight().getSkyBoxLight());
 
         scene.getSkyBox().getMesh().render();
 
-        skyBoxShaderProgram.unbind();
-
         viewMatrix.m30(tmp1);
         viewMatrix.m31(tmp2);
         viewMatrix.m32(tmp3);
     }
 
-    private void renderLights(Matrix4f viewMatrix, SceneLight sceneLight) {
+    private void renderLights(SceneShader shader, Matrix4f viewMatrix, SceneLight sceneLight) {
 
-        sceneShaderProgram.setUniform("ambientLight", sceneLight.getAmbientLight());
-        sceneShaderProgram.setUniform("specularPower", specularPower);
+        shader.ambientLight.set(sceneLight.getAmbientLight());
+        shader.specularPower.set(specularPower);
 
         // Process Point Lights
         PointLight[] pointLightList = sceneLight.getPointLightList();
-        int numLights = pointLightList != null ? pointLightList.length : 0;
+        int numLights = pointLightList != null ? Math.min(pointLightList.length, MAX_POINT_LIGHTS) : 0;
         for (int i = 0; i < numLights; i++) {
-            // Get a copy of the point light object and transform its position to view coordinates
-            PointLight currPointLight = new PointLight(pointLightList[i]);
-            Vector3f lightPos = currPointLight.getPosition();
-            Vector4f aux = new Vector4f(lightPos, 1);
-            aux.mul(viewMatrix);
-            lightPos.x = aux.x;
-            lightPos.y = aux.y;
-            lightPos.z = aux.z;
-            sceneShaderProgram.setUniform("pointLights", currPointLight, i);
+            // Transform the light position to view coordinates
+            lightView.set(pointLightList[i].getPosition(), 1).mul(viewMatrix);
+            shader.pointLights[i].set(pointLightList[i], lightViewXyz.set(lightView.x, lightView.y, lightView.z));
         }
 
         // Process Spot Ligths
 
-        // Get a copy of the directional light object and transform its position to view coordinates
-        DirectionalLight currDirLight = new DirectionalLight(sceneLight.getDirectionalLight());
-        Vector4f dir = new Vector4f(currDirLight.getDirection(), 0);
-        dir.mul(viewMatrix);
-        currDirLight.setDirection(new Vector3f(dir.x, dir.y, dir.z));
-        sceneShaderProgram.setUniform("directionalLight", currDirLight);
+        // Transform the directional light direction to view coordinates
+        DirectionalLight dirLight = sceneLight.getDirectionalLight();
+        lightView.set(dirLight.getDirection(), 0).mul(viewMatrix);
+        shader.directionalLight.set(dirLight, lightViewXyz.set(lightView.x, lightView.y, lightView.z));
     }
 
     public void clear() {
         //glClearColor(0.38f,0.14f,0.10f, 0f);
-        glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
+        device().glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT | GL_STENCIL_BUFFER_BIT);
     }
 
     public void cleanup() {
         if (skyBoxShaderProgram != null) {
             skyBoxShaderProgram.cleanup();
         }
-        if (sceneShaderProgram != null) {
-            sceneShaderProgram.cleanup();
+        if (sceneShader != null) {
+            sceneShader.program.cleanup();
+        }
+        if (instancedShader != null) {
+            instancedShader.program.cleanup();
+        }
+        if (sceneBlocks != null) {
+            sceneBlocks.cleanup();
+        }
+    }
+
+    /**
+     * A scene program and the handles of its uniforms, resolved once so the
+     * frames set them without looking names up. The uniforms a block of
+     * {@link SceneBlocks} replaces are null when the program declares it.
+     */
+    private static class SceneShader {
+
+        private final ShaderProgram program;
+        private final boolean frameBlock;
+        private final boolean lightBlock;
+        private final boolean materialBlock;
+        private final Uniform projectionMatrix;
+        /**
+         * Null when the matrix is a per instance attribute
+         */
+        private final Uniform modelViewMatrix;
+        private final Uniform textureSampler;
+        private final Uniform textureArray;
+        private final Uniform.MaterialStruct material;
+        private final Uniform specularPower;
+        private final Uniform ambientLight;
+        private final Uniform.PointLightStruct[] pointLights;
+        private final Uniform.SpotLightStruct[] spotLights;
+        private final Uniform.DirectionalLightStruct directionalLight;
+        private final Uniform.FogStruct fog;
+
+        /**
+         * @param instanced If the model view matrix is a per instance attribute
+         *                  instead of a uniform
+         */
+        private SceneShader(String vertexShader, boolean instanced) throws Exception {
+            // Create shader
+            program = new ShaderProgram();
+            program.createVertexShader(Utils.loadResource(vertexShader));
+            program.createFragmentShader(Utils.loadResource("src/resources/shaders/scene_fragment.fs"));
+            program.link();
+
+            frameBlock = program.bindUniformBlock(SceneBlocks.FRAME_BLOCK, SceneBlocks.FRAME_BINDING);
+            lightBlock = program.bindUniformBlock(SceneBlocks.LIGHT_BLOCK, SceneBlocks.LIGHT_BINDING);
+            materialBlock = program.bindUniformBlock(SceneBlocks.MATERIAL_BLOCK, SceneBlocks.MATERIAL_BINDING);
+
+            // Create uniforms for modelView and projection matrices and texture
+            projectionMatrix = frameBlock ? null : program.createUniform("projectionMatrix");
+            modelViewMatrix = instanced ? null : program.createUniform("modelViewMatrix");
+            textureSampler = program.createUniform("texture_sampler");
+            // Materials on texture array layers sample this one
+            textureArray = program.createOptionalUniform("texture_array");
+            // Create uniform for material
+            material = materialBlock ? null : program.createMaterialUniform("material");
+            // Create lighting related uniforms
+            specularPower = lightBlock ? null : program.createUniform("specularPower");
+            ambientLight = lightBlock ? null : program.createUniform("ambientLight");
+            pointLights = lightBlock ? null : program.createPointLightListUniform("pointLights", MAX_POINT_LIGHTS);
+            spotLights = lightBlock ? null : program.createSpotLightListUniform("spotLights", MAX_SPOT_LIGHTS);
+            directionalLight = lightBlock ? null : program.createDirectionalLightUniform("directionalLight");
+            // Create uniform for fog
+            fog = lightBlock ? null : program.createFogUniform("fog");
         }
     }
 }
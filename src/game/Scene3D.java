@@ -13,6 +13,7 @@ import org.lwjgl.BufferUtils;
 
 import java.nio.DoubleBuffer;
 
+import static engine.graphix.Graphics.device;
 import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL13.GL_MULTISAMPLE;
@@ -36,6 +37,10 @@ public class Scene3D implements IGameLogic {
     private DoubleBuffer posx;
     private DoubleBuffer posy;
     private Mesh seaMesh;
+    private TextureLoader textureLoader;
+    private TextureCache textureCache;
+    private TextureAtlas textureAtlas;
+    private static final long TEXTURE_UPLOAD_BUDGET = 2_000_000L;
 
     Scene3D(){
         renderer = new Renderer3D();
@@ -52,32 +57,39 @@ public class Scene3D implements IGameLogic {
     public void init(Window window) throws Exception {
         hud.init();
         renderer.init(window);
+        // Textures are decoded in the background, meshes show a placeholder until they arrive
+        textureLoader = new TextureLoader();
+        // BC7 keeps smooth gradients that BC1 bands, compressed once and then read from the disk cache
+        if (!textureLoader.setCompression(BlockCompressor.Format.BC7, BlockCompressor.Quality.FAST)) {
+            textureLoader.setCompression(BlockCompressor.Format.BC1, BlockCompressor.Quality.HIGH);
+        }
+        textureCache = new TextureCache(TextureCache.DEFAULT_BUDGET, textureLoader);
+        MTLLoader.setTextureCache(textureCache);
 
         scene = new Scene();
 
         //load meshes and create game items
-        SphereMesh s = new SphereMesh(1f);
-        Mesh sphereMesh = new Mesh(s.getVertices(),s.getTexCoords(), s.getNormals(), s.getIndices());
+        Mesh sphereMesh = new SphereMesh(1f).getBuilder().optimize().build();
         Material sand = new Material(new Vector4f(0.9f, 0.85f, 0.5f,1f), 0.25f );
         sphereMesh.setMaterial(sand);
 
-        PlaneMesh plane = new PlaneMesh();
-        seaMesh = new Mesh(plane.getPositions(), plane.getTexCoords(),plane.getNormals(), plane.getIndices());
-        Material seaMaterial = new Material(new Texture("src/resources/textures/sea.png"));
+        seaMesh = new PlaneMesh().getBuilder().build();
+        Material seaMaterial = new Material(textureCache.acquire("src/resources/textures/sea.png"));
         //Material blue = new Material(new Vector4f(0.0f,0.4f,0.6f, 1f), reflectance);
         seaMesh.setMaterial(seaMaterial);
 
-        Mesh palmMesh = OBJLoader.loadMesh("src/resources/models/palm_tree.obj");
-        Material palmMaterial = new Material(new Texture("src/resources/models/palm-tex3.png"));
-        palmMesh.setMaterial(palmMaterial);
-
-        Mesh pierMesh = OBJLoader.loadMesh("src/resources/models/pier.obj");
-        Material pierMaterial = new Material(new Texture("src/resources/models/pier-tex.png"));
-        pierMesh.setMaterial(pierMaterial);
+        // The model textures share one atlas page, the models draw without rebinding textures
+        textureAtlas = new TextureAtlas();
+        TextureAtlas.Region palmTexture = textureAtlas.add("src/resources/models/palm-tex3.png");
+        TextureAtlas.Region pierTexture = textureAtlas.add("src/resources/models/pier-tex.png");
+        TextureAtlas.Region lampTexture = textureAtlas.add("src/resources/models/streetlamp-tex.png");
+        textureAtlas.build(textureCache);
 
-        Mesh lampMesh = OBJLoader.loadMesh("src/resources/models/streetlamp.obj");
-        Material lampMaterial = new Material(new Texture("src/resources/models/streetlamp-tex.png"));
-        lampMesh.setMaterial(lampMaterial);
+        Mesh palmMesh = OBJLoader.loadMesh("src/resources/models/palm_tree.obj", true, true, palmTexture);
+        Mesh pierMesh = OBJLoader.loadMesh("src/resources/models/pier.obj", true, true, pierTexture);
+        Mesh lampMesh = OBJLoader.loadMesh("src/resources/models/streetlamp.obj", true, true, lampTexture);
+        // Palms draw instanced once there are enough of them
+        palmMesh.setInstanced(true);
 
         //make game item objects
         GameItem palm1 = new GameItem(palmMesh);
@@ -150,12 +162,9 @@ public class Scene3D implements IGameLogic {
                 lightLamp = 0.0f;
             lightLamp += 0.01f;
         } else if (window.isKeyPressed(GLFW_KEY_1)){
-            Texture sea = new Texture("src/resources/textures/sea.png");
-            seaMesh.getMaterial().setTexture(sea);
-
+            setSeaTexture("src/resources/textures/sea.png");
         } else if (window.isKeyPressed(GLFW_KEY_2)) {
-            Texture sea = new Texture("src/resources/textures/sea2.png");
-            seaMesh.getMaterial().setTexture(sea);
+            setSeaTexture("src/resources/textures/sea2.png");
         }
 
         // HUD toggle
@@ -224,11 +233,11 @@ public class Scene3D implements IGameLogic {
                                 GameSettings.toggleMSAA();
                                 if (GameSettings.isMSAA()) {
                                     glfwWindowHint(GLFW_SAMPLES, 4);
-                                    glEnable(GL_MULTISAMPLE);
+                                    device().glEnable(GL_MULTISAMPLE);
                                 }
                                 else {
                                     glfwWindowHint(GLFW_SAMPLES, 0);
-                                    glDisable(GL_MULTISAMPLE);
+                                    device().glDisable(GL_MULTISAMPLE);
                                 }
                                 break;
                             case 5:
@@ -304,6 +313,7 @@ public class Scene3D implements IGameLogic {
 
     @Override
     public void render(Window window) {
+        textureLoader.processUploads(TEXTURE_UPLOAD_BUDGET);
         renderer.render(window, camera, scene);
         if (GameSettings.isHUD())
             hud.render(window);
@@ -313,11 +323,26 @@ public class Scene3D implements IGameLogic {
     public void cleanup() {
         renderer.cleanup();
         scene.cleanup();
+        if (textureAtlas != null) {
+            textureAtlas.cleanup();
+        }
+        if (textureCache != null) {
+            textureCache.cleanup();
+            textureLoader.cleanup();
+        }
         if (hud != null) {
             hud.cleanup();
         }
     }
 
+    private void setSeaTexture(String fileName) throws Exception {
+        // Both sea textures stay in the cache, switching back and forth does not reload them
+        Material material = seaMesh.getMaterial();
+        Texture previous = material.getTexture();
+        material.setTexture(textureCache.acquire(fileName));
+        previous.cleanup();
+    }
+
     private void setUpLight() {
         SceneLight sceneLight = new SceneLight();
         scene.setSceneLight(sceneLight);
@@ -7,7 +7,11 @@ layout (location=2) in vec3 vertexNormal;
 out vec2 outTexCoord;
 
 uniform mat4 modelViewMatrix;
-uniform mat4 projectionMatrix;
+// Shared by the programs, see SceneBlocks
+layout (std140) uniform FrameBlock
+{
+    mat4 projectionMatrix;
+};
 
 void main()
 {
@@ -0,0 +1,26 @@
+#version 330
+
+layout (location=0) in vec3 position;
+layout (location=1) in vec2 texCoord;
+layout (location=2) in vec3 vertexNormal;
+// One model view matrix per instance, a column per location from 3 to 6
+layout (location=3) in mat4 modelViewInstancedMatrix;
+
+out vec2 outTexCoord;
+out vec3 mvVertexNormal;
+out vec3 mvVertexPos;
+
+// Shared by the programs, see SceneBlocks
+layout (std140) uniform FrameBlock
+{
+    mat4 projectionMatrix;
+};
+
+void main()
+{
+    vec4 mvPos = modelViewInstancedMatrix * vec4(position, 1.0);
+    gl_Position = projectionMatrix * mvPos;
+    outTexCoord = texCoord;
+    mvVertexNormal = normalize(modelViewInstancedMatrix * vec4(vertexNormal, 0.0)).xyz;
+    mvVertexPos = mvPos.xyz;
+}
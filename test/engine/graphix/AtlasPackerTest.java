@@ -0,0 +1,84 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AtlasPackerTest {
+
+    private static final int SIZE = 256;
+
+    @Test
+    public void rectanglesStayInsideThePageWithoutOverlapping() {
+        Random random = new Random(11);
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE);
+        List<int[]> packed = new ArrayList<>();
+        int[] position = new int[2];
+        int failures = 0;
+        // Keeps going well past the first rectangle that does not fit
+        while (failures < 50) {
+            int width = 1 + random.nextInt(40);
+            int height = 1 + random.nextInt(40);
+            if (!packer.pack(width, height, position)) {
+                failures++;
+                continue;
+            }
+            int[] rect = {position[0], position[1], width, height};
+            assertTrue(rect[0] >= 0 && rect[1] >= 0 && rect[0] + width <= SIZE && rect[1] + height <= SIZE,
+                    width + "x" + height + " at " + rect[0] + ", " + rect[1]);
+            for (int[] other : packed) {
+                boolean apart = rect[0] + rect[2] <= other[0] || other[0] + other[2] <= rect[0]
+                        || rect[1] + rect[3] <= other[1] || other[1] + other[3] <= rect[1];
+                assertTrue(apart, "overlap at " + rect[0] + ", " + rect[1]);
+            }
+            packed.add(rect);
+        }
+        long area = 0;
+        for (int[] rect : packed) {
+            area += (long) rect[2] * rect[3];
+        }
+        assertEquals(area / (float) (SIZE * SIZE), packer.getOccupancy(), 1e-6f);
+        assertTrue(packer.getOccupancy() > 0.5f, "occupancy " + packer.getOccupancy());
+    }
+
+    @Test
+    public void aFullPageRejectsRectangles() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE);
+        int[] position = {-1, -1};
+        assertFalse(packer.pack(SIZE + 1, 1, position));
+        assertFalse(packer.pack(1, SIZE + 1, position));
+        // Nothing was reserved or written
+        assertArrayEquals(new int[]{-1, -1}, position);
+        assertEquals(0, packer.getOccupancy());
+
+        for (int i = 0; i < 16; i++) {
+            assertTrue(packer.pack(SIZE, SIZE / 16, position));
+            assertEquals(i * SIZE / 16, position[1]);
+        }
+        assertEquals(1, packer.getOccupancy());
+        assertFalse(packer.pack(1, 1, position));
+    }
+
+    @Test
+    public void rowsFillBeforeTheSkylineRises() {
+        AtlasPacker packer = new AtlasPacker(SIZE, SIZE);
+        int[] position = new int[2];
+        for (int i = 0; i < 4; i++) {
+            assertTrue(packer.pack(SIZE / 4, 32, position));
+            assertArrayEquals(new int[]{i * SIZE / 4, 0}, position);
+        }
+        // The full row is flat again, the next one starts on the left
+        assertTrue(packer.pack(SIZE / 2, 16, position));
+        assertArrayEquals(new int[]{0, 32}, position);
+        // Resting on the lower half of the row ends lowest
+        assertTrue(packer.pack(SIZE / 2, 32, position));
+        assertArrayEquals(new int[]{SIZE / 2, 32}, position);
+    }
+}
@@ -0,0 +1,142 @@
+package engine.graphix;
+
+import engine.graphix.BlockCompressor.Format;
+import engine.graphix.BlockCompressor.Quality;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlockCompressorTest {
+
+    private static final int SIZE = 256;
+
+    /**
+     * Lowest PSNR in decibels accepted for every format and quality, a few
+     * dB under what they reach on these images
+     */
+    private static final double MIN_PSNR_OPAQUE = 38.0;
+
+    private static final double MIN_PSNR_ALPHA = 42.0;
+
+    /**
+     * Smooth colours with a little noise and an opaque alpha channel
+     */
+    private static ByteBuffer photo() {
+        ByteBuffer image = ByteBuffer.allocateDirect(SIZE * SIZE * 4);
+        Random random = new Random(1);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int p = (y * SIZE + x) * 4;
+                double v = Math.sin(x * 0.08) * Math.cos(y * 0.12);
+                image.put(p, (byte) (128 + 100 * v + random.nextInt(9) - 4));
+                image.put(p + 1, (byte) (x * 255 / SIZE));
+                image.put(p + 2, (byte) (200 - 150 * v * v));
+                image.put(p + 3, (byte) 255);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Gradients with a smoothly varying alpha channel
+     */
+    private static ByteBuffer alphaRamp() {
+        ByteBuffer image = ByteBuffer.allocateDirect(SIZE * SIZE * 4);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int p = (y * SIZE + x) * 4;
+                image.put(p, (byte) (x * 255 / SIZE));
+                image.put(p + 1, (byte) (y * 255 / SIZE));
+                image.put(p + 2, (byte) ((x + y) * 255 / (2 * SIZE)));
+                image.put(p + 3, (byte) (128 + 127 * Math.sin(x * 0.05)));
+            }
+        }
+        return image;
+    }
+
+    private static double roundTrip(Format format, Quality quality, ByteBuffer image, int width, int height) {
+        ByteBuffer blocks = ByteBuffer.allocateDirect(format.computeSize(width, height));
+        new BlockCompressor(format, quality).encode(image, width, height, blocks);
+        ByteBuffer decoded = ByteBuffer.allocateDirect(width * height * 4);
+        BlockCompressor.decode(format, blocks, width, height, decoded);
+        return BlockCompressor.computePsnr(image, decoded, width, height);
+    }
+
+    @Test
+    public void opaqueImagesKeepTheirQuality() {
+        ByteBuffer image = photo();
+        for (Format format : Format.values()) {
+            for (Quality quality : Quality.values()) {
+                double psnr = roundTrip(format, quality, image, SIZE, SIZE);
+                assertTrue(psnr > MIN_PSNR_OPAQUE, format + " " + quality + " PSNR " + psnr);
+            }
+        }
+    }
+
+    @Test
+    public void alphaChannelsKeepTheirQuality() {
+        ByteBuffer image = alphaRamp();
+        for (Format format : new Format[]{Format.BC3, Format.BC7}) {
+            for (Quality quality : Quality.values()) {
+                double psnr = roundTrip(format, quality, image, SIZE, SIZE);
+                assertTrue(psnr > MIN_PSNR_ALPHA, format + " " + quality + " PSNR " + psnr);
+            }
+        }
+    }
+
+    @Test
+    public void bc7BeatsBc3() {
+        ByteBuffer image = alphaRamp();
+        for (Quality quality : Quality.values()) {
+            assertTrue(roundTrip(Format.BC7, quality, image, SIZE, SIZE)
+                    > roundTrip(Format.BC3, quality, image, SIZE, SIZE), quality.toString());
+        }
+    }
+
+    @Test
+    public void highQualityIsNotWorseThanFast() {
+        ByteBuffer image = photo();
+        for (Format format : Format.values()) {
+            assertTrue(roundTrip(format, Quality.HIGH, image, SIZE, SIZE)
+                    >= roundTrip(format, Quality.FAST, image, SIZE, SIZE), format.toString());
+        }
+    }
+
+    @Test
+    public void flatBlocksAreExact() {
+        ByteBuffer image = ByteBuffer.allocateDirect(8 * 8 * 4);
+        for (int i = 0; i < 8 * 8 * 4; i++) {
+            image.put(i, (byte) 255);
+        }
+        for (Format format : Format.values()) {
+            assertEquals(Double.POSITIVE_INFINITY, roundTrip(format, Quality.HIGH, image, 8, 8), format.toString());
+        }
+    }
+
+    @Test
+    public void partialBlocksAtTheEdgesAreDecoded() {
+        int width = 37;
+        int height = 13;
+        ByteBuffer image = ByteBuffer.allocateDirect(width * height * 4);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int p = (y * width + x) * 4;
+                image.put(p, (byte) (x * 6));
+                image.put(p + 1, (byte) (y * 8));
+                image.put(p + 2, (byte) 90);
+                image.put(p + 3, (byte) 255);
+            }
+        }
+        for (Format format : Format.values()) {
+            assertEquals(((width + 3) / 4) * ((height + 3) / 4) * format.getBlockSize(),
+                    format.computeSize(width, height));
+            // Most blocks are cut by an edge, their repeated texels pull the fit away from the rest
+            double psnr = roundTrip(format, Quality.HIGH, image, width, height);
+            assertTrue(psnr > MIN_PSNR_OPAQUE - 3.0, format + " PSNR " + psnr);
+        }
+    }
+}
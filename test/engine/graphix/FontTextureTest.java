@@ -0,0 +1,89 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.awt.Font;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Keeps the glyph page of a small font in a temporary directory, rasterized
+ * as plain coverage so the pages are quick to build.
+ */
+public class FontTextureTest {
+
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 16);
+
+    private static final int PAGE_SIZE = 128;
+
+    private static final String GLYPHS = "ABCDEFGHIJ";
+
+    /**
+     * Offset of the glyph table in the file, each glyph takes 16 bytes.
+     */
+    private static final int TABLE_OFFSET = 32;
+
+    @TempDir
+    Path directory;
+
+    @BeforeEach
+    public void setUp() {
+        Graphics.setDevice(new RecordingDevice(false));
+    }
+
+    @Test
+    public void aStoredPageContinuesWhereItStopped() throws Exception {
+        FontTexture written = create();
+        written.preload(GLYPHS);
+        written.save();
+        FontTexture.CharInfo next = written.getCharInfo('Z');
+
+        FontTexture loaded = create();
+        assertEquals(GLYPHS.length(), loaded.getGlyphCount());
+        for (char c : GLYPHS.toCharArray()) {
+            assertEquals(written.getCharInfo(c).getStartX(), loaded.getCharInfo(c).getStartX());
+            assertEquals(written.getCharInfo(c).getStartY(), loaded.getCharInfo(c).getStartY());
+        }
+        FontTexture.CharInfo z = loaded.getCharInfo('Z');
+        assertEquals(next.getStartX(), z.getStartX());
+        assertEquals(next.getStartY(), z.getStartY());
+    }
+
+    @Test
+    public void aMismatchedPageStartsFromAnEmptyPacker() throws Exception {
+        FontTexture written = create();
+        written.preload(GLYPHS);
+        written.save();
+        // Moves a glyph in the middle of the table, the glyphs before it still match
+        Path file = pageFile();
+        ByteBuffer page = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.nativeOrder());
+        int entry = TABLE_OFFSET + GLYPHS.length() / 2 * 16;
+        page.putInt(entry + 4, page.getInt(entry + 4) + 1);
+        Files.write(file, page.array());
+
+        FontTexture loaded = create();
+        assertEquals(0, loaded.getGlyphCount());
+        // Nothing packed during the replay is left behind on the page
+        FontTexture.CharInfo first = loaded.getCharInfo('Z');
+        assertEquals(0, first.getStartX());
+        assertEquals(0, first.getStartY());
+    }
+
+    private FontTexture create() throws Exception {
+        return new FontTexture(FONT, "ISO-8859-1", PAGE_SIZE, directory.toString(), 0);
+    }
+
+    private Path pageFile() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(".glyphs")).findFirst().orElseThrow();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MeshOptimizerTest {
+
+    private static final String[] MODELS = {"palm_tree", "pier", "streetlamp"};
+
+    @Test
+    public void theCacheOrderKeepsEveryTriangle() throws Exception {
+        for (String model : MODELS) {
+            VertexWelder mesh = load(model);
+            int[] optimized = MeshOptimizer.optimizeVertexCache(mesh.getIndices(), mesh.getVertexCount());
+            assertArrayEquals(triangles(mesh.getIndices()), triangles(optimized), model);
+        }
+    }
+
+    @Test
+    public void theFetchOrderKeepsEveryTriangle() throws Exception {
+        for (String model : MODELS) {
+            VertexWelder mesh = load(model);
+            int[] indices = MeshOptimizer.optimizeVertexCache(mesh.getIndices(), mesh.getVertexCount());
+            int[] remapped = indices.clone();
+            int[] remap = MeshOptimizer.optimizeVertexFetch(remapped, mesh.getVertexCount());
+            // Vertices are numbered in the order the indices first use them
+            int next = 0;
+            for (int i = 0; i < remapped.length; i++) {
+                assertEquals(remap[indices[i]], remapped[i]);
+                assertTrue(remapped[i] <= next, model);
+                next = Math.max(next, remapped[i] + 1);
+            }
+            float[] positions = MeshOptimizer.remapVertices(mesh.getPositions(), 3, remap);
+            for (int i = 0; i < indices.length; i++) {
+                for (int c = 0; c < 3; c++) {
+                    assertEquals(mesh.getPositions()[indices[i] * 3 + c], positions[remapped[i] * 3 + c]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void theBundledModelsMissTheCacheLess() throws Exception {
+        for (String model : MODELS) {
+            VertexWelder mesh = load(model);
+            MeshOptimizer optimizer = new MeshOptimizer(mesh.getPositions(), mesh.getTexCoords(), mesh.getNormals(),
+                    mesh.getIndices());
+            MeshOptimizer.Stats before = optimizer.getStatsBefore();
+            MeshOptimizer.Stats after = optimizer.getStatsAfter();
+            assertTrue(after.getAcmr() < before.getAcmr(), model + " " + optimizer);
+            assertTrue(after.getAtvr() < before.getAtvr(), model + " " + optimizer);
+        }
+    }
+
+    @Test
+    public void aShuffledGridIsRestored() {
+        int size = 64;
+        int[] indices = shuffle(grid(size), new Random(3));
+        int vertexCount = size * size;
+        MeshOptimizer.Stats before = MeshOptimizer.analyze(indices, vertexCount);
+        int[] optimized = MeshOptimizer.optimizeVertexCache(indices, vertexCount);
+        MeshOptimizer.Stats after = MeshOptimizer.analyze(optimized, vertexCount);
+        assertArrayEquals(triangles(indices), triangles(optimized));
+        // A random order transforms almost every vertex of every triangle
+        assertTrue(before.getAcmr() > 2.5f, before.toString());
+        // A regular grid can get down to about one vertex per two triangles
+        assertTrue(after.getAcmr() < 0.8f, after.toString());
+        assertTrue(after.getAtvr() < 1.6f, after.toString());
+    }
+
+    @Test
+    public void rangesKeepTheirTriangles() {
+        int size = 32;
+        int[] indices = grid(size);
+        int half = indices.length / 6 * 3;
+        int[] offsets = {0, half, indices.length};
+        float[] positions = new float[size * size * 3];
+        // An extra vertex no triangle uses
+        float[] texCoords = new float[(size * size + 1) * 2];
+        float[] normals = new float[(size * size + 1) * 3];
+        positions = Arrays.copyOf(positions, (size * size + 1) * 3);
+        for (int v = 0; v < size * size; v++) {
+            positions[v * 3] = v % size;
+            positions[v * 3 + 2] = v / size;
+        }
+        MeshOptimizer optimizer = new MeshOptimizer(positions, texCoords, normals, indices, offsets);
+        assertEquals(size * size, optimizer.getPositions().length / 3);
+        for (int r = 0; r + 1 < offsets.length; r++) {
+            assertArrayEquals(positionTriangles(positions, Arrays.copyOfRange(indices, offsets[r], offsets[r + 1])),
+                    positionTriangles(optimizer.getPositions(),
+                            Arrays.copyOfRange(optimizer.getIndices(), offsets[r], offsets[r + 1])));
+        }
+    }
+
+    static VertexWelder load(String model) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get("src/resources/models/" + model + ".obj")));
+        OBJParser parser = new OBJParser();
+        parser.parse(buffer, 0, buffer.limit());
+        return new VertexWelder(parser.getPositions(), parser.getTexCoords(), parser.getNormals(),
+                parser.getFaceIndices());
+    }
+
+    /**
+     * Two triangles per cell of a grid of <code>size</code> vertices a side,
+     * in row order.
+     */
+    static int[] grid(int size) {
+        int[] indices = new int[(size - 1) * (size - 1) * 6];
+        int i = 0;
+        for (int y = 0; y < size - 1; y++) {
+            for (int x = 0; x < size - 1; x++) {
+                int a = y * size + x;
+                indices[i++] = a;
+                indices[i++] = a + size;
+                indices[i++] = a + 1;
+                indices[i++] = a + 1;
+                indices[i++] = a + size;
+                indices[i++] = a + size + 1;
+            }
+        }
+        return indices;
+    }
+
+    private static int[] shuffle(int[] indices, Random random) {
+        int[] result = indices.clone();
+        for (int t = result.length / 3 - 1; t > 0; t--) {
+            int other = random.nextInt(t + 1);
+            for (int c = 0; c < 3; c++) {
+                int swap = result[t * 3 + c];
+                result[t * 3 + c] = result[other * 3 + c];
+                result[other * 3 + c] = swap;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The triangles as sorted keys, each rotated to start at its
+     * lowest index so the winding is kept
+     */
+    private static long[] triangles(int[] indices) {
+        long[] keys = new long[indices.length / 3];
+        for (int t = 0; t < keys.length; t++) {
+            int a = indices[t * 3], b = indices[t * 3 + 1], c = indices[t * 3 + 2];
+            while (a > b || a > c) {
+                int swap = a;
+                a = b;
+                b = c;
+                c = swap;
+            }
+            keys[t] = ((long) a << 42) | ((long) b << 21) | c;
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static String[] positionTriangles(float[] positions, int[] indices) {
+        String[] result = new String[indices.length / 3];
+        for (int t = 0; t < result.length; t++) {
+            StringBuilder key = new StringBuilder();
+            int first = 0;
+            for (int c = 1; c < 3; c++) {
+                if (Arrays.compare(position(positions, indices[t * 3 + c]), position(positions, indices[t * 3 + first])) < 0) {
+                    first = c;
+                }
+            }
+            for (int c = 0; c < 3; c++) {
+                key.append(Arrays.toString(position(positions, indices[t * 3 + (first + c) % 3])));
+            }
+            result[t] = key.toString();
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static float[] position(float[] positions, int v) {
+        return Arrays.copyOfRange(positions, v * 3, v * 3 + 3);
+    }
+}
@@ -0,0 +1,170 @@
+package engine.graphix;
+
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+
+public class MeshQuantizerTest {
+
+    private static final int VERTICES = 20000;
+
+    /**
+     * Half a step of unsigned normalized 16 bit values
+     */
+    private static final float POSITION_TOLERANCE = 0.5f / 0xFFFF;
+
+    /**
+     * Half the spacing of half floats in [0.5, 1), the widest gaps in [0, 1]
+     */
+    private static final float TEX_COORD_TOLERANCE = 0x1p-12f;
+
+    /**
+     * Half a step of unsigned normalized 16 bit values
+     */
+    private static final float UNIT_TEX_COORD_TOLERANCE = 0.5f / 0xFFFF;
+
+    /**
+     * Half a step of signed normalized bytes
+     */
+    private static final float NORMAL_TOLERANCE = 0.5f / Byte.MAX_VALUE;
+
+    private final float[] positions = new float[VERTICES * 3];
+
+    private final float[] texCoords = new float[VERTICES * 2];
+
+    private final float[] normals = new float[VERTICES * 3];
+
+    private final int[] indices = new int[VERTICES * 3];
+
+    public MeshQuantizerTest() {
+        Random random = new Random(7);
+        Vector3f normal = new Vector3f();
+        for (int i = 0; i < VERTICES; i++) {
+            positions[i * 3] = -40.0f + random.nextFloat() * 100.0f;
+            positions[i * 3 + 1] = 3.0f + random.nextFloat() * 20.0f;
+            positions[i * 3 + 2] = -5.0f + random.nextFloat() * 10.0f;
+            texCoords[i * 2] = random.nextFloat();
+            texCoords[i * 2 + 1] = random.nextFloat();
+            // Not unit length, the quantizer normalizes them
+            normal.set(random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f)
+                    .mul(1.0f + random.nextFloat() * 3.0f);
+            normals[i * 3] = normal.x;
+            normals[i * 3 + 1] = normal.y;
+            normals[i * 3 + 2] = normal.z;
+        }
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = random.nextInt(VERTICES);
+        }
+    }
+
+    @Test
+    public void positionsAreWithinHalfAStepOfTheExtent() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices);
+        float extent = 100.0f;
+        float[] decoded = new float[3];
+        float maxError = 0;
+        for (int i = 0; i < VERTICES; i++) {
+            quantizer.decodePosition(i, decoded);
+            for (int j = 0; j < 3; j++) {
+                maxError = Math.max(maxError, Math.abs(decoded[j] - positions[i * 3 + j]));
+            }
+        }
+        // Plus the rounding of the float math of the decode
+        assertTrue(maxError <= extent * (POSITION_TOLERANCE + 1e-6f), "position error " + maxError);
+    }
+
+    @Test
+    public void positionTransformMapsTheUnitCubeToTheBounds() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices);
+        Matrix4f transform = quantizer.getPositionTransform(new Matrix4f());
+        float[] decoded = new float[3];
+        Vector3f normalized = new Vector3f();
+        VertexFormat format = quantizer.getFormat();
+        for (int i = 0; i < VERTICES; i += 97) {
+            quantizer.decodePosition(i, decoded);
+            normalized.set(format.get(quantizer.getVertices(), i, 0, 0), format.get(quantizer.getVertices(), i, 0, 1),
+                    format.get(quantizer.getVertices(), i, 0, 2));
+            transform.transformPosition(normalized);
+            assertEquals(decoded[0], normalized.x, 1e-4f);
+            assertEquals(decoded[1], normalized.y, 1e-4f);
+            assertEquals(decoded[2], normalized.z, 1e-4f);
+        }
+    }
+
+    @Test
+    public void texCoordsAreWithinHalfAHalfFloatStep() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices);
+        float[] decoded = new float[2];
+        float maxError = 0;
+        for (int i = 0; i < VERTICES; i++) {
+            quantizer.decodeTexCoord(i, decoded);
+            maxError = Math.max(maxError, Math.abs(decoded[0] - texCoords[i * 2]));
+            maxError = Math.max(maxError, Math.abs(decoded[1] - texCoords[i * 2 + 1]));
+        }
+        assertTrue(maxError <= TEX_COORD_TOLERANCE, "texture coordinate error " + maxError);
+    }
+
+    @Test
+    public void unitTexCoordsStayWellInsideATexelOfAnAtlasPage() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices, true);
+        assertEquals(VertexFormat.COMPACT_UNIT_UV, quantizer.getFormat());
+        assertEquals(VertexFormat.COMPACT.getStride(), quantizer.getFormat().getStride());
+        float[] decoded = new float[2];
+        float maxError = 0;
+        for (int i = 0; i < VERTICES; i++) {
+            quantizer.decodeTexCoord(i, decoded);
+            maxError = Math.max(maxError, Math.abs(decoded[0] - texCoords[i * 2]));
+            maxError = Math.max(maxError, Math.abs(decoded[1] - texCoords[i * 2 + 1]));
+        }
+        assertTrue(maxError <= UNIT_TEX_COORD_TOLERANCE + 1e-7f, "texture coordinate error " + maxError);
+        // Under a fiftieth of a texel on a 2048 page, half floats are off by up to half a texel
+        assertTrue(maxError * 2048 < 0.02f, "texture coordinate error " + maxError * 2048 + " texels");
+    }
+
+    @Test
+    public void normalsAreWithinHalfAByteStepOfTheDirection() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices);
+        float[] decoded = new float[3];
+        Vector3f expected = new Vector3f();
+        float maxError = 0;
+        double maxAngle = 0;
+        for (int i = 0; i < VERTICES; i++) {
+            quantizer.decodeNormal(i, decoded);
+            expected.set(normals[i * 3], normals[i * 3 + 1], normals[i * 3 + 2]).normalize();
+            maxError = Math.max(maxError, Math.abs(decoded[0] - expected.x));
+            maxError = Math.max(maxError, Math.abs(decoded[1] - expected.y));
+            maxError = Math.max(maxError, Math.abs(decoded[2] - expected.z));
+            maxAngle = Math.max(maxAngle, expected.angle(new Vector3f(decoded[0], decoded[1], decoded[2])));
+        }
+        assertTrue(maxError <= NORMAL_TOLERANCE + 1e-6f, "normal error " + maxError);
+        assertTrue(Math.toDegrees(maxAngle) < 1.0, "normal angle " + Math.toDegrees(maxAngle));
+    }
+
+    @Test
+    public void vertexDataIsHalvedAndIndicesAreShort() {
+        MeshQuantizer quantizer = new MeshQuantizer(positions, texCoords, normals, indices);
+        assertEquals(GL_UNSIGNED_SHORT, quantizer.getIndexType());
+        assertEquals(VERTICES * VertexFormat.FLOAT.getStride() / 2, quantizer.getVertices().limit());
+        assertEquals(indices.length * Short.BYTES, quantizer.getIndices().limit());
+        for (int i = 0; i < indices.length; i++) {
+            assertEquals(indices[i], quantizer.getIndices().getShort(i * Short.BYTES) & 0xFFFF);
+        }
+    }
+
+    @Test
+    public void indicesStayIntPast65536Vertices() {
+        int count = 0x10001;
+        int[] wide = {0, count / 2, count - 1};
+        MeshQuantizer quantizer = new MeshQuantizer(new float[count * 3], new float[count * 2],
+                new float[count * 3], wide);
+        assertEquals(GL_UNSIGNED_INT, quantizer.getIndexType());
+        assertEquals(count - 1, quantizer.getIndices().getInt(2 * Integer.BYTES));
+    }
+}
@@ -0,0 +1,245 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MeshSimplifierTest {
+
+    private static final String[] MODELS = {"palm_tree", "pier", "streetlamp"};
+
+    /**
+     * Vertices along each side of the test grid
+     */
+    private static final int SIZE = 48;
+
+    /**
+     * Column where the grid has a texture seam, its vertices are doubled
+     */
+    private static final int SEAM = 20;
+
+    @Test
+    public void eachLevelHasAtMostHalfTheTriangles() throws Exception {
+        for (Simplified mesh : meshes()) {
+            MeshLod[] lods = mesh.simplifier.getLods();
+            for (int level = 1; level < lods.length; level++) {
+                assertTrue(lods[level].getIndexCount() * 2 <= lods[level - 1].getIndexCount(),
+                        mesh.name + " level " + level + ": " + lods[level].getIndexCount() / 3 + " of "
+                                + lods[level - 1].getIndexCount() / 3 + " triangles");
+            }
+        }
+        assertTrue(grid().getLods().length >= 3);
+    }
+
+    @Test
+    public void errorsNeverDecrease() throws Exception {
+        for (Simplified mesh : meshes()) {
+            MeshLod[] lods = mesh.simplifier.getLods();
+            assertEquals(0.0f, lods[0].getError());
+            for (int level = 1; level < lods.length; level++) {
+                assertTrue(lods[level].getError() >= lods[level - 1].getError(), mesh.name + " level " + level);
+            }
+        }
+    }
+
+    @Test
+    public void noTriangleIsTurnedOver() throws Exception {
+        for (Simplified mesh : meshes()) {
+            MeshSimplifier simplifier = mesh.simplifier;
+            float[] positions = mesh.positions;
+            // Area weighted normals of the full detail mesh around each vertex
+            int[] full = indices(simplifier, simplifier.getLods()[0]);
+            float[] reference = new float[positions.length];
+            for (int t = 0; t < full.length / 3; t++) {
+                float[] n = normal(positions, full[t * 3], full[t * 3 + 1], full[t * 3 + 2]);
+                for (int k = 0; k < 3; k++) {
+                    for (int c = 0; c < 3; c++) {
+                        reference[full[t * 3 + k] * 3 + c] += n[c];
+                    }
+                }
+            }
+            for (MeshLod lod : simplifier.getLods()) {
+                int[] level = indices(simplifier, lod);
+                for (int t = 0; t < level.length / 3; t++) {
+                    float[] n = normal(positions, level[t * 3], level[t * 3 + 1], level[t * 3 + 2]);
+                    float dot = 0;
+                    for (int k = 0; k < 3; k++) {
+                        for (int c = 0; c < 3; c++) {
+                            dot += n[c] * reference[level[t * 3 + k] * 3 + c];
+                        }
+                    }
+                    assertTrue(dot > 0, mesh.name + " triangle " + t + " of level " + Arrays.asList(simplifier.getLods()).indexOf(lod));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void seamsStayWhereTheyAre() {
+        float[] positions = gridPositions();
+        MeshSimplifier simplifier = grid();
+        float seamX = positions[SEAM * 3];
+        for (MeshLod lod : simplifier.getLods()) {
+            int[] level = indices(simplifier, lod);
+            boolean[] used = new boolean[positions.length / 3];
+            for (int t = 0; t < level.length / 3; t++) {
+                // A triangle uses the copy of the seam vertices of its own side, and does not cross the seam
+                boolean left = false;
+                boolean right = false;
+                for (int k = 0; k < 3; k++) {
+                    int v = level[t * 3 + k];
+                    used[v] = true;
+                    left |= positions[v * 3] < seamX || isLeftCopy(v);
+                    right |= positions[v * 3] > seamX || isRightCopy(v);
+                }
+                assertTrue(!(left && right), "triangle " + Arrays.toString(Arrays.copyOfRange(level, t * 3, t * 3 + 3)));
+            }
+            // No vertex of the seam moves away
+            for (int y = 0; y < SIZE; y++) {
+                assertTrue(used[y * SIZE + SEAM]);
+                assertTrue(used[SIZE * SIZE + y]);
+            }
+        }
+    }
+
+    @Test
+    public void openBordersKeepTheirOutline() {
+        float[] positions = gridPositions();
+        MeshSimplifier simplifier = grid();
+        float max = (SIZE - 1) * 0.5f;
+        for (MeshLod lod : simplifier.getLods()) {
+            int[] level = indices(simplifier, lod);
+            List<long[]> edges = openEdges(level);
+            assertTrue(!edges.isEmpty());
+            for (long[] edge : edges) {
+                float ax = positions[(int) edge[0] * 3], az = positions[(int) edge[0] * 3 + 2];
+                float bx = positions[(int) edge[1] * 3], bz = positions[(int) edge[1] * 3 + 2];
+                // Both ends on the same side of the square
+                boolean sameSide = ax == bx && (ax == 0 || ax == max) || az == bz && (az == 0 || az == max);
+                assertTrue(sameSide, "open edge from " + ax + "," + az + " to " + bx + "," + bz);
+            }
+            // The corners are never cut off
+            boolean[] used = new boolean[positions.length / 3];
+            for (int v : level) {
+                used[v] = true;
+            }
+            assertTrue(used[0] && used[SIZE - 1] && used[SIZE * (SIZE - 1)] && used[SIZE * SIZE - 1]);
+        }
+    }
+
+    /**
+     * A simplified mesh with the positions its levels index
+     */
+    private static class Simplified {
+
+        private final String name;
+
+        private final float[] positions;
+
+        private final MeshSimplifier simplifier;
+
+        Simplified(String name, float[] positions, MeshSimplifier simplifier) {
+            this.name = name;
+            this.positions = positions;
+            this.simplifier = simplifier;
+        }
+    }
+
+    private static List<Simplified> meshes() throws Exception {
+        List<Simplified> meshes = new ArrayList<>();
+        for (String model : MODELS) {
+            VertexWelder mesh = MeshOptimizerTest.load(model);
+            meshes.add(new Simplified(model, mesh.getPositions(),
+                    new MeshSimplifier(mesh.getPositions(), mesh.getIndices())));
+        }
+        meshes.add(new Simplified("grid", gridPositions(), grid()));
+        return meshes;
+    }
+
+    /**
+     * A gently waving grid whose column {@link #SEAM} is split in two, like
+     * a texture seam: the triangles on its right use copies of its vertices,
+     * numbered after the grid.
+     */
+    private static MeshSimplifier grid() {
+        int[] indices = MeshOptimizerTest.grid(SIZE);
+        for (int t = 0; t < indices.length / 3; t++) {
+            int minX = SIZE;
+            for (int k = 0; k < 3; k++) {
+                minX = Math.min(minX, indices[t * 3 + k] % SIZE);
+            }
+            if (minX == SEAM) {
+                for (int k = 0; k < 3; k++) {
+                    int v = indices[t * 3 + k];
+                    if (v % SIZE == SEAM) {
+                        indices[t * 3 + k] = SIZE * SIZE + v / SIZE;
+                    }
+                }
+            }
+        }
+        return new MeshSimplifier(gridPositions(), indices);
+    }
+
+    private static float[] gridPositions() {
+        float[] positions = new float[(SIZE * SIZE + SIZE) * 3];
+        for (int v = 0; v < SIZE * SIZE + SIZE; v++) {
+            int x = v < SIZE * SIZE ? v % SIZE : SEAM;
+            int y = v < SIZE * SIZE ? v / SIZE : v - SIZE * SIZE;
+            positions[v * 3] = x * 0.5f;
+            positions[v * 3 + 1] = (float) (Math.sin(x * 0.3) * Math.cos(y * 0.2));
+            positions[v * 3 + 2] = y * 0.5f;
+        }
+        return positions;
+    }
+
+    private static boolean isLeftCopy(int v) {
+        return v < SIZE * SIZE && v % SIZE == SEAM;
+    }
+
+    private static boolean isRightCopy(int v) {
+        return v >= SIZE * SIZE;
+    }
+
+    private static int[] indices(MeshSimplifier simplifier, MeshLod lod) {
+        return Arrays.copyOfRange(simplifier.getIndices(), lod.getIndexOffset(),
+                lod.getIndexOffset() + lod.getIndexCount());
+    }
+
+    private static float[] normal(float[] positions, int a, int b, int c) {
+        float e1x = positions[b * 3] - positions[a * 3];
+        float e1y = positions[b * 3 + 1] - positions[a * 3 + 1];
+        float e1z = positions[b * 3 + 2] - positions[a * 3 + 2];
+        float e2x = positions[c * 3] - positions[a * 3];
+        float e2y = positions[c * 3 + 1] - positions[a * 3 + 1];
+        float e2z = positions[c * 3 + 2] - positions[a * 3 + 2];
+        return new float[]{e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x};
+    }
+
+    /**
+     * Edges used by a single triangle, seams joined, as vertex pairs
+     */
+    private static List<long[]> openEdges(int[] indices) {
+        java.util.Map<Long, Integer> uses = new java.util.HashMap<>();
+        for (int i = 0; i < indices.length; i++) {
+            int a = joined(indices[i]);
+            int b = joined(indices[i - i % 3 + (i + 1) % 3]);
+            uses.merge(Math.min(a, b) * (long) (SIZE * SIZE) + Math.max(a, b), 1, Integer::sum);
+        }
+        List<long[]> edges = new ArrayList<>();
+        uses.forEach((key, count) -> {
+            if (count == 1) {
+                edges.add(new long[]{key / (SIZE * SIZE), key % (SIZE * SIZE)});
+            }
+        });
+        return edges;
+    }
+
+    private static int joined(int v) {
+        return v >= SIZE * SIZE ? (v - SIZE * SIZE) * SIZE + SEAM : v;
+    }
+}
@@ -0,0 +1,202 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OBJLoaderTest {
+
+    private static final String[] MODELS = {"cube", "palm_tree", "pier", "streetlamp"};
+
+    private static final int[] CHUNK_COUNTS = {2, 3, 7, 16, 64};
+
+    @TempDir
+    Path directory;
+
+    @AfterEach
+    public void tearDown() {
+        OBJLoader.setParallelThreshold(OBJLoader.DEFAULT_PARALLEL_THRESHOLD);
+        OBJLoader.setChunkCount(0);
+        OBJLoader.setMeshCache(new MeshCache());
+    }
+
+    @Test
+    public void chunkedParsesOfTheModelsAreIdentical() throws Exception {
+        for (String model : MODELS) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get("src/resources/models/" + model + ".obj")));
+            OBJParser sequential = parse(buffer);
+            for (int chunks : CHUNK_COUNTS) {
+                assertSameParse(sequential, OBJLoader.parseChunked(buffer, chunks), model + " in " + chunks + " chunks");
+            }
+        }
+    }
+
+    @Test
+    public void relativeIndicesReachIntoEarlierChunks() {
+        ByteBuffer buffer = ByteBuffer.wrap(relativeObj(40).getBytes(StandardCharsets.US_ASCII));
+        OBJParser sequential = parse(buffer);
+        // The faces of each row point back at the vertices of the row before
+        assertEquals(0, sequential.getFaceIndices().get(0));
+        // As many chunks as lines puts a boundary between almost every face and its vertices
+        int lines = 0;
+        for (int i = 0; i < buffer.limit(); i++) {
+            lines += buffer.get(i) == '\n' ? 1 : 0;
+        }
+        for (int chunks : new int[]{2, 5, 13, lines / 2, lines}) {
+            assertSameParse(sequential, OBJLoader.parseChunked(buffer, chunks), chunks + " chunks");
+        }
+    }
+
+    @Test
+    public void theParallelPathLoadsTheSameMesh() throws Exception {
+        Graphics.setDevice(new RecordingDevice(false));
+        OBJLoader.setMeshCache(null);
+        String fileName = "src/resources/models/palm_tree.obj";
+        Mesh sequential = OBJLoader.loadMesh(fileName, false);
+
+        OBJLoader.setParallelThreshold(0);
+        OBJLoader.setChunkCount(9);
+        Mesh parallel = OBJLoader.loadMesh(fileName, true);
+        assertEquals(sequential.getVertexCount(), parallel.getVertexCount());
+        assertEquals(sequential.getSubMeshes().length, parallel.getSubMeshes().length);
+        for (int i = 0; i < sequential.getSubMeshes().length; i++) {
+            SubMesh expected = sequential.getSubMeshes()[i];
+            SubMesh actual = parallel.getSubMeshes()[i];
+            assertEquals(expected.getMaterialName(), actual.getMaterialName());
+            assertEquals(expected.getLods().length, actual.getLods().length);
+            for (int level = 0; level < expected.getLods().length; level++) {
+                assertEquals(expected.getLod(level).getIndexCount(), actual.getLod(level).getIndexCount());
+                assertEquals(expected.getLod(level).getError(), actual.getLod(level).getError());
+            }
+        }
+        sequential.cleanUp();
+        parallel.cleanUp();
+    }
+
+    @Test
+    public void fileMaterialsDoNotLeakTheRegionTexture() throws Exception {
+        Graphics.setDevice(new RecordingDevice(false));
+        OBJLoader.setMeshCache(null);
+        // Nothing unreferenced stays resident, a leaked reference keeps the page alive
+        TextureCache cache = new TextureCache(0);
+        TextureAtlas atlas = atlas(cache);
+        Texture page = atlas.getPage(0);
+
+        Mesh mesh = OBJLoader.loadMesh(quadObj("usemtl red\n"), false, false, atlas.getRegion(image()));
+        for (SubMesh subMesh : mesh.getSubMeshes()) {
+            assertNull(subMesh.getMaterial().getTexture());
+        }
+        mesh.cleanUp();
+        atlas.cleanup();
+        assertTrue(page.isDeleted());
+    }
+
+    @Test
+    public void theRegionTexturesSubMeshesWithoutMaterial() throws Exception {
+        Graphics.setDevice(new RecordingDevice(false));
+        OBJLoader.setMeshCache(null);
+        TextureCache cache = new TextureCache(0);
+        TextureAtlas atlas = atlas(cache);
+        Texture page = atlas.getPage(0);
+
+        Mesh mesh = OBJLoader.loadMesh(quadObj(""), false, false, atlas.getRegion(image()));
+        SubMesh[] subMeshes = mesh.getSubMeshes();
+        assertEquals(2, subMeshes.length);
+        assertNull(subMeshes[0].getMaterialName());
+        assertSame(page, subMeshes[0].getMaterial().getTexture());
+        assertNull(subMeshes[1].getMaterial().getTexture());
+        atlas.cleanup();
+        assertFalse(page.isDeleted());
+        mesh.cleanUp();
+        assertTrue(page.isDeleted());
+    }
+
+    private TextureAtlas atlas(TextureCache cache) throws Exception {
+        TextureAtlas atlas = new TextureAtlas(64, 8);
+        atlas.add(image());
+        atlas.build(cache);
+        assertEquals(1, atlas.getPageCount());
+        return atlas;
+    }
+
+    private String image() throws Exception {
+        Path file = directory.resolve("image.png");
+        if (!file.toFile().exists()) {
+            ImageIO.write(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), "png", file.toFile());
+        }
+        return file.toString();
+    }
+
+    /**
+     * Writes two quads, the second one with the material red, the first one
+     * after <code>firstMaterial</code>.
+     */
+    private String quadObj(String firstMaterial) throws Exception {
+        Files.write(directory.resolve("quads.mtl"), "newmtl red\nKd 1 0 0\n".getBytes(StandardCharsets.US_ASCII));
+        String obj = "mtllib quads.mtl\n"
+                + "v 0 0 0\nv 1 0 0\nv 1 1 0\nv 0 1 0\n"
+                + "vt 0 0\nvt 1 0\nvt 1 1\nvt 0 1\n"
+                + "vn 0 0 1\n"
+                + firstMaterial
+                + "f 1/1/1 2/2/1 3/3/1 4/4/1\n"
+                + "usemtl red\n"
+                + "f 1/1/1 3/3/1 4/4/1\n";
+        Path file = directory.resolve("quads.obj");
+        Files.write(file, obj.getBytes(StandardCharsets.US_ASCII));
+        return file.toString();
+    }
+
+    private static OBJParser parse(ByteBuffer buffer) {
+        OBJParser parser = new OBJParser();
+        parser.parse(buffer, 0, buffer.limit());
+        return parser;
+    }
+
+    private static void assertSameParse(OBJParser expected, OBJParser actual, String message) {
+        // Compared bit by bit, -0.0 and NaN included
+        assertArrayEquals(expected.getPositions().toArray(), actual.getPositions().toArray(), message);
+        assertArrayEquals(expected.getTexCoords().toArray(), actual.getTexCoords().toArray(), message);
+        assertArrayEquals(expected.getNormals().toArray(), actual.getNormals().toArray(), message);
+        assertArrayEquals(expected.getFaceIndices().toArray(), actual.getFaceIndices().toArray(), message);
+        assertEquals(expected.getMaterialLibraries(), actual.getMaterialLibraries(), message);
+        assertEquals(expected.getMaterialNames(), actual.getMaterialNames(), message);
+        assertArrayEquals(expected.getMaterialRanges().toArray(), actual.getMaterialRanges().toArray(), message);
+    }
+
+    /**
+     * A strip of quads whose faces use negative indices, switching between
+     * two materials, with the vertices of a row written before the faces
+     * that use them.
+     */
+    private static String relativeObj(int rows) {
+        StringBuilder obj = new StringBuilder("mtllib strip.mtl\n");
+        for (int row = 0; row <= rows; row++) {
+            obj.append(String.format(Locale.ROOT, "v 0 %d 0%nv 1 %d -0.0%n", row, row));
+            obj.append(String.format(Locale.ROOT, "vt 0 %.7f%nvt 1 %.7f%n", row / 3.0f, row / 3.0f));
+            obj.append("vn 0 0 1\n");
+            if (row > 0) {
+                obj.append(row % 3 == 0 ? "usemtl red\n" : row % 3 == 1 ? "usemtl blue\n" : "");
+                // Quads are split into triangle fans, mixing relative and absolute indices
+                obj.append("f -4/-4/-2 -3/-3/-2 -1/-1/-1 -2/-2/-1\n");
+                obj.append("f ").append(2 * row - 1).append("//").append(row).append(" -1//-1 -2//-1\n");
+            }
+        }
+        return obj.toString();
+    }
+}
@@ -0,0 +1,85 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL31.GL_INVALID_INDEX;
+
+public class RecordingDeviceTest {
+
+    private static final String VERTEX_WITH_FRAME_BLOCK = "#version 330\n"
+            + "layout (std140) uniform FrameBlock\n"
+            + "{\n"
+            + "    mat4 projectionMatrix;\n"
+            + "};\n"
+            + "void main() {}\n";
+
+    private static final String FRAGMENT_WITHOUT_BLOCKS = "#version 330\n"
+            + "uniform sampler2D texture_sampler;\n"
+            + "void main() {}\n";
+
+    private RecordingDevice device;
+
+    @BeforeEach
+    public void setUp() {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(device);
+    }
+
+    private ShaderProgram link(String vertex, String fragment) throws Exception {
+        ShaderProgram program = new ShaderProgram();
+        program.createVertexShader(vertex);
+        program.createFragmentShader(fragment);
+        program.link();
+        return program;
+    }
+
+    @Test
+    public void onlyDeclaredBlocksExist() throws Exception {
+        ShaderProgram program = link(VERTEX_WITH_FRAME_BLOCK, FRAGMENT_WITHOUT_BLOCKS);
+        // The shaders are detached after linking, the blocks stay
+        assertTrue(program.bindUniformBlock(SceneBlocks.FRAME_BLOCK, SceneBlocks.FRAME_BINDING));
+        assertFalse(program.bindUniformBlock(SceneBlocks.LIGHT_BLOCK, SceneBlocks.LIGHT_BINDING));
+        assertFalse(program.bindUniformBlock(SceneBlocks.MATERIAL_BLOCK, SceneBlocks.MATERIAL_BINDING));
+        assertEquals(1, device.getCount(RecordingDevice.Command.UNIFORM_BLOCK_BINDING));
+        program.cleanup();
+    }
+
+    @Test
+    public void blocksBelongToTheirProgram() {
+        int withBlock = linkOnDevice(VERTEX_WITH_FRAME_BLOCK);
+        int withoutBlock = linkOnDevice("#version 330\nuniform mat4 projectionMatrix;\nvoid main() {}\n");
+        assertNotEquals(GL_INVALID_INDEX, device.glGetUniformBlockIndex(withBlock, SceneBlocks.FRAME_BLOCK));
+        assertEquals(GL_INVALID_INDEX, device.glGetUniformBlockIndex(withoutBlock, SceneBlocks.FRAME_BLOCK));
+        // A block name that only starts like a declared one does not match
+        assertEquals(GL_INVALID_INDEX, device.glGetUniformBlockIndex(withBlock, "Frame"));
+    }
+
+    @Test
+    public void shadersAttachedAfterLinkingCountFromTheNextLink() {
+        int program = linkOnDevice(FRAGMENT_WITHOUT_BLOCKS);
+        int shader = device.glCreateShader(GL_VERTEX_SHADER);
+        device.glShaderSource(shader, VERTEX_WITH_FRAME_BLOCK);
+        device.glAttachShader(program, shader);
+        assertEquals(GL_INVALID_INDEX, device.glGetUniformBlockIndex(program, SceneBlocks.FRAME_BLOCK));
+        device.glLinkProgram(program);
+        assertNotEquals(GL_INVALID_INDEX, device.glGetUniformBlockIndex(program, SceneBlocks.FRAME_BLOCK));
+    }
+
+    private int linkOnDevice(String source) {
+        int shader = device.glCreateShader(GL_VERTEX_SHADER);
+        device.glShaderSource(shader, source);
+        device.glCompileShader(shader);
+        int program = device.glCreateProgram();
+        device.glAttachShader(program, shader);
+        device.glLinkProgram(program);
+        device.glDetachShader(program, shader);
+        device.glDeleteShader(shader);
+        return program;
+    }
+}
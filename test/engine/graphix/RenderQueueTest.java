@@ -0,0 +1,111 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class RenderQueueTest {
+
+    @Test
+    public void keysSortAsUnsigned() {
+        RenderQueue queue = new RenderQueue();
+        long[] keys = {-1L, 5L, Long.MIN_VALUE, 0L, Long.MAX_VALUE, 1L << 62, 0xFFL};
+        for (long key : keys) {
+            queue.add(key, null, null, -1, 0);
+        }
+        queue.sort();
+
+        long[] expected = Arrays.stream(keys).boxed().sorted(Long::compareUnsigned).mapToLong(Long::longValue).toArray();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], queue.getKey(i));
+        }
+        // Later passes come after earlier ones even though their top bit is set
+        assertEquals(-1L, queue.getKey(keys.length - 1));
+    }
+
+    @Test
+    public void randomKeysMatchAnUnsignedSort() {
+        RenderQueue queue = new RenderQueue(16);
+        Random random = new Random(7);
+        long[] keys = new long[10_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            queue.add(keys[i], null, null, i, 0);
+        }
+        queue.sort();
+
+        long[] expected = Arrays.stream(keys).boxed().sorted(Long::compareUnsigned).mapToLong(Long::longValue).toArray();
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], queue.getKey(i));
+            assertEquals(expected[i], keys[queue.getSubMesh(i)]);
+        }
+    }
+
+    @Test
+    public void equalKeysKeepTheirOrder() {
+        RenderQueue queue = new RenderQueue();
+        long shared = RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 2, 3, 4, 5);
+        long lower = RenderQueue.key(RenderQueue.PASS_OPAQUE, 1, 2, 3, 4, 1);
+        for (int i = 0; i < 100; i++) {
+            queue.add(i % 3 == 0 ? lower : shared, null, null, i, 0);
+        }
+        queue.sort();
+
+        // The 34 lower keys first, then the others, each in the order added
+        int lowerCount = 34;
+        for (int i = 0; i < queue.size(); i++) {
+            int expected = i < lowerCount ? 3 * i : (i - lowerCount) + (i - lowerCount) / 2 + 1;
+            assertEquals(i < lowerCount ? lower : shared, queue.getKey(i));
+            assertEquals(expected, queue.getSubMesh(i));
+        }
+    }
+
+    @Test
+    public void aQueueWithoutCapacityGrows() {
+        RenderQueue queue = new RenderQueue(0);
+        queue.sort();
+        queue.add(2L, null, null, 0, 0);
+        queue.sort();
+        assertEquals(2L, queue.getKey(0));
+        queue.add(1L, null, null, 1, 0);
+        queue.add(3L, null, null, 2, 0);
+        queue.sort();
+        assertEquals(3, queue.size());
+        assertEquals(1L, queue.getKey(0));
+        assertEquals(3L, queue.getKey(2));
+    }
+
+    @Test
+    public void sortingAFrameAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        RenderQueue queue = new RenderQueue();
+        Random random = new Random(11);
+        long[] keys = new long[5_000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+        // The first frames grow the arrays
+        for (int frame = 0; frame < 20; frame++) {
+            fill(queue, keys);
+        }
+
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int frame = 0; frame < 20; frame++) {
+            fill(queue, keys);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        assertEquals(0, allocated);
+    }
+
+    private static void fill(RenderQueue queue, long[] keys) {
+        queue.clear();
+        for (int i = 0; i < keys.length; i++) {
+            queue.add(keys[i], null, null, i, 0);
+        }
+        queue.sort();
+    }
+}
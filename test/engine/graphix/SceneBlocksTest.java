@@ -0,0 +1,165 @@
+package engine.graphix;
+
+import engine.graphix.RecordingDevice.Command;
+import org.joml.Matrix4f;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class SceneBlocksTest {
+
+    private RecordingDevice device;
+
+    private SceneBlocks blocks;
+
+    @BeforeEach
+    public void setUp() {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(device);
+        blocks = new SceneBlocks();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        blocks.cleanup();
+    }
+
+    @Test
+    public void offsetsFollowStd140() {
+        // struct PointLight { vec3 colour; vec3 position; float intensity; Attenuation att; }
+        assertEquals(0, SceneBlocks.POINT_LIGHT_COLOUR);
+        assertEquals(16, SceneBlocks.POINT_LIGHT_POSITION);
+        assertEquals(28, SceneBlocks.POINT_LIGHT_INTENSITY);
+        assertEquals(32, SceneBlocks.POINT_LIGHT_CONSTANT);
+        assertEquals(36, SceneBlocks.POINT_LIGHT_LINEAR);
+        assertEquals(40, SceneBlocks.POINT_LIGHT_EXPONENT);
+        assertEquals(48, SceneBlocks.POINT_LIGHT_SIZE);
+        // struct DirectionalLight { vec3 colour; vec3 direction; float intensity; }
+        assertEquals(0, SceneBlocks.DIRECTIONAL_LIGHT_COLOUR);
+        assertEquals(16, SceneBlocks.DIRECTIONAL_LIGHT_DIRECTION);
+        assertEquals(28, SceneBlocks.DIRECTIONAL_LIGHT_INTENSITY);
+        assertEquals(32, SceneBlocks.DIRECTIONAL_LIGHT_SIZE);
+        // struct Fog { int activeFog; vec3 colour; float density; }
+        assertEquals(0, SceneBlocks.FOG_ACTIVE);
+        assertEquals(16, SceneBlocks.FOG_COLOUR);
+        assertEquals(28, SceneBlocks.FOG_DENSITY);
+        assertEquals(32, SceneBlocks.FOG_SIZE);
+        // struct Material { vec4 ambient; vec4 diffuse; vec4 specular; int hasTexture; float reflectance; int layer; }
+        assertEquals(0, SceneBlocks.MATERIAL_AMBIENT);
+        assertEquals(16, SceneBlocks.MATERIAL_DIFFUSE);
+        assertEquals(32, SceneBlocks.MATERIAL_SPECULAR);
+        assertEquals(48, SceneBlocks.MATERIAL_HAS_TEXTURE);
+        assertEquals(52, SceneBlocks.MATERIAL_REFLECTANCE);
+        assertEquals(56, SceneBlocks.MATERIAL_LAYER);
+        assertEquals(64, SceneBlocks.MATERIAL_SIZE);
+        // LightBlock: vec3 ambient, float specularPower, PointLight[5], DirectionalLight, Fog
+        assertEquals(0, SceneBlocks.LIGHT_AMBIENT);
+        assertEquals(12, SceneBlocks.LIGHT_SPECULAR_POWER);
+        assertEquals(16, SceneBlocks.LIGHT_POINT_LIGHTS);
+        assertEquals(256, SceneBlocks.LIGHT_DIRECTIONAL);
+        assertEquals(288, SceneBlocks.LIGHT_FOG);
+        assertEquals(320, SceneBlocks.LIGHT_SIZE);
+        assertEquals(64, SceneBlocks.FRAME_SIZE);
+    }
+
+    @Test
+    public void lightsArePackedAtTheirOffsets() {
+        SceneLight light = new SceneLight();
+        light.setAmbientLight(new Vector3f(0.1f, 0.2f, 0.3f));
+        light.setPointLightList(new PointLight[]{new PointLight(new Vector3f(1, 0.5f, 0.25f), new Vector3f(1, 2, 3),
+                4.0f, new PointLight.Attenuation(0.5f, 0.25f, 0.125f))});
+        light.setDirectionalLight(new DirectionalLight(new Vector3f(1), new Vector3f(0, 1, 0), 0.75f));
+        Std140Buffer data = new Std140Buffer(SceneBlocks.LIGHT_SIZE);
+        // A view that moves everything 10 units along x
+        Matrix4f view = new Matrix4f().translation(10, 0, 0);
+        SceneBlocks.packLights(data, light, view, 16.0f, new Fog(true, new Vector3f(0.5f), 0.05f));
+
+        assertEquals(0.3f, data.getFloat(SceneBlocks.LIGHT_AMBIENT + 8));
+        assertEquals(16.0f, data.getFloat(SceneBlocks.LIGHT_SPECULAR_POWER));
+        int point = SceneBlocks.LIGHT_POINT_LIGHTS;
+        assertEquals(0.5f, data.getFloat(point + SceneBlocks.POINT_LIGHT_COLOUR + 4));
+        assertEquals(11.0f, data.getFloat(point + SceneBlocks.POINT_LIGHT_POSITION));
+        assertEquals(3.0f, data.getFloat(point + SceneBlocks.POINT_LIGHT_POSITION + 8));
+        assertEquals(4.0f, data.getFloat(point + SceneBlocks.POINT_LIGHT_INTENSITY));
+        assertEquals(0.125f, data.getFloat(point + SceneBlocks.POINT_LIGHT_EXPONENT));
+        // The unused point lights are switched off
+        assertEquals(0.0f, data.getFloat(point + SceneBlocks.POINT_LIGHT_SIZE + SceneBlocks.POINT_LIGHT_INTENSITY));
+        // Directions are not translated
+        assertEquals(0.0f, data.getFloat(SceneBlocks.LIGHT_DIRECTIONAL + SceneBlocks.DIRECTIONAL_LIGHT_DIRECTION));
+        assertEquals(1.0f, data.getFloat(SceneBlocks.LIGHT_DIRECTIONAL + SceneBlocks.DIRECTIONAL_LIGHT_DIRECTION + 4));
+        assertEquals(0.75f, data.getFloat(SceneBlocks.LIGHT_DIRECTIONAL + SceneBlocks.DIRECTIONAL_LIGHT_INTENSITY));
+        assertEquals(1, data.getInt(SceneBlocks.LIGHT_FOG + SceneBlocks.FOG_ACTIVE));
+        assertEquals(0.05f, data.getFloat(SceneBlocks.LIGHT_FOG + SceneBlocks.FOG_DENSITY));
+        data.free();
+    }
+
+    @Test
+    public void materialsArePackedAtTheirOffsets() {
+        Material material = new Material(new Vector4f(0.1f, 0.2f, 0.3f, 0.4f), 0.5f);
+        Std140Buffer data = new Std140Buffer(2 * SceneBlocks.MATERIAL_SIZE);
+        SceneBlocks.packMaterial(data, SceneBlocks.MATERIAL_SIZE, material);
+        int offset = SceneBlocks.MATERIAL_SIZE;
+        assertEquals(0.4f, data.getFloat(offset + SceneBlocks.MATERIAL_AMBIENT + 12));
+        assertEquals(0.2f, data.getFloat(offset + SceneBlocks.MATERIAL_DIFFUSE + 4));
+        assertEquals(0.1f, data.getFloat(offset + SceneBlocks.MATERIAL_SPECULAR));
+        assertEquals(0, data.getInt(offset + SceneBlocks.MATERIAL_HAS_TEXTURE));
+        assertEquals(0.5f, data.getFloat(offset + SceneBlocks.MATERIAL_REFLECTANCE));
+        assertEquals(-1, data.getInt(offset + SceneBlocks.MATERIAL_LAYER));
+        data.free();
+    }
+
+    @Test
+    public void unchangedFramesUploadNothing() {
+        SceneLight light = new SceneLight();
+        light.setAmbientLight(new Vector3f(0.3f));
+        light.setPointLightList(new PointLight[]{new PointLight(new Vector3f(1), new Vector3f(0, 2, 0), 1.0f)});
+        light.setDirectionalLight(new DirectionalLight(new Vector3f(1), new Vector3f(0, 1, 0), 1.0f));
+        Matrix4f projection = new Matrix4f().perspective(1.0f, 1.5f, 0.01f, 1000.0f);
+        Matrix4f view = new Matrix4f();
+        blocks.update(projection, view, light, 10.0f, Fog.NOFOG);
+        long uploaded = blocks.getUploadedBytes();
+
+        blocks.update(projection, view, light, 10.0f, Fog.NOFOG);
+        assertEquals(uploaded, blocks.getUploadedBytes());
+
+        // Moving the camera sideways only changes the x of the point light
+        view.translation(1, 0, 0);
+        blocks.update(projection, view, light, 10.0f, Fog.NOFOG);
+        assertEquals(uploaded + 4, blocks.getUploadedBytes());
+    }
+
+    @Test
+    public void releasedMaterialSlotsAreReused() {
+        Material first = new Material(new Vector4f(1), 0.0f);
+        Material second = new Material(new Vector4f(0.5f), 0.0f);
+        blocks.bindMaterial(first);
+        blocks.bindMaterial(second);
+        assertEquals(2, blocks.getMaterialCount());
+
+        first.cleanup();
+        assertEquals(1, blocks.getMaterialCount());
+        Material third = new Material(new Vector4f(0.25f), 0.0f);
+        device.reset();
+        blocks.bindMaterial(third);
+        // Takes the slot the first material gave back
+        assertEquals(2, blocks.getMaterialCount());
+        assertEquals(1, device.getCount(Command.BIND_BUFFER_RANGE));
+        device.reset();
+        blocks.bindMaterial(first);
+        assertEquals(3, blocks.getMaterialCount());
+    }
+
+    @Test
+    public void cleaningUpAMeshReleasesItsMaterials() {
+        Mesh mesh = new Mesh(new float[]{0, 0, 0, 1, 0, 0, 0, 1, 0}, new float[6], new float[9], new int[]{0, 1, 2});
+        mesh.setMaterial(new Material(new Vector4f(1), 0.0f));
+        blocks.bindMaterial(mesh.getMaterial());
+        assertEquals(1, blocks.getMaterialCount());
+        mesh.cleanUp();
+        assertEquals(0, blocks.getMaterialCount());
+    }
+}
@@ -0,0 +1,57 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SceneTest {
+
+    /**
+     * One distinct key per character
+     */
+    private static final Object[] KEYS = new Object[128];
+
+    static {
+        for (int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = new Object();
+        }
+    }
+
+    @Test
+    public void groupsFollowTheOrderOfTheirFirstItem() {
+        List<String> items = Arrays.asList("a1", "b1", "a2", "c1", "b2", "a3");
+        List<String> grouped = Scene.groupBy(items, item -> keyOf(item.charAt(0)));
+        assertEquals(Arrays.asList("a1", "a2", "a3", "b1", "b2", "c1"), grouped);
+    }
+
+    @Test
+    public void nullIsAKeyOfItsOwn() {
+        List<String> items = Arrays.asList("a1", "-1", "a2", "-2");
+        List<String> grouped = Scene.groupBy(items, item -> item.charAt(0) == '-' ? null : keyOf(item.charAt(0)));
+        assertEquals(Arrays.asList("a1", "a2", "-1", "-2"), grouped);
+    }
+
+    @Test
+    public void keysAreComparedByIdentity() {
+        // Equal but distinct keys, such as two textures loaded from the same file, stay apart
+        String first = new String("key");
+        String second = new String("key");
+        List<Integer> items = Arrays.asList(1, 2, 3, 4);
+        List<Integer> grouped = Scene.groupBy(items, item -> item % 2 == 1 ? first : second);
+        assertEquals(Arrays.asList(1, 3, 2, 4), grouped);
+    }
+
+    @Test
+    public void noItemsGiveAnEmptyList() {
+        assertTrue(Scene.groupBy(Collections.<String>emptyList(), item -> item).isEmpty());
+    }
+
+    private static Object keyOf(char c) {
+        return KEYS[c];
+    }
+}
@@ -0,0 +1,219 @@
+package engine.graphix;
+
+import engine.graphix.RecordingDevice.Command;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.lwjgl.opengl.GL11.GL_BLEND;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
+import static org.lwjgl.opengl.GL11.GL_ONE;
+import static org.lwjgl.opengl.GL11.GL_ONE_MINUS_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11.GL_SRC_ALPHA;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.opengl.GL31.GL_UNIFORM_BUFFER;
+
+public class StateCacheTest {
+
+    private RecordingDevice device;
+
+    private StateCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        device = new RecordingDevice(false);
+        cache = new StateCache(device);
+    }
+
+    @Test
+    public void repeatedBindsAreSkipped() {
+        cache.glUseProgram(3);
+        cache.glUseProgram(3);
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        cache.glEnable(GL_DEPTH_TEST);
+        cache.glEnable(GL_DEPTH_TEST);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 1, 7);
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 1, 7);
+
+        assertEquals(1, device.getCount(Command.USE_PROGRAM));
+        assertEquals(1, device.getCount(Command.BIND_BUFFER));
+        assertEquals(1, device.getCount(Command.ENABLE));
+        assertEquals(1, device.getCount(Command.BLEND_FUNC));
+        assertEquals(1, device.getCount(Command.BIND_BUFFER_BASE));
+        assertEquals(5, cache.getIssuedCalls());
+        assertEquals(5, cache.getSkippedCalls());
+    }
+
+    @Test
+    public void changedBindsAreIssued() {
+        cache.glUseProgram(3);
+        cache.glUseProgram(4);
+        cache.glEnable(GL_BLEND);
+        cache.glDisable(GL_BLEND);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE);
+        // Another range of the same buffer is another binding
+        cache.glBindBufferRange(GL_UNIFORM_BUFFER, 2, 7, 0, 64);
+        cache.glBindBufferRange(GL_UNIFORM_BUFFER, 2, 7, 256, 64);
+        cache.glBindBufferRange(GL_UNIFORM_BUFFER, 2, 7, 256, 64);
+
+        assertEquals(2, device.getCount(Command.USE_PROGRAM));
+        assertEquals(1, device.getCount(Command.ENABLE));
+        assertEquals(1, device.getCount(Command.DISABLE));
+        assertEquals(2, device.getCount(Command.BLEND_FUNC));
+        assertEquals(2, device.getCount(Command.BIND_BUFFER_RANGE));
+        assertEquals(8, cache.getIssuedCalls());
+        assertEquals(1, cache.getSkippedCalls());
+    }
+
+    @Test
+    public void texturesAreTrackedPerUnitAndTarget() {
+        cache.glActiveTexture(GL_TEXTURE0);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glBindTexture(GL_TEXTURE_2D_ARRAY, 11);
+        cache.glActiveTexture(GL_TEXTURE0 + 1);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glActiveTexture(GL_TEXTURE0);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glBindTexture(GL_TEXTURE_2D_ARRAY, 11);
+
+        assertEquals(3, device.getCount(Command.ACTIVE_TEXTURE));
+        assertEquals(3, device.getCount(Command.BIND_TEXTURE));
+        assertEquals(2, cache.getSkippedCalls());
+    }
+
+    @Test
+    public void elementBuffersBelongToTheirVertexArray() {
+        int first = cache.glGenVertexArrays();
+        int second = cache.glGenVertexArrays();
+        cache.glBindVertexArray(first);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        // The second array has its own element buffer binding
+        cache.glBindVertexArray(second);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        assertEquals(2, device.getCount(Command.BIND_BUFFER));
+
+        // Switching back finds the buffer still bound to the first array
+        cache.glBindVertexArray(first);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        assertEquals(2, device.getCount(Command.BIND_BUFFER));
+
+        // A new vertex array starts with no element buffer
+        cache.glBindVertexArray(cache.glGenVertexArrays());
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        assertEquals(2, device.getCount(Command.BIND_BUFFER));
+        assertEquals(4, device.getCount(Command.BIND_VERTEX_ARRAY));
+    }
+
+    @Test
+    public void enabledAttributesBelongToTheirVertexArray() {
+        int first = cache.glGenVertexArrays();
+        int second = cache.glGenVertexArrays();
+        cache.glBindVertexArray(first);
+        cache.glEnableVertexAttribArray(0);
+        cache.glEnableVertexAttribArray(1);
+        cache.glBindVertexArray(second);
+        cache.glEnableVertexAttribArray(0);
+        cache.glDisableVertexAttribArray(1);
+        cache.glBindVertexArray(first);
+        cache.glEnableVertexAttribArray(0);
+        cache.glEnableVertexAttribArray(1);
+        cache.glDisableVertexAttribArray(1);
+
+        assertEquals(3, device.getCount(Command.ENABLE_VERTEX_ATTRIB_ARRAY));
+        // A new vertex array has every attribute disabled
+        assertEquals(1, device.getCount(Command.DISABLE_VERTEX_ATTRIB_ARRAY));
+    }
+
+    @Test
+    public void deletedObjectsAreNotBoundAnymore() {
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        cache.glDeleteBuffers(5);
+        // GL binds 0 when the bound buffer is deleted
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 0);
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        assertEquals(2, device.getCount(Command.BIND_BUFFER));
+
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 0, 6);
+        cache.glDeleteBuffers(6);
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 0, 6);
+        assertEquals(2, device.getCount(Command.BIND_BUFFER_BASE));
+
+        cache.glActiveTexture(GL_TEXTURE0);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glDeleteTextures(10);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        assertEquals(2, device.getCount(Command.BIND_TEXTURE));
+
+        int array = cache.glGenVertexArrays();
+        cache.glBindVertexArray(array);
+        cache.glDeleteVertexArrays(array);
+        cache.glBindVertexArray(array);
+        assertEquals(2, device.getCount(Command.BIND_VERTEX_ARRAY));
+
+        cache.glUseProgram(3);
+        cache.glDeleteProgram(3);
+        cache.glUseProgram(3);
+        assertEquals(2, device.getCount(Command.USE_PROGRAM));
+    }
+
+    @Test
+    public void deletedElementBuffersAreReleasedByTheBoundVertexArrayOnly() {
+        int first = cache.glGenVertexArrays();
+        int second = cache.glGenVertexArrays();
+        cache.glBindVertexArray(first);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        cache.glBindVertexArray(second);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        cache.glDeleteBuffers(20);
+        device.reset();
+
+        // The bound array lets go of the buffer, binding nothing again is skipped
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        assertEquals(0, device.getCount(Command.BIND_BUFFER));
+        // The other array is unknown, so its binding goes through
+        cache.glBindVertexArray(first);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 0);
+        assertEquals(1, device.getCount(Command.BIND_BUFFER));
+    }
+
+    @Test
+    public void invalidateLetsEveryCallThrough() {
+        int array = cache.glGenVertexArrays();
+        cache.glUseProgram(3);
+        cache.glBindVertexArray(array);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        cache.glEnableVertexAttribArray(0);
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 0, 6);
+        cache.glActiveTexture(GL_TEXTURE0);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glEnable(GL_DEPTH_TEST);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+
+        cache.invalidate();
+        device.reset();
+        cache.resetCounters();
+        cache.glUseProgram(3);
+        cache.glBindVertexArray(array);
+        cache.glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, 20);
+        cache.glEnableVertexAttribArray(0);
+        cache.glBindBuffer(GL_ARRAY_BUFFER, 5);
+        cache.glBindBufferBase(GL_UNIFORM_BUFFER, 0, 6);
+        cache.glActiveTexture(GL_TEXTURE0);
+        cache.glBindTexture(GL_TEXTURE_2D, 10);
+        cache.glEnable(GL_DEPTH_TEST);
+        cache.glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+
+        assertEquals(0, cache.getSkippedCalls());
+        assertEquals(10, cache.getIssuedCalls());
+        assertEquals(10, device.getCommandCount());
+    }
+}
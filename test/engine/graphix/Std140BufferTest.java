@@ -0,0 +1,96 @@
+package engine.graphix;
+
+import org.joml.Matrix4f;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class Std140BufferTest {
+
+    private final Std140Buffer buffer = new Std140Buffer(256);
+
+    @AfterEach
+    public void tearDown() {
+        buffer.free();
+    }
+
+    @Test
+    public void aNewBufferIsAllDirty() {
+        assertTrue(buffer.isDirty());
+        assertEquals(0, buffer.getDirtyStart());
+        assertEquals(256, buffer.getDirtyEnd());
+    }
+
+    @Test
+    public void writingTheSameValueChangesNothing() {
+        buffer.clearDirty();
+        buffer.putFloat(16, 0.0f);
+        buffer.putVec4(32, 0, 0, 0, 0);
+        assertFalse(buffer.isDirty());
+
+        buffer.putFloat(16, 2.5f);
+        buffer.clearDirty();
+        buffer.putFloat(16, 2.5f);
+        assertFalse(buffer.isDirty());
+    }
+
+    @Test
+    public void changesMergeIntoOneRange() {
+        buffer.clearDirty();
+        buffer.putFloat(100, 1.0f);
+        assertEquals(100, buffer.getDirtyStart());
+        assertEquals(104, buffer.getDirtyEnd());
+
+        buffer.putVec3(16, 1, 2, 3);
+        assertEquals(16, buffer.getDirtyStart());
+        assertEquals(104, buffer.getDirtyEnd());
+
+        buffer.putInt(200, 7);
+        assertEquals(16, buffer.getDirtyStart());
+        assertEquals(204, buffer.getDirtyEnd());
+        assertEquals(204 - 16, buffer.getDirtyData().remaining());
+    }
+
+    @Test
+    public void onlyTheChangedComponentsAreDirty() {
+        buffer.putVec4(64, 1, 2, 3, 4);
+        buffer.clearDirty();
+        buffer.putVec4(64, 1, 2, 5, 4);
+        assertEquals(72, buffer.getDirtyStart());
+        assertEquals(76, buffer.getDirtyEnd());
+    }
+
+    @Test
+    public void matricesAreStoredAsColumns() {
+        Matrix4f matrix = new Matrix4f().translation(5, 6, 7);
+        buffer.putMat4(0, matrix);
+        // The translation is the fourth column
+        assertEquals(5.0f, buffer.getFloat(3 * Std140Buffer.VEC4_SIZE));
+        assertEquals(6.0f, buffer.getFloat(3 * Std140Buffer.VEC4_SIZE + 4));
+        assertEquals(7.0f, buffer.getFloat(3 * Std140Buffer.VEC4_SIZE + 8));
+        assertEquals(1.0f, buffer.getFloat(3 * Std140Buffer.VEC4_SIZE + 12));
+    }
+
+    @Test
+    public void growingKeepsTheDataAndDirtiesEverything() {
+        buffer.putFloat(252, 9.0f);
+        buffer.clearDirty();
+        buffer.grow(512);
+        assertEquals(512, buffer.size());
+        assertEquals(9.0f, buffer.getFloat(252));
+        assertEquals(0.0f, buffer.getFloat(508));
+        assertEquals(0, buffer.getDirtyStart());
+        assertEquals(512, buffer.getDirtyEnd());
+    }
+
+    @Test
+    public void offsetsAlignUp() {
+        assertEquals(0, Std140Buffer.align(0, 16));
+        assertEquals(16, Std140Buffer.align(12, 16));
+        assertEquals(16, Std140Buffer.align(16, 16));
+        assertEquals(256, Std140Buffer.align(64, 256));
+    }
+}
@@ -0,0 +1,92 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TextureArrayAllocatorTest {
+
+    /**
+     * Shapes of the arrays created, width, height, levels and layers
+     */
+    private final List<int[]> created = new ArrayList<>();
+
+    private final TextureArrayAllocator<int[]> allocator = new TextureArrayAllocator<>(
+            (width, height, levels, layers) -> {
+                int[] array = {width, height, levels, layers};
+                created.add(array);
+                return array;
+            }, 4);
+
+    @Test
+    public void imagesOfTheSameShapeShareAnArray() {
+        TextureArrayAllocator.Slot<int[]> a = allocator.allocate(256, 256, 9);
+        TextureArrayAllocator.Slot<int[]> b = allocator.allocate(256, 256, 9);
+        assertSame(a.getArray(), b.getArray());
+        assertEquals(0, a.getLayer());
+        assertEquals(1, b.getLayer());
+        assertEquals(1, allocator.getArrayCount());
+        assertEquals(4, created.get(0)[3]);
+    }
+
+    @Test
+    public void otherShapesGetTheirOwnArray() {
+        TextureArrayAllocator.Slot<int[]> a = allocator.allocate(256, 256, 9);
+        TextureArrayAllocator.Slot<int[]> b = allocator.allocate(128, 256, 9);
+        TextureArrayAllocator.Slot<int[]> c = allocator.allocate(256, 256, 1);
+        assertNotSame(a.getArray(), b.getArray());
+        assertNotSame(a.getArray(), c.getArray());
+        assertEquals(3, allocator.getArrayCount());
+        assertEquals(0, c.getLayer());
+        assertEquals(2, c.getArrayIndex());
+    }
+
+    @Test
+    public void aFullArrayStartsAnother() {
+        for (int i = 0; i < 4; i++) {
+            allocator.allocate(64, 64, 7);
+        }
+        TextureArrayAllocator.Slot<int[]> fifth = allocator.allocate(64, 64, 7);
+        assertEquals(1, fifth.getArrayIndex());
+        assertEquals(0, fifth.getLayer());
+        assertEquals(2, allocator.getArrayCount());
+        assertEquals(5, allocator.getUsedLayers());
+    }
+
+    @Test
+    public void freedLayersAreReusedLowestFirst() {
+        List<TextureArrayAllocator.Slot<int[]>> slots = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            slots.add(allocator.allocate(64, 64, 7));
+        }
+        allocator.free(slots.get(2));
+        allocator.free(slots.get(1));
+        assertEquals(2, allocator.getUsedLayers());
+        TextureArrayAllocator.Slot<int[]> reused = allocator.allocate(64, 64, 7);
+        assertEquals(0, reused.getArrayIndex());
+        assertEquals(1, reused.getLayer());
+        assertEquals(2, allocator.allocate(64, 64, 7).getLayer());
+        // Both freed layers are taken again before another array is created
+        assertEquals(1, allocator.getArrayCount());
+        assertEquals(1, allocator.allocate(64, 64, 7).getArrayIndex());
+    }
+
+    @Test
+    public void aSlotCanNotBeFreedTwice() {
+        TextureArrayAllocator.Slot<int[]> slot = allocator.allocate(64, 64, 7);
+        allocator.free(slot);
+        assertThrows(IllegalStateException.class, () -> allocator.free(slot));
+        assertEquals(0, allocator.getUsedLayers());
+        // The layer handed out again is a new slot, freeing the old one must not release it
+        TextureArrayAllocator.Slot<int[]> again = allocator.allocate(64, 64, 7);
+        assertEquals(slot.getLayer(), again.getLayer());
+        assertThrows(IllegalStateException.class, () -> allocator.free(slot));
+        assertEquals(1, allocator.getUsedLayers());
+    }
+}
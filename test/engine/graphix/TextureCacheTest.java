@@ -0,0 +1,183 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+
+/**
+ * Loads small PNG files through a {@link TextureCache} on a
+ * {@link RecordingDevice}. The textures are not mipmapped, so each one
+ * takes exactly its width times height times 4 bytes.
+ */
+public class TextureCacheTest {
+
+    private static final int SIZE = 8;
+
+    private static final long TEXTURE_BYTES = SIZE * SIZE * 4;
+
+    @TempDir
+    Path directory;
+
+    private RecordingDevice device;
+
+    @BeforeEach
+    public void setUp() {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(device);
+    }
+
+    @Test
+    public void referencesBalance() throws Exception {
+        TextureCache cache = new TextureCache();
+        String file = image("a");
+        Texture first = acquire(cache, file);
+        Texture second = acquire(cache, file);
+        assertSame(first, second);
+        assertEquals(1, device.getCount(RecordingDevice.Command.GEN_TEXTURES));
+
+        cache.release(first);
+        second.cleanup();
+        // Nobody references it, but it stays for a later load
+        assertFalse(first.isDeleted());
+        assertEquals(1, cache.getTextureCount());
+        assertThrows(IllegalStateException.class, () -> cache.release(first));
+
+        assertSame(first, acquire(cache, file));
+        cache.retain(first);
+        cache.release(first);
+        cache.release(first);
+        assertThrows(IllegalStateException.class, () -> cache.release(first));
+        assertThrows(IllegalArgumentException.class, () -> cache.release(new Texture(file)));
+    }
+
+    @Test
+    public void leastRecentlyReleasedTexturesGoFirst() throws Exception {
+        TextureCache cache = new TextureCache(3 * TEXTURE_BYTES);
+        Texture a = acquire(cache, image("a"));
+        Texture b = acquire(cache, image("b"));
+        Texture c = acquire(cache, image("c"));
+        cache.release(b);
+        cache.release(a);
+        cache.release(c);
+
+        Texture d = acquire(cache, image("d"));
+        assertTrue(b.isDeleted());
+        assertFalse(a.isDeleted() || c.isDeleted());
+
+        // Taking a back moves it out of the eviction order
+        assertSame(a, acquire(cache, image("a")));
+        Texture e = acquire(cache, image("e"));
+        assertTrue(c.isDeleted());
+        assertFalse(a.isDeleted() || d.isDeleted() || e.isDeleted());
+        assertEquals(3, cache.getTextureCount());
+
+        // An evicted texture is loaded again
+        Texture b2 = acquire(cache, image("b"));
+        assertNotSame(b, b2);
+        assertFalse(b2.isDeleted());
+    }
+
+    @Test
+    public void theBudgetOnlyEvictsUnreferencedTextures() throws Exception {
+        TextureCache cache = new TextureCache(2 * TEXTURE_BYTES);
+        Texture a = acquire(cache, image("a"));
+        Texture b = acquire(cache, image("b"));
+        Texture c = acquire(cache, image("c"));
+        // Referenced textures go over the budget rather than being deleted
+        assertEquals(3 * TEXTURE_BYTES, cache.getResidentBytes());
+        assertFalse(a.isDeleted() || b.isDeleted() || c.isDeleted());
+
+        cache.release(a);
+        assertTrue(a.isDeleted());
+        assertEquals(2 * TEXTURE_BYTES, cache.getResidentBytes());
+        cache.release(b);
+        assertFalse(b.isDeleted());
+
+        cache.setBudget(TEXTURE_BYTES);
+        assertTrue(b.isDeleted());
+        assertEquals(TEXTURE_BYTES, cache.getResidentBytes());
+        assertEquals(1, cache.getTextureCount());
+
+        cache.setBudget(0);
+        assertFalse(c.isDeleted());
+        cache.release(c);
+        assertTrue(c.isDeleted());
+        assertEquals(0, cache.getResidentBytes());
+        assertEquals(0, cache.getTextureCount());
+    }
+
+    @Test
+    public void mipmapsCountTowardsTheBudget() throws Exception {
+        TextureCache cache = new TextureCache();
+        cache.acquire(image("a"));
+        assertEquals(TEXTURE_BYTES * 4 / 3, cache.getResidentBytes());
+    }
+
+    @Test
+    public void addedTexturesAreNotReplaced() throws Exception {
+        TextureCache cache = new TextureCache(TEXTURE_BYTES);
+        String file = image("a");
+        Texture page = cache.add("atlas/page0", new Texture(file), GL_LINEAR, GL_LINEAR);
+        assertEquals(TEXTURE_BYTES, cache.getResidentBytes());
+        assertThrows(IllegalArgumentException.class,
+                () -> cache.add("atlas/page0", new Texture(file), GL_LINEAR, GL_LINEAR));
+        Texture loaded = acquire(cache, file);
+        assertThrows(IllegalArgumentException.class, () -> cache.add(file, new Texture(file), GL_LINEAR, GL_LINEAR));
+        // Other filters make another entry
+        cache.add("atlas/page0", new Texture(file), GL_NEAREST, GL_NEAREST);
+        assertEquals(3, cache.getTextureCount());
+
+        // Added textures are released and evicted like loaded ones
+        cache.release(page);
+        assertTrue(page.isDeleted());
+        assertFalse(loaded.isDeleted());
+    }
+
+    @Test
+    public void countersFollowTheLookups() throws Exception {
+        TextureCache cache = new TextureCache(TEXTURE_BYTES);
+        String fileA = image("a");
+        String fileB = image("b");
+        Texture a = acquire(cache, fileA);
+        acquire(cache, fileA);
+        cache.acquire(fileA, GL_NEAREST, GL_NEAREST);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0, cache.getEvictions());
+
+        cache.release(a);
+        cache.release(a);
+        acquire(cache, fileB);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getMisses());
+        acquire(cache, fileA);
+        assertEquals(4, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertTrue(cache.toString().contains("1 hits, 4 misses, 1 evictions"), cache.toString());
+    }
+
+    private static Texture acquire(TextureCache cache, String file) throws Exception {
+        return cache.acquire(file, GL_LINEAR, GL_LINEAR);
+    }
+
+    private String image(String name) throws Exception {
+        Path file = directory.resolve(name + ".png");
+        if (!file.toFile().exists()) {
+            ImageIO.write(new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB), "png", file.toFile());
+        }
+        return file.toString();
+    }
+}
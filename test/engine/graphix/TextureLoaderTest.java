@@ -0,0 +1,110 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Loads small PNG files through a {@link TextureLoader} on a
+ * {@link RecordingDevice}, which hands out plain direct buffers as mappings.
+ */
+public class TextureLoaderTest {
+
+    private static final int SIZE = 16;
+
+    private static final int PIXEL_BUFFERS = 2;
+
+    @TempDir
+    Path directory;
+
+    private RecordingDevice device;
+
+    private TextureLoader loader;
+
+    @BeforeEach
+    public void setUp() {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(device);
+        loader = new TextureLoader(2, PIXEL_BUFFERS, null);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        loader.cleanup();
+    }
+
+    @Test
+    public void finishAllUploadsFromMappedPixelBuffers() throws Exception {
+        loader.setSkipLevels(1);
+        List<Texture> textures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            textures.add(loader.load(image("t" + i)));
+        }
+        loader.finishAll();
+
+        for (Texture texture : textures) {
+            assertTrue(texture.isResident());
+            assertEquals(SIZE / 2, texture.getWidth());
+        }
+        assertEquals(0, loader.getPendingCount());
+        assertEquals(5, loader.getUploadedCount());
+        assertEquals(5, device.getCount(RecordingDevice.Command.MAP_BUFFER_RANGE));
+        assertEquals(5, device.getCount(RecordingDevice.Command.UNMAP_BUFFER));
+        // The placeholder, then levels 1 to 4 of each chain, 8x8 down to 1x1
+        assertEquals(1 + 4 * 5, device.getCount(RecordingDevice.Command.TEX_IMAGE_2D));
+    }
+
+    @Test
+    public void mappedBuffersAreUploadedOnALaterFrame() throws Exception {
+        int count = 5;
+        for (int i = 0; i < count; i++) {
+            loader.load(image("t" + i));
+        }
+        // The first frame can only map, nothing was written yet
+        assertEquals(0, loader.processUploads(Long.MAX_VALUE));
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (loader.getUploadedCount() < count && System.nanoTime() < deadline) {
+            loader.processUploads(Long.MAX_VALUE);
+            int mapped = device.getCount(RecordingDevice.Command.MAP_BUFFER_RANGE)
+                    - device.getCount(RecordingDevice.Command.UNMAP_BUFFER);
+            assertTrue(mapped <= PIXEL_BUFFERS, mapped + " buffers mapped");
+            Thread.sleep(1);
+        }
+        assertEquals(count, loader.getUploadedCount());
+        assertEquals(count, device.getCount(RecordingDevice.Command.UNMAP_BUFFER));
+    }
+
+    @Test
+    public void failedLoadKeepsPlaceholder() throws Exception {
+        Path broken = directory.resolve("broken.png");
+        Files.write(broken, new byte[]{1, 2, 3});
+        Texture texture = loader.load(broken.toString());
+        Texture loaded = loader.load(image("a"));
+        loader.finishAll();
+
+        assertFalse(texture.isResident());
+        assertTrue(loaded.isResident());
+        assertEquals(1, loader.getFailedCount());
+        assertEquals(1, loader.getUploadedCount());
+        assertEquals(1, device.getCount(RecordingDevice.Command.MAP_BUFFER_RANGE));
+    }
+
+    private String image(String name) throws Exception {
+        Path file = directory.resolve(name + ".png");
+        ImageIO.write(new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB), "png", file.toFile());
+        return file.toString();
+    }
+}
@@ -0,0 +1,134 @@
+package engine.graphix;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.lwjgl.opengl.GL11.GL_BYTE;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_SHORT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL30.GL_HALF_FLOAT;
+
+public class VertexFormatTest {
+
+    @Test
+    public void floatLayout() {
+        assertLayout(VertexFormat.FLOAT, 32, 0, 12, 20);
+    }
+
+    @Test
+    public void compactLayouts() {
+        // 6 bytes of position padded to 8, 4 of texture coordinate, 3 of normal padded to 4
+        assertLayout(VertexFormat.COMPACT, 16, 0, 8, 12);
+        assertLayout(VertexFormat.COMPACT_UNIT_UV, 16, 0, 8, 12);
+    }
+
+    @Test
+    public void mixedAttributesStartOnFourBytes() {
+        VertexFormat format = new VertexFormat(
+                new VertexFormat.Attribute(0, 1, GL_UNSIGNED_BYTE, false),
+                new VertexFormat.Attribute(1, 3, GL_FLOAT, false),
+                new VertexFormat.Attribute(2, 1, GL_SHORT, true),
+                new VertexFormat.Attribute(3, 2, GL_HALF_FLOAT, false),
+                new VertexFormat.Attribute(4, 4, GL_BYTE, true));
+        assertLayout(format, 28, 0, 4, 16, 20, 24);
+        assertEquals(2, new VertexFormat(new VertexFormat.Attribute(0, 1, GL_UNSIGNED_SHORT, false))
+                .getAttribute(0).getSize());
+        assertEquals(4, new VertexFormat(new VertexFormat.Attribute(0, 1, GL_UNSIGNED_SHORT, false)).getStride());
+    }
+
+    @Test
+    public void valuesComeBackAsTheGpuReadsThem() {
+        VertexFormat format = VertexFormat.COMPACT;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * format.getStride()).order(ByteOrder.nativeOrder());
+        format.put(buffer, 1, 0, new float[]{0.0f, 0.5f, 2.0f}, 0);
+        format.put(buffer, 1, 1, new float[]{0.25f, -3.5f}, 0);
+        format.put(buffer, 1, 2, new float[]{-1.0f, 0.0f, -2.0f}, 0);
+        assertEquals(0.0f, format.get(buffer, 1, 0, 0));
+        assertEquals(32768 / 65535.0f, format.get(buffer, 1, 0, 1));
+        // Normalized values are clamped to the range of the type
+        assertEquals(1.0f, format.get(buffer, 1, 0, 2));
+        assertEquals(0.25f, format.get(buffer, 1, 1, 0));
+        assertEquals(-3.5f, format.get(buffer, 1, 1, 1));
+        assertEquals(-1.0f, format.get(buffer, 1, 2, 0));
+        assertEquals(-1.0f, format.get(buffer, 1, 2, 2));
+        // The first vertex is left alone
+        for (int i = 0; i < format.getStride(); i++) {
+            assertEquals(0, buffer.get(i));
+        }
+    }
+
+    @Test
+    public void everyHalfFloatSurvivesARoundTrip() {
+        for (int bits = 0; bits <= 0xFFFF; bits++) {
+            short half = (short) bits;
+            float value = VertexFormat.fromHalf(half);
+            if (Float.isNaN(value)) {
+                assertTrue(isHalfNaN(VertexFormat.toHalf(value)), Integer.toHexString(bits));
+            } else {
+                assertEquals(half, VertexFormat.toHalf(value), Integer.toHexString(bits));
+            }
+        }
+    }
+
+    @Test
+    public void subnormalHalves() {
+        float smallest = 0x1p-24f;
+        assertEquals(smallest, VertexFormat.fromHalf((short) 0x0001));
+        assertEquals(0x3FF * smallest, VertexFormat.fromHalf((short) 0x03FF));
+        assertEquals((short) 0x0001, VertexFormat.toHalf(smallest));
+        assertEquals((short) 0x8001, VertexFormat.toHalf(-smallest));
+        // Halfway to the smallest subnormal rounds to even, which is zero
+        assertEquals((short) 0x0000, VertexFormat.toHalf(smallest / 2));
+        assertEquals((short) 0x0001, VertexFormat.toHalf(smallest * 0.75f));
+        assertEquals((short) 0x0000, VertexFormat.toHalf(Float.MIN_VALUE));
+        // The largest subnormal rounds up into the smallest normal
+        assertEquals((short) 0x0400, VertexFormat.toHalf(0x1p-14f - smallest / 4));
+        assertEquals((short) 0x8000, VertexFormat.toHalf(-0.0f));
+    }
+
+    @Test
+    public void infinitiesAndNaN() {
+        assertEquals((short) 0x7C00, VertexFormat.toHalf(Float.POSITIVE_INFINITY));
+        assertEquals((short) 0xFC00, VertexFormat.toHalf(Float.NEGATIVE_INFINITY));
+        assertEquals(Float.POSITIVE_INFINITY, VertexFormat.fromHalf((short) 0x7C00));
+        assertEquals(Float.NEGATIVE_INFINITY, VertexFormat.fromHalf((short) 0xFC00));
+        assertTrue(isHalfNaN(VertexFormat.toHalf(Float.NaN)));
+        // A NaN whose payload lives only in the low bits must not turn into infinity
+        assertTrue(isHalfNaN(VertexFormat.toHalf(Float.intBitsToFloat(0x7F800001))));
+        assertTrue(Float.isNaN(VertexFormat.fromHalf((short) 0x7E00)));
+        // 65504 is the largest half, halfway to the next step rounds to even, which is infinity
+        assertEquals((short) 0x7BFF, VertexFormat.toHalf(65504.0f));
+        assertEquals((short) 0x7BFF, VertexFormat.toHalf(65519.0f));
+        assertEquals((short) 0x7C00, VertexFormat.toHalf(65520.0f));
+        assertEquals((short) 0xFC00, VertexFormat.toHalf(-1e10f));
+    }
+
+    @Test
+    public void roundingIsToNearestEven() {
+        // The step of halves between 1 and 2 is 2^-10
+        float step = 0x1p-10f;
+        assertEquals((short) 0x3C00, VertexFormat.toHalf(1.0f + step / 2));
+        assertEquals((short) 0x3C02, VertexFormat.toHalf(1.0f + step * 1.5f));
+        assertEquals((short) 0x3C01, VertexFormat.toHalf(1.0f + step * 0.75f));
+        // A carry out of the mantissa moves to the next exponent
+        assertEquals((short) 0x4000, VertexFormat.toHalf(2.0f - step / 4));
+    }
+
+    private static boolean isHalfNaN(short half) {
+        return (half & 0x7C00) == 0x7C00 && (half & 0x3FF) != 0;
+    }
+
+    private static void assertLayout(VertexFormat format, int stride, int... offsets) {
+        assertEquals(stride, format.getStride());
+        assertEquals(offsets.length, format.getAttributeCount());
+        for (int i = 0; i < offsets.length; i++) {
+            assertEquals(offsets[i], format.getOffset(i), "attribute " + i);
+        }
+    }
+}
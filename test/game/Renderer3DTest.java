@@ -0,0 +1,155 @@
+package game;
+
+import engine.Window;
+import engine.graphix.Camera;
+import engine.graphix.DirectionalLight;
+import engine.graphix.Graphics;
+import engine.graphix.Material;
+import engine.graphix.Mesh;
+import engine.graphix.PointLight;
+import engine.graphix.RecordingDevice;
+import engine.graphix.Scene;
+import engine.graphix.SceneLight;
+import engine.graphix.SkyBox;
+import engine.graphix.StateCache;
+import engine.items.GameItem;
+import org.joml.Vector3f;
+import org.joml.Vector4f;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Renders scenes on a {@link RecordingDevice} and checks what reaches it.
+ * Run from the project directory, the sky box is the bundled cube.
+ */
+public class Renderer3DTest {
+
+    private static final float[] QUAD_POSITIONS = {0, 0, 0, 1, 0, 0, 0, 1, 0, 1, 1, 0};
+
+    private static final float[] QUAD_TEX_COORDS = {0, 0, 1, 0, 0, 1, 1, 1};
+
+    private static final float[] QUAD_NORMALS = {0, 0, 1, 0, 0, 1, 0, 0, 1, 0, 0, 1};
+
+    private static final int[] QUAD_INDICES = {0, 1, 2, 1, 3, 2};
+
+    /**
+     * Triangles of the sky box cube
+     */
+    private static final int SKY_BOX_TRIANGLES = 12;
+
+    @TempDir
+    Path directory;
+
+    private RecordingDevice device;
+
+    private Window window;
+
+    private Renderer3D renderer;
+
+    private Scene scene;
+
+    private final List<Mesh> meshes = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        device = new RecordingDevice(false);
+        Graphics.setDevice(new StateCache(device));
+        window = new Window("test", 1280, 720, false);
+        renderer = new Renderer3D();
+        renderer.init(window);
+
+        File skyTexture = directory.resolve("sky.png").toFile();
+        ImageIO.write(new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB), "png", skyTexture);
+        scene = new Scene();
+        scene.setSkyBox(new SkyBox("src/resources/models/cube.obj", skyTexture.getPath()));
+        SceneLight light = new SceneLight();
+        light.setAmbientLight(new Vector3f(0.3f));
+        light.setSkyBoxLight(new Vector3f(1.0f));
+        light.setPointLightList(new PointLight[]{new PointLight(new Vector3f(1.0f), new Vector3f(0, 1, -3), 1.0f,
+                new PointLight.Attenuation(0, 0, 1))});
+        light.setDirectionalLight(new DirectionalLight(new Vector3f(1.0f), new Vector3f(0, 1, 0), 1.0f));
+        scene.setSceneLight(light);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        for (Mesh mesh : meshes) {
+            mesh.cleanUp();
+        }
+        scene.getSkyBox().getMesh().cleanUp();
+        renderer.cleanup();
+    }
+
+    private Mesh createQuad(boolean instanced, float red) {
+        Mesh mesh = new Mesh(QUAD_POSITIONS, QUAD_TEX_COORDS, QUAD_NORMALS, QUAD_INDICES);
+        mesh.setInstanced(instanced);
+        mesh.setMaterial(new Material(new Vector4f(red, 0.5f, 0.5f, 1.0f), 0.5f));
+        meshes.add(mesh);
+        return mesh;
+    }
+
+    private static void addItems(List<GameItem> items, Mesh mesh, int count) {
+        for (int i = 0; i < count; i++) {
+            GameItem item = new GameItem(mesh);
+            item.setPosition(items.size() % 10, items.size() / 10, -5 - i);
+            items.add(item);
+        }
+    }
+
+    private void renderFrame() {
+        device.reset();
+        renderer.render(window, new Camera(), scene);
+    }
+
+    @Test
+    public void everyItemIsOneDraw() {
+        List<GameItem> items = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            addItems(items, createQuad(false, i / 3.0f), 4);
+        }
+        scene.setGameItems(items.toArray(new GameItem[0]));
+
+        renderFrame();
+        assertEquals(1 + 12, device.getDrawCalls());
+        assertEquals(SKY_BOX_TRIANGLES + 12 * 2, device.getTriangles());
+
+        // Nothing is left over from the first frame
+        renderFrame();
+        assertEquals(1 + 12, device.getDrawCalls());
+        assertEquals(SKY_BOX_TRIANGLES + 12 * 2, device.getTriangles());
+    }
+
+    @Test
+    public void instancedMeshesDrawAllTheirItemsAtOnce() {
+        List<GameItem> items = new ArrayList<>();
+        addItems(items, createQuad(true, 0.0f), Mesh.INSTANCING_THRESHOLD + 2);
+        // Too few items to draw instanced
+        addItems(items, createQuad(true, 0.5f), Mesh.INSTANCING_THRESHOLD - 1);
+        addItems(items, createQuad(false, 1.0f), 2);
+        scene.setGameItems(items.toArray(new GameItem[0]));
+
+        renderFrame();
+        assertEquals(1 + 1 + (Mesh.INSTANCING_THRESHOLD - 1) + 2, device.getDrawCalls());
+        assertEquals(SKY_BOX_TRIANGLES + items.size() * 2, device.getTriangles());
+        assertEquals(1, device.getCount(RecordingDevice.Command.DRAW_ELEMENTS_INSTANCED));
+    }
+
+    @Test
+    public void anEmptySceneDrawsTheSkyBox() {
+        scene.setGameItems(new GameItem[0]);
+        renderFrame();
+        assertEquals(1, device.getDrawCalls());
+        assertEquals(SKY_BOX_TRIANGLES, device.getTriangles());
+    }
+}